@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.bench;
+
+import edu.mit.streamjit.api.StreamCompiler;
+import edu.mit.streamjit.impl.blob.AbstractWriteOnlyBuffer;
+import edu.mit.streamjit.impl.blob.Buffer;
+import edu.mit.streamjit.impl.common.OutputBufferFactory;
+import edu.mit.streamjit.impl.compiler.CompilerStreamCompiler;
+import edu.mit.streamjit.impl.compiler2.Compiler2StreamCompiler;
+import edu.mit.streamjit.impl.concurrent.ConcurrentStreamCompiler;
+import edu.mit.streamjit.impl.interp.InterpreterStreamCompiler;
+
+/**
+ * Helpers shared by the JMH benchmarks.
+ */
+final class Benchmarks {
+	private Benchmarks() {}
+
+	/**
+	 * Creates the named StreamCompiler.  The interpreter ignores both cores
+	 * and multiplier; the concurrent compiler uses cores as its blob count and
+	 * ignores multiplier.
+	 * @param name one of Compiler2, Compiler, Interpreter or Concurrent
+	 * @param cores the number of cores to use
+	 * @param multiplier the schedule multiplier
+	 * @return a StreamCompiler
+	 */
+	static StreamCompiler makeCompiler(String name, int cores, int multiplier) {
+		switch (name) {
+			case "Compiler2":
+				return new Compiler2StreamCompiler().maxNumCores(cores).multiplier(multiplier);
+			case "Compiler":
+				return new CompilerStreamCompiler().maxNumCores(cores).multiplier(multiplier);
+			case "Interpreter":
+				return new InterpreterStreamCompiler();
+			case "Concurrent":
+				return new ConcurrentStreamCompiler(cores);
+			default:
+				throw new IllegalArgumentException("unknown compiler "+name);
+		}
+	}
+
+	/**
+	 * An output that discards items, counting them.
+	 */
+	static final class CountingOutputBufferFactory extends OutputBufferFactory {
+		private final CountingBuffer buffer = new CountingBuffer();
+		@Override
+		public Buffer createWritableBuffer(int writerMinSize) {
+			return buffer;
+		}
+		long getCount() {
+			return buffer.count;
+		}
+		private static final class CountingBuffer extends AbstractWriteOnlyBuffer {
+			//Only the blob's writing thread increments, but the benchmark
+			//thread reads.
+			private volatile long count;
+			@Override
+			public boolean write(Object t) {
+				++count;
+				return true;
+			}
+			@Override
+			public int write(Object[] data, int offset, int length) {
+				count += length;
+				return length;
+			}
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.bench;
+
+import edu.mit.streamjit.api.CompiledStream;
+import edu.mit.streamjit.api.Input;
+import edu.mit.streamjit.api.OneToOneElement;
+import edu.mit.streamjit.api.Output;
+import edu.mit.streamjit.api.StreamCompiler;
+import edu.mit.streamjit.test.Benchmark;
+import edu.mit.streamjit.test.Benchmarker;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time to compile the test/apps benchmarks, from a freshly
+ * instantiated graph until StreamCompiler.compile() returns.  The stream uses
+ * a ManualInput that is drained (outside the measurement) after each compile.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(3)
+public class CompileTimeBenchmark {
+	@Param({
+		"FMRadio 11, 64", "Beamformer", "FilterBankBenchmark", "DES2", "DCT2",
+		"BitonicSort (N = 32, asc)", "ChannelVocoder 16, 64", "FFT5", "MPEG2",
+	})
+	public String benchmark;
+	@Param({"Compiler2", "Compiler", "Interpreter", "Concurrent"})
+	public String compiler;
+	@Param({"1", "4"})
+	public int cores;
+	//Compile time shouldn't scale with the multiplier; see IndexFunctionForm.
+	@Param({"1", "64", "128", "4096"})
+	public int multiplier;
+	private Benchmark bm;
+	private StreamCompiler sc;
+	private OneToOneElement<Object, Object> graph;
+	private Input.ManualInput<Object> input;
+	private CompiledStream stream;
+
+	@Setup(Level.Trial)
+	public void findBenchmark() {
+		this.bm = Benchmarker.getBenchmarkByName(benchmark);
+		this.sc = Benchmarks.makeCompiler(compiler, cores, multiplier);
+	}
+
+	@Setup(Level.Invocation)
+	public void instantiate() {
+		this.graph = bm.instantiate();
+		this.input = Input.createManualInput();
+	}
+
+	@org.openjdk.jmh.annotations.Benchmark
+	public CompiledStream compile() {
+		return stream = sc.compile(graph, input, Output.blackHole());
+	}
+
+	@TearDown(Level.Invocation)
+	public void drain() throws InterruptedException {
+		input.drain();
+		stream.awaitDrained();
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.bench;
+
+import edu.mit.streamjit.api.Worker;
+import edu.mit.streamjit.impl.common.ConnectWorkersVisitor;
+import edu.mit.streamjit.impl.common.Workers;
+import edu.mit.streamjit.impl.compiler.Schedule;
+import edu.mit.streamjit.test.Benchmarker;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time to solve steady-state and init scheduling problems over
+ * the workers of the test/apps benchmarks, using the direct solver (falling
+ * back to the ILP solver as in the compilers) or always the ILP solver.  Only
+ * fixed-rate graphs are supported.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(3)
+public class ScheduleBenchmark {
+	@Param({
+		"FMRadio 11, 64", "Beamformer", "FilterBankBenchmark", "DES2", "DCT2",
+		"BitonicSort (N = 32, asc)", "ChannelVocoder 16, 64", "FFT5", "MPEG2",
+	})
+	public String benchmark;
+	@Param({"direct", "ILP"})
+	public String solver;
+	private Schedule.Builder<Worker<?, ?>> steadyState, init;
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void buildProblems() {
+		ConnectWorkersVisitor cwv = new ConnectWorkersVisitor();
+		Benchmarker.getBenchmarkByName(benchmark).instantiate().visit(cwv);
+		List<Worker<?, ?>> workers = Workers.getAllWorkersInGraph(cwv.getSource()).asList();
+
+		steadyState = Schedule.builder();
+		steadyState.addAll(workers);
+		for (Worker<?, ?> w : workers) {
+			if (!w.getPopRates().isEmpty())
+				steadyState.executeAtLeast(w, 1);
+			List<Worker<?, ?>> successors = (List)Workers.getSuccessors(w);
+			for (int i = 0; i < successors.size(); ++i) {
+				Worker<?, ?> s = successors.get(i);
+				int j = Workers.getPredecessors((Worker)s).indexOf(w);
+				steadyState.connect(w, s)
+						.push(w.getPushRates().get(i).max())
+						.pop(s.getPopRates().get(j).max())
+						.peek(s.getPeekRates().get(j).max())
+						.bufferExactly(0);
+			}
+		}
+		Schedule<Worker<?, ?>> schedule = steadyState.build();
+
+		//Like Compiler2's init schedule: buffer one steady-state's worth of
+		//input plus excess peeks ahead of each worker.
+		init = Schedule.builder();
+		init.addAll(workers).costs(0, 100);
+		for (Worker<?, ?> w : workers) {
+			List<Worker<?, ?>> successors = (List)Workers.getSuccessors(w);
+			for (int i = 0; i < successors.size(); ++i) {
+				Worker<?, ?> s = successors.get(i);
+				int j = Workers.getPredecessors((Worker)s).indexOf(w);
+				int pop = s.getPopRates().get(j).max(), peek = s.getPeekRates().get(j).max();
+				init.connect(w, s)
+						.push(w.getPushRates().get(i).max())
+						.pop(pop)
+						.peek(peek)
+						.bufferAtLeast(pop * schedule.getExecutions(s) + Math.max(0, peek - pop));
+			}
+		}
+	}
+
+	@org.openjdk.jmh.annotations.Benchmark
+	public Schedule<Worker<?, ?>> steadyState() {
+		return solver.equals("ILP") ? steadyState.buildWithILP() : steadyState.build();
+	}
+
+	@org.openjdk.jmh.annotations.Benchmark
+	public Schedule<Worker<?, ?>> init() {
+		return solver.equals("ILP") ? init.buildWithILP() : init.build();
+	}
+}
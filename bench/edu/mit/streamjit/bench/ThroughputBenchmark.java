@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.bench;
+
+import edu.mit.streamjit.api.CompiledStream;
+import edu.mit.streamjit.api.Input;
+import edu.mit.streamjit.api.StreamCompiler;
+import edu.mit.streamjit.impl.common.OutputBufferFactory;
+import edu.mit.streamjit.test.Benchmark;
+import edu.mit.streamjit.test.Benchmarker;
+import edu.mit.streamjit.test.Datasets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures steady-state throughput (output items per second) of the test/apps
+ * benchmarks.  The stream is compiled once per fork (so compile time is not
+ * included; see CompileTimeBenchmark) and runs on a cycled copy of its first
+ * dataset, so it never runs out of input; the forked JVM is torn down with the
+ * stream still running.  Each benchmark operation is one output item.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(3)
+public class ThroughputBenchmark {
+	/**
+	 * The number of output items to wait for per invocation.  Large enough
+	 * that the polling interval doesn't matter, small enough to get many
+	 * invocations per iteration for the slow compilers.
+	 */
+	private static final int ITEMS_PER_INVOCATION = 1024;
+	private static final long POLL_INTERVAL_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+	@Param({
+		"FMRadio 11, 64", "Beamformer", "FilterBankBenchmark", "DES2", "DCT2",
+		"BitonicSort (N = 32, asc)", "ChannelVocoder 16, 64", "FFT5", "MPEG2",
+	})
+	public String benchmark;
+	@Param({"Compiler2", "Compiler", "Interpreter", "Concurrent"})
+	public String compiler;
+	@Param({"1", "4"})
+	public int cores;
+	@Param({"1", "64"})
+	public int multiplier;
+	private Benchmarks.CountingOutputBufferFactory output;
+	private CompiledStream stream;
+	/**
+	 * The number of output items accounted for by completed invocations.
+	 */
+	private long consumed;
+
+	@Setup
+	public void compile() {
+		Benchmark bm = Benchmarker.getBenchmarkByName(benchmark);
+		Input<Object> input = Datasets.cycle(bm.inputs().get(0).input());
+		StreamCompiler sc = Benchmarks.makeCompiler(compiler, cores, multiplier);
+		this.output = new Benchmarks.CountingOutputBufferFactory();
+		this.stream = sc.compile(bm.instantiate(), input, OutputBufferFactory.wrap(output));
+	}
+
+	@org.openjdk.jmh.annotations.Benchmark
+	@OperationsPerInvocation(ITEMS_PER_INVOCATION)
+	public long items() {
+		//Items produced while we weren't looking are credited to the next
+		//invocations, so the total is exact over an iteration.
+		long target = consumed + ITEMS_PER_INVOCATION;
+		long count;
+		while ((count = output.getCount()) < target) {
+			if (stream.isDrained())
+				throw new IllegalStateException(benchmark+" drained with infinite input");
+			LockSupport.parkNanos(POLL_INTERVAL_NANOS);
+		}
+		consumed = target;
+		return count;
+	}
+}
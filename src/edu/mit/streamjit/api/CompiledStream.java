@@ -21,6 +21,7 @@
  */
 package edu.mit.streamjit.api;
 
+import edu.mit.streamjit.impl.blob.ProfilingMetrics;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -46,4 +47,14 @@ public interface CompiledStream {
 
 	public void awaitDrained() throws InterruptedException;
 	public void awaitDrained(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException;
+
+	/**
+	 * Returns profiling metrics for this stream, if the compiler was asked to
+	 * instrument it (e.g., Compiler2StreamCompiler.profile()), or null.  The
+	 * returned object is updated as the stream runs.
+	 * @return this stream's profiling metrics, or null
+	 */
+	public default ProfilingMetrics getMetrics() {
+		return null;
+	}
 }
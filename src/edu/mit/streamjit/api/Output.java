@@ -21,12 +21,21 @@
  */
 package edu.mit.streamjit.api;
 
+import static com.google.common.base.Preconditions.*;
+import com.google.common.primitives.Primitives;
 import edu.mit.streamjit.impl.blob.AbstractWriteOnlyBuffer;
 import edu.mit.streamjit.impl.blob.Buffer;
 import edu.mit.streamjit.impl.blob.Buffers;
+import edu.mit.streamjit.impl.common.NIOBuffers;
 import edu.mit.streamjit.impl.common.OutputBufferFactory;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Collection;
 import java.util.concurrent.ArrayBlockingQueue;
 
@@ -101,10 +110,52 @@ public class Output<O> {
 		});
 	}
 
-	//TODO: we need flush() for good performance, and close() to avoid leaks.
-//	public static <O> Output<O> toBinaryFile(Path path, Class<I> type) {
-//
-//	}
+	/**
+	 * Creates an Output that writes primitive data items to the given file in
+	 * the given byte order, without any framing, such that the file can be
+	 * read back with {@link Input#fromBinaryFile(Path, Class, ByteOrder)}.
+	 * The file is created if necessary and truncated when a stream using this
+	 * Output is compiled.
+	 * <p/>
+	 * Items are accumulated in a direct buffer and written to the file in
+	 * bulk.  The file is flushed and closed when the stream has drained; it is
+	 * complete once {@link CompiledStream#awaitDrained()} returns.
+	 * @param <O> the type of Output to create
+	 * @param path the file to write
+	 * @param type the type of data items (a primitive wrapper type)
+	 * @param byteOrder the byte order of the file
+	 * @return an Output writing to the given file
+	 */
+	public static <O> Output<O> toBinaryFile(Path path, Class<O> type, ByteOrder byteOrder) {
+		checkArgument(Primitives.isWrapperType(type) && !type.equals(Void.class) && !type.equals(Boolean.class), "not a primitive wrapper type: %s", type);
+		class BinaryFileRealOutput extends OutputBufferFactory {
+			private static final int BUFFER_BYTES = 1 << 16;
+			private final Path path;
+			private final Class<?> type;
+			private final ByteOrder byteOrder;
+			private BinaryFileRealOutput(Path path, Class<?> type, ByteOrder byteOrder) {
+				this.path = path;
+				this.type = type;
+				this.byteOrder = byteOrder;
+			}
+			@Override
+			public Buffer createWritableBuffer(int writerMinSize) {
+				FileChannel fc;
+				try {
+					fc = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+				} catch (IOException ex) {
+					throw new RuntimeException(ex);
+				}
+				ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(byteOrder);
+				return NIOBuffers.writer(fc, buffer, type);
+			}
+			@Override
+			public String toString() {
+				return "Output.toBinaryFile("+path+", "+type.getSimpleName()+".class, "+byteOrder+")";
+			}
+		}
+		return new Output<>(new BinaryFileRealOutput(path, type, byteOrder));
+	}
 
 	public static <O> Output<O> toCollection(final Collection<? super O> coll) {
 		return new Output<>(new OutputBufferFactory() {
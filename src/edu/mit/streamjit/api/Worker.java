@@ -123,14 +123,7 @@ public abstract class Worker<I, O> implements StreamElement<I, O> {
 	 * processing messages.
 	 */
 	void doWork() {
-		while (!messages.isEmpty() && messages.get(0).timeToReceive == executions+1) {
-			Message m = messages.remove(0);
-			try {
-				m.method.invoke(this, m.args);
-			} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
-				throw new IllegalStreamGraphException("Bad stuff happened while processing message", ex);
-			}
-		}
+		receiveMessages();
 
 		//TODO: implement prework here
 		work();
@@ -138,6 +131,43 @@ public abstract class Worker<I, O> implements StreamElement<I, O> {
 		++executions;
 	}
 
+	/**
+	 * Returns true if any messages are due to be delivered before this
+	 * worker's next execution.
+	 * @return true if any messages are due
+	 */
+	boolean hasMessagesDue() {
+		synchronized (messages) {
+			return !messages.isEmpty() && messages.get(0).timeToReceive == executions+1;
+		}
+	}
+
+	/**
+	 * Delivers messages due before this worker's next execution.  Called by
+	 * doWork() and by compilers before compiled executions.  (Messages may be
+	 * sent from other threads when the sender is compiled, hence the locking.)
+	 */
+	void receiveMessages() {
+		synchronized (messages) {
+			while (!messages.isEmpty() && messages.get(0).timeToReceive == executions+1) {
+				Message m = messages.remove(0);
+				try {
+					m.method.invoke(this, m.args);
+				} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
+					throw new IllegalStreamGraphException("Bad stuff happened while processing message", ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts an execution of this worker performed by compiled code rather
+	 * than doWork().
+	 */
+	void countExecution() {
+		++executions;
+	}
+
 	/**
 	 * Returns the number of completed executions of this worker.
 	 * @return the number of completed executions of this worker.
@@ -149,11 +179,13 @@ public abstract class Worker<I, O> implements StreamElement<I, O> {
 	void sendMessage(Message message) {
 		if (message.timeToReceive <= executions)
 			throw new AssertionError("Message delivery missed: "+executions+", "+message);
-		//Insert in order sorted by time-to-receive.
-		int insertionPoint = Collections.binarySearch(messages, message);
-		if (insertionPoint < 0)
-			insertionPoint = -(insertionPoint + 1);
-		messages.add(insertionPoint, message);
+		synchronized (messages) {
+			//Insert in order sorted by time-to-receive.
+			int insertionPoint = Collections.binarySearch(messages, message);
+			if (insertionPoint < 0)
+				insertionPoint = -(insertionPoint + 1);
+			messages.add(insertionPoint, message);
+		}
 	}
 
 	int getIdentifier() {
@@ -208,6 +240,18 @@ public abstract class Worker<I, O> implements StreamElement<I, O> {
 			worker.sendMessage(message);
 		}
 		@Override
+		protected boolean hasMessagesDue_impl(Worker<?, ?> worker) {
+			return worker.hasMessagesDue();
+		}
+		@Override
+		protected void receiveMessages_impl(Worker<?, ?> worker) {
+			worker.receiveMessages();
+		}
+		@Override
+		protected void countExecution_impl(Worker<?, ?> worker) {
+			worker.countExecution();
+		}
+		@Override
 		protected int getIdentifier_impl(Worker<?, ?> worker) {
 			return worker.getIdentifier();
 		}
@@ -74,6 +74,23 @@ public interface Blob {
 	 */
 	public int getMinimumBufferCapacity(Token token);
 
+	/**
+	 * Returns the type of data items on the edge represented by the given
+	 * token, if this Blob knows it, or Object.class otherwise.  Runtime systems
+	 * may use this to install a primitive-specialized Buffer (e.g.,
+	 * {@link FloatBuffer} for a Float edge) that this Blob can read or write
+	 * without boxing; see {@link Buffers#concurrentBuffer(java.lang.Class, int)}.
+	 * Blobs must still accept any Buffer implementation.
+	 * @param token the edge to get the type of
+	 * @return the type of data items on the given edge, or Object.class
+	 * @throws IllegalArgumentException if the given token is not an input or
+	 * output edge of this Blob
+	 */
+	public default Class<?> getBufferType(Token token) {
+		checkArgument(getInputs().contains(token) || getOutputs().contains(token), "%s not an input or output of this blob", token);
+		return Object.class;
+	}
+
 	/**
 	 * Installs buffers for this Blob's input and output edges.
 	 * @param buffers an immutable map of tokens to the buffer on the corresponding
@@ -97,6 +114,26 @@ public interface Blob {
 	 */
 	public Runnable getCoreCode(int core);
 
+	/**
+	 * Returns the CPU this Blob would like the given core's thread pinned to,
+	 * or -1 if it has no preference (the default), leaving placement to the
+	 * host.
+	 * @param core the core to get a CPU for
+	 * @return the preferred CPU for the core, or -1
+	 */
+	public default int getPreferredCpu(int core) {
+		return -1;
+	}
+
+	/**
+	 * Returns the profiling metrics this Blob is collecting, or null if this
+	 * Blob is not instrumented (the default).
+	 * @return this Blob's profiling metrics, or null
+	 */
+	public default ProfilingMetrics getMetrics() {
+		return null;
+	}
+
 	/**
 	 * Signals this Blob that its inputs have finished producing data and to
 	 * drain its portion of the stream graph as fully as possible (produce as
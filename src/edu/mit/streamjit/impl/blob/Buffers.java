@@ -25,6 +25,10 @@ import static com.google.common.base.Preconditions.*;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
+import com.google.common.primitives.Primitives;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Array;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
@@ -201,6 +205,116 @@ public final class Buffers {
 		}
 	}
 
+	/**
+	 * Flushes and closes the given buffer if it implements Closeable, as
+	 * Buffers for overall output to files do.  Stream compilers call this on
+	 * their overall output buffer once the stream has drained, so the output
+	 * is complete when {@link edu.mit.streamjit.api.CompiledStream#awaitDrained()}
+	 * returns.
+	 * @param buffer the buffer to close (may be null)
+	 */
+	public static void closeIfCloseable(Buffer buffer) {
+		if (!(buffer instanceof Closeable))
+			return;
+		try {
+			((Closeable)buffer).close();
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Returns a nonblocking Buffer suitable for an edge carrying data items of
+	 * the given type between one reader and one writer.  If the type is a
+	 * wrapper type (other than Boolean or Void), the returned Buffer stores
+	 * unboxed primitives and implements the corresponding primitive Buffer
+	 * interface (e.g., {@link FloatBuffer} for Float); otherwise it is an
+	 * {@link SPSCArrayBuffer}.  Either way, the returned Buffer must not be
+	 * used by more than one reader or more than one writer at a time.
+	 * @param type the type of data items on the edge, or Object.class if
+	 * unknown
+	 * @param capacity the buffer's capacity
+	 * @return a Buffer for the given type
+	 */
+	public static Buffer concurrentBuffer(Class<?> type, int capacity) {
+		checkNotNull(type);
+		if (Primitives.isWrapperType(type) && !type.equals(Boolean.class) && !type.equals(Void.class))
+			return ConcurrentPrimitiveArrayBuffer.create(type, capacity);
+		return new SPSCArrayBuffer(capacity);
+	}
+
+	/**
+	 * Reads up to length data items from the given buffer into the given array
+	 * (of any component type) beginning at offset.  If the array is a
+	 * primitive array and the buffer implements the corresponding primitive
+	 * Buffer interface, the items are transferred without boxing; otherwise
+	 * they are read as Objects and unboxed into the array as necessary.
+	 * @param buffer the buffer to read from
+	 * @param array the array to write into
+	 * @param offset the offset to begin writing at
+	 * @param length the number of items to read
+	 * @return the number of data items read (between 0 and length, inclusive)
+	 */
+	public static int read(Buffer buffer, Object array, int offset, int length) {
+		if (array instanceof Object[])
+			return buffer.read((Object[])array, offset, length);
+		if (array instanceof int[] && buffer instanceof IntBuffer)
+			return ((IntBuffer)buffer).read((int[])array, offset, length);
+		if (array instanceof float[] && buffer instanceof FloatBuffer)
+			return ((FloatBuffer)buffer).read((float[])array, offset, length);
+		if (array instanceof double[] && buffer instanceof DoubleBuffer)
+			return ((DoubleBuffer)buffer).read((double[])array, offset, length);
+		if (array instanceof long[] && buffer instanceof LongBuffer)
+			return ((LongBuffer)buffer).read((long[])array, offset, length);
+		if (array instanceof byte[] && buffer instanceof ByteBuffer)
+			return ((ByteBuffer)buffer).read((byte[])array, offset, length);
+		if (array instanceof short[] && buffer instanceof ShortBuffer)
+			return ((ShortBuffer)buffer).read((short[])array, offset, length);
+		if (array instanceof char[] && buffer instanceof CharBuffer)
+			return ((CharBuffer)buffer).read((char[])array, offset, length);
+		Object[] data = new Object[length];
+		int read = buffer.read(data, 0, length);
+		for (int i = 0; i < read; ++i)
+			Array.set(array, offset + i, data[i]);
+		return read;
+	}
+
+	/**
+	 * Writes up to length data items from the given array (of any component
+	 * type) beginning at offset into the given buffer.  If the array is a
+	 * primitive array and the buffer implements the corresponding primitive
+	 * Buffer interface, the items are transferred without boxing; otherwise
+	 * they are boxed as necessary and written as Objects.
+	 * @param buffer the buffer to write into
+	 * @param array the array to read from
+	 * @param offset the offset to begin reading from
+	 * @param length the number of items to write
+	 * @return the number of data items written (between 0 and length,
+	 * inclusive)
+	 */
+	public static int write(Buffer buffer, Object array, int offset, int length) {
+		if (array instanceof Object[])
+			return buffer.write((Object[])array, offset, length);
+		if (array instanceof int[] && buffer instanceof IntBuffer)
+			return ((IntBuffer)buffer).write((int[])array, offset, length);
+		if (array instanceof float[] && buffer instanceof FloatBuffer)
+			return ((FloatBuffer)buffer).write((float[])array, offset, length);
+		if (array instanceof double[] && buffer instanceof DoubleBuffer)
+			return ((DoubleBuffer)buffer).write((double[])array, offset, length);
+		if (array instanceof long[] && buffer instanceof LongBuffer)
+			return ((LongBuffer)buffer).write((long[])array, offset, length);
+		if (array instanceof byte[] && buffer instanceof ByteBuffer)
+			return ((ByteBuffer)buffer).write((byte[])array, offset, length);
+		if (array instanceof short[] && buffer instanceof ShortBuffer)
+			return ((ShortBuffer)buffer).write((short[])array, offset, length);
+		if (array instanceof char[] && buffer instanceof CharBuffer)
+			return ((CharBuffer)buffer).write((char[])array, offset, length);
+		Object[] data = new Object[length];
+		for (int i = 0; i < length; ++i)
+			data[i] = Array.get(array, offset + i);
+		return buffer.write(data, 0, length);
+	}
+
 	/**
 	 * Returns a read-only view of the given buffer.  (Note that reads still
 	 * modify the buffer as usual; this wrapper merely prohibits the write
@@ -0,0 +1,537 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.blob;
+
+import static com.google.common.base.Preconditions.*;
+import com.google.common.collect.ImmutableList;
+import edu.mit.streamjit.util.Template;
+import java.lang.reflect.Array;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Buffer implementation storing unboxed primitives in a circular array,
+ * supporting one reader and one writer (the common case for inter-Blob edges).
+ * This implementation does not block.
+ * <p/>
+ * Subclasses exist for each primitive type (other than boolean), implementing
+ * the matching primitive Buffer interface (e.g., {@link FloatBuffer}); the
+ * Object-based methods box and unbox as necessary.  Use
+ * {@link #create(java.lang.Class, int)} or
+ * {@link Buffers#concurrentBuffer(java.lang.Class, int)} to create instances.
+ * <p/>
+ * This class uses code generation to work around the lack of generics over
+ * primitive types.
+ */
+public abstract class ConcurrentPrimitiveArrayBuffer extends AbstractBuffer {
+	private final Object array;
+	private final int capacity;
+	/**
+	 * The logical indices of the next item to read and write, respectively.
+	 * Only the reader modifies head and only the writer modifies tail.
+	 */
+	private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+	private ConcurrentPrimitiveArrayBuffer(Object array) {
+		this.array = array;
+		this.capacity = Array.getLength(array);
+		checkArgument(capacity > 0, "capacity must be positive: %s", capacity);
+	}
+
+	/**
+	 * Returns the physical index of the next item to read, or -1 if this buffer
+	 * is empty.  Call {@link #endRead()} after reading the item.
+	 */
+	protected final int beginRead() {
+		long h = head.get();
+		if (h == tail.get())
+			return -1;
+		return (int)(h % capacity);
+	}
+
+	protected final void endRead() {
+		head.lazySet(head.get() + 1);
+	}
+
+	/**
+	 * Returns the physical index of the next item to write, or -1 if this
+	 * buffer is full.  Call {@link #endWrite()} after writing the item.
+	 */
+	protected final int beginWrite() {
+		long t = tail.get();
+		if (t - head.get() == capacity)
+			return -1;
+		return (int)(t % capacity);
+	}
+
+	protected final void endWrite() {
+		tail.lazySet(tail.get() + 1);
+	}
+
+	/**
+	 * Copies up to length items into the given array (of the same primitive
+	 * type as this buffer), publishing the read once for the whole batch.
+	 */
+	protected final int bulkRead(Object data, int offset, int length) {
+		long h = head.get();
+		int count = (int)Math.min(length, tail.get() - h);
+		if (count <= 0)
+			return 0;
+		copy(h, data, offset, count, true);
+		head.lazySet(h + count);
+		return count;
+	}
+
+	protected final boolean bulkReadAll(Object data, int offset, int length) {
+		checkArgument(length <= capacity, "requested %s items from buffer of capacity %s", length, capacity);
+		long h = head.get();
+		if (tail.get() - h < length)
+			return false;
+		copy(h, data, offset, length, true);
+		head.lazySet(h + length);
+		return true;
+	}
+
+	/**
+	 * Copies up to length items from the given array (of the same primitive
+	 * type as this buffer), publishing the write once for the whole batch.
+	 */
+	protected final int bulkWrite(Object data, int offset, int length) {
+		long t = tail.get();
+		int count = (int)Math.min(length, capacity - (t - head.get()));
+		if (count <= 0)
+			return 0;
+		copy(t, data, offset, count, false);
+		tail.lazySet(t + count);
+		return count;
+	}
+
+	/**
+	 * Copies between our circular array starting at the given logical index
+	 * and the given linear array, in at most two System.arraycopy calls.
+	 */
+	private void copy(long logicalIndex, Object data, int offset, int count, boolean out) {
+		int begin = (int)(logicalIndex % capacity);
+		int firstRun = Math.min(count, capacity - begin);
+		if (out) {
+			System.arraycopy(array, begin, data, offset, firstRun);
+			System.arraycopy(array, 0, data, offset + firstRun, count - firstRun);
+		} else {
+			System.arraycopy(data, offset, array, begin, firstRun);
+			System.arraycopy(data, offset + firstRun, array, 0, count - firstRun);
+		}
+	}
+
+	@Override
+	public int size() {
+		return (int)(tail.get() - head.get());
+	}
+
+	@Override
+	public int capacity() {
+		return capacity;
+	}
+
+	//<editor-fold defaultstate="collapsed" desc="Code generator">
+	private static final class CodeGenRecord {
+		private final String name, prim, wrapper;
+		private CodeGenRecord(Class<?> prim, Class<?> wrapper) {
+			this.prim = prim.getSimpleName();
+			this.name = this.prim.substring(0, 1).toUpperCase(Locale.ROOT) + this.prim.substring(1);
+			this.wrapper = wrapper.getSimpleName();
+		}
+	}
+
+	private static final ImmutableList<CodeGenRecord> RECORDS = ImmutableList.of(
+			new CodeGenRecord(byte.class, Byte.class),
+			new CodeGenRecord(short.class, Short.class),
+			new CodeGenRecord(char.class, Character.class),
+			new CodeGenRecord(int.class, Integer.class),
+			new CodeGenRecord(long.class, Long.class),
+			new CodeGenRecord(float.class, Float.class),
+			new CodeGenRecord(double.class, Double.class)
+			);
+
+	private static final String BUFFER_TEMPLATE =
+			"	public static final class ${name}ArrayBuffer extends ConcurrentPrimitiveArrayBuffer implements ${name}Buffer {\n"+
+			"		private final ${prim}[] array;\n"+
+			"		public ${name}ArrayBuffer(int capacity) {\n"+
+			"			this(new ${prim}[capacity]);\n"+
+			"		}\n"+
+			"		private ${name}ArrayBuffer(${prim}[] array) {\n"+
+			"			super(array);\n"+
+			"			this.array = array;\n"+
+			"		}\n"+
+			"		@Override\n"+
+			"		public Object read() {\n"+
+			"			int i = beginRead();\n"+
+			"			if (i == -1)\n"+
+			"				return null;\n"+
+			"			${prim} r = array[i];\n"+
+			"			endRead();\n"+
+			"			return r;\n"+
+			"		}\n"+
+			"		@Override\n"+
+			"		public boolean write(Object t) {\n"+
+			"			${prim} x = (${wrapper})t;\n"+
+			"			int i = beginWrite();\n"+
+			"			if (i == -1)\n"+
+			"				return false;\n"+
+			"			array[i] = x;\n"+
+			"			endWrite();\n"+
+			"			return true;\n"+
+			"		}\n"+
+			"		@Override\n"+
+			"		public int read(${prim}[] data, int offset, int length) {\n"+
+			"			return bulkRead(data, offset, length);\n"+
+			"		}\n"+
+			"		@Override\n"+
+			"		public boolean readAll(${prim}[] data, int offset) {\n"+
+			"			return bulkReadAll(data, offset, data.length - offset);\n"+
+			"		}\n"+
+			"		@Override\n"+
+			"		public int write(${prim}[] data, int offset, int length) {\n"+
+			"			return bulkWrite(data, offset, length);\n"+
+			"		}\n"+
+			"	}\n";
+	private static final String CREATE_HEADER =
+			"	public static Buffer create(Class<?> type, int capacity) {\n";
+	private static final String CREATE_PER_RECORD =
+			"		if (type == ${wrapper}.class) return new ${name}ArrayBuffer(capacity);\n";
+	private static final String CREATE_FOOTER =
+			"		throw new AssertionError(\"not a wrapper type: \"+type);\n"+
+			"	}\n";
+
+	public static void main(String[] args) {
+		StringBuffer sb = new StringBuffer();
+		sb.append("	//<editor-fold defaultstate=\"collapsed\" desc=\"Generated code\">\n");
+		sb.append(CREATE_HEADER);
+		Template ifReturn = new Template(CREATE_PER_RECORD);
+		ifReturn.replaceReflect(RECORDS, sb);
+		sb.append(CREATE_FOOTER);
+		Template bufferClass = new Template(BUFFER_TEMPLATE);
+		bufferClass.replaceReflect(RECORDS, sb);
+		sb.append("	//</editor-fold>\n");
+		System.out.println(sb.toString());
+		System.out.flush();
+	}
+	//</editor-fold>
+
+	//<editor-fold defaultstate="collapsed" desc="Generated code">
+	public static Buffer create(Class<?> type, int capacity) {
+		if (type == Byte.class) return new ByteArrayBuffer(capacity);
+		if (type == Short.class) return new ShortArrayBuffer(capacity);
+		if (type == Character.class) return new CharArrayBuffer(capacity);
+		if (type == Integer.class) return new IntArrayBuffer(capacity);
+		if (type == Long.class) return new LongArrayBuffer(capacity);
+		if (type == Float.class) return new FloatArrayBuffer(capacity);
+		if (type == Double.class) return new DoubleArrayBuffer(capacity);
+		throw new AssertionError("not a wrapper type: "+type);
+	}
+	public static final class ByteArrayBuffer extends ConcurrentPrimitiveArrayBuffer implements ByteBuffer {
+		private final byte[] array;
+		public ByteArrayBuffer(int capacity) {
+			this(new byte[capacity]);
+		}
+		private ByteArrayBuffer(byte[] array) {
+			super(array);
+			this.array = array;
+		}
+		@Override
+		public Object read() {
+			int i = beginRead();
+			if (i == -1)
+				return null;
+			byte r = array[i];
+			endRead();
+			return r;
+		}
+		@Override
+		public boolean write(Object t) {
+			byte x = (Byte)t;
+			int i = beginWrite();
+			if (i == -1)
+				return false;
+			array[i] = x;
+			endWrite();
+			return true;
+		}
+		@Override
+		public int read(byte[] data, int offset, int length) {
+			return bulkRead(data, offset, length);
+		}
+		@Override
+		public boolean readAll(byte[] data, int offset) {
+			return bulkReadAll(data, offset, data.length - offset);
+		}
+		@Override
+		public int write(byte[] data, int offset, int length) {
+			return bulkWrite(data, offset, length);
+		}
+	}
+	public static final class ShortArrayBuffer extends ConcurrentPrimitiveArrayBuffer implements ShortBuffer {
+		private final short[] array;
+		public ShortArrayBuffer(int capacity) {
+			this(new short[capacity]);
+		}
+		private ShortArrayBuffer(short[] array) {
+			super(array);
+			this.array = array;
+		}
+		@Override
+		public Object read() {
+			int i = beginRead();
+			if (i == -1)
+				return null;
+			short r = array[i];
+			endRead();
+			return r;
+		}
+		@Override
+		public boolean write(Object t) {
+			short x = (Short)t;
+			int i = beginWrite();
+			if (i == -1)
+				return false;
+			array[i] = x;
+			endWrite();
+			return true;
+		}
+		@Override
+		public int read(short[] data, int offset, int length) {
+			return bulkRead(data, offset, length);
+		}
+		@Override
+		public boolean readAll(short[] data, int offset) {
+			return bulkReadAll(data, offset, data.length - offset);
+		}
+		@Override
+		public int write(short[] data, int offset, int length) {
+			return bulkWrite(data, offset, length);
+		}
+	}
+	public static final class CharArrayBuffer extends ConcurrentPrimitiveArrayBuffer implements CharBuffer {
+		private final char[] array;
+		public CharArrayBuffer(int capacity) {
+			this(new char[capacity]);
+		}
+		private CharArrayBuffer(char[] array) {
+			super(array);
+			this.array = array;
+		}
+		@Override
+		public Object read() {
+			int i = beginRead();
+			if (i == -1)
+				return null;
+			char r = array[i];
+			endRead();
+			return r;
+		}
+		@Override
+		public boolean write(Object t) {
+			char x = (Character)t;
+			int i = beginWrite();
+			if (i == -1)
+				return false;
+			array[i] = x;
+			endWrite();
+			return true;
+		}
+		@Override
+		public int read(char[] data, int offset, int length) {
+			return bulkRead(data, offset, length);
+		}
+		@Override
+		public boolean readAll(char[] data, int offset) {
+			return bulkReadAll(data, offset, data.length - offset);
+		}
+		@Override
+		public int write(char[] data, int offset, int length) {
+			return bulkWrite(data, offset, length);
+		}
+	}
+	public static final class IntArrayBuffer extends ConcurrentPrimitiveArrayBuffer implements IntBuffer {
+		private final int[] array;
+		public IntArrayBuffer(int capacity) {
+			this(new int[capacity]);
+		}
+		private IntArrayBuffer(int[] array) {
+			super(array);
+			this.array = array;
+		}
+		@Override
+		public Object read() {
+			int i = beginRead();
+			if (i == -1)
+				return null;
+			int r = array[i];
+			endRead();
+			return r;
+		}
+		@Override
+		public boolean write(Object t) {
+			int x = (Integer)t;
+			int i = beginWrite();
+			if (i == -1)
+				return false;
+			array[i] = x;
+			endWrite();
+			return true;
+		}
+		@Override
+		public int read(int[] data, int offset, int length) {
+			return bulkRead(data, offset, length);
+		}
+		@Override
+		public boolean readAll(int[] data, int offset) {
+			return bulkReadAll(data, offset, data.length - offset);
+		}
+		@Override
+		public int write(int[] data, int offset, int length) {
+			return bulkWrite(data, offset, length);
+		}
+	}
+	public static final class LongArrayBuffer extends ConcurrentPrimitiveArrayBuffer implements LongBuffer {
+		private final long[] array;
+		public LongArrayBuffer(int capacity) {
+			this(new long[capacity]);
+		}
+		private LongArrayBuffer(long[] array) {
+			super(array);
+			this.array = array;
+		}
+		@Override
+		public Object read() {
+			int i = beginRead();
+			if (i == -1)
+				return null;
+			long r = array[i];
+			endRead();
+			return r;
+		}
+		@Override
+		public boolean write(Object t) {
+			long x = (Long)t;
+			int i = beginWrite();
+			if (i == -1)
+				return false;
+			array[i] = x;
+			endWrite();
+			return true;
+		}
+		@Override
+		public int read(long[] data, int offset, int length) {
+			return bulkRead(data, offset, length);
+		}
+		@Override
+		public boolean readAll(long[] data, int offset) {
+			return bulkReadAll(data, offset, data.length - offset);
+		}
+		@Override
+		public int write(long[] data, int offset, int length) {
+			return bulkWrite(data, offset, length);
+		}
+	}
+	public static final class FloatArrayBuffer extends ConcurrentPrimitiveArrayBuffer implements FloatBuffer {
+		private final float[] array;
+		public FloatArrayBuffer(int capacity) {
+			this(new float[capacity]);
+		}
+		private FloatArrayBuffer(float[] array) {
+			super(array);
+			this.array = array;
+		}
+		@Override
+		public Object read() {
+			int i = beginRead();
+			if (i == -1)
+				return null;
+			float r = array[i];
+			endRead();
+			return r;
+		}
+		@Override
+		public boolean write(Object t) {
+			float x = (Float)t;
+			int i = beginWrite();
+			if (i == -1)
+				return false;
+			array[i] = x;
+			endWrite();
+			return true;
+		}
+		@Override
+		public int read(float[] data, int offset, int length) {
+			return bulkRead(data, offset, length);
+		}
+		@Override
+		public boolean readAll(float[] data, int offset) {
+			return bulkReadAll(data, offset, data.length - offset);
+		}
+		@Override
+		public int write(float[] data, int offset, int length) {
+			return bulkWrite(data, offset, length);
+		}
+	}
+	public static final class DoubleArrayBuffer extends ConcurrentPrimitiveArrayBuffer implements DoubleBuffer {
+		private final double[] array;
+		public DoubleArrayBuffer(int capacity) {
+			this(new double[capacity]);
+		}
+		private DoubleArrayBuffer(double[] array) {
+			super(array);
+			this.array = array;
+		}
+		@Override
+		public Object read() {
+			int i = beginRead();
+			if (i == -1)
+				return null;
+			double r = array[i];
+			endRead();
+			return r;
+		}
+		@Override
+		public boolean write(Object t) {
+			double x = (Double)t;
+			int i = beginWrite();
+			if (i == -1)
+				return false;
+			array[i] = x;
+			endWrite();
+			return true;
+		}
+		@Override
+		public int read(double[] data, int offset, int length) {
+			return bulkRead(data, offset, length);
+		}
+		@Override
+		public boolean readAll(double[] data, int offset) {
+			return bulkReadAll(data, offset, data.length - offset);
+		}
+		@Override
+		public int write(double[] data, int offset, int length) {
+			return bulkWrite(data, offset, length);
+		}
+	}
+	//</editor-fold>
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.blob;
+
+/**
+ * A Buffer of ints.  In addition to the Object-based methods inherited from
+ * Buffer (which box and unbox Integer instances), IntBuffer provides bulk
+ * operations on int arrays so data items can cross Blob boundaries without
+ * boxing.  Blobs storing unboxed ints should check for this interface when
+ * their buffers are installed.
+ * <p/>
+ * (Not to be confused with java.nio.IntBuffer.)
+ * @see Buffers#concurrentBuffer(java.lang.Class, int)
+ */
+public interface IntBuffer extends Buffer {
+	/**
+	 * Reads up to length data items from this buffer into the given array
+	 * beginning at offset.
+	 * @param data the array to write into
+	 * @param offset the offset to begin writing at
+	 * @param length the number of items to read
+	 * @return the number of data items read (between 0 and length, inclusive)
+	 * @see Buffer#read(java.lang.Object[], int, int)
+	 */
+	public int read(int[] data, int offset, int length);
+
+	/**
+	 * Atomically reads enough data items from this buffer to fill the given
+	 * array starting from offset, or does nothing.
+	 * @param data the array to read into
+	 * @param offset the offset to begin writing at
+	 * @return true iff data was read
+	 * @throws IllegalArgumentException if the number of items requested is
+	 * greater than this buffer's capacity
+	 * @see Buffer#readAll(java.lang.Object[], int)
+	 */
+	public boolean readAll(int[] data, int offset);
+
+	/**
+	 * Writes up to length data items from the given array beginning at offset
+	 * into this buffer.
+	 * @param data the array to read from
+	 * @param offset the offset to begin reading from
+	 * @param length the number of data items to write
+	 * @return the number of data items written (between 0 and length,
+	 * inclusive)
+	 * @see Buffer#write(java.lang.Object[], int, int)
+	 */
+	public int write(int[] data, int offset, int length);
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.blob;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Table;
+import edu.mit.streamjit.impl.blob.Blob.Token;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steady-state profiling metrics collected by an instrumented Blob: time spent
+ * executing each group on each core, time spent executing each core's code and
+ * waiting at the barrier, and items moved through each input and output token.
+ * Group timers identify groups and cores by the same integers used in
+ * configuration parameter names (e.g., UnrollCore%dGroup%d).  Core and barrier
+ * timers are indexed by core thread, which differs when some cores have no
+ * work.
+ * <p/>
+ * Timers and counters are registered while compiling and updated by exactly
+ * one thread each while the blob runs; the query methods may be called from
+ * any thread at any time and return a snapshot.
+ */
+public final class ProfilingMetrics {
+	private final Table<Integer, Integer, Timer> groupTimers = HashBasedTable.create();
+	private final Map<Integer, Timer> coreTimers = new HashMap<>(), barrierTimers = new HashMap<>();
+	private final Map<Token, Counter> readCounters = new HashMap<>(), writeCounters = new HashMap<>();
+	private volatile long storageFootprint;
+	public ProfilingMetrics() {}
+
+	/**
+	 * Accumulates elapsed time between calls to start() and stop().  Not
+	 * thread-safe for updates; one thread must own each Timer.
+	 */
+	public static final class Timer {
+		private long startTime;
+		private volatile long elapsed, count;
+		private Timer() {}
+		public void start() {
+			startTime = System.nanoTime();
+		}
+		public void stop() {
+			elapsed += System.nanoTime() - startTime;
+			++count;
+		}
+		public long elapsed(TimeUnit unit) {
+			return unit.convert(elapsed, TimeUnit.NANOSECONDS);
+		}
+		public long count() {
+			return count;
+		}
+	}
+
+	/**
+	 * Accumulates a count of items.  Not thread-safe for updates; one thread
+	 * must own each Counter.
+	 */
+	public static final class Counter {
+		private volatile long total, count;
+		private Counter() {}
+		public void add(long items) {
+			total += items;
+			++count;
+		}
+		public long total() {
+			return total;
+		}
+		public long count() {
+			return count;
+		}
+	}
+
+	public synchronized Timer groupTimer(int core, int group) {
+		Timer t = groupTimers.get(core, group);
+		if (t == null)
+			groupTimers.put(core, group, t = new Timer());
+		return t;
+	}
+
+	public synchronized Timer coreTimer(int core) {
+		return getOrCreate(coreTimers, core);
+	}
+
+	public synchronized Timer barrierTimer(int core) {
+		return getOrCreate(barrierTimers, core);
+	}
+
+	public synchronized Counter readCounter(Token token) {
+		Counter c = readCounters.get(token);
+		if (c == null)
+			readCounters.put(token, c = new Counter());
+		return c;
+	}
+
+	public synchronized Counter writeCounter(Token token) {
+		Counter c = writeCounters.get(token);
+		if (c == null)
+			writeCounters.put(token, c = new Counter());
+		return c;
+	}
+
+	private static <K> Timer getOrCreate(Map<K, Timer> map, K key) {
+		Timer t = map.get(key);
+		if (t == null)
+			map.put(key, t = new Timer());
+		return t;
+	}
+
+	/**
+	 * Records the bytes of steady-state storage the blob allocated.
+	 * @param bytes the storage footprint in bytes
+	 */
+	public void setStorageFootprint(long bytes) {
+		this.storageFootprint = bytes;
+	}
+
+	/**
+	 * Returns the bytes of steady-state storage the blob allocated, counting
+	 * storage shared between edges once.
+	 * @return the storage footprint in bytes
+	 */
+	public long getStorageFootprint() {
+		return storageFootprint;
+	}
+
+	/**
+	 * Returns the number of steady-state iterations completed, as counted by
+	 * the core that has completed the most.
+	 * @return the number of completed steady-state iterations
+	 */
+	public synchronized long getIterations() {
+		long iterations = 0;
+		for (Timer t : coreTimers.values())
+			iterations = Math.max(iterations, t.count());
+		return iterations;
+	}
+
+	/**
+	 * Returns the total time spent executing each group on each core, as a
+	 * table from core to group to time.
+	 * @param unit the time unit of the result
+	 * @return the time spent executing each group on each core
+	 */
+	public synchronized ImmutableTable<Integer, Integer, Long> getGroupTimes(TimeUnit unit) {
+		ImmutableTable.Builder<Integer, Integer, Long> builder = ImmutableTable.builder();
+		for (Table.Cell<Integer, Integer, Timer> cell : groupTimers.cellSet())
+			builder.put(cell.getRowKey(), cell.getColumnKey(), cell.getValue().elapsed(unit));
+		return builder.build();
+	}
+
+	/**
+	 * Returns the total time each core spent executing its steady-state code
+	 * (not including I/O or waiting at the barrier).
+	 * @param unit the time unit of the result
+	 * @return the time spent executing each core's code
+	 */
+	public synchronized ImmutableMap<Integer, Long> getCoreTimes(TimeUnit unit) {
+		return times(coreTimers, unit);
+	}
+
+	/**
+	 * Returns the total time each core spent waiting at the barrier, including
+	 * time spent waiting for I/O performed in the barrier action.  Large
+	 * differences between cores indicate load imbalance.
+	 * @param unit the time unit of the result
+	 * @return the time spent by each core waiting at the barrier
+	 */
+	public synchronized ImmutableMap<Integer, Long> getBarrierWaitTimes(TimeUnit unit) {
+		return times(barrierTimers, unit);
+	}
+
+	/**
+	 * Returns the total number of items read from each input token by
+	 * steady-state read instructions.
+	 * @return the number of items read from each input
+	 */
+	public synchronized ImmutableMap<Token, Long> getItemsRead() {
+		return totals(readCounters);
+	}
+
+	/**
+	 * Returns the total number of items written to each output token by
+	 * steady-state write instructions.
+	 * @return the number of items written to each output
+	 */
+	public synchronized ImmutableMap<Token, Long> getItemsWritten() {
+		return totals(writeCounters);
+	}
+
+	private static ImmutableMap<Integer, Long> times(Map<Integer, Timer> timers, TimeUnit unit) {
+		Map<Integer, Long> sorted = new TreeMap<>();
+		for (Map.Entry<Integer, Timer> e : timers.entrySet())
+			sorted.put(e.getKey(), e.getValue().elapsed(unit));
+		return ImmutableMap.copyOf(sorted);
+	}
+
+	private static ImmutableMap<Token, Long> totals(Map<Token, Counter> counters) {
+		Map<Token, Long> sorted = new TreeMap<>();
+		for (Map.Entry<Token, Counter> e : counters.entrySet())
+			sorted.put(e.getKey(), e.getValue().total());
+		return ImmutableMap.copyOf(sorted);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d iterations; core times (ms) %s; barrier waits (ms) %s; group times (ms) %s; items read %s; items written %s",
+				getIterations(), getCoreTimes(TimeUnit.MILLISECONDS), getBarrierWaitTimes(TimeUnit.MILLISECONDS),
+				getGroupTimes(TimeUnit.MILLISECONDS).rowMap(), getItemsRead(), getItemsWritten());
+	}
+}
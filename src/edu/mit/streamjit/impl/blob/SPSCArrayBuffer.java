@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.blob;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A nonblocking Buffer for exactly one reader thread and one writer thread,
+ * implemented as a ring buffer.
+ * <p/>
+ * Unlike {@link ConcurrentArrayBuffer}, no compare-and-set is required: only
+ * the reader advances the head and only the writer advances the tail, and
+ * each publishes its progress with a lazy (ordered) store.  Each side also
+ * caches the last-seen value of the other side's index, only rereading it
+ * when the cached value suggests the buffer is empty (or full).  The bulk
+ * read and write methods transfer as many items as possible with a single
+ * publication.  The head and tail are padded onto separate cache lines to
+ * avoid false sharing between the reader and writer.
+ * <p/>
+ * Concurrent use by more than one reader or more than one writer will corrupt
+ * this buffer.
+ */
+public final class SPSCArrayBuffer extends AbstractBuffer {
+	private final Object[] array;
+	/**
+	 * array.length - 1; array.length is a power of two.
+	 */
+	private final int mask;
+	private final int capacity;
+	/**
+	 * head.value is the logical index of the next item to read; head.cache is
+	 * the reader's cached copy of tail.value.
+	 */
+	private final Index head = new Index();
+	/**
+	 * tail.value is the logical index of the next item to write; tail.cache is
+	 * the writer's cached copy of head.value.
+	 */
+	private final Index tail = new Index();
+	public SPSCArrayBuffer(int capacity) {
+		checkArgument(capacity > 0, "capacity must be positive: %s", capacity);
+		checkArgument(capacity <= 1 << 30, "capacity too large: %s", capacity);
+		this.capacity = capacity;
+		int length = Integer.highestOneBit(capacity);
+		if (length < capacity)
+			length <<= 1;
+		this.array = new Object[length];
+		this.mask = length - 1;
+	}
+
+	@Override
+	public Object read() {
+		long h = head.value;
+		if (h == head.cache && h == (head.cache = tail.value))
+			return null;
+		int i = (int)h & mask;
+		Object obj = array[i];
+		array[i] = null;
+		head.lazySet(h + 1);
+		return obj;
+	}
+
+	@Override
+	public int read(Object[] data, int offset, int length) {
+		long h = head.value;
+		int count = (int)Math.min(length, head.cache - h);
+		if (count < length)
+			count = (int)Math.min(length, (head.cache = tail.value) - h);
+		if (count <= 0)
+			return 0;
+		copyOut(h, data, offset, count);
+		head.lazySet(h + count);
+		return count;
+	}
+
+	@Override
+	public boolean readAll(Object[] data, int offset) {
+		int required = data.length - offset;
+		checkArgument(required <= capacity, "requested %s items from buffer of capacity %s", required, capacity);
+		long h = head.value;
+		if (head.cache - h < required && (head.cache = tail.value) - h < required)
+			return false;
+		copyOut(h, data, offset, required);
+		head.lazySet(h + required);
+		return true;
+	}
+
+	@Override
+	public boolean write(Object t) {
+		checkNotNull(t);
+		long tl = tail.value;
+		if (tl - tail.cache == capacity && tl - (tail.cache = head.value) == capacity)
+			return false;
+		array[(int)tl & mask] = t;
+		tail.lazySet(tl + 1);
+		return true;
+	}
+
+	@Override
+	public int write(Object[] data, int offset, int length) {
+		long tl = tail.value;
+		int count = (int)Math.min(length, capacity - (tl - tail.cache));
+		if (count < length)
+			count = (int)Math.min(length, capacity - (tl - (tail.cache = head.value)));
+		if (count <= 0)
+			return 0;
+		int begin = (int)tl & mask;
+		int firstRun = Math.min(count, array.length - begin);
+		System.arraycopy(data, offset, array, begin, firstRun);
+		System.arraycopy(data, offset + firstRun, array, 0, count - firstRun);
+		tail.lazySet(tl + count);
+		return count;
+	}
+
+	/**
+	 * Copies count items starting at the given logical index into data,
+	 * clearing the copied slots so we don't retain references to items already
+	 * read.
+	 */
+	private void copyOut(long logicalIndex, Object[] data, int offset, int count) {
+		for (int i = 0; i < count; ++i) {
+			int j = (int)(logicalIndex + i) & mask;
+			data[offset + i] = array[j];
+			array[j] = null;
+		}
+	}
+
+	@Override
+	public int size() {
+		//Read head first so we never see more items than were written.
+		long h = head.value;
+		return (int)(tail.value - h);
+	}
+
+	@Override
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * A volatile index padded on both sides so it shares a cache line with
+	 * nothing else but its owner's cached copy of the opposite index.  (The VM
+	 * lays out fields of the same size in declaration order.)
+	 */
+	@SuppressWarnings("unused")
+	private static final class Index {
+		private static final AtomicLongFieldUpdater<Index> UPDATER = AtomicLongFieldUpdater.newUpdater(Index.class, "value");
+		private long p0, p1, p2, p3, p4, p5, p6;
+		private volatile long value;
+		/**
+		 * Only accessed by the thread owning this index.
+		 */
+		private long cache;
+		private long q0, q1, q2, q3, q4, q5, q6;
+		private void lazySet(long newValue) {
+			UPDATER.lazySet(this, newValue);
+		}
+	}
+}
@@ -37,12 +37,14 @@ import edu.mit.streamjit.impl.blob.Blob.Token;
 import edu.mit.streamjit.impl.blob.BlobFactory;
 import edu.mit.streamjit.impl.blob.Buffer;
 import edu.mit.streamjit.impl.blob.Buffers;
+import edu.mit.streamjit.impl.blob.ProfilingMetrics;
 import edu.mit.streamjit.util.affinity.Affinity;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A StreamCompiler that uses a BlobFactory to make a Blob for the entire graph.
@@ -69,6 +71,19 @@ public class BlobHostStreamCompiler implements StreamCompiler {
 		ConnectWorkersVisitor cwv = new ConnectWorkersVisitor();
 		stream.visit(cwv);
 		ImmutableSet<Worker<?, ?>> workers = Workers.getAllWorkersInGraph(cwv.getSource());
+		return compile(workers, input, output);
+	}
+
+	/**
+	 * Compiles the given workers, which have already been connected.  This
+	 * implementation hosts them in a single blob, but subclasses can override
+	 * this to host them some other way.
+	 * @param workers all the workers in the graph
+	 * @param input the overall input
+	 * @param output the overall output
+	 * @return the compiled stream
+	 */
+	protected <I, O> CompiledStream compile(ImmutableSet<Worker<?, ?>> workers, Input<I> input, Output<O> output) {
 		Configuration config = getConfiguration(workers);
 		Blob blob = makeBlob(workers, config, input, output);
 
@@ -88,12 +103,15 @@ public class BlobHostStreamCompiler implements StreamCompiler {
 		affinityList = affinityParam != null ? affinityParam.getUniverse() : ImmutableList.copyOf(Affinity.getMaximalAffinity());
 		ImmutableList.Builder<PollingCoreThread> threadsBuilder = ImmutableList.builder();
 		for (int i = 0; i < blob.getCoreCount(); ++i) {
-			PollingCoreThread thread = new PollingCoreThread(affinityList.get(i % affinityList.size()), blob.getCoreCode(i), blob.toString()+"-"+i);
+			//An explicit $affinity overrides the blob's own placement.
+			int cpu = affinityParam == null && blob.getPreferredCpu(i) != -1 ?
+					blob.getPreferredCpu(i) : affinityList.get(i % affinityList.size());
+			PollingCoreThread thread = new PollingCoreThread(cpu, blob.getCoreCode(i), blob.toString()+"-"+i);
 			threadsBuilder.add(thread);
 		}
 		ImmutableList<PollingCoreThread> threads = threadsBuilder.build();
 
-		final BlobHostCompiledStream cs = new BlobHostCompiledStream(blob, threads);
+		final BlobHostCompiledStream cs = new BlobHostCompiledStream(blob, threads, outputBuffer);
 		if (input instanceof ManualInput)
 			InputBufferFactory.setManualInputDelegate((ManualInput<I>)input, new InputBufferFactory.AbstractManualInputDelegate<I>(inputBuffer) {
 				@Override
@@ -158,13 +176,30 @@ public class BlobHostStreamCompiler implements StreamCompiler {
 	private static final class BlobHostCompiledStream implements CompiledStream {
 		private final Blob blob;
 		private final ImmutableList<PollingCoreThread> threads;
+		/**
+		 * The overall output buffer, if we created it (otherwise null).  Closed
+		 * (if Closeable) once all threads have terminated.
+		 */
+		private final Buffer outputBuffer;
+		private final AtomicInteger liveThreads;
 		private final CountDownLatch latch;
-		private BlobHostCompiledStream(Blob blob, ImmutableList<PollingCoreThread> threads) {
+		private BlobHostCompiledStream(Blob blob, ImmutableList<PollingCoreThread> threads, Buffer outputBuffer) {
 			this.blob = blob;
 			this.threads = threads;
-			this.latch = new CountDownLatch(this.threads.size());
+			this.outputBuffer = outputBuffer;
+			this.liveThreads = new AtomicInteger(this.threads.size());
+			this.latch = new CountDownLatch(1);
 			for (PollingCoreThread t : this.threads)
-				t.latch = this.latch;
+				t.stream = this;
+		}
+
+		private void threadTerminated() {
+			if (liveThreads.decrementAndGet() == 0)
+				try {
+					Buffers.closeIfCloseable(outputBuffer);
+				} finally {
+					latch.countDown();
+				}
 		}
 
 		private void drain() {
@@ -179,10 +214,7 @@ public class BlobHostStreamCompiler implements StreamCompiler {
 
 		@Override
 		public boolean isDrained() {
-			for (Thread t : threads)
-				if (t.isAlive())
-					return false;
-			return true;
+			return latch.getCount() == 0;
 		}
 
 		public void awaitDrained() throws InterruptedException {
@@ -193,13 +225,18 @@ public class BlobHostStreamCompiler implements StreamCompiler {
 			if (!latch.await(timeout, unit))
 				throw new TimeoutException();
 		}
+
+		@Override
+		public ProfilingMetrics getMetrics() {
+			return blob.getMetrics();
+		}
 	}
 
 	private static final class PollingCoreThread extends Thread {
 		private final int cpu;
 		private final Runnable coreCode;
 		private volatile boolean running = true;
-		private volatile CountDownLatch latch;
+		private volatile BlobHostCompiledStream stream;
 		private PollingCoreThread(int cpu, Runnable target, String name) {
 			super(name);
 			this.cpu = cpu;
@@ -207,14 +244,19 @@ public class BlobHostStreamCompiler implements StreamCompiler {
 		}
 		@Override
 		public void run() {
-			Affinity.setThreadAffinity(ImmutableSet.of(cpu));
 			try {
+				try {
+					Affinity.setThreadAffinity(ImmutableSet.of(cpu));
+				} catch (RuntimeException ex) {
+					//e.g., the CPU isn't in our cpuset; run unpinned.
+					System.err.println(getName()+": can't pin to CPU "+cpu+", running unpinned: "+ex);
+				}
 				while (running)
 					coreCode.run();
 			} finally {
 				//Whether we terminated normally or exceptionally, we need to
 				//count down so waiting threads don't get stuck.
-				latch.countDown();
+				stream.threadTerminated();
 			}
 		}
 		public void requestStop() {
@@ -1342,9 +1342,15 @@ public final class Configuration {
 			this.values = new double[length];
 			Arrays.fill(this.values, 1.0/length);
 		}
-		private CompositionParameter(String name, double[] values) {
+		/**
+		 * Creates a CompositionParameter with the given values, which must sum
+		 * to 1 (within a small tolerance).
+		 * @param name the parameter name
+		 * @param values the values
+		 */
+		public CompositionParameter(String name, double[] values) {
 			this.name = name;
-			this.values = values;
+			this.values = values.clone();
 			double sum = 0;
 			for (double d : values)
 				sum += d;
@@ -22,10 +22,15 @@
 package edu.mit.streamjit.impl.common;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Primitives;
 import edu.mit.streamjit.impl.blob.AbstractReadOnlyBuffer;
+import edu.mit.streamjit.impl.blob.AbstractWriteOnlyBuffer;
 import edu.mit.streamjit.impl.blob.Buffer;
 import edu.mit.streamjit.impl.blob.PeekableBuffer;
 import edu.mit.streamjit.util.Template;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
@@ -34,10 +39,15 @@ import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.LongBuffer;
 import java.nio.ShortBuffer;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Creates Buffer instances wrapping java.nio.Buffers of a particular type.
  * <p/>
+ * This class also creates write-only Buffers that accumulate items in a
+ * ByteBuffer and write them to a channel when it fills; these Buffers implement
+ * Flushable and Closeable, and must be closed when the stream has drained.
+ * <p/>
  * This class uses code generation to work around the fact that NIO provides
  * ByteBuffer, IntBuffer etc. rather than Buffer<Byte>, Buffer<Integer> etc.
  * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
@@ -46,13 +56,57 @@ import java.nio.ShortBuffer;
 public final class NIOBuffers {
 	private NIOBuffers() {}
 
+	/**
+	 * A write-only Buffer that accumulates items in a ByteBuffer (via a typed
+	 * view maintained by the subclass), writing them to a channel when the
+	 * ByteBuffer fills or when this Buffer is flushed.
+	 */
+	private abstract static class ChannelWriter extends AbstractWriteOnlyBuffer implements Flushable, Closeable {
+		private final WritableByteChannel channel;
+		private final ByteBuffer out;
+		private final int itemBytes;
+		private boolean closed = false;
+		protected ChannelWriter(WritableByteChannel channel, ByteBuffer buffer, int itemBytes) {
+			this.channel = channel;
+			this.out = buffer.duplicate();
+			this.itemBytes = itemBytes;
+		}
+		/**
+		 * Writes the first items items in the ByteBuffer to the channel.
+		 * @param items the number of items to write
+		 */
+		protected final void writeOut(int items) {
+			out.clear().limit(items * itemBytes);
+			try {
+				while (out.hasRemaining())
+					channel.write(out);
+			} catch (IOException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+		@Override
+		public abstract void flush();
+		@Override
+		public void close() throws IOException {
+			//Both the blob host (when draining) and user code may close us.
+			if (closed) return;
+			closed = true;
+			try {
+				flush();
+			} finally {
+				channel.close();
+			}
+		}
+	}
+
 	//<editor-fold defaultstate="collapsed" desc="Code generator">
 	private static final class CodeGenRecord {
-		private final String buffer, wrapper;
+		private final String buffer, wrapper, prim;
 		private final String toTypeBuffer;
 		private CodeGenRecord(Class<?> buffer, Class<?> wrapper) {
 			this.buffer = buffer.getSimpleName();
 			this.wrapper = wrapper.getSimpleName();
+			this.prim = Primitives.unwrap(wrapper).getSimpleName();
 			this.toTypeBuffer = buffer == ByteBuffer.class ? "" : ".as"+buffer.getSimpleName()+"()";
 		}
 	}
@@ -68,7 +122,7 @@ public final class NIOBuffers {
 			);
 
 	private static final String BUFFER_TEMPLATE =
-			"	private static final class ${buffer}Buffer extends AbstractReadOnlyBuffer implements PeekableBuffer{\n"+
+			"	private static final class ${buffer}Buffer extends AbstractReadOnlyBuffer implements PeekableBuffer, edu.mit.streamjit.impl.blob.${buffer} {\n"+
 			"		private final ${buffer} buffer;\n"+
 			"		private ${buffer}Buffer(${buffer} buffer) {\n"+
 			"			this.buffer = buffer;\n"+
@@ -82,6 +136,23 @@ public final class NIOBuffers {
 			"			}\n"+
 			"		}\n"+
 			"		@Override\n"+
+			"		public int read(${prim}[] data, int offset, int length) {\n"+
+			"			int read = Math.min(length, buffer.remaining());\n"+
+			"			buffer.get(data, offset, read);\n"+
+			"			return read;\n"+
+			"		}\n"+
+			"		@Override\n"+
+			"		public boolean readAll(${prim}[] data, int offset) {\n"+
+			"			if (data.length - offset > buffer.remaining())\n"+
+			"				return false;\n"+
+			"			buffer.get(data, offset, data.length - offset);\n"+
+			"			return true;\n"+
+			"		}\n"+
+			"		@Override\n"+
+			"		public int write(${prim}[] data, int offset, int length) {\n"+
+			"			throw new UnsupportedOperationException(\"read-only buffer\");\n"+
+			"		}\n"+
+			"		@Override\n"+
 			"		public int size() {\n"+
 			"			return buffer.remaining();\n"+
 			"		}\n"+
@@ -101,6 +172,50 @@ public final class NIOBuffers {
 	private static final String WRAP_FOOTER =
 			"		throw new AssertionError(\"not a wrapper type: \"+type);\n"+
 			"	}\n";
+	private static final String WRITER_TEMPLATE =
+			"	private static final class ${buffer}Writer extends ChannelWriter implements edu.mit.streamjit.impl.blob.${buffer} {\n"+
+			"		private final ${buffer} view;\n"+
+			"		private ${buffer}Writer(WritableByteChannel channel, ByteBuffer buffer) {\n"+
+			"			super(channel, buffer, ${wrapper}.BYTES);\n"+
+			"			this.view = buffer${toTypeBuffer};\n"+
+			"		}\n"+
+			"		@Override\n"+
+			"		public boolean write(Object t) {\n"+
+			"			if (!view.hasRemaining())\n"+
+			"				flush();\n"+
+			"			view.put((${wrapper})t);\n"+
+			"			return true;\n"+
+			"		}\n"+
+			"		@Override\n"+
+			"		public int read(${prim}[] data, int offset, int length) {\n"+
+			"			throw new UnsupportedOperationException(\"write-only buffer\");\n"+
+			"		}\n"+
+			"		@Override\n"+
+			"		public boolean readAll(${prim}[] data, int offset) {\n"+
+			"			throw new UnsupportedOperationException(\"write-only buffer\");\n"+
+			"		}\n"+
+			"		@Override\n"+
+			"		public int write(${prim}[] data, int offset, int length) {\n"+
+			"			for (int written = 0; written < length;) {\n"+
+			"				if (!view.hasRemaining())\n"+
+			"					flush();\n"+
+			"				int n = Math.min(length - written, view.remaining());\n"+
+			"				view.put(data, offset + written, n);\n"+
+			"				written += n;\n"+
+			"			}\n"+
+			"			return length;\n"+
+			"		}\n"+
+			"		@Override\n"+
+			"		public void flush() {\n"+
+			"			writeOut(view.position());\n"+
+			"			view.clear();\n"+
+			"		}\n"+
+			"	}\n";
+	private static final String WRITER_HEADER =
+			"	public static Buffer writer(WritableByteChannel channel, ByteBuffer buffer, Class<?> type) {\n"+
+			"		buffer.clear();\n";
+	private static final String WRITER_PER_RECORD =
+			"		if (type == ${wrapper}.class) return new ${buffer}Writer(channel, buffer);\n";
 
 	public static void main(String[] args) {
 		StringBuffer sb = new StringBuffer();
@@ -111,6 +226,12 @@ public final class NIOBuffers {
 		sb.append(WRAP_FOOTER);
 		Template bufferClass = new Template(BUFFER_TEMPLATE);
 		bufferClass.replaceReflect(RECORDS, sb);
+		sb.append(WRITER_HEADER);
+		Template writerIfReturn = new Template(WRITER_PER_RECORD);
+		writerIfReturn.replaceReflect(RECORDS, sb);
+		sb.append(WRAP_FOOTER);
+		Template writerClass = new Template(WRITER_TEMPLATE);
+		writerClass.replaceReflect(RECORDS, sb);
 		sb.append("	//</editor-fold>\n");
 		System.out.println(sb.toString());
 		System.out.flush();
@@ -128,7 +249,7 @@ public final class NIOBuffers {
 		if (type == Double.class) return new DoubleBufferBuffer(buffer.asDoubleBuffer());
 		throw new AssertionError("not a wrapper type: "+type);
 	}
-	private static final class ByteBufferBuffer extends AbstractReadOnlyBuffer implements PeekableBuffer{
+	private static final class ByteBufferBuffer extends AbstractReadOnlyBuffer implements PeekableBuffer, edu.mit.streamjit.impl.blob.ByteBuffer {
 		private final ByteBuffer buffer;
 		private ByteBufferBuffer(ByteBuffer buffer) {
 			this.buffer = buffer;
@@ -142,6 +263,23 @@ public final class NIOBuffers {
 			}
 		}
 		@Override
+		public int read(byte[] data, int offset, int length) {
+			int read = Math.min(length, buffer.remaining());
+			buffer.get(data, offset, read);
+			return read;
+		}
+		@Override
+		public boolean readAll(byte[] data, int offset) {
+			if (data.length - offset > buffer.remaining())
+				return false;
+			buffer.get(data, offset, data.length - offset);
+			return true;
+		}
+		@Override
+		public int write(byte[] data, int offset, int length) {
+			throw new UnsupportedOperationException("read-only buffer");
+		}
+		@Override
 		public int size() {
 			return buffer.remaining();
 		}
@@ -154,7 +292,7 @@ public final class NIOBuffers {
 			buffer.position(buffer.position() + items);
 		}
 	}
-	private static final class ShortBufferBuffer extends AbstractReadOnlyBuffer implements PeekableBuffer{
+	private static final class ShortBufferBuffer extends AbstractReadOnlyBuffer implements PeekableBuffer, edu.mit.streamjit.impl.blob.ShortBuffer {
 		private final ShortBuffer buffer;
 		private ShortBufferBuffer(ShortBuffer buffer) {
 			this.buffer = buffer;
@@ -168,6 +306,23 @@ public final class NIOBuffers {
 			}
 		}
 		@Override
+		public int read(short[] data, int offset, int length) {
+			int read = Math.min(length, buffer.remaining());
+			buffer.get(data, offset, read);
+			return read;
+		}
+		@Override
+		public boolean readAll(short[] data, int offset) {
+			if (data.length - offset > buffer.remaining())
+				return false;
+			buffer.get(data, offset, data.length - offset);
+			return true;
+		}
+		@Override
+		public int write(short[] data, int offset, int length) {
+			throw new UnsupportedOperationException("read-only buffer");
+		}
+		@Override
 		public int size() {
 			return buffer.remaining();
 		}
@@ -180,7 +335,7 @@ public final class NIOBuffers {
 			buffer.position(buffer.position() + items);
 		}
 	}
-	private static final class CharBufferBuffer extends AbstractReadOnlyBuffer implements PeekableBuffer{
+	private static final class CharBufferBuffer extends AbstractReadOnlyBuffer implements PeekableBuffer, edu.mit.streamjit.impl.blob.CharBuffer {
 		private final CharBuffer buffer;
 		private CharBufferBuffer(CharBuffer buffer) {
 			this.buffer = buffer;
@@ -194,6 +349,23 @@ public final class NIOBuffers {
 			}
 		}
 		@Override
+		public int read(char[] data, int offset, int length) {
+			int read = Math.min(length, buffer.remaining());
+			buffer.get(data, offset, read);
+			return read;
+		}
+		@Override
+		public boolean readAll(char[] data, int offset) {
+			if (data.length - offset > buffer.remaining())
+				return false;
+			buffer.get(data, offset, data.length - offset);
+			return true;
+		}
+		@Override
+		public int write(char[] data, int offset, int length) {
+			throw new UnsupportedOperationException("read-only buffer");
+		}
+		@Override
 		public int size() {
 			return buffer.remaining();
 		}
@@ -206,7 +378,7 @@ public final class NIOBuffers {
 			buffer.position(buffer.position() + items);
 		}
 	}
-	private static final class IntBufferBuffer extends AbstractReadOnlyBuffer implements PeekableBuffer{
+	private static final class IntBufferBuffer extends AbstractReadOnlyBuffer implements PeekableBuffer, edu.mit.streamjit.impl.blob.IntBuffer {
 		private final IntBuffer buffer;
 		private IntBufferBuffer(IntBuffer buffer) {
 			this.buffer = buffer;
@@ -220,6 +392,23 @@ public final class NIOBuffers {
 			}
 		}
 		@Override
+		public int read(int[] data, int offset, int length) {
+			int read = Math.min(length, buffer.remaining());
+			buffer.get(data, offset, read);
+			return read;
+		}
+		@Override
+		public boolean readAll(int[] data, int offset) {
+			if (data.length - offset > buffer.remaining())
+				return false;
+			buffer.get(data, offset, data.length - offset);
+			return true;
+		}
+		@Override
+		public int write(int[] data, int offset, int length) {
+			throw new UnsupportedOperationException("read-only buffer");
+		}
+		@Override
 		public int size() {
 			return buffer.remaining();
 		}
@@ -232,7 +421,7 @@ public final class NIOBuffers {
 			buffer.position(buffer.position() + items);
 		}
 	}
-	private static final class LongBufferBuffer extends AbstractReadOnlyBuffer implements PeekableBuffer{
+	private static final class LongBufferBuffer extends AbstractReadOnlyBuffer implements PeekableBuffer, edu.mit.streamjit.impl.blob.LongBuffer {
 		private final LongBuffer buffer;
 		private LongBufferBuffer(LongBuffer buffer) {
 			this.buffer = buffer;
@@ -246,6 +435,23 @@ public final class NIOBuffers {
 			}
 		}
 		@Override
+		public int read(long[] data, int offset, int length) {
+			int read = Math.min(length, buffer.remaining());
+			buffer.get(data, offset, read);
+			return read;
+		}
+		@Override
+		public boolean readAll(long[] data, int offset) {
+			if (data.length - offset > buffer.remaining())
+				return false;
+			buffer.get(data, offset, data.length - offset);
+			return true;
+		}
+		@Override
+		public int write(long[] data, int offset, int length) {
+			throw new UnsupportedOperationException("read-only buffer");
+		}
+		@Override
 		public int size() {
 			return buffer.remaining();
 		}
@@ -258,7 +464,7 @@ public final class NIOBuffers {
 			buffer.position(buffer.position() + items);
 		}
 	}
-	private static final class FloatBufferBuffer extends AbstractReadOnlyBuffer implements PeekableBuffer{
+	private static final class FloatBufferBuffer extends AbstractReadOnlyBuffer implements PeekableBuffer, edu.mit.streamjit.impl.blob.FloatBuffer {
 		private final FloatBuffer buffer;
 		private FloatBufferBuffer(FloatBuffer buffer) {
 			this.buffer = buffer;
@@ -272,6 +478,23 @@ public final class NIOBuffers {
 			}
 		}
 		@Override
+		public int read(float[] data, int offset, int length) {
+			int read = Math.min(length, buffer.remaining());
+			buffer.get(data, offset, read);
+			return read;
+		}
+		@Override
+		public boolean readAll(float[] data, int offset) {
+			if (data.length - offset > buffer.remaining())
+				return false;
+			buffer.get(data, offset, data.length - offset);
+			return true;
+		}
+		@Override
+		public int write(float[] data, int offset, int length) {
+			throw new UnsupportedOperationException("read-only buffer");
+		}
+		@Override
 		public int size() {
 			return buffer.remaining();
 		}
@@ -284,7 +507,7 @@ public final class NIOBuffers {
 			buffer.position(buffer.position() + items);
 		}
 	}
-	private static final class DoubleBufferBuffer extends AbstractReadOnlyBuffer implements PeekableBuffer{
+	private static final class DoubleBufferBuffer extends AbstractReadOnlyBuffer implements PeekableBuffer, edu.mit.streamjit.impl.blob.DoubleBuffer {
 		private final DoubleBuffer buffer;
 		private DoubleBufferBuffer(DoubleBuffer buffer) {
 			this.buffer = buffer;
@@ -298,6 +521,23 @@ public final class NIOBuffers {
 			}
 		}
 		@Override
+		public int read(double[] data, int offset, int length) {
+			int read = Math.min(length, buffer.remaining());
+			buffer.get(data, offset, read);
+			return read;
+		}
+		@Override
+		public boolean readAll(double[] data, int offset) {
+			if (data.length - offset > buffer.remaining())
+				return false;
+			buffer.get(data, offset, data.length - offset);
+			return true;
+		}
+		@Override
+		public int write(double[] data, int offset, int length) {
+			throw new UnsupportedOperationException("read-only buffer");
+		}
+		@Override
 		public int size() {
 			return buffer.remaining();
 		}
@@ -310,5 +550,282 @@ public final class NIOBuffers {
 			buffer.position(buffer.position() + items);
 		}
 	}
+	public static Buffer writer(WritableByteChannel channel, ByteBuffer buffer, Class<?> type) {
+		buffer.clear();
+		if (type == Byte.class) return new ByteBufferWriter(channel, buffer);
+		if (type == Short.class) return new ShortBufferWriter(channel, buffer);
+		if (type == Character.class) return new CharBufferWriter(channel, buffer);
+		if (type == Integer.class) return new IntBufferWriter(channel, buffer);
+		if (type == Long.class) return new LongBufferWriter(channel, buffer);
+		if (type == Float.class) return new FloatBufferWriter(channel, buffer);
+		if (type == Double.class) return new DoubleBufferWriter(channel, buffer);
+		throw new AssertionError("not a wrapper type: "+type);
+	}
+	private static final class ByteBufferWriter extends ChannelWriter implements edu.mit.streamjit.impl.blob.ByteBuffer {
+		private final ByteBuffer view;
+		private ByteBufferWriter(WritableByteChannel channel, ByteBuffer buffer) {
+			super(channel, buffer, Byte.BYTES);
+			this.view = buffer;
+		}
+		@Override
+		public boolean write(Object t) {
+			if (!view.hasRemaining())
+				flush();
+			view.put((Byte)t);
+			return true;
+		}
+		@Override
+		public int read(byte[] data, int offset, int length) {
+			throw new UnsupportedOperationException("write-only buffer");
+		}
+		@Override
+		public boolean readAll(byte[] data, int offset) {
+			throw new UnsupportedOperationException("write-only buffer");
+		}
+		@Override
+		public int write(byte[] data, int offset, int length) {
+			for (int written = 0; written < length;) {
+				if (!view.hasRemaining())
+					flush();
+				int n = Math.min(length - written, view.remaining());
+				view.put(data, offset + written, n);
+				written += n;
+			}
+			return length;
+		}
+		@Override
+		public void flush() {
+			writeOut(view.position());
+			view.clear();
+		}
+	}
+	private static final class ShortBufferWriter extends ChannelWriter implements edu.mit.streamjit.impl.blob.ShortBuffer {
+		private final ShortBuffer view;
+		private ShortBufferWriter(WritableByteChannel channel, ByteBuffer buffer) {
+			super(channel, buffer, Short.BYTES);
+			this.view = buffer.asShortBuffer();
+		}
+		@Override
+		public boolean write(Object t) {
+			if (!view.hasRemaining())
+				flush();
+			view.put((Short)t);
+			return true;
+		}
+		@Override
+		public int read(short[] data, int offset, int length) {
+			throw new UnsupportedOperationException("write-only buffer");
+		}
+		@Override
+		public boolean readAll(short[] data, int offset) {
+			throw new UnsupportedOperationException("write-only buffer");
+		}
+		@Override
+		public int write(short[] data, int offset, int length) {
+			for (int written = 0; written < length;) {
+				if (!view.hasRemaining())
+					flush();
+				int n = Math.min(length - written, view.remaining());
+				view.put(data, offset + written, n);
+				written += n;
+			}
+			return length;
+		}
+		@Override
+		public void flush() {
+			writeOut(view.position());
+			view.clear();
+		}
+	}
+	private static final class CharBufferWriter extends ChannelWriter implements edu.mit.streamjit.impl.blob.CharBuffer {
+		private final CharBuffer view;
+		private CharBufferWriter(WritableByteChannel channel, ByteBuffer buffer) {
+			super(channel, buffer, Character.BYTES);
+			this.view = buffer.asCharBuffer();
+		}
+		@Override
+		public boolean write(Object t) {
+			if (!view.hasRemaining())
+				flush();
+			view.put((Character)t);
+			return true;
+		}
+		@Override
+		public int read(char[] data, int offset, int length) {
+			throw new UnsupportedOperationException("write-only buffer");
+		}
+		@Override
+		public boolean readAll(char[] data, int offset) {
+			throw new UnsupportedOperationException("write-only buffer");
+		}
+		@Override
+		public int write(char[] data, int offset, int length) {
+			for (int written = 0; written < length;) {
+				if (!view.hasRemaining())
+					flush();
+				int n = Math.min(length - written, view.remaining());
+				view.put(data, offset + written, n);
+				written += n;
+			}
+			return length;
+		}
+		@Override
+		public void flush() {
+			writeOut(view.position());
+			view.clear();
+		}
+	}
+	private static final class IntBufferWriter extends ChannelWriter implements edu.mit.streamjit.impl.blob.IntBuffer {
+		private final IntBuffer view;
+		private IntBufferWriter(WritableByteChannel channel, ByteBuffer buffer) {
+			super(channel, buffer, Integer.BYTES);
+			this.view = buffer.asIntBuffer();
+		}
+		@Override
+		public boolean write(Object t) {
+			if (!view.hasRemaining())
+				flush();
+			view.put((Integer)t);
+			return true;
+		}
+		@Override
+		public int read(int[] data, int offset, int length) {
+			throw new UnsupportedOperationException("write-only buffer");
+		}
+		@Override
+		public boolean readAll(int[] data, int offset) {
+			throw new UnsupportedOperationException("write-only buffer");
+		}
+		@Override
+		public int write(int[] data, int offset, int length) {
+			for (int written = 0; written < length;) {
+				if (!view.hasRemaining())
+					flush();
+				int n = Math.min(length - written, view.remaining());
+				view.put(data, offset + written, n);
+				written += n;
+			}
+			return length;
+		}
+		@Override
+		public void flush() {
+			writeOut(view.position());
+			view.clear();
+		}
+	}
+	private static final class LongBufferWriter extends ChannelWriter implements edu.mit.streamjit.impl.blob.LongBuffer {
+		private final LongBuffer view;
+		private LongBufferWriter(WritableByteChannel channel, ByteBuffer buffer) {
+			super(channel, buffer, Long.BYTES);
+			this.view = buffer.asLongBuffer();
+		}
+		@Override
+		public boolean write(Object t) {
+			if (!view.hasRemaining())
+				flush();
+			view.put((Long)t);
+			return true;
+		}
+		@Override
+		public int read(long[] data, int offset, int length) {
+			throw new UnsupportedOperationException("write-only buffer");
+		}
+		@Override
+		public boolean readAll(long[] data, int offset) {
+			throw new UnsupportedOperationException("write-only buffer");
+		}
+		@Override
+		public int write(long[] data, int offset, int length) {
+			for (int written = 0; written < length;) {
+				if (!view.hasRemaining())
+					flush();
+				int n = Math.min(length - written, view.remaining());
+				view.put(data, offset + written, n);
+				written += n;
+			}
+			return length;
+		}
+		@Override
+		public void flush() {
+			writeOut(view.position());
+			view.clear();
+		}
+	}
+	private static final class FloatBufferWriter extends ChannelWriter implements edu.mit.streamjit.impl.blob.FloatBuffer {
+		private final FloatBuffer view;
+		private FloatBufferWriter(WritableByteChannel channel, ByteBuffer buffer) {
+			super(channel, buffer, Float.BYTES);
+			this.view = buffer.asFloatBuffer();
+		}
+		@Override
+		public boolean write(Object t) {
+			if (!view.hasRemaining())
+				flush();
+			view.put((Float)t);
+			return true;
+		}
+		@Override
+		public int read(float[] data, int offset, int length) {
+			throw new UnsupportedOperationException("write-only buffer");
+		}
+		@Override
+		public boolean readAll(float[] data, int offset) {
+			throw new UnsupportedOperationException("write-only buffer");
+		}
+		@Override
+		public int write(float[] data, int offset, int length) {
+			for (int written = 0; written < length;) {
+				if (!view.hasRemaining())
+					flush();
+				int n = Math.min(length - written, view.remaining());
+				view.put(data, offset + written, n);
+				written += n;
+			}
+			return length;
+		}
+		@Override
+		public void flush() {
+			writeOut(view.position());
+			view.clear();
+		}
+	}
+	private static final class DoubleBufferWriter extends ChannelWriter implements edu.mit.streamjit.impl.blob.DoubleBuffer {
+		private final DoubleBuffer view;
+		private DoubleBufferWriter(WritableByteChannel channel, ByteBuffer buffer) {
+			super(channel, buffer, Double.BYTES);
+			this.view = buffer.asDoubleBuffer();
+		}
+		@Override
+		public boolean write(Object t) {
+			if (!view.hasRemaining())
+				flush();
+			view.put((Double)t);
+			return true;
+		}
+		@Override
+		public int read(double[] data, int offset, int length) {
+			throw new UnsupportedOperationException("write-only buffer");
+		}
+		@Override
+		public boolean readAll(double[] data, int offset) {
+			throw new UnsupportedOperationException("write-only buffer");
+		}
+		@Override
+		public int write(double[] data, int offset, int length) {
+			for (int written = 0; written < length;) {
+				if (!view.hasRemaining())
+					flush();
+				int n = Math.min(length - written, view.remaining());
+				view.put(data, offset + written, n);
+				written += n;
+			}
+			return length;
+		}
+		@Override
+		public void flush() {
+			writeOut(view.position());
+			view.clear();
+		}
+	}
 	//</editor-fold>
 }
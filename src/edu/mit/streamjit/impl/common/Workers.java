@@ -74,6 +74,15 @@ public abstract class Workers {
 	public static void sendMessage(Worker<?, ?> worker, Message message) {
 		FRIEND.sendMessage_impl(worker, message);
 	}
+	public static boolean hasMessagesDue(Worker<?, ?> worker) {
+		return FRIEND.hasMessagesDue_impl(worker);
+	}
+	public static void receiveMessages(Worker<?, ?> worker) {
+		FRIEND.receiveMessages_impl(worker);
+	}
+	public static void countExecution(Worker<?, ?> worker) {
+		FRIEND.countExecution_impl(worker);
+	}
 	public static int getIdentifier(Worker<?, ?> worker) {
 		return FRIEND.getIdentifier_impl(worker);
 	}
@@ -280,6 +289,9 @@ public abstract class Workers {
 	protected abstract long getExecutions_impl(Worker<?, ?> worker);
 	protected abstract void doWork_impl(Worker<?, ?> worker);
 	protected abstract void sendMessage_impl(Worker<?, ?> worker, Message message);
+	protected abstract boolean hasMessagesDue_impl(Worker<?, ?> worker);
+	protected abstract void receiveMessages_impl(Worker<?, ?> worker);
+	protected abstract void countExecution_impl(Worker<?, ?> worker);
 	protected abstract int getIdentifier_impl(Worker<?, ?> worker);
 	protected abstract void setIdentifier_impl(Worker<?, ?> worker, int identifier);
 	//</editor-fold>
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.compiler;
+
+import com.google.common.math.LongMath;
+import edu.mit.streamjit.util.Fraction;
+import java.math.RoundingMode;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Solves the two kinds of scheduling problems the compilers build without an
+ * ILP solver.  Steady-state problems (every buffering constraint is an
+ * equality with no delta) are solved exactly from the balance equations.  Init
+ * problems (every buffering constraint is a lower bound) are solved by finding
+ * the least solution, then, if buffering has a cost, firing each net consumer
+ * as many times as its upstream allows.
+ * <p/>
+ * Things and constraints are passed as parallel arrays: thing i is index i,
+ * and constraint e is push[e]*x[up[e]] - pop[e]*x[down[e]] (== 0 or >=
+ * atLeast[e]).  Both methods return null if the problem doesn't have the
+ * structure they need (or is infeasible), in which case the caller should fall
+ * back to the ILP solver, which will also diagnose infeasibility.
+ */
+final class SDFSolver {
+	private SDFSolver() {}
+
+	/**
+	 * Returns the minimal positive solution of the balance equations (the
+	 * repetition vector) scaled to satisfy the minimum executions, or null.
+	 * If the things form multiple connected components, each must have a
+	 * minimum execution constraint (otherwise the ILP's "at least one thing
+	 * fires" constraint decides which components fire at all).
+	 */
+	static int[] steadyState(int n, int[] up, int[] down, int[] push, int[] pop, int[] minExecutions) {
+		for (int e = 0; e < up.length; ++e)
+			if (push[e] == 0 || pop[e] == 0)
+				return null;
+		List<List<Integer>> edges = incidentEdges(n, up, down);
+		try {
+			Fraction[] rate = new Fraction[n];
+			List<List<Integer>> components = new ArrayList<>();
+			ArrayDeque<Integer> queue = new ArrayDeque<>();
+			for (int s = 0; s < n; ++s) {
+				if (rate[s] != null) continue;
+				List<Integer> component = new ArrayList<>();
+				rate[s] = Fraction.ONE;
+				queue.add(s);
+				while (!queue.isEmpty()) {
+					int v = queue.remove();
+					component.add(v);
+					for (int e : edges.get(v)) {
+						//A self-loop checks its own consistency (push == pop).
+						int other = up[e] == v ? down[e] : up[e];
+						Fraction r = up[e] == v ?
+								rate[v].mul(new Fraction(push[e], pop[e])) :
+								rate[v].mul(new Fraction(pop[e], push[e]));
+						if (rate[other] == null) {
+							rate[other] = r;
+							queue.add(other);
+						} else if (!rate[other].equals(r))
+							return null;
+					}
+				}
+				components.add(component);
+			}
+
+			long[] result = new long[n];
+			for (List<Integer> component : components) {
+				long lcm = 1;
+				for (int v : component)
+					lcm = LongMath.checkedMultiply(lcm / LongMath.gcd(lcm, rate[v].denom()), rate[v].denom());
+				long gcd = 0;
+				for (int v : component) {
+					result[v] = LongMath.checkedMultiply(rate[v].num(), lcm / rate[v].denom());
+					gcd = LongMath.gcd(gcd, result[v]);
+				}
+				boolean constrained = false;
+				long k = 1;
+				for (int v : component) {
+					result[v] /= gcd;
+					if (minExecutions[v] > 0) {
+						constrained = true;
+						k = Math.max(k, LongMath.divide(minExecutions[v], result[v], RoundingMode.CEILING));
+					}
+				}
+				if (!constrained && components.size() > 1)
+					return null;
+				for (int v : component)
+					result[v] = LongMath.checkedMultiply(result[v], k);
+			}
+			return toInts(result);
+		} catch (ArithmeticException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns a solution to an init problem minimizing (if excessBufferCost
+	 * is 0) or approximately minimizing fireCost * (total firings) +
+	 * excessBufferCost * (total items buffered), or null.
+	 */
+	static int[] init(int n, int[] up, int[] down, int[] push, int[] pop, int[] atLeast, int[] minExecutions, int fireCost, int excessBufferCost) {
+		for (int e = 0; e < up.length; ++e)
+			if (push[e] == 0)
+				return null;
+		try {
+			//The feasible set is closed under elementwise min, so there's a
+			//least solution, found by raising upstream things until every
+			//constraint holds.  On a DAG this converges within n rounds;
+			//cycles that don't converge quickly go to the ILP.
+			long[] x = new long[n];
+			for (int v = 0; v < n; ++v)
+				x[v] = Math.max(0, minExecutions[v]);
+			int rounds = 0;
+			for (boolean changed = true; changed;) {
+				changed = false;
+				if (++rounds > 2*n + 2)
+					return null;
+				for (int e = 0; e < up.length; ++e) {
+					long needed = LongMath.divide(LongMath.checkedAdd(atLeast[e], LongMath.checkedMultiply(pop[e], x[down[e]])),
+							push[e], RoundingMode.CEILING);
+					if (needed > x[up[e]]) {
+						if (needed > Integer.MAX_VALUE)
+							return null;
+						x[up[e]] = needed;
+						changed = true;
+					}
+				}
+			}
+			long total = 0;
+			for (long v : x)
+				total += v;
+			if (total == 0)
+				return null;
+
+			if (excessBufferCost > 0) {
+				int[] order = topologicalOrder(n, up, down);
+				if (order == null)
+					return null;
+				long[] cost = new long[n];
+				Arrays.fill(cost, fireCost);
+				for (int e = 0; e < up.length; ++e) {
+					cost[up[e]] += (long)excessBufferCost * push[e];
+					cost[down[e]] -= (long)excessBufferCost * pop[e];
+				}
+				//Upstream things are final by the time we reach a thing, and
+				//firing a thing only loosens its output constraints.
+				for (int v : order) {
+					if (cost[v] >= 0) continue;
+					long cap = Long.MAX_VALUE;
+					for (int e = 0; e < up.length; ++e)
+						if (down[e] == v && pop[e] > 0)
+							cap = Math.min(cap, LongMath.divide(LongMath.checkedMultiply(push[e], x[up[e]]) - atLeast[e],
+									pop[e], RoundingMode.FLOOR));
+					if (cap == Long.MAX_VALUE)
+						return null; //unbounded
+					x[v] = Math.max(x[v], cap);
+				}
+			}
+			return toInts(x);
+		} catch (ArithmeticException ex) {
+			return null;
+		}
+	}
+
+	private static List<List<Integer>> incidentEdges(int n, int[] up, int[] down) {
+		List<List<Integer>> edges = new ArrayList<>(n);
+		for (int v = 0; v < n; ++v)
+			edges.add(new ArrayList<Integer>());
+		for (int e = 0; e < up.length; ++e) {
+			edges.get(up[e]).add(e);
+			if (down[e] != up[e])
+				edges.get(down[e]).add(e);
+		}
+		return edges;
+	}
+
+	/**
+	 * Returns the things in an order where every constraint's upstream thing
+	 * precedes its downstream thing, or null if there's a cycle.
+	 */
+	private static int[] topologicalOrder(int n, int[] up, int[] down) {
+		int[] inDegree = new int[n];
+		List<List<Integer>> successors = new ArrayList<>(n);
+		for (int v = 0; v < n; ++v)
+			successors.add(new ArrayList<Integer>());
+		for (int e = 0; e < up.length; ++e) {
+			++inDegree[down[e]];
+			successors.get(up[e]).add(down[e]);
+		}
+		ArrayDeque<Integer> ready = new ArrayDeque<>();
+		for (int v = 0; v < n; ++v)
+			if (inDegree[v] == 0)
+				ready.add(v);
+		int[] order = new int[n];
+		int size = 0;
+		while (!ready.isEmpty()) {
+			int v = ready.remove();
+			order[size++] = v;
+			for (int s : successors.get(v))
+				if (--inDegree[s] == 0)
+					ready.add(s);
+		}
+		return size == n ? order : null;
+	}
+
+	private static int[] toInts(long[] x) {
+		int[] result = new int[x.length];
+		for (int i = 0; i < x.length; ++i) {
+			if (x[i] > Integer.MAX_VALUE)
+				return null;
+			result[i] = (int)x[i];
+		}
+		return result;
+	}
+}
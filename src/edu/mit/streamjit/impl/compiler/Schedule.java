@@ -22,7 +22,12 @@
 package edu.mit.streamjit.impl.compiler;
 
 import static com.google.common.base.Preconditions.*;
+import com.google.common.base.Function;
 import com.google.common.base.Predicates;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.HashBiMap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
@@ -32,6 +37,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 /**
@@ -40,6 +46,19 @@ import java.util.Set;
  * @since 8/1/2013
  */
 public final class Schedule<T> {
+	/**
+	 * The maximum number of solved scheduling problems to remember.
+	 */
+	private static final int CACHE_SIZE = 1024;
+	/**
+	 * Solutions to recently-solved scheduling problems, keyed by the problem
+	 * with its things replaced by canonical keys (see
+	 * {@link Builder#build(Function)}).  Autotuners revisit the same
+	 * configurations (thus the same problems) often, and problems the direct
+	 * solver gives up on start an ILP solver.
+	 */
+	private static final Cache<ImmutableList<Object>, ImmutableMap<Object, Integer>> CACHE
+			= CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build();
 	private final ImmutableSet<T> things;
 	private final ImmutableSet<BufferingConstraint<T>> constraints;
 	private final ImmutableMap<T, Integer> schedule;
@@ -51,7 +70,18 @@ public final class Schedule<T> {
 	private static <T> Schedule<T> schedule(ImmutableSet<T> things,
 			ImmutableSet<ExecutionConstraint<T>> executionConstraints,
 			ImmutableSet<BufferingConstraint<T>> bufferingConstraints,
-			int multiplier, int fireCost, int excessBufferCost) {
+			int multiplier, int fireCost, int excessBufferCost, boolean useILP) {
+		if (!useILP) {
+			int[] direct = solveDirectly(things, executionConstraints, bufferingConstraints, fireCost, excessBufferCost);
+			if (direct != null) {
+				ImmutableMap.Builder<T, Integer> schedule = ImmutableMap.builder();
+				int i = 0;
+				for (T thing : things)
+					schedule.put(thing, direct[i++] * multiplier);
+				return new Schedule<>(things, bufferingConstraints, schedule.build());
+			}
+		}
+
 		ILPSolver solver = new ILPSolver();
 		//There's one variable for each thing, which represents the number of
 		//times it fires.  This uses the default bounds.  (TODO: perhaps a bound
@@ -116,6 +146,45 @@ public final class Schedule<T> {
 		return new Schedule<>(things, bufferingConstraints, schedule.build());
 	}
 
+	/**
+	 * Solves the given problem with {@link SDFSolver} if it's a pure
+	 * steady-state or pure init problem, returning null if it isn't or if
+	 * SDFSolver gives up (in which case we use the ILP solver).
+	 */
+	private static <T> int[] solveDirectly(ImmutableSet<T> things,
+			ImmutableSet<ExecutionConstraint<T>> executionConstraints,
+			ImmutableSet<BufferingConstraint<T>> bufferingConstraints,
+			int fireCost, int excessBufferCost) {
+		Map<T, Integer> index = new HashMap<>(things.size());
+		for (T thing : things)
+			index.put(thing, index.size());
+		int[] minExecutions = new int[things.size()];
+		for (ExecutionConstraint<T> c : executionConstraints) {
+			int i = index.get(c.thing);
+			minExecutions[i] = Math.max(minExecutions[i], c.minExecutions);
+		}
+
+		int m = bufferingConstraints.size();
+		int[] up = new int[m], down = new int[m], push = new int[m], pop = new int[m], delta = new int[m];
+		boolean steadyState = true, init = true;
+		int e = 0;
+		for (BufferingConstraint<T> c : bufferingConstraints) {
+			up[e] = index.get(c.upstream);
+			down[e] = index.get(c.downstream);
+			push[e] = c.pushRate;
+			pop[e] = c.popRate;
+			delta[e] = c.bufferDelta;
+			steadyState &= c.condition == BufferingConstraint.Condition.EQUAL && c.bufferDelta == 0;
+			init &= c.condition == BufferingConstraint.Condition.GREATER_THAN_EQUAL;
+			++e;
+		}
+		if (steadyState)
+			return SDFSolver.steadyState(things.size(), up, down, push, pop, minExecutions);
+		if (init)
+			return SDFSolver.init(things.size(), up, down, push, pop, delta, minExecutions, fireCost, excessBufferCost);
+		return null;
+	}
+
 	public static <T> Builder<T> builder() {
 		return new Builder<>();
 	}
@@ -234,7 +303,57 @@ public final class Schedule<T> {
 		}
 
 		public Schedule<T> build() {
-			return schedule(ImmutableSet.copyOf(things), ImmutableSet.copyOf(executionConstraints), ImmutableSet.copyOf(bufferingConstraints), multiplier, fireCost, excessBufferCost);
+			return schedule(ImmutableSet.copyOf(things), ImmutableSet.copyOf(executionConstraints), ImmutableSet.copyOf(bufferingConstraints), multiplier, fireCost, excessBufferCost, false);
+		}
+
+		/**
+		 * Builds this schedule using the ILP solver even if the problem could
+		 * be solved directly.  For cross-checking and benchmarking
+		 * {@link SDFSolver}.
+		 * @return the schedule
+		 */
+		public Schedule<T> buildWithILP() {
+			return schedule(ImmutableSet.copyOf(things), ImmutableSet.copyOf(executionConstraints), ImmutableSet.copyOf(bufferingConstraints), multiplier, fireCost, excessBufferCost, true);
+		}
+
+		/**
+		 * Builds this schedule as by {@link #build()}, but reuses the solution
+		 * to a previously-built equivalent problem if one is cached.  Problems
+		 * are compared after mapping each thing through the given function,
+		 * which must be injective over the things in this builder and return
+		 * objects with value semantics (e.g., stable integer ids).
+		 * @param canonicalizer maps things to canonical keys
+		 * @return the schedule
+		 */
+		public Schedule<T> build(Function<? super T, ?> canonicalizer) {
+			HashBiMap<T, Object> canon = HashBiMap.create(things.size());
+			for (T thing : things)
+				canon.put(thing, checkNotNull(canonicalizer.apply(thing)));
+			ImmutableSet.Builder<ExecutionConstraint<Object>> canonExecution = ImmutableSet.builder();
+			for (ExecutionConstraint<T> c : executionConstraints)
+				canonExecution.add(new ExecutionConstraint<>(canon.get(c.thing), c.minExecutions));
+			ImmutableSet.Builder<BufferingConstraint<Object>> canonBuffering = ImmutableSet.builder();
+			for (BufferingConstraint<T> c : bufferingConstraints)
+				canonBuffering.add(new BufferingConstraint<>(canon.get(c.upstream), canon.get(c.downstream),
+						c.pushRate, c.popRate, c.popRate + c.excessPeeks, c.condition, c.bufferDelta));
+			ImmutableList<Object> key = ImmutableList.<Object>of(ImmutableSet.copyOf(canon.values()),
+					canonExecution.build(), canonBuffering.build(),
+					multiplier, fireCost, excessBufferCost);
+
+			ImmutableMap<Object, Integer> cached = CACHE.getIfPresent(key);
+			if (cached != null) {
+				ImmutableMap.Builder<T, Integer> schedule = ImmutableMap.builder();
+				for (Map.Entry<Object, Integer> e : cached.entrySet())
+					schedule.put(canon.inverse().get(e.getKey()), e.getValue());
+				return new Schedule<>(ImmutableSet.copyOf(things), ImmutableSet.copyOf(bufferingConstraints), schedule.build());
+			}
+
+			Schedule<T> schedule = build();
+			ImmutableMap.Builder<Object, Integer> solution = ImmutableMap.builder();
+			for (Map.Entry<T, Integer> e : schedule.getSchedule().entrySet())
+				solution.put(canon.get(e.getKey()), e.getValue());
+			CACHE.put(key, solution.build());
+			return schedule;
 		}
 
 		@Override
@@ -261,6 +380,23 @@ public final class Schedule<T> {
 			this.bufferDelta = bufferDelta;
 		}
 		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof BufferingConstraint))
+				return false;
+			BufferingConstraint<?> other = (BufferingConstraint<?>)obj;
+			return Objects.equals(upstream, other.upstream) &&
+					Objects.equals(downstream, other.downstream) &&
+					pushRate == other.pushRate &&
+					popRate == other.popRate &&
+					excessPeeks == other.excessPeeks &&
+					condition == other.condition &&
+					bufferDelta == other.bufferDelta;
+		}
+		@Override
+		public int hashCode() {
+			return Objects.hash(upstream, downstream, pushRate, popRate, excessPeeks, condition, bufferDelta);
+		}
+		@Override
 		public String toString() {
 			return String.format("%s (push %d) -> %s (peek %d pop %d) %s %d",
 					upstream, pushRate,
@@ -277,6 +413,17 @@ public final class Schedule<T> {
 			this.minExecutions = minExecutions;
 		}
 		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ExecutionConstraint))
+				return false;
+			ExecutionConstraint<?> other = (ExecutionConstraint<?>)obj;
+			return Objects.equals(thing, other.thing) && minExecutions == other.minExecutions;
+		}
+		@Override
+		public int hashCode() {
+			return Objects.hash(thing, minExecutions);
+		}
+		@Override
 		public String toString() {
 			return String.format("exec %s >= %d", thing, minExecutions);
 		}
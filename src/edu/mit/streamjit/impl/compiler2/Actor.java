@@ -409,6 +409,28 @@ public abstract class Actor implements Comparable<Actor> {
 		return builder.build();
 	}
 
+	/**
+	 * Returns a range spanning the physical indices read from the given
+	 * storage during the given iterations, or null if none are read.  (As a
+	 * span, not every contained index need be read.)  Unlike
+	 * reads(storage, iterations), this doesn't enumerate the indices when the
+	 * index functions have a closed form; see IndexFunctionForm.
+	 * @param storage the storage
+	 * @param iterations the iteration numbers
+	 * @return a canonical range spanning the indices read, or null
+	 */
+	public Range<Integer> readSpan(Storage storage, Range<Integer> iterations) {
+		Range<Integer> span = null;
+		for (int input = 0; input < inputs().size(); ++input)
+			if (inputs().get(input).equals(storage)) {
+				ContiguousSet<Integer> logicalIndices = peeks(input, iterations);
+				if (logicalIndices.isEmpty()) continue;
+				Range<Integer> inputSpan = IndexFunctionForm.span(inputIndexFunctions().get(input), logicalIndices.first(), logicalIndices.last() + 1);
+				span = span == null ? inputSpan : span.span(inputSpan);
+			}
+		return span;
+	}
+
 	public ImmutableSortedSet<Integer> consumes(int input, int iteration) {
 		return translateInputIndices(input, pops(input, iteration));
 	}
@@ -523,6 +545,44 @@ public abstract class Actor implements Comparable<Actor> {
 		return builder.build();
 	}
 
+	/**
+	 * Returns a range spanning the physical indices written to the given
+	 * storage during the given iterations, or null if none are written.  (As
+	 * a span, not every contained index need be written.)  Unlike
+	 * writes(storage, iterations), this doesn't enumerate the indices when the
+	 * index functions have a closed form; see IndexFunctionForm.
+	 * @param storage the storage
+	 * @param iterations the iteration numbers
+	 * @return a canonical range spanning the indices written, or null
+	 */
+	public Range<Integer> writeSpan(Storage storage, Range<Integer> iterations) {
+		Range<Integer> span = null;
+		for (int output = 0; output < outputs().size(); ++output)
+			if (outputs().get(output).equals(storage)) {
+				ContiguousSet<Integer> logicalIndices = pushes(output, iterations);
+				if (logicalIndices.isEmpty()) continue;
+				Range<Integer> outputSpan = IndexFunctionForm.span(outputIndexFunctions().get(output), logicalIndices.first(), logicalIndices.last() + 1);
+				span = span == null ? outputSpan : span.span(outputSpan);
+			}
+		return span;
+	}
+
+	/**
+	 * Returns the number of items written to the given storage during the
+	 * given number of iterations, without enumerating them.  (This assumes no
+	 * index is written twice.)
+	 * @param storage the storage
+	 * @param iterations the number of iterations
+	 * @return the number of items written
+	 */
+	public int writeCount(Storage storage, int iterations) {
+		int count = 0;
+		for (int output = 0; output < outputs().size(); ++output)
+			if (outputs().get(output).equals(storage))
+				count += push(output) * iterations;
+		return count;
+	}
+
 	public ArrayList<StorageSlot> inputSlots(int input) {
 		if (inputSlots == null) {
 			inputSlots = new ArrayList<>(inputs().size());
@@ -24,16 +24,20 @@ package edu.mit.streamjit.impl.compiler2;
 import com.google.common.base.Function;
 import static com.google.common.base.Preconditions.*;
 import com.google.common.base.Predicates;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Sets;
 import com.google.common.reflect.TypeToken;
 import edu.mit.streamjit.api.Filter;
 import edu.mit.streamjit.api.Joiner;
+import edu.mit.streamjit.api.Portal;
 import edu.mit.streamjit.api.Splitter;
 import edu.mit.streamjit.api.StatefulFilter;
 import edu.mit.streamjit.api.StreamElement;
@@ -93,6 +97,19 @@ import java.util.Map;
  * @since 9/20/2013
  */
 public class ActorArchetype {
+	/**
+	 * The maximum number of generated archetypes to keep in the code cache.
+	 */
+	private static final int CODE_CACHE_SIZE = 256;
+	/**
+	 * Generated code depends only on the worker class and the (unboxed) input
+	 * and output types of its actors, so we can reuse the state holder
+	 * constructor and work methods generated by a previous compilation instead
+	 * of re-resolving and re-spinning the bytecode.  The cached handles keep
+	 * their ModuleClassLoader alive, so the cache is bounded (LRU).
+	 */
+	private static final Cache<Pair<Class<?>, ImmutableSet<Pair<Class<?>, Class<?>>>>, Pair<MethodHandle, ImmutableMap<Pair<Class<?>, Class<?>>, MethodHandle>>> CODE_CACHE
+			= CacheBuilder.newBuilder().maximumSize(CODE_CACHE_SIZE).build();
 	private final Class<? extends Worker<?, ?>> workerClass;
 	/**
 	 * The worker's nonstatic fields, final and nonfinal, including inherited
@@ -108,6 +125,11 @@ public class ActorArchetype {
 	private final Klass workerKlass;
 	private MethodHandle constructStateHolder;
 	private ImmutableMap<Pair<Class<?>, Class<?>>, MethodHandle> workMethods;
+	/**
+	 * Work methods specialized for particular actors, with their final fields
+	 * baked in; see generateInstanceCode().
+	 */
+	private ImmutableMap<WorkerActor, MethodHandle> instanceWorkMethods = ImmutableMap.of();
 	public ActorArchetype(Class<? extends Worker<?, ?>> workerClass, Module module) {
 		this.workerClass = workerClass;
 		ImmutableList.Builder<java.lang.reflect.Field> fieldsBuilder = ImmutableList.builder();
@@ -156,11 +178,44 @@ public class ActorArchetype {
 		return ReflectionUtils.getAllSupertypes(workerClass()).contains(StatefulFilter.class);
 	}
 
-	public void generateCode(String packageName, ModuleClassLoader loader, Iterable<WorkerActor> actors) {
+	/**
+	 * Returns the worker class's work method, resolving it if necessary.
+	 * @return the worker class's resolved work method
+	 */
+	public Method workMethod() {
+		TypeFactory types = workerKlass.getParent().types();
+		Method work = workerKlass.getMethodByVirtual("work", types.getMethodType(types.getVoidType(), types.getRegularType(workerKlass)));
+		if (work.basicBlocks().isEmpty())
+			work.resolve();
+		return work;
+	}
+
+	/**
+	 * Generates the archetypal work methods for the given actors, plus
+	 * per-instance work methods for those of the given actors to be
+	 * specialized (if they're eligible; see generateInstanceCode()).
+	 * @param packageName the package to generate classes in
+	 * @param loader the class loader to load generated classes with
+	 * @param actors this archetype's actors
+	 * @param specializedActors the actors to specialize
+	 */
+	public void generateCode(String packageName, ModuleClassLoader loader, Iterable<WorkerActor> actors, Iterable<WorkerActor> specializedActors) {
 		assert workMethods == null : "already generated code for "+this;
 		//If we've removed all instances of this archetype, don't spin an empty class.
 		if (Iterables.isEmpty(actors)) return;
 
+		ImmutableSet.Builder<Pair<Class<?>, Class<?>>> typesBuilder = ImmutableSet.builder();
+		for (WorkerActor a : actors)
+			typesBuilder.add(new Pair<Class<?>, Class<?>>(a.inputType().getRawType(), a.outputType().getRawType()));
+		Pair<Class<?>, ImmutableSet<Pair<Class<?>, Class<?>>>> cacheKey = new Pair<Class<?>, ImmutableSet<Pair<Class<?>, Class<?>>>>(workerClass, typesBuilder.build());
+		Pair<MethodHandle, ImmutableMap<Pair<Class<?>, Class<?>>, MethodHandle>> cached = CODE_CACHE.getIfPresent(cacheKey);
+		if (cached != null) {
+			this.constructStateHolder = cached.first;
+			this.workMethods = cached.second;
+			generateInstanceCode(packageName, loader, specializedActors);
+			return;
+		}
+
 		Module module = workerKlass.getParent();
 		TypeFactory types = module.types();
 		//We need to resolve work before making the state holder class so we
@@ -226,6 +281,186 @@ public class ActorArchetype {
 			throw new AssertionError(ex);
 		}
 		this.workMethods = workMethodsBuilder.build();
+		CODE_CACHE.put(cacheKey, new Pair<>(constructStateHolder, workMethods));
+		generateInstanceCode(packageName, loader, specializedActors);
+	}
+
+	/**
+	 * Generates work methods for the given actors with the values of the
+	 * worker's final fields baked in: primitives become constants and arrays
+	 * become static final fields with constant length, so the JIT can
+	 * constant-fold them and fully unroll loops bounded by them.  We only
+	 * specialize stateless actors whose work method reads nothing but final
+	 * primitive fields and final primitive arrays it never writes (or lets
+	 * escape), in which case the work method doesn't need the state holder.
+	 * This trades code size (one method per actor instead of one per
+	 * archetype) for speed, so it's tunable per worker.  Specialized work
+	 * methods aren't cached, as they depend on field values.
+	 * @param packageName the package to generate classes in
+	 * @param loader the class loader to load generated classes with
+	 * @param actors the actors to specialize
+	 */
+	private void generateInstanceCode(String packageName, ModuleClassLoader loader, Iterable<WorkerActor> actors) {
+		List<WorkerActor> eligible = new ArrayList<>();
+		for (WorkerActor a : actors)
+			if (!a.isStateful())
+				eligible.add(a);
+		if (eligible.isEmpty()) return;
+
+		Module module = workerKlass.getParent();
+		TypeFactory types = module.types();
+		Method oldWork = workerKlass.getMethodByVirtual("work", types.getMethodType(types.getVoidType(), types.getRegularType(workerKlass)));
+		//If we hit the code cache, we haven't resolved work yet.
+		if (oldWork.basicBlocks().isEmpty())
+			oldWork.resolve();
+		Map<Field, java.lang.reflect.Field> specializableFields = findSpecializableFields(oldWork);
+		if (specializableFields == null) return;
+
+		Klass instancesKlass = new Klass(packageName + "." + workerKlass.getName()+"Instances",
+				module.getKlass(Object.class),
+				ImmutableList.<Klass>of(),
+				module);
+		instancesKlass.modifiers().addAll(EnumSet.of(Modifier.PUBLIC, Modifier.FINAL));
+		//Static final fields can't be set from outside, so we set public
+		//fields in a helper class and copy them over in the static initializer.
+		Klass fieldHelperKlass = new Klass(instancesKlass.getName()+"FieldHelper",
+				module.getKlass(Object.class),
+				ImmutableList.<Klass>of(),
+				module);
+		fieldHelperKlass.modifiers().addAll(EnumSet.of(Modifier.PUBLIC, Modifier.FINAL));
+		Method clinit = new Method("<clinit>", types.getMethodType(void.class), EnumSet.of(Modifier.STATIC), instancesKlass);
+		BasicBlock clinitBlock = new BasicBlock(module);
+		clinit.basicBlocks().add(clinitBlock);
+		Map<String, Object> fieldValues = new HashMap<>();
+		Klass stateHolderKlass = module.getKlass(StateHolder.class);
+
+		for (WorkerActor a : eligible) {
+			Class<?> inputType = a.inputType().getRawType(), outputType = a.outputType().getRawType();
+			Method rwork = makeRwork(instancesKlass, stateHolderKlass);
+			for (BasicBlock b : rwork.basicBlocks())
+				for (Instruction i : ImmutableList.copyOf(b.instructions())) {
+					if (i instanceof LoadInst && specializableFields.containsKey(((LoadInst)i).getLocation())) {
+						java.lang.reflect.Field f = specializableFields.get(((LoadInst)i).getLocation());
+						Object value;
+						try {
+							value = f.get(a.worker());
+						} catch (IllegalAccessException ex) {
+							throw new AssertionError(ex);
+						}
+						if (f.getType().isPrimitive())
+							i.replaceInstWithValue(constant(value));
+						else {
+							String name = "actor"+a.id()+"_"+f.getName();
+							if (!fieldValues.containsKey(name)) {
+								Object copy = copyArray(value);
+								fieldValues.put(name, copy);
+								RegularType fieldType = types.getRegularType(f.getType());
+								Field field = new Field(fieldType, name, EnumSet.of(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL), instancesKlass);
+								Field helper = new Field(fieldType, name, EnumSet.of(Modifier.PUBLIC, Modifier.STATIC), fieldHelperKlass);
+								LoadInst li = new LoadInst(helper);
+								clinitBlock.instructions().add(li);
+								clinitBlock.instructions().add(new StoreInst(field, li));
+							}
+							LoadInst load = new LoadInst(instancesKlass.getField(name));
+							i.replaceInstWithInst(load);
+							for (ArrayLengthInst length : FluentIterable.from(load.users()).filter(ArrayLengthInst.class).toList())
+								length.replaceInstWithValue(module.constants().getConstant(java.lang.reflect.Array.getLength(value)));
+						}
+					} else if (i.operands().contains(rwork.arguments().get(0)))
+						remap((CallInst)i, inputType, outputType);
+				}
+
+			assert rwork.arguments().get(0).uses().isEmpty();
+			Method work = new Method("work"+a.id(),
+					rwork.getType().dropFirstArgument(),
+					EnumSet.of(Modifier.PUBLIC, Modifier.STATIC), instancesKlass);
+			Map<Value, Value> vmap = new IdentityHashMap<>();
+			vmap.put(rwork.arguments().get(0), null);
+			for (int i = 1; i < rwork.arguments().size(); ++i)
+				vmap.put(rwork.arguments().get(i), work.arguments().get(i-1));
+			Cloning.cloneMethod(rwork, work, vmap);
+			cleanWorkMethod(work);
+			rwork.eraseFromParent();
+		}
+		clinitBlock.instructions().add(new ReturnInst(types.getVoidType()));
+
+		ImmutableMap.Builder<WorkerActor, MethodHandle> instanceWorkMethodsBuilder = ImmutableMap.builder();
+		try {
+			Class<?> fieldHelperClass = loader.loadClass(fieldHelperKlass.getName());
+			for (Map.Entry<String, Object> e : fieldValues.entrySet())
+				fieldHelperClass.getField(e.getKey()).set(null, e.getValue());
+			Class<?> instancesClass = loader.loadClass(instancesKlass.getName());
+			for (WorkerActor a : eligible)
+				for (java.lang.reflect.Method m : instancesClass.getMethods())
+					if (m.getName().equals("work"+a.id()))
+						instanceWorkMethodsBuilder.put(a, MethodHandles.publicLookup().unreflect(m));
+		} catch (ClassNotFoundException | NoSuchFieldException | IllegalAccessException ex) {
+			throw new AssertionError(ex);
+		}
+		this.instanceWorkMethods = instanceWorkMethodsBuilder.build();
+	}
+
+	/**
+	 * Returns the worker fields the given (resolved) work method uses, mapped
+	 * to their reflective Fields, if they're all specializable: final
+	 * nonstatic fields that are int, long, float, double or boolean, or
+	 * arrays of primitives only read from or taken the length of.  Otherwise
+	 * returns null.
+	 * @param work the worker's work method
+	 * @return the specializable fields, or null
+	 */
+	private Map<Field, java.lang.reflect.Field> findSpecializableFields(Method work) {
+		Map<Field, java.lang.reflect.Field> specializable = new HashMap<>();
+		for (BasicBlock b : work.basicBlocks())
+			for (Instruction i : b.instructions()) {
+				if (!i.operands().contains(work.arguments().get(0)) &&
+						!i.operands().anyMatch(Predicates.<Value>in(workerKlass.fields())))
+					continue;
+				if (i instanceof CallInst) continue; //remapped as usual
+				if (!(i instanceof LoadInst) || !(((LoadInst)i).getLocation() instanceof Field))
+					return null;
+				Field f = (Field)((LoadInst)i).getLocation();
+				java.lang.reflect.Field rf = null;
+				for (java.lang.reflect.Field candidate : fields)
+					if (candidate.getName().equals(f.getName()) && candidate.getDeclaringClass().equals(f.getParent().getBackingClass()))
+						rf = candidate;
+				if (rf == null || !java.lang.reflect.Modifier.isFinal(rf.getModifiers()))
+					return null;
+				Class<?> type = rf.getType();
+				if (type.isArray()) {
+					if (!type.getComponentType().isPrimitive())
+						return null;
+					//(An array can only be an ArrayLoadInst's array operand.)
+					for (Instruction user : FluentIterable.from(i.users()).filter(Instruction.class))
+						if (!(user instanceof ArrayLengthInst) && !(user instanceof ArrayLoadInst))
+							return null;
+				} else if (type != int.class && type != long.class && type != float.class && type != double.class && type != boolean.class)
+					return null;
+				specializable.put(f, rf);
+			}
+		return specializable;
+	}
+
+	private Value constant(Object value) {
+		Module module = workerKlass.getParent();
+		if (value instanceof Integer)
+			return module.constants().getConstant((Integer)value);
+		if (value instanceof Long)
+			return module.constants().getConstant((Long)value);
+		if (value instanceof Float)
+			return module.constants().getConstant((Float)value);
+		if (value instanceof Double)
+			return module.constants().getConstant((Double)value);
+		if (value instanceof Boolean)
+			return module.constants().getConstant((Boolean)value);
+		throw new AssertionError(value);
+	}
+
+	private static Object copyArray(Object array) {
+		int length = java.lang.reflect.Array.getLength(array);
+		Object copy = java.lang.reflect.Array.newInstance(array.getClass().getComponentType(), length);
+		System.arraycopy(array, 0, copy, 0, length);
+		return copy;
 	}
 
 	private Klass makeStateHolderKlass(String packageName) {
@@ -440,6 +675,8 @@ public class ActorArchetype {
 		assert inputs != null;
 		Method outputs = splitterKlass.getMethod("outputs", module.types().getMethodType(int.class, Splitter.class));
 		assert outputs != null;
+		Method getHandle = module.getKlass(Portal.class).getMethod("getHandle", module.types().getMethodType(Object.class, Portal.class, Worker.class, int.class));
+		assert getHandle != null;
 		Method invokeExact = Iterables.getOnlyElement(module.getKlass(MethodHandle.class).getMethods("invokeExact"));
 
 		List<Instruction> insts = new ArrayList<>();
@@ -475,6 +712,15 @@ public class ActorArchetype {
 			ArrayLengthInst length = new ArrayLengthInst(writeIndex);
 			insts.add(length);
 			replacement = length;
+		} else if (method.equals(getHandle)) {
+			//Message delivery times depend on the sender's execution count,
+			//so the handle needs the real worker; get it from the holder.
+			Method holderWorker = module.getKlass(StateHolder.class).getMethod("worker", module.types().getMethodType(Worker.class, StateHolder.class));
+			CallInst worker = new CallInst(holderWorker, rwork.getArgument("$stateHolder"));
+			insts.add(worker);
+			CallInst handle = new CallInst(getHandle, inst.getArgument(0), worker, inst.getArgument(2));
+			insts.add(handle);
+			replacement = handle;
 		} else
 			throw new AssertionError(inst);
 		inst.replaceInstWithInsts(replacement, insts);
@@ -712,6 +958,9 @@ public class ActorArchetype {
 	 */
 	public MethodHandle specialize(WorkerActor a) {
 		checkArgument(a.archetype() == this);
+		MethodHandle instanceHandle = instanceWorkMethods.get(a);
+		if (instanceHandle != null)
+			return instanceHandle.bindTo(a.stateHolder());
 		MethodHandle handle = workMethods.get(new Pair<>(a.inputType().getRawType(), a.outputType().getRawType()));
 		return handle.bindTo(a.stateHolder());
 	}
@@ -26,6 +26,7 @@ import static com.google.common.base.Preconditions.*;
 import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
 import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
@@ -46,6 +47,7 @@ import java.lang.invoke.MethodType;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -59,6 +61,11 @@ import java.util.Set;
 public class ActorGroup implements Comparable<ActorGroup> {
 	private ImmutableSortedSet<Actor> actors;
 	private ImmutableMap<Actor, Integer> schedule;
+	/**
+	 * Linear chains replacing some of our actors, keyed by their head actor;
+	 * see LinearAnalysis.
+	 */
+	private ImmutableMap<Actor, LinearAnalysis.Chain> linearChains = ImmutableMap.of();
 	private ActorGroup(ImmutableSortedSet<Actor> actors) {
 		this.actors = actors;
 		for (Actor a : actors)
@@ -104,7 +111,7 @@ public class ActorGroup implements Comparable<ActorGroup> {
 
 	public boolean isStateful() {
 		for (Actor a : actors())
-			if (a instanceof WorkerActor && ((WorkerActor)a).archetype().isStateful())
+			if (a instanceof WorkerActor && ((WorkerActor)a).isStateful())
 				return true;
 		return false;
 	}
@@ -177,6 +184,16 @@ public class ActorGroup implements Comparable<ActorGroup> {
 		this.schedule = schedule;
 	}
 
+	public ImmutableMap<Actor, LinearAnalysis.Chain> linearChains() {
+		return linearChains;
+	}
+
+	public void setLinearChains(ImmutableMap<Actor, LinearAnalysis.Chain> linearChains) {
+		for (LinearAnalysis.Chain c : linearChains.values())
+			checkArgument(actors().containsAll(c.actors()), "chain %s not in %s", c, this);
+		this.linearChains = linearChains;
+	}
+
 	/**
 	 * Returns the physical indices read from the given storage during the given
 	 * group iteration.
@@ -276,6 +293,28 @@ public class ActorGroup implements Comparable<ActorGroup> {
 			ImmutableTable<Actor, Integer, IndexFunctionTransformer> inputTransformers,
 			ImmutableTable<Actor, Integer, IndexFunctionTransformer> outputTransformers,
 			ProxyFactory bytecodifier) {
+		List<MethodHandle> loopHandles = new ArrayList<>(2);
+		for (GroupLoop loop : makeGroupLoops(iterations, storage, unrollFactor, inputTransformers, outputTransformers))
+			loopHandles.add(makeGroupLoopHandle(loop, bytecodifier));
+		MethodHandle overall = Combinators.semicolon(loopHandles);
+		return bytecodifier.bytecodify(overall, "Group"+id()+"Iter"+iterations.lowerEndpoint()+"To"+iterations.upperEndpoint());
+	}
+
+	/**
+	 * Returns the loops that run this ActorGroup for the given iterations
+	 * using the given ConcreteStorage instances: a loop over as many
+	 * iterations as can be unrolled by the unroll factor, then a loop over the
+	 * remaining iterations (either of which may be empty).  The method handle
+	 * backend ({@link #specialize}) and the straight-line backend
+	 * ({@link LoopNestGenerator}) both generate code from these.
+	 * @param iterations the range of iterations to run for
+	 * @param storage the storage being used
+	 * @return the group loops, in execution order
+	 */
+	public ImmutableList<GroupLoop> makeGroupLoops(Range<Integer> iterations, Map<Storage, ConcreteStorage> storage,
+			int unrollFactor,
+			ImmutableTable<Actor, Integer, IndexFunctionTransformer> inputTransformers,
+			ImmutableTable<Actor, Integer, IndexFunctionTransformer> outputTransformers) {
 		//TokenActors are special.
 		assert !isTokenGroup() : actors();
 
@@ -286,56 +325,173 @@ public class ActorGroup implements Comparable<ActorGroup> {
 		unrollFactor = Math.min(unrollFactor, totalIterations);
 		int unrolls = (totalIterations/unrollFactor);
 		int unrollEndpoint = iterations.lowerEndpoint() + unrolls*unrollFactor;
-		MethodHandle overall = Combinators.semicolon(
-				makeGroupLoop(Range.closedOpen(iterations.lowerEndpoint(), unrollEndpoint), unrollFactor, withRWHandlesBound, bytecodifier),
-				makeGroupLoop(Range.closedOpen(unrollEndpoint, iterations.upperEndpoint()), 1, withRWHandlesBound, bytecodifier)
-		);
-		return bytecodifier.bytecodify(overall, "Group"+id()+"Iter"+iterations.lowerEndpoint()+"To"+iterations.upperEndpoint());
+		return ImmutableList.of(
+				makeGroupLoop(Range.closedOpen(iterations.lowerEndpoint(), unrollEndpoint), unrollFactor, withRWHandlesBound),
+				makeGroupLoop(Range.closedOpen(unrollEndpoint, iterations.upperEndpoint()), 1, withRWHandlesBound));
+	}
+
+	/**
+	 * A loop over a range of group iterations, stepping by the unroll factor.
+	 * Each trip runs each actor's executions for that many group iterations in
+	 * turn.  Before the loop, the splitter/joiner index arrays must be
+	 * reinitialized from their initial values.
+	 */
+	public static final class GroupLoop {
+		private final ActorGroup group;
+		private final int begin, end, step;
+		private final int[][] copies;
+		private final ImmutableList<WorkerLoop> workers;
+		private GroupLoop(ActorGroup group, int begin, int end, int step, int[][] copies, ImmutableList<WorkerLoop> workers) {
+			this.group = group;
+			this.begin = begin;
+			this.end = end;
+			this.step = step;
+			this.copies = copies;
+			this.workers = workers;
+		}
+		public ActorGroup group() {
+			return group;
+		}
+		public int begin() {
+			return begin;
+		}
+		public int end() {
+			return end;
+		}
+		public int step() {
+			return step;
+		}
+		/**
+		 * Returns the index array copies to perform before the loop, as
+		 * alternating source (initial values) and destination (the arrays
+		 * passed to the work methods).
+		 * @return the copies to perform
+		 */
+		public int[][] copies() {
+			return copies;
+		}
+		public ImmutableList<WorkerLoop> workers() {
+			return workers;
+		}
+		@Override
+		public String toString() {
+			return String.format("Group%dIter%dTo%dBy%d", group.id(), begin, end, step);
+		}
+	}
+
+	/**
+	 * One actor's part of a GroupLoop trip: executions i from
+	 * firstIteration*subiterations (exclusive of earlier trips) call the work
+	 * method with i*pop (or the read index array) and i*push (or the write
+	 * index array).
+	 */
+	public static final class WorkerLoop {
+		private final WorkerActor actor;
+		private final MethodHandle work;
+		private final int subiterations;
+		private final Object pop, push;
+		private WorkerLoop(WorkerActor actor, MethodHandle work, int subiterations, Object pop, Object push) {
+			this.actor = actor;
+			this.work = work;
+			this.subiterations = subiterations;
+			this.pop = pop;
+			this.push = push;
+		}
+		public WorkerActor actor() {
+			return actor;
+		}
+		/**
+		 * Returns the work method with read and write handles bound, taking
+		 * two int or int[] parameters (matching pop() and push()).
+		 * @return the work method
+		 */
+		public MethodHandle work() {
+			return work;
+		}
+		/**
+		 * Returns the number of executions per group iteration.
+		 * @return the number of executions per group iteration
+		 */
+		public int subiterations() {
+			return subiterations;
+		}
+		/**
+		 * Returns the pop rate (an Integer) for single-input actors, or the
+		 * read index array (an int[]) for joiners.
+		 * @return the pop rate or read index array
+		 */
+		public Object pop() {
+			return pop;
+		}
+		/**
+		 * Returns the push rate (an Integer) for single-output actors, or the
+		 * write index array (an int[]) for splitters.
+		 * @return the push rate or write index array
+		 */
+		public Object push() {
+			return push;
+		}
 	}
 
 	/**
 	 * Compute the read and write method handles for each Actor. These don't
-	 * depend on the iteration, so we can bind and reuse them.
+	 * depend on the iteration, so we can bind and reuse them.  Linear chains
+	 * are bound under their head actor, reading from the head's input and
+	 * writing to the tail's output; the chain's other actors are omitted.
 	 */
 	private Map<Actor, MethodHandle> bindActorsToStorage(Range<Integer> iterations, Map<Storage, ConcreteStorage> storage, ImmutableTable<Actor, Integer, IndexFunctionTransformer> inputTransformers, ImmutableTable<Actor, Integer, IndexFunctionTransformer> outputTransformers) {
+		Set<Actor> chained = new HashSet<>();
+		for (LinearAnalysis.Chain c : linearChains.values())
+			chained.addAll(c.actors());
 		Map<Actor, MethodHandle> withRWHandlesBound = new HashMap<>();
 		for (Actor a : actors()) {
 			WorkerActor wa = (WorkerActor)a;
+			LinearAnalysis.Chain chain = linearChains.get(a);
+			if (chain != null) {
+				MethodHandle read = readHandle(chain.head(), iterations, storage, inputTransformers);
+				MethodHandle write = writeHandle(chain.tail(), iterations, storage, outputTransformers);
+				withRWHandlesBound.put(wa, chain.form().specialize(read, write));
+				continue;
+			}
+			if (chained.contains(a)) continue;
 			MethodHandle specialized = wa.archetype().specialize(wa);
+			MethodHandle read = readHandle(wa, iterations, storage, inputTransformers);
+			MethodHandle write = writeHandle(wa, iterations, storage, outputTransformers);
+			withRWHandlesBound.put(wa, wa.wrapForMessaging(specialized.bindTo(read).bindTo(write)));
+		}
+		return withRWHandlesBound;
+	}
 
-			assert a.inputs().size() > 0 : a;
-			MethodType readHandleType = MethodType.methodType(wa.inputType().getRawType(), int.class);
-			MethodHandle read;
-			if (wa.worker() instanceof Joiner) {
-				MethodHandle[] table = new MethodHandle[a.inputs().size()];
-				for (int i = 0; i < a.inputs().size(); i++)
-					table[i] = MethodHandles.filterArguments(storage.get(a.inputs().get(i)).readHandle(), 0,
-							inputTransformers.get(a, i).transform(a.inputIndexFunctions().get(i), new PeeksSupplier(a, i, iterations)))
-							.asType(readHandleType);
-				read = Combinators.tableswitch(table);
-			} else
-				read = MethodHandles.filterArguments(storage.get(a.inputs().get(0)).readHandle(), 0,
-						inputTransformers.get(a, 0).transform(a.inputIndexFunctions().get(0), new PeeksSupplier(a, 0, iterations)))
+	private MethodHandle readHandle(WorkerActor a, Range<Integer> iterations, Map<Storage, ConcreteStorage> storage, ImmutableTable<Actor, Integer, IndexFunctionTransformer> inputTransformers) {
+		assert a.inputs().size() > 0 : a;
+		MethodType readHandleType = MethodType.methodType(a.inputType().getRawType(), int.class);
+		if (a.worker() instanceof Joiner) {
+			MethodHandle[] table = new MethodHandle[a.inputs().size()];
+			for (int i = 0; i < a.inputs().size(); i++)
+				table[i] = MethodHandles.filterArguments(storage.get(a.inputs().get(i)).readHandle(), 0,
+						inputTransformers.get(a, i).transform(a.inputIndexFunctions().get(i), new PeeksSupplier(a, i, iterations)))
 						.asType(readHandleType);
-
-			assert a.outputs().size() > 0 : a;
-			MethodType writeHandleType = MethodType.methodType(void.class, int.class, wa.outputType().getRawType());
-			MethodHandle write;
-			if (wa.worker() instanceof Splitter) {
-				MethodHandle[] table = new MethodHandle[a.outputs().size()];
-				for (int i = 0; i < a.outputs().size(); ++i)
-					table[i] = MethodHandles.filterArguments(storage.get(a.outputs().get(i)).writeHandle(), 0,
-							outputTransformers.get(a, i).transform(a.outputIndexFunctions().get(i), new PushesSupplier(a, i, iterations)))
-							.asType(writeHandleType);
-				write = Combinators.tableswitch(table);
-			} else
-				write = MethodHandles.filterArguments(storage.get(a.outputs().get(0)).writeHandle(), 0,
-						outputTransformers.get(a, 0).transform(a.outputIndexFunctions().get(0), new PushesSupplier(a, 0, iterations)))
+			return Combinators.tableswitch(table);
+		} else
+			return MethodHandles.filterArguments(storage.get(a.inputs().get(0)).readHandle(), 0,
+					inputTransformers.get(a, 0).transform(a.inputIndexFunctions().get(0), new PeeksSupplier(a, 0, iterations)))
+					.asType(readHandleType);
+	}
+
+	private MethodHandle writeHandle(WorkerActor a, Range<Integer> iterations, Map<Storage, ConcreteStorage> storage, ImmutableTable<Actor, Integer, IndexFunctionTransformer> outputTransformers) {
+		assert a.outputs().size() > 0 : a;
+		MethodType writeHandleType = MethodType.methodType(void.class, int.class, a.outputType().getRawType());
+		if (a.worker() instanceof Splitter) {
+			MethodHandle[] table = new MethodHandle[a.outputs().size()];
+			for (int i = 0; i < a.outputs().size(); ++i)
+				table[i] = MethodHandles.filterArguments(storage.get(a.outputs().get(i)).writeHandle(), 0,
+						outputTransformers.get(a, i).transform(a.outputIndexFunctions().get(i), new PushesSupplier(a, i, iterations)))
 						.asType(writeHandleType);
-
-			withRWHandlesBound.put(wa, specialized.bindTo(read).bindTo(write));
-		}
-		return withRWHandlesBound;
+			return Combinators.tableswitch(table);
+		} else
+			return MethodHandles.filterArguments(storage.get(a.outputs().get(0)).writeHandle(), 0,
+					outputTransformers.get(a, 0).transform(a.outputIndexFunctions().get(0), new PushesSupplier(a, 0, iterations)))
+					.asType(writeHandleType);
 	}
 
 	//TODO: replace these with Java 8 lambdas!
@@ -370,35 +526,58 @@ public class ActorGroup implements Comparable<ActorGroup> {
 	}
 
 	/**
-	 * Make loop handles for each Actor that execute the iteration given as
-	 * an argument, then bind them together in an outer loop body that
-	 * executes all the iterations.  Before the outer loop we must also
-	 * reinitialize the splitter/joiner index arrays to their initial
-	 * values.
+	 * Make a loop for each Actor that executes the iteration given as an
+	 * argument, to be run in an outer loop that executes all the iterations.
+	 * Before the outer loop we must also reinitialize the splitter/joiner
+	 * index arrays to their initial values.
 	 */
-	private MethodHandle makeGroupLoop(Range<Integer> iterations, int unrollFactor, Map<Actor, MethodHandle> withRWHandlesBound, ProxyFactory bytecodifier) {
-		if (iterations.isEmpty()) return Combinators.nop();
-		String groupLoopName = String.format("Group%dIter%dTo%dBy%d", id(), iterations.lowerEndpoint(), iterations.upperEndpoint(), unrollFactor);
-		List<MethodHandle> loopHandles = new ArrayList<>(actors().size());
+	private GroupLoop makeGroupLoop(Range<Integer> iterations, int unrollFactor, Map<Actor, MethodHandle> withRWHandlesBound) {
+		ImmutableList.Builder<WorkerLoop> workerLoops = ImmutableList.builder();
 		Map<int[], int[]> requiredCopies = new LinkedHashMap<>();
 		for (Actor a : actors()) {
-			MethodHandle workerLoop = makeWorkerLoop((WorkerActor)a, withRWHandlesBound.get(a), unrollFactor, iterations.lowerEndpoint(), requiredCopies);
-			String workerLoopName = String.format("%sWorker%d", groupLoopName, a.id());
+			MethodHandle work = withRWHandlesBound.get(a);
+			if (work == null) continue; //in a linear chain
+			LinearAnalysis.Chain chain = linearChains.get(a);
+			if (chain != null)
+				workerLoops.add(new WorkerLoop((WorkerActor)a, work, chain.firings(), chain.form().pop(), chain.form().push()));
+			else
+				workerLoops.add(makeWorkerLoop((WorkerActor)a, work, iterations.lowerEndpoint(), requiredCopies));
+		}
+		int[][] copies = new int[requiredCopies.size()*2][];
+		int i = 0;
+		for (Map.Entry<int[], int[]> e : requiredCopies.entrySet()) {
+			copies[i++] = e.getKey();
+			copies[i++] = e.getValue();
+		}
+		return new GroupLoop(this, iterations.lowerEndpoint(), iterations.upperEndpoint(), unrollFactor, copies, workerLoops.build());
+	}
+
+	/**
+	 * Makes the method handle implementing the given group loop.
+	 */
+	private MethodHandle makeGroupLoopHandle(GroupLoop loop, ProxyFactory bytecodifier) {
+		String groupLoopName = loop.toString();
+		List<MethodHandle> loopHandles = new ArrayList<>(loop.workers().size());
+		for (WorkerLoop w : loop.workers()) {
+			MethodHandle loopHandle;
+			if (w.actor().worker() instanceof Filter)
+				loopHandle = FILTER_LOOP;
+			else if (w.actor().worker() instanceof Splitter)
+				loopHandle = SPLITTER_LOOP;
+			else if (w.actor().worker() instanceof Joiner)
+				loopHandle = JOINER_LOOP;
+			else
+				throw new AssertionError(w.actor());
+			MethodHandle workerLoop = MethodHandles.insertArguments(loopHandle, 0, w.work(), loop.step(), w.subiterations(), w.pop(), w.push());
+			String workerLoopName = String.format("%sWorker%d", groupLoopName, w.actor().id());
 			loopHandles.add(bytecodifier.bytecodify(workerLoop, workerLoopName));
 		}
 		MethodHandle groupLoop = MethodHandles.insertArguments(OVERALL_GROUP_LOOP, 0,
-				Combinators.semicolon(loopHandles), iterations.lowerEndpoint(), iterations.upperEndpoint(), unrollFactor);
-		if (!requiredCopies.isEmpty()) {
-			int[][] copies = new int[requiredCopies.size()*2][];
-			int i = 0;
-			for (Map.Entry<int[], int[]> e : requiredCopies.entrySet()) {
-				copies[i++] = e.getKey();
-				copies[i++] = e.getValue();
-			}
+				Combinators.semicolon(loopHandles), loop.begin(), loop.end(), loop.step());
+		if (loop.copies().length > 0)
 			groupLoop = Combinators.semicolon(
-					MethodHandles.insertArguments(REINITIALIZE_ARRAYS, 0, (Object)copies),
+					MethodHandles.insertArguments(REINITIALIZE_ARRAYS, 0, (Object)loop.copies()),
 					groupLoop);
-		}
 		return groupLoop;
 	}
 
@@ -408,14 +587,13 @@ public class ActorGroup implements Comparable<ActorGroup> {
 	 * @param a the actor
 	 * @param base the specialized work method with read/write handles bound;
 	 * takes two int or int[] parameters
-	 * @param unrollFactor the number of group iterations to execute
 	 * @param firstIteration the first iteration to execute, for computing the
 	 * initial contents of index arrays
 	 * @param requiredCopies accumulates the copies required to reinitialize the
 	 * index arrays
-	 * @return a MethodHandle taking one int parameter
+	 * @return the worker loop
 	 */
-	private MethodHandle makeWorkerLoop(WorkerActor a, MethodHandle base, int unrollFactor, int firstIteration, Map<int[], int[]> requiredCopies) {
+	private WorkerLoop makeWorkerLoop(WorkerActor a, MethodHandle base, int firstIteration, Map<int[], int[]> requiredCopies) {
 		int subiterations = schedule.get(a);
 		Object pop, push;
 		if (base.type().parameterType(0).equals(int.class)) {
@@ -438,16 +616,7 @@ public class ActorGroup implements Comparable<ActorGroup> {
 			push = writeIndices.clone();
 			requiredCopies.put(writeIndices, (int[])push);
 		}
-		MethodHandle loopHandle;
-		if (a.worker() instanceof Filter)
-			loopHandle = FILTER_LOOP;
-		else if (a.worker() instanceof Splitter)
-			loopHandle = SPLITTER_LOOP;
-		else if (a.worker() instanceof Joiner)
-			loopHandle = JOINER_LOOP;
-		else
-			throw new AssertionError(a);
-		return MethodHandles.insertArguments(loopHandle, 0, base, unrollFactor, subiterations, pop, push);
+		return new WorkerLoop(a, base, subiterations, pop, push);
 	}
 
 	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
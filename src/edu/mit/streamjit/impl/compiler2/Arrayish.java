@@ -27,6 +27,7 @@ import static edu.mit.streamjit.util.bytecode.methodhandles.LookupUtils.findStat
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import static edu.mit.streamjit.util.bytecode.methodhandles.LookupUtils.findVirtual;
+import edu.mit.streamjit.impl.blob.Buffers;
 import edu.mit.streamjit.util.NIOBufferUtils;
 import edu.mit.streamjit.util.PrimitiveUtils;
 import static edu.mit.streamjit.util.bytecode.methodhandles.LookupUtils.params;
@@ -57,6 +58,51 @@ public interface Arrayish {
 	 */
 	public MethodHandle set();
 
+	/**
+	 * Reads up to count items from the given Buffer into this Arrayish,
+	 * beginning at the given index.  This implementation reads Objects and
+	 * stores them through {@link #set()}; implementations backed by arrays
+	 * override it to avoid boxing when the Buffer permits.
+	 * @param source the buffer to read from
+	 * @param index the index of the first slot to store into
+	 * @param count the number of items to read
+	 * @return the number of items read
+	 */
+	public default int readFrom(edu.mit.streamjit.impl.blob.Buffer source, int index, int count) {
+		Object[] data = new Object[count];
+		int read = source.read(data, 0, count);
+		MethodHandle set = set();
+		try {
+			for (int i = 0; i < read; ++i)
+				set.invoke(index + i, data[i]);
+		} catch (Throwable ex) {
+			throw new AssertionError(String.format("%s.readFrom(%s, %d, %d)", this, source, index, count), ex);
+		}
+		return read;
+	}
+
+	/**
+	 * Writes up to count items from this Arrayish, beginning at the given
+	 * index, into the given Buffer.  This implementation loads the items
+	 * through {@link #get()} and writes them as Objects; implementations
+	 * backed by arrays override it to avoid boxing when the Buffer permits.
+	 * @param dest the buffer to write into
+	 * @param index the index of the first slot to load from
+	 * @param count the number of items to write
+	 * @return the number of items written
+	 */
+	public default int writeTo(edu.mit.streamjit.impl.blob.Buffer dest, int index, int count) {
+		Object[] data = new Object[count];
+		MethodHandle get = get();
+		try {
+			for (int i = 0; i < count; ++i)
+				data[i] = get.invoke(index + i);
+		} catch (Throwable ex) {
+			throw new AssertionError(String.format("%s.writeTo(%s, %d, %d)", this, dest, index, count), ex);
+		}
+		return dest.write(data, 0, count);
+	}
+
 	/**
 	 * A Factory for Arrayish objects.
 	 *
@@ -64,6 +110,17 @@ public interface Arrayish {
 	 */
 	public interface Factory extends Serializable {
 		public Arrayish make(Class<?> type, int size);
+		/**
+		 * Makes an Arrayish, allocating any native memory from the given
+		 * arena.  Factories not using native memory ignore the arena.
+		 * @param type the element type
+		 * @param size the number of elements
+		 * @param arena the arena to allocate from
+		 * @return an Arrayish
+		 */
+		public default Arrayish make(Class<?> type, int size, OffHeapArena arena) {
+			return make(type, size);
+		}
 	}
 
 	/**
@@ -93,6 +150,14 @@ public interface Arrayish {
 		public MethodHandle set() {
 			return set;
 		}
+		@Override
+		public int readFrom(edu.mit.streamjit.impl.blob.Buffer source, int index, int count) {
+			return Buffers.read(source, array, index, count);
+		}
+		@Override
+		public int writeTo(edu.mit.streamjit.impl.blob.Buffer dest, int index, int count) {
+			return Buffers.write(dest, array, index, count);
+		}
 		public static Factory factory() {
 			return new Factory() {
 				private static final long serialVersionUID = 1L;
@@ -120,12 +185,30 @@ public interface Arrayish {
 		private final Buffer buffer;
 		private final int size;
 		private final MethodHandle get, set;
+		/**
+		 * The arena our buffer was allocated from (kept to keep it reachable),
+		 * or null.
+		 */
+		private final OffHeapArena arena;
 		public NIOArrayish(Class<?> type, int size) {
+			this(type, size, null);
+		}
+		/**
+		 * Creates an NIOArrayish whose buffer is allocated from the given
+		 * arena, or separately if the arena is null.
+		 * @param type the element type
+		 * @param size the number of elements
+		 * @param arena the arena to allocate from, or null
+		 */
+		public NIOArrayish(Class<?> type, int size, OffHeapArena arena) {
 			checkArgument(type.isPrimitive() && !type.equals(void.class), "%s can't be stored in an NIO buffer", type);
 			Class<?> dataType = type.equals(boolean.class) ? byte.class : type;
 			Class<? extends Buffer> bufferType = NIOBufferUtils.bufferForPrimitive(dataType);
-			this.buffer = NIOBufferUtils.allocateDirect(bufferType, size);
+			this.buffer = arena != null ?
+					NIOBufferUtils.view(bufferType, arena.allocateByteBuffer(size * PrimitiveUtils.sizeof(dataType))) :
+					NIOBufferUtils.allocateDirect(bufferType, size);
 			this.size = size;
+			this.arena = arena;
 
 			//explicitCastArguments converts byte to boolean and back; otherwise
 			//the types exactly match and the target is returned immediately.
@@ -160,6 +243,10 @@ public interface Arrayish {
 					return new NIOArrayish(type, size);
 				}
 				@Override
+				public Arrayish make(Class<?> type, int size, OffHeapArena arena) {
+					return new NIOArrayish(type, size, arena);
+				}
+				@Override
 				public boolean equals(Object obj) {
 					return getClass().equals(obj.getClass());
 				}
@@ -172,7 +259,9 @@ public interface Arrayish {
 	}
 
 	/**
-	 * An Arrayish of primitives backed by native memory.
+	 * An Arrayish of primitives backed by native memory, either allocated from
+	 * an OffHeapArena (and freed when the arena is released) or allocated
+	 * individually (and freed when this object is finalized).
 	 */
 	public static final class UnsafeArrayish implements Arrayish {
 		private static final sun.misc.Unsafe UNSAFE;
@@ -190,12 +279,29 @@ public interface Arrayish {
 		private final long memory;
 		private final int size;
 		private final MethodHandle get, set;
+		/**
+		 * The arena our memory was allocated from (kept to keep it reachable),
+		 * or null if we allocated it ourselves.
+		 */
+		private final OffHeapArena arena;
 		public UnsafeArrayish(Class<?> type, int size) {
+			this(type, size, null);
+		}
+		/**
+		 * Creates an UnsafeArrayish whose memory is allocated from the given
+		 * arena, or individually if the arena is null.
+		 * @param type the element type
+		 * @param size the number of elements
+		 * @param arena the arena to allocate from, or null
+		 */
+		public UnsafeArrayish(Class<?> type, int size, OffHeapArena arena) {
 			//We can't store object references for lack of GC roots.
 			checkArgument(type.isPrimitive() && !type.equals(void.class), "%s can't be stored in native memory", type);
 			checkArgument(size >= 0, "bad size: %s", size);
-			this.memory = UNSAFE.allocateMemory(size * PrimitiveUtils.sizeof(type));
+			long bytes = (long)size * PrimitiveUtils.sizeof(type);
+			this.memory = arena != null ? arena.allocate(bytes) : UNSAFE.allocateMemory(bytes);
 			this.size = size;
+			this.arena = arena;
 
 			Class<?> dataType = type.equals(boolean.class) ? byte.class : type;
 			String dataTypeNameCap = dataType.getSimpleName().substring(0, 1).toUpperCase(Locale.ROOT)
@@ -237,7 +343,8 @@ public interface Arrayish {
 		@Override
 		protected void finalize() throws Throwable {
 			super.finalize();
-			UNSAFE.freeMemory(memory);
+			if (arena == null)
+				UNSAFE.freeMemory(memory);
 		}
 		public static Factory factory() {
 			return new Factory() {
@@ -247,6 +354,10 @@ public interface Arrayish {
 					return new UnsafeArrayish(type, size);
 				}
 				@Override
+				public Arrayish make(Class<?> type, int size, OffHeapArena arena) {
+					return new UnsafeArrayish(type, size, arena);
+				}
+				@Override
 				public boolean equals(Object obj) {
 					return getClass().equals(obj.getClass());
 				}
@@ -21,6 +21,7 @@
  */
 package edu.mit.streamjit.impl.compiler2;
 
+import edu.mit.streamjit.impl.blob.Buffer;
 import static edu.mit.streamjit.util.bytecode.methodhandles.LookupUtils.findGetter;
 import static edu.mit.streamjit.util.bytecode.methodhandles.LookupUtils.findStatic;
 import static edu.mit.streamjit.util.bytecode.methodhandles.LookupUtils.findVirtual;
@@ -33,7 +34,7 @@ import java.lang.invoke.MethodHandles.Lookup;
  * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
  * @since 10/10/2013
  */
-public class CircularArrayConcreteStorage implements ConcreteStorage {
+public class CircularArrayConcreteStorage implements ConcreteStorage, BulkReadableConcreteStorage, BulkWritableConcreteStorage {
 	private static final Lookup LOOKUP = MethodHandles.lookup();
 	private static final MethodHandle INDEX = findStatic(LOOKUP, "index");
 	private static final MethodHandle ADJUST = findVirtual(LOOKUP, "adjust");
@@ -86,6 +87,26 @@ public class CircularArrayConcreteStorage implements ConcreteStorage {
 		return adjustHandle;
 	}
 
+	@Override
+	public int bulkRead(Buffer dest, int index, int count) {
+		//The items may wrap around the end of the array.
+		int begin = index(capacity, head, index);
+		int firstRun = Math.min(count, capacity - begin);
+		int written = array.writeTo(dest, begin, firstRun);
+		if (written == firstRun)
+			written += array.writeTo(dest, 0, count - firstRun);
+		return written;
+	}
+
+	@Override
+	public void bulkWrite(Buffer source, int index, int count) {
+		int begin = index(capacity, head, index);
+		int firstRun = Math.min(count, capacity - begin);
+		int read = array.readFrom(source, begin, firstRun);
+		read += array.readFrom(source, 0, count - firstRun);
+		assert read == count : String.format("%s: read %d of %d", this, read, count);
+	}
+
 	private static int index(int capacity, int head, int physicalIndex) {
 		//assumes (physicalIndex + head) >= 0
 		//I'd assert but that would add bytes to the method, hampering inlining.
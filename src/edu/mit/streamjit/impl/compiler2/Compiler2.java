@@ -45,6 +45,7 @@ import edu.mit.streamjit.api.IllegalStreamGraphException;
 import edu.mit.streamjit.api.Input;
 import edu.mit.streamjit.api.Joiner;
 import edu.mit.streamjit.api.Output;
+import edu.mit.streamjit.api.Portal;
 import edu.mit.streamjit.api.RoundrobinJoiner;
 import edu.mit.streamjit.api.RoundrobinSplitter;
 import edu.mit.streamjit.api.Splitter;
@@ -58,12 +59,16 @@ import edu.mit.streamjit.impl.blob.Blob.Token;
 import edu.mit.streamjit.impl.blob.Buffer;
 import edu.mit.streamjit.impl.blob.DrainData;
 import edu.mit.streamjit.impl.blob.PeekableBuffer;
+import edu.mit.streamjit.impl.blob.ProfilingMetrics;
 import edu.mit.streamjit.impl.common.Configuration;
 import edu.mit.streamjit.impl.common.Configuration.IntParameter;
 import edu.mit.streamjit.impl.common.Configuration.SwitchParameter;
 import edu.mit.streamjit.impl.common.InputBufferFactory;
+import edu.mit.streamjit.impl.common.MessageConstraint;
 import edu.mit.streamjit.impl.common.OutputBufferFactory;
+import edu.mit.streamjit.impl.common.Portals;
 import edu.mit.streamjit.impl.common.Workers;
+import edu.mit.streamjit.impl.common.Workers.StreamPosition;
 import edu.mit.streamjit.impl.compiler.Schedule;
 import edu.mit.streamjit.impl.compiler2.Compiler2BlobHost.DrainInstruction;
 import edu.mit.streamjit.impl.compiler2.Compiler2BlobHost.ReadInstruction;
@@ -75,7 +80,10 @@ import edu.mit.streamjit.util.CollectionUtils;
 import edu.mit.streamjit.util.bytecode.methodhandles.Combinators;
 import static edu.mit.streamjit.util.bytecode.methodhandles.LookupUtils.findStatic;
 import edu.mit.streamjit.util.Pair;
+import edu.mit.streamjit.util.PrimitiveUtils;
 import edu.mit.streamjit.util.ReflectionUtils;
+import edu.mit.streamjit.util.affinity.Affinity;
+import edu.mit.streamjit.util.affinity.CpuTopology;
 import edu.mit.streamjit.util.bytecode.Module;
 import edu.mit.streamjit.util.bytecode.ModuleClassLoader;
 import edu.mit.streamjit.util.bytecode.methodhandles.ProxyFactory;
@@ -90,7 +98,9 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
@@ -120,7 +130,30 @@ public class Compiler2 {
 	public static final StorageStrategy INTERNAL_STORAGE_STRATEGY = new TuneInternalStorageStrategy();
 	public static final StorageStrategy EXTERNAL_STORAGE_STRATEGY = new TuneExternalStorageStrategy();
 	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+	/**
+	 * Canonicalizers for cached scheduling (see Schedule.Builder.build(Function));
+	 * actor and group ids are stable across compilations of the same graph.
+	 */
+	private static final Function<Actor, Integer> ACTOR_ID = new Function<Actor, Integer>() {
+		@Override
+		public Integer apply(Actor input) {
+			return input.id();
+		}
+	};
+	private static final Function<ActorGroup, Integer> GROUP_ID = new Function<ActorGroup, Integer>() {
+		@Override
+		public Integer apply(ActorGroup input) {
+			return input.id();
+		}
+	};
 	private static final AtomicInteger PACKAGE_NUMBER = new AtomicInteger();
+	/**
+	 * The minimum average run length for which blob boundary I/O is done with
+	 * one bulk transfer per run rather than item-by-item (see runs()).  Each
+	 * bulk transfer has some fixed cost, so strided patterns with very short
+	 * runs are better served by the token instructions.
+	 */
+	private static final int MIN_BULK_RUN_LENGTH = 4;
 	private final ImmutableSet<Worker<?, ?>> workers;
 	private final ImmutableSet<ActorArchetype> archetypes;
 	private final NavigableSet<Actor> actors;
@@ -129,6 +162,11 @@ public class Compiler2 {
 	private final Configuration config;
 	private final int maxNumCores;
 	private final DrainData initialState;
+	/**
+	 * Profiling metrics the compiled blob will record into, if requested by the
+	 * "profile" extra data; else null.
+	 */
+	private final ProfilingMetrics metrics;
 	/**
 	 * If the blob is the entire graph, this is the overall input; else null.
 	 */
@@ -164,6 +202,11 @@ public class Compiler2 {
 	 * steady-state code).
 	 */
 	private ImmutableMap<Storage, ConcreteStorage> steadyStateStorage;
+	/**
+	 * Native memory for steady-state storage, owned by the blob host (which
+	 * releases it after draining).
+	 */
+	private final OffHeapArena arena = new OffHeapArena();
 	/**
 	 * Code to run the initialization schedule.  (Initialization is
 	 * single-threaded.)
@@ -174,6 +217,16 @@ public class Compiler2 {
 	 * filling/flushing buffers, adjusting storage and the global barrier.
 	 */
 	private ImmutableList<MethodHandle> steadyStateCode;
+	/**
+	 * The CPU for each steady-state core's thread, or empty to leave placement
+	 * to the host.
+	 */
+	private ImmutableList<Integer> corePlacement;
+	/**
+	 * The steady-state storage each steady-state core's thread touches,
+	 * parallel to steadyStateCode.
+	 */
+	private ImmutableList<Set<Storage>> coreStorage;
 	private final List<ReadInstruction> initReadInstructions = new ArrayList<>();
 	private final List<WriteInstruction> initWriteInstructions = new ArrayList<>();
 	private final List<Runnable> migrationInstructions = new ArrayList<>();
@@ -193,6 +246,7 @@ public class Compiler2 {
 			workerActors.put(w, actor);
 		}
 		this.archetypes = ImmutableSet.copyOf(archetypesBuilder.values());
+		findMessageConstraints(workerActors);
 
 		Map<Token, TokenActor> tokenActors = new HashMap<>();
 		Table<Actor, Actor, Storage> storageTable = HashBasedTable.create();
@@ -207,6 +261,8 @@ public class Compiler2 {
 		this.config = config;
 		this.maxNumCores = maxNumCores;
 		this.initialState = initialState;
+		Boolean profile = (Boolean)config.getExtraData("profile");
+		this.metrics = profile != null && profile ? new ProfilingMetrics() : null;
 		ImmutableMap.Builder<Token, ImmutableList<Object>> initialStateDataMapBuilder = ImmutableMap.builder();
 		if (initialState != null) {
 			for (Table.Cell<Actor, Actor, Storage> cell : storageTable.cellSet()) {
@@ -221,7 +277,7 @@ public class Compiler2 {
 				ImmutableList<Object> data = initialState.getData(tok);
 				if (data != null && !data.isEmpty()) {
 					initialStateDataMapBuilder.put(tok, data);
-					cell.getValue().initialData().add(Pair.make(data, MethodHandles.identity(int.class)));
+					cell.getValue().initialData().add(Pair.make(data, IndexFunctionForm.identity()));
 				}
 			}
 		}
@@ -230,6 +286,43 @@ public class Compiler2 {
 		this.overallOutput = output;
 	}
 
+	/**
+	 * Finds teleport messaging constraints involving our workers and marks
+	 * their actors as senders and recipients, so compiled firings will be
+	 * counted and messages delivered between them (see
+	 * WorkerActor.wrapForMessaging()).  Delivery is exact at firing
+	 * granularity, so we don't need to split the steady state.  Only
+	 * downstream messages with nonnegative latency are supported: the
+	 * recipient's data dependence on the sender ensures it can't run past the
+	 * delivery time, but upstream recipients run ahead of their senders by the
+	 * buffering we introduce.
+	 * @param workerActors the actors for our workers
+	 */
+	private void findMessageConstraints(Map<Worker<?, ?>, WorkerActor> workerActors) {
+		//findConstraints only sees workers reachable from the one it's given
+		//by following predecessors or successors, so start from the source
+		//or we'll miss senders in sibling splitjoin branches.
+		Worker<?, ?> source = workers.iterator().next();
+		while (!Workers.getPredecessors(source).isEmpty())
+			source = Workers.getPredecessors(source).get(0);
+		List<MessageConstraint> constraints = MessageConstraint.findConstraints(source);
+		Set<Portal<?>> portals = new HashSet<>();
+		for (MessageConstraint mc : constraints) {
+			WorkerActor sender = workerActors.get(mc.getSender()), recipient = workerActors.get(mc.getRecipient());
+			if (sender == null && recipient == null)
+				continue;
+			if (sender == null || recipient == null)
+				throw new IllegalArgumentException("Constraint crosses blob boundary: "+mc);
+			if (mc.getDirection() != StreamPosition.DOWNSTREAM || mc.getLatency() < 0)
+				throw new UnsupportedOperationException("Compiler2 only supports downstream messages with nonnegative latency: "+mc);
+			sender.setSendsMessages();
+			recipient.setReceivesMessages();
+			portals.add(mc.getPortal());
+		}
+		for (Portal<?> portal : portals)
+			Portals.setConstraints(portal, constraints);
+	}
+
 	public Blob compile() {
 		findRemovals();
 		fuse();
@@ -243,6 +336,7 @@ public class Compiler2 {
 		unbox();
 
 		generateArchetypalCode();
+		linearOptimization();
 		createBuffers();
 		createInitCode();
 		createSteadyStateCode();
@@ -253,6 +347,7 @@ public class Compiler2 {
 		ImmutableSortedSet.Builder<WorkerActor> builder = ImmutableSortedSet.naturalOrder();
 		next_worker: for (WorkerActor a : Iterables.filter(actors, WorkerActor.class)) {
 			if (!REMOVABLE_WORKERS.contains(a.worker().getClass())) continue;
+			if (a.isMessaging()) continue;
 			for (Storage s : a.outputs())
 				if (!s.initialData().isEmpty())
 					continue next_worker;
@@ -351,7 +446,7 @@ public class Compiler2 {
 		int multiplier = config.getParameter("multiplier", IntParameter.class).getValue();
 		scheduleBuilder.multiply(multiplier);
 		try {
-			externalSchedule = scheduleBuilder.build().getSchedule();
+			externalSchedule = scheduleBuilder.build(GROUP_ID).getSchedule();
 		} catch (Schedule.ScheduleException ex) {
 			throw new StreamCompilationFailedException("couldn't find external schedule; mult = "+multiplier, ex);
 		}
@@ -374,7 +469,7 @@ public class Compiler2 {
 		}
 
 		try {
-			Schedule<Actor> schedule = scheduleBuilder.build();
+			Schedule<Actor> schedule = scheduleBuilder.build(ACTOR_ID);
 			g.setSchedule(schedule.getSchedule());
 		} catch (Schedule.ScheduleException ex) {
 			throw new StreamCompilationFailedException("couldn't find internal schedule for group "+g+"\n"+scheduleBuilder.toString(), ex);
@@ -409,7 +504,7 @@ public class Compiler2 {
 		int initBufferCost = initBufferingCostParam.getValue(), fireCost = initBufferingCostParam.getMax() - initBufferCost;
 		scheduleBuilder.costs(fireCost, initBufferCost);
 		try {
-			Schedule<ActorGroup> schedule = scheduleBuilder.build();
+			Schedule<ActorGroup> schedule = scheduleBuilder.build(GROUP_ID);
 			this.initSchedule = schedule.getSchedule();
 		} catch (Schedule.ScheduleException ex) {
 			throw new StreamCompilationFailedException("couldn't find init schedule", ex);
@@ -468,18 +563,18 @@ public class Compiler2 {
 						if (inputs.get(j).equals(victim)) {
 							inputs.set(j, survivor);
 							survivor.downstream().add(a);
-							inputIndices.set(j, MethodHandles.filterReturnValue(inputIndices.get(j), t));
+							inputIndices.set(j, IndexFunctionForm.compose(inputIndices.get(j), t));
 							if (splitter.push(i) > 0)
 								for (int idx = 0, q = a.translateInputIndex(j, idx); q < drainInfo.size(); ++idx, q = a.translateInputIndex(j, idx)) {
 									a.inputSlots(j).add(drainInfo.get(q));
 									drainInfo.set(q, drainInfo.get(q).duplify());
 								}
-							inputIndices.set(j, MethodHandles.filterReturnValue(inputIndices.get(j), Sin));
+							inputIndices.set(j, IndexFunctionForm.compose(inputIndices.get(j), Sin));
 						}
 				}
 
 				for (Pair<ImmutableList<Object>, MethodHandle> item : victim.initialData())
-					survivor.initialData().add(new Pair<>(item.first, MethodHandles.filterReturnValue(item.second, t)));
+					survivor.initialData().add(new Pair<>(item.first, IndexFunctionForm.compose(item.second, t)));
 				storage.remove(victim);
 			}
 
@@ -505,7 +600,7 @@ public class Compiler2 {
 				weights[i] = a.push(i);
 			return roundrobinTransferFunctions(weights);
 		} else if (a.worker() instanceof DuplicateSplitter) {
-			return Collections.nCopies(a.outputs().size(), MethodHandles.identity(int.class));
+			return Collections.nCopies(a.outputs().size(), IndexFunctionForm.identity());
 		} else
 			throw new AssertionError();
 	}
@@ -521,20 +616,20 @@ public class Compiler2 {
 			for (int i = 0; i < joiner.inputs().size(); ++i) {
 				Storage victim = joiner.inputs().get(i);
 				MethodHandle t = transfers.get(i);
-				MethodHandle t2 = MethodHandles.filterReturnValue(t, Jout);
+				MethodHandle t2 = IndexFunctionForm.compose(t, Jout);
 				for (Actor a : victim.upstream()) {
 					List<Storage> outputs = a.outputs();
 					List<MethodHandle> outputIndices = a.outputIndexFunctions();
 					for (int j = 0; j < outputs.size(); ++j)
 						if (outputs.get(j).equals(victim)) {
 							outputs.set(j, survivor);
-							outputIndices.set(j, MethodHandles.filterReturnValue(outputIndices.get(j), t2));
+							outputIndices.set(j, IndexFunctionForm.compose(outputIndices.get(j), t2));
 							survivor.upstream().add(a);
 						}
 				}
 
 				for (Pair<ImmutableList<Object>, MethodHandle> item : victim.initialData())
-					survivor.initialData().add(new Pair<>(item.first, MethodHandles.filterReturnValue(item.second, t2)));
+					survivor.initialData().add(new Pair<>(item.first, IndexFunctionForm.compose(item.second, t2)));
 				storage.remove(victim);
 			}
 
@@ -600,7 +695,8 @@ public class Compiler2 {
 		//index into that window.
 		ImmutableList.Builder<MethodHandle> transfer = ImmutableList.builder();
 		for (int x = 0; x < weights.length; ++x)
-			transfer.add(MethodHandles.insertArguments(ROUNDROBIN_TRANSFER_FUNCTION, 0, weights[x], weightPrefixSum[x], N));
+			transfer.add(IndexFunctionForm.register(MethodHandles.insertArguments(ROUNDROBIN_TRANSFER_FUNCTION, 0, weights[x], weightPrefixSum[x], N),
+					IndexFunctionForm.roundrobin(weights[x], weightPrefixSum[x], N)));
 		return transfer.build();
 	}
 	private final MethodHandle ROUNDROBIN_TRANSFER_FUNCTION = findStatic(LOOKUP, "_roundrobinTransferFunction");
@@ -610,6 +706,13 @@ public class Compiler2 {
 		return N*(i/weight) + prefixSum + (i % weight);
 	}
 
+	/**
+	 * Returns i + k as an index function, with its form registered.
+	 */
+	private static MethodHandle adder(int k) {
+		return IndexFunctionForm.register(Combinators.adder(k), IndexFunctionForm.adder(k));
+	}
+
 	/**
 	 * Removes an Actor from this compiler's data structures.  The Actor should
 	 * already have been unlinked from the graph (no incoming edges); this takes
@@ -815,12 +918,39 @@ public class Compiler2 {
 							return input.archetype().equals(archetype);
 						}
 					});
-			archetype.generateCode(packageName, classloader, workerActors);
+			Iterable<WorkerActor> specializedActors = FluentIterable.from(workerActors)
+					.filter(new Predicate<WorkerActor>() {
+						@Override
+						public boolean apply(WorkerActor input) {
+							SwitchParameter<Boolean> param = config.getParameter("SpecializeWorker"+input.id(), SwitchParameter.class, Boolean.class);
+							return param != null && param.getValue();
+						}
+					});
+			archetype.generateCode(packageName, classloader, workerActors, specializedActors);
 			for (WorkerActor wa : workerActors)
 				wa.setStateHolder(archetype.makeStateHolder(wa));
 		}
 	}
 
+	/**
+	 * Runs linear filters as matrix products, combining adjacent linear filters
+	 * in a pipeline in the same group where that doesn't add work; see
+	 * LinearAnalysis.  Splitjoins aren't combined.
+	 */
+	private void linearOptimization() {
+		SwitchParameter<Boolean> param = config.getParameter("LinearOptimization", SwitchParameter.class, Boolean.class);
+		if (param == null || !param.getValue()) return;
+		Map<WorkerActor, LinearAnalysis.Form> forms = new HashMap<>();
+		for (WorkerActor a : Iterables.filter(actors, WorkerActor.class)) {
+			LinearAnalysis.Form form = LinearAnalysis.analyze(a);
+			if (form != null)
+				forms.put(a, form);
+		}
+		for (ActorGroup g : groups)
+			if (!g.isTokenGroup())
+				g.setLinearChains(LinearAnalysis.chains(g, forms));
+	}
+
 	/**
 	 * If we're compiling an entire graph, create the overall input and output
 	 * buffers now so we can take advantage of
@@ -920,24 +1050,31 @@ public class Compiler2 {
 				Storage s = a.outputs().get(i);
 				if (s.isInternal()) continue;
 				int itemsWritten = a.push(i) * initSchedule.get(a.group()) * a.group().schedule().get(a);
-				a.outputIndexFunctions().set(i, MethodHandles.filterArguments(
-						a.outputIndexFunctions().get(i), 0, Combinators.adder(itemsWritten)));
+				a.outputIndexFunctions().set(i, IndexFunctionForm.compose(
+						adder(itemsWritten), a.outputIndexFunctions().get(i)));
 			}
 			for (int i = 0; i < a.inputs().size(); ++i) {
 				Storage s = a.inputs().get(i);
 				if (s.isInternal()) continue;
 				int itemsRead = a.pop(i) * initSchedule.get(a.group()) * a.group().schedule().get(a);
-				a.inputIndexFunctions().set(i, MethodHandles.filterArguments(
-						a.inputIndexFunctions().get(i), 0, Combinators.adder(itemsRead)));
+				a.inputIndexFunctions().set(i, IndexFunctionForm.compose(
+						adder(itemsRead), a.inputIndexFunctions().get(i)));
 			}
 		}
 
 		for (Storage s : storage)
 			s.computeSteadyStateRequirements(externalSchedule);
-		this.steadyStateStorage = createStorage(false, new PeekPokeStorageFactory(EXTERNAL_STORAGE_STRATEGY.asFactory(config)));
-		ImmutableMap<Storage, ConcreteStorage> internalStorage = createStorage(true, INTERNAL_STORAGE_STRATEGY.asFactory(config));
+		this.steadyStateStorage = createStorage(false, new PeekPokeStorageFactory(EXTERNAL_STORAGE_STRATEGY.asFactory(config, arena)));
+		//Internal storage is created after allocation, so it can be aliased
+		//based on which cores run which groups.
 
 		List<Core> ssCores = new ArrayList<>(maxNumCores);
+		SwitchParameter<Boolean> straightLineCodeParam = config.getParameter("StraightLineCode", SwitchParameter.class, Boolean.class);
+		boolean straightLineCode = straightLineCodeParam != null && straightLineCodeParam.getValue();
+		SwitchParameter<Boolean> workStealingParam = config.getParameter("WorkStealing", SwitchParameter.class, Boolean.class);
+		boolean workStealing = workStealingParam != null && workStealingParam.getValue();
+		//Stolen chunks use core 0's unroll factors.
+		Core stealingCore = null;
 		IndexFunctionTransformer ift = new IdentityIndexFunctionTransformer();
 		for (int i = 0; i < maxNumCores; ++i) {
 			ImmutableTable.Builder<Actor, Integer, IndexFunctionTransformer> inputTransformers = ImmutableTable.builder(),
@@ -962,12 +1099,21 @@ public class Compiler2 {
 				unrollFactors.put(g, param.getValue());
 			}
 
-			ssCores.add(new Core(CollectionUtils.union(steadyStateStorage, internalStorage), unrollFactors.build(), inputTransformers.build(), outputTransformers.build(), new ProxyFactory(classloader, packageName+".steadystate.")));
+			LoopNestGenerator generator = straightLineCode ?
+					new LoopNestGenerator(module, classloader, packageName+".steadystate.Core"+i) : null;
+			ssCores.add(new Core(steadyStateStorage, unrollFactors.build(), inputTransformers.build(), outputTransformers.build(), new ProxyFactory(classloader, packageName+".steadystate."), generator));
+			if (workStealing && i == 0)
+				stealingCore = new Core(steadyStateStorage, unrollFactors.build(), inputTransformers.build(), outputTransformers.build(), new ProxyFactory(classloader, packageName+".steal."));
 		}
 
+		int stealingThreads = Math.min(ALLOCATION_STRATEGY.maxNumCores(), maxNumCores);
+		int chunksPerThread = workStealing ?
+				config.getParameter("WorkStealingChunksPerCore", IntParameter.class).getValue() : 0;
 		int throughputPerSteadyState = 0;
 		for (ActorGroup g : groups)
-			if (!g.isTokenGroup())
+			if (workStealing && !g.isTokenGroup() && !g.isStateful())
+				allocateChunks(g, Range.closedOpen(0, externalSchedule.get(g)), stealingThreads * chunksPerThread, stealingCore);
+			else if (!g.isTokenGroup())
 				ALLOCATION_STRATEGY.allocateGroup(g, Range.closedOpen(0, externalSchedule.get(g)), ssCores, config);
 			else {
 				assert g.actors().size() == 1;
@@ -982,15 +1128,68 @@ public class Compiler2 {
 					throughputPerSteadyState += executions;
 				}
 			}
-		ImmutableList.Builder<MethodHandle> steadyStateCodeBuilder = ImmutableList.builder();
+
+		StorageFactory internalFactory = INTERNAL_STORAGE_STRATEGY.asFactory(config, arena);
+		SwitchParameter<Boolean> aliasParam = config.getParameter("AliasInternalStorage", SwitchParameter.class, Boolean.class);
+		ImmutableMap<Storage, ConcreteStorage> internalStorage;
+		if (aliasParam != null && aliasParam.getValue()) {
+			Set<Storage> internal = new HashSet<>();
+			for (Storage s : storage)
+				if (s.isInternal())
+					internal.add(s);
+			Set<ActorGroup> stolenGroups = new HashSet<>();
+			if (stealingCore != null)
+				for (Pair<ActorGroup, Range<Integer>> p : stealingCore.allocations())
+					stolenGroups.add(p.first);
+			internalStorage = InternalStorageAliasing.createStorage(internal, ssCores, stolenGroups, internalFactory);
+		} else
+			internalStorage = createStorage(true, internalFactory);
 		for (Core c : ssCores)
-			if (!c.isEmpty())
-				steadyStateCodeBuilder.add(c.code());
+			c.addStorage(internalStorage);
+		if (stealingCore != null)
+			stealingCore.addStorage(internalStorage);
+		reportStorageFootprint(internalStorage);
+
+		ImmutableList.Builder<MethodHandle> steadyStateCodeBuilder = ImmutableList.builder();
+		List<Set<Storage>> coreStorage = new ArrayList<>();
+		for (int i = 0; i < ssCores.size(); ++i) {
+			Core c = ssCores.get(i);
+			if (!c.isEmpty()) {
+				//Use the core's index, as in UnrollCore%dGroup%d, even if
+				//earlier cores are empty.
+				steadyStateCodeBuilder.add(c.code(metrics, i));
+				coreStorage.add(c.touchedStorage());
+			}
+		}
+		if (stealingCore != null && !stealingCore.isEmpty()) {
+			//Every thread steals, including threads with no static code.
+			ImmutableList<MethodHandle> staticCode = steadyStateCodeBuilder.build();
+			ImmutableList<MethodHandle> chunks = stealingCore.allocationCode();
+			int threads = Math.max(staticCode.size(), Math.min(stealingThreads, chunks.size()));
+			WorkStealingPool pool = new WorkStealingPool(chunks, threads);
+			steadyStateCodeBuilder = ImmutableList.builder();
+			for (int i = 0; i < threads; ++i)
+				steadyStateCodeBuilder.add(pool.wrap(i < staticCode.size() ? staticCode.get(i) : Combinators.nop(), i));
+			Set<Storage> stolenStorage = stealingCore.touchedStorage();
+			for (int i = 0; i < threads; ++i)
+				if (i < coreStorage.size())
+					coreStorage.set(i, Sets.union(coreStorage.get(i), stolenStorage));
+				else
+					coreStorage.add(stolenStorage);
+		}
 		//Provide at least one core of code, even if it doesn't do anything; the
 		//blob host will still copy inputs to outputs.
-		if (steadyStateCodeBuilder.build().isEmpty())
+		if (steadyStateCodeBuilder.build().isEmpty()) {
 			steadyStateCodeBuilder.add(Combinators.nop());
+			coreStorage.add(ImmutableSet.<Storage>of());
+		}
 		this.steadyStateCode = steadyStateCodeBuilder.build();
+		this.coreStorage = ImmutableList.copyOf(coreStorage);
+		SwitchParameter<Boolean> topologyParam = config.getParameter("TopologyAwarePlacement", SwitchParameter.class, Boolean.class);
+		SwitchParameter<Boolean> avoidSmtParam = config.getParameter("AvoidSMTSiblings", SwitchParameter.class, Boolean.class);
+		this.corePlacement = topologyParam != null && topologyParam.getValue() ?
+				placeCores(coreStorage, avoidSmtParam == null || avoidSmtParam.getValue()) :
+				ImmutableList.<Integer>of();
 
 		createMigrationInstructions();
 		createDrainInstructions();
@@ -1003,6 +1202,127 @@ public class Compiler2 {
 		}
 	}
 
+	/**
+	 * Computes the steady-state storage footprint: the bytes of backing
+	 * storage for external storage (by steady-state capacity) and for
+	 * internal storage, counting shared backing storage once.  References are
+	 * counted as 4 bytes (compressed oops).  Records the footprint in the
+	 * profiling metrics and prints it if the "reportStorageFootprint" extra
+	 * data is set.
+	 * @param internalStorage the steady-state internal storage
+	 */
+	private void reportStorageFootprint(ImmutableMap<Storage, ConcreteStorage> internalStorage) {
+		long external = 0, internal = 0, unaliasedInternal = 0;
+		for (Storage s : steadyStateStorage.keySet())
+			external += storageBytes(s.type(), s.steadyStateCapacity());
+		Set<Arrayish> backing = Collections.newSetFromMap(new IdentityHashMap<Arrayish, Boolean>());
+		for (Map.Entry<Storage, ConcreteStorage> e : internalStorage.entrySet()) {
+			long bytes = storageBytes(e.getKey().type(), e.getKey().steadyStateCapacity());
+			unaliasedInternal += bytes;
+			if (e.getValue() instanceof InternalArrayConcreteStorage) {
+				Arrayish array = ((InternalArrayConcreteStorage)e.getValue()).arrayish();
+				if (backing.add(array))
+					internal += storageBytes(array.type(), array.size());
+			} else
+				internal += bytes;
+		}
+		if (metrics != null)
+			metrics.setStorageFootprint(external + internal);
+		Boolean report = (Boolean)config.getExtraData("reportStorageFootprint");
+		if (report != null && report)
+			System.out.format("storage footprint: %d bytes (external %d, internal %d, %d before aliasing)%n",
+					external + internal, external, internal, unaliasedInternal);
+	}
+
+	private static long storageBytes(Class<?> type, int capacity) {
+		return (long)capacity * (type.isPrimitive() ? PrimitiveUtils.sizeof(type) : 4);
+	}
+
+	/**
+	 * Chooses a CPU for each steady-state core's thread, placing threads that
+	 * share storage on the same last-level cache (and thus socket) where
+	 * possible.  We fill CPUs in topology order, choosing for each CPU the
+	 * unplaced thread sharing the most storage with threads already on that
+	 * CPU's cache, or when starting a new cache, the thread sharing the least
+	 * with threads already placed elsewhere.  Ties go to the thread sharing
+	 * the most storage overall, so the first thread placed is the most
+	 * connected one.
+	 * @param coreStorage the storage each thread touches
+	 * @param avoidSmt whether to use every core's first hardware thread
+	 * before any SMT siblings
+	 * @return the CPU for each thread
+	 */
+	private static ImmutableList<Integer> placeCores(List<Set<Storage>> coreStorage, boolean avoidSmt) {
+		CpuTopology topology = CpuTopology.get();
+		ImmutableList<Integer> cpus = topology.placementOrder(Affinity.getMaximalAffinity(), avoidSmt);
+		int n = coreStorage.size();
+		if (cpus.isEmpty())
+			return ImmutableList.of();
+		long[][] sharing = new long[n][n];
+		long[] totalSharing = new long[n];
+		for (int i = 0; i < n; ++i)
+			for (int j = i+1; j < n; ++j)
+				for (Storage s : Sets.intersection(coreStorage.get(i), coreStorage.get(j))) {
+					long weight = storageWeight(s);
+					sharing[i][j] += weight;
+					sharing[j][i] += weight;
+					totalSharing[i] += weight;
+					totalSharing[j] += weight;
+				}
+
+		Integer[] placement = new Integer[n];
+		for (int k = 0; k < n; ++k) {
+			int cpu = cpus.get(k % cpus.size());
+			boolean newCache = true;
+			for (int j = 0; j < n; ++j)
+				if (placement[j] != null && topology.cache(placement[j]) == topology.cache(cpu))
+					newCache = false;
+			int best = -1;
+			long bestScore = Long.MIN_VALUE;
+			for (int i = 0; i < n; ++i) {
+				if (placement[i] != null) continue;
+				long score = 0;
+				for (int j = 0; j < n; ++j)
+					if (placement[j] != null && newCache)
+						score -= sharing[i][j];
+					else if (placement[j] != null && topology.cache(placement[j]) == topology.cache(cpu))
+						score += sharing[i][j];
+				if (score > bestScore || (score == bestScore && totalSharing[i] > totalSharing[best])) {
+					best = i;
+					bestScore = score;
+				}
+			}
+			placement[best] = cpu;
+		}
+		return ImmutableList.copyOf(placement);
+	}
+
+	/**
+	 * Returns a measure of the memory traffic on the given storage per steady
+	 * state, for placement purposes.
+	 */
+	private static long storageWeight(Storage s) {
+		try {
+			return Math.max(s.steadyStateCapacity(), 1);
+		} catch (IllegalStateException ex) {
+			return 1;
+		}
+	}
+
+	/**
+	 * Splits the given group's iterations into (up to) the given number of
+	 * chunks, allocating each to the given core for use as a work-stealing
+	 * chunk.
+	 */
+	private static void allocateChunks(ActorGroup group, Range<Integer> iterations, int chunks, Core core) {
+		int total = iterations.upperEndpoint() - iterations.lowerEndpoint();
+		chunks = Math.max(Math.min(chunks, total), 1);
+		for (int i = 0; i < chunks; ++i)
+			core.allocate(group, Range.closedOpen(
+					iterations.lowerEndpoint() + i * total / chunks,
+					iterations.lowerEndpoint() + (i+1) * total / chunks));
+	}
+
 	private ReadInstruction makeReadInstruction(TokenActor a, ConcreteStorage cs, int count) {
 		assert a.isInput();
 		Storage s = Iterables.getOnlyElement(a.outputs());
@@ -1012,12 +1332,17 @@ public class Compiler2 {
 			retval = new NopReadInstruction(a.token());
 		else if (cs instanceof PeekableBufferConcreteStorage)
 			retval = new PeekReadInstruction(a, count);
-		else if (!s.type().isPrimitive() &&
-				cs instanceof BulkWritableConcreteStorage &&
+		else if (cs instanceof BulkWritableConcreteStorage &&
 				contiguouslyIncreasing(idxFxn, 0, count)) {
 			retval = new BulkReadInstruction(a, (BulkWritableConcreteStorage)cs, count);
-		} else
-			retval = new TokenReadInstruction(a, cs, count);
+		} else {
+			int[] indices = physicalIndices(idxFxn, count);
+			int[] runs = runs(indices);
+			if (cs instanceof BulkWritableConcreteStorage && runs.length / 2 <= count / MIN_BULK_RUN_LENGTH)
+				retval = new RunReadInstruction(a, (BulkWritableConcreteStorage)cs, runs, count);
+			else
+				retval = new TokenReadInstruction(a, cs, indices);
+		}
 //		System.out.println("Made a "+retval+" for "+a.token());
 		retval.init(precreatedBuffers);
 		return retval;
@@ -1030,17 +1355,63 @@ public class Compiler2 {
 		WriteInstruction retval;
 		if (count == 0)
 			retval = new NopWriteInstruction(a.token());
-		else if (!s.type().isPrimitive() &&
-				cs instanceof BulkReadableConcreteStorage &&
+		else if (cs instanceof BulkReadableConcreteStorage &&
 				contiguouslyIncreasing(idxFxn, 0, count)) {
 			retval = new BulkWriteInstruction(a, (BulkReadableConcreteStorage)cs, count);
-		} else
-			retval = new TokenWriteInstruction(a, cs, count);
+		} else {
+			int[] indices = physicalIndices(idxFxn, count);
+			int[] runs = runs(indices);
+			if (cs instanceof BulkReadableConcreteStorage && runs.length / 2 <= count / MIN_BULK_RUN_LENGTH)
+				retval = new RunWriteInstruction(a, (BulkReadableConcreteStorage)cs, runs, count);
+			else
+				retval = new TokenWriteInstruction(a, cs, indices);
+		}
 //		System.out.println("Made a "+retval+" for "+a.token());
 		retval.init(precreatedBuffers);
 		return retval;
 	}
 
+	/**
+	 * Evaluates the given index function on [0, count).
+	 * @param idxFxn an index function
+	 * @param count the number of logical indices
+	 * @return the physical indices
+	 */
+	private static int[] physicalIndices(MethodHandle idxFxn, int count) {
+		int[] indices = new int[count];
+		try {
+			for (int i = 0; i < count; ++i)
+				indices[i] = (int)idxFxn.invokeExact(i);
+		} catch (Throwable ex) {
+			throw new AssertionError("index functions should not throw", ex);
+		}
+		return indices;
+	}
+
+	/**
+	 * Splits the given physical indices (in logical order) into maximal runs
+	 * of contiguously increasing indices.  After splitter/joiner removal,
+	 * index functions at blob boundaries are usually strided or
+	 * block-interleaved (roundrobin transfer functions), so the items occupy
+	 * a few long runs rather than being scattered.
+	 * @param indices physical indices in logical order
+	 * @return an array of (first physical index, run length) pairs, in
+	 * logical order
+	 */
+	static int[] runs(int[] indices) {
+		int[] runs = new int[2 * indices.length];
+		int numRuns = 0;
+		for (int i = 0; i < indices.length; ++i)
+			if (numRuns > 0 && indices[i] == runs[2*numRuns-2] + runs[2*numRuns-1])
+				++runs[2*numRuns-1];
+			else {
+				runs[2*numRuns] = indices[i];
+				runs[2*numRuns+1] = 1;
+				++numRuns;
+			}
+		return Arrays.copyOf(runs, 2 * numRuns);
+	}
+
 	private boolean contiguouslyIncreasing(MethodHandle idxFxn, int start, int count) {
 		try {
 			int prev = (int)idxFxn.invokeExact(start);
@@ -1134,7 +1505,7 @@ public class Compiler2 {
 				//alternating hole/not-hole).
 				for (int check = 0; check < 100; ++check)
 					assert !liveIndices.contains(a.translateOutputIndex(i, offset + check)) : check;
-				a.outputIndexFunctions().set(i, Combinators.apply(a.outputIndexFunctions().get(i), Combinators.adder(offset)));
+				a.outputIndexFunctions().set(i, IndexFunctionForm.compose(adder(offset), a.outputIndexFunctions().get(i)));
 			}
 		}
 		return backup.build();
@@ -1256,7 +1627,11 @@ public class Compiler2 {
 	 */
 	private static final class PeekReadInstruction implements ReadInstruction {
 		private final Token token;
-		private final int count;
+		/**
+		 * The number of items that must be present (the peek extent), and the
+		 * number consumed each steady-state iteration.
+		 */
+		private final int count, consumed;
 		private PeekableBuffer buffer;
 		private PeekReadInstruction(TokenActor a, int count) {
 			assert a.isInput() : a;
@@ -1264,6 +1639,7 @@ public class Compiler2 {
 			//If we "read" count new items, the maximum available index is given
 			//by the output index function.
 			this.count = a.translateOutputIndex(0, count);
+			this.consumed = count;
 		}
 		@Override
 		public void init(Map<Token, Buffer> buffers) {
@@ -1288,6 +1664,10 @@ public class Compiler2 {
 			//adjusted, so no work is necessary here.
 			return ImmutableMap.of();
 		}
+		@Override
+		public Map<Token, Integer> getItemsPerLoad() {
+			return ImmutableMap.of(token, consumed);
+		}
 	}
 
 	private static final class BulkReadInstruction implements ReadInstruction {
@@ -1314,6 +1694,10 @@ public class Compiler2 {
 			return ImmutableMap.of(token, count);
 		}
 		@Override
+		public boolean isReady() {
+			return buffer.size() >= count;
+		}
+		@Override
 		public boolean load() {
 			if (buffer.size() < count)
 				return false;
@@ -1324,9 +1708,8 @@ public class Compiler2 {
 		@Override
 		public Map<Token, Object[]> unload() {
 			Object[] data = new Object[count];
-			for (int i = index; i < count; ++i) {
-				data[i - index] = storage.read(i);
-			}
+			for (int i = 0; i < count; ++i)
+				data[i] = storage.read(index + i);
 			return ImmutableMap.of(token, data);
 		}
 	}
@@ -1336,16 +1719,20 @@ public class Compiler2 {
 	 */
 	private static final class TokenReadInstruction implements ReadInstruction {
 		private final Token token;
-		private final MethodHandle idxFxn;
+		/**
+		 * The physical index of each logical index, precomputed so we don't
+		 * call the index function for every item.
+		 */
+		private final int[] indices;
 		private final ConcreteStorage storage;
 		private final int count;
 		private Buffer buffer;
-		private TokenReadInstruction(TokenActor a, ConcreteStorage storage, int count) {
+		private TokenReadInstruction(TokenActor a, ConcreteStorage storage, int[] indices) {
 			assert a.isInput() : a;
 			this.token = a.token();
 			this.storage = storage;
-			this.idxFxn = Iterables.getOnlyElement(a.outputIndexFunctions());
-			this.count = count;
+			this.indices = indices;
+			this.count = indices.length;
 		}
 		@Override
 		public void init(Map<Token, Buffer> buffers) {
@@ -1359,34 +1746,80 @@ public class Compiler2 {
 			return ImmutableMap.of(token, count);
 		}
 		@Override
+		public boolean isReady() {
+			return buffer.size() >= count;
+		}
+		@Override
 		public boolean load() {
 			Object[] data = new Object[count];
 			if (!buffer.readAll(data))
 				return false;
-			for (int i = 0; i < data.length; ++i) {
-				int idx;
-				try {
-					idx = (int)idxFxn.invokeExact(i);
-				} catch (Throwable ex) {
-					throw new AssertionError("Can't happen! Index functions should not throw", ex);
-				}
-				storage.write(idx, data[i]);
-			}
+			for (int i = 0; i < data.length; ++i)
+				storage.write(indices[i], data[i]);
 			storage.sync();
 			return true;
 		}
 		@Override
 		public Map<Token, Object[]> unload() {
 			Object[] data = new Object[count];
-			for (int i = 0; i < data.length; ++i) {
-				int idx;
-				try {
-					idx = (int)idxFxn.invokeExact(i);
-				} catch (Throwable ex) {
-					throw new AssertionError("Can't happen! Index functions should not throw", ex);
-				}
-				data[i] = storage.read(idx);
-			}
+			for (int i = 0; i < data.length; ++i)
+				data[i] = storage.read(indices[i]);
+			return ImmutableMap.of(token, data);
+		}
+	}
+
+	/**
+	 * Reads into storage whose index function is strided or block-interleaved,
+	 * with one bulk transfer per run of contiguously increasing indices.
+	 */
+	private static final class RunReadInstruction implements ReadInstruction {
+		private final Token token;
+		private final BulkWritableConcreteStorage storage;
+		/**
+		 * (first physical index, run length) pairs in logical order; see
+		 * runs().
+		 */
+		private final int[] runs;
+		private final int count;
+		private Buffer buffer;
+		private RunReadInstruction(TokenActor a, BulkWritableConcreteStorage storage, int[] runs, int count) {
+			assert a.isInput() : a;
+			this.token = a.token();
+			this.storage = storage;
+			this.runs = runs;
+			this.count = count;
+		}
+		@Override
+		public void init(Map<Token, Buffer> buffers) {
+			if (!buffers.containsKey(token)) return;
+			if (buffer != null)
+				checkState(buffers.get(token) == buffer, "reassigning %s from %s to %s", token, buffer, buffers.get(token));
+			this.buffer = buffers.get(token);
+		}
+		@Override
+		public Map<Token, Integer> getMinimumBufferCapacity() {
+			return ImmutableMap.of(token, count);
+		}
+		@Override
+		public boolean isReady() {
+			return buffer.size() >= count;
+		}
+		@Override
+		public boolean load() {
+			if (buffer.size() < count)
+				return false;
+			for (int r = 0; r < runs.length; r += 2)
+				storage.bulkWrite(buffer, runs[r], runs[r+1]);
+			storage.sync();
+			return true;
+		}
+		@Override
+		public Map<Token, Object[]> unload() {
+			Object[] data = new Object[count];
+			int i = 0;
+			for (int r = 0; r < runs.length; r += 2)
+				for (int j = 0; j < runs[r+1]; ++j)
+					data[i++] = storage.read(runs[r] + j);
 			return ImmutableMap.of(token, data);
 		}
 	}
@@ -1407,6 +1840,10 @@ public class Compiler2 {
 			return ImmutableMap.of(token, 0);
 		}
 		@Override
+		public boolean isReady() {
+			return true;
+		}
+		@Override
 		public boolean load() {
 			return true;
 		}
@@ -1416,17 +1853,20 @@ public class Compiler2 {
 		}
 	}
 
-	private static final class BulkWriteInstruction implements WriteInstruction {
+	static final class BulkWriteInstruction implements WriteInstruction {
 		private final Token token;
 		private final BulkReadableConcreteStorage storage;
 		private final int index, count;
 		private Buffer buffer;
 		private int written;
 		private BulkWriteInstruction(TokenActor a, BulkReadableConcreteStorage storage, int count) {
+			this(a.token(), storage, a.translateInputIndex(0, 0), count);
 			assert a.isOutput(): a;
-			this.token = a.token();
+		}
+		BulkWriteInstruction(Token token, BulkReadableConcreteStorage storage, int index, int count) {
+			this.token = token;
 			this.storage = storage;
-			this.index = a.translateInputIndex(0, 0);
+			this.index = index;
 			this.count = count;
 		}
 		@Override
@@ -1442,7 +1882,7 @@ public class Compiler2 {
 		}
 		@Override
 		public Boolean call() {
-			written += storage.bulkRead(buffer, index + written, count);
+			written += storage.bulkRead(buffer, index + written, count - written);
 			if (written < count)
 				return false;
 			written = 0;
@@ -1455,17 +1895,21 @@ public class Compiler2 {
 	 */
 	private static final class TokenWriteInstruction implements WriteInstruction {
 		private final Token token;
-		private final MethodHandle idxFxn;
+		/**
+		 * The physical index of each logical index, precomputed so we don't
+		 * call the index function for every item.
+		 */
+		private final int[] indices;
 		private final ConcreteStorage storage;
 		private final int count;
 		private Buffer buffer;
 		private int written;
-		private TokenWriteInstruction(TokenActor a, ConcreteStorage storage, int count) {
+		private TokenWriteInstruction(TokenActor a, ConcreteStorage storage, int[] indices) {
 			assert a.isOutput() : a;
 			this.token = a.token();
 			this.storage = storage;
-			this.idxFxn = Iterables.getOnlyElement(a.inputIndexFunctions());
-			this.count = count;
+			this.indices = indices;
+			this.count = indices.length;
 		}
 		@Override
 		public void init(Map<Token, Buffer> buffers) {
@@ -1481,15 +1925,8 @@ public class Compiler2 {
 		@Override
 		public Boolean call() {
 			Object[] data = new Object[count];
-			for (int i = 0; i < count; ++i) {
-				int idx;
-				try {
-					idx = (int)idxFxn.invokeExact(i);
-				} catch (Throwable ex) {
-					throw new AssertionError("Can't happen! Index functions should not throw", ex);
-				}
-				data[i] = storage.read(idx);
-			}
+			for (int i = 0; i < count; ++i)
+				data[i] = storage.read(indices[i]);
 			written += buffer.write(data, written, data.length-written);
 			if (written < count)
 				return false;
@@ -1498,6 +1935,60 @@ public class Compiler2 {
 		}
 	}
 
+	/**
+	 * Writes from storage whose index function is strided or
+	 * block-interleaved, with one bulk transfer per run of contiguously
+	 * increasing indices.  Like BulkWriteInstruction, this may be called
+	 * repeatedly until the output buffer accepts all the items; we resume
+	 * from where the last call stopped.
+	 */
+	private static final class RunWriteInstruction implements WriteInstruction {
+		private final Token token;
+		private final BulkReadableConcreteStorage storage;
+		/**
+		 * (first physical index, run length) pairs in logical order; see
+		 * runs().
+		 */
+		private final int[] runs;
+		private final int count;
+		private Buffer buffer;
+		/**
+		 * The position in runs of the current run, and the number of items of
+		 * the current run already written.
+		 */
+		private int run, runWritten;
+		private RunWriteInstruction(TokenActor a, BulkReadableConcreteStorage storage, int[] runs, int count) {
+			assert a.isOutput(): a;
+			this.token = a.token();
+			this.storage = storage;
+			this.runs = runs;
+			this.count = count;
+		}
+		@Override
+		public void init(Map<Token, Buffer> buffers) {
+			if (!buffers.containsKey(token)) return;
+			if (buffer != null)
+				checkState(buffers.get(token) == buffer, "reassigning %s from %s to %s", token, buffer, buffers.get(token));
+			this.buffer = buffers.get(token);
+		}
+		@Override
+		public Map<Token, Integer> getMinimumBufferCapacity() {
+			return ImmutableMap.of(token, count);
+		}
+		@Override
+		public Boolean call() {
+			for (; run < runs.length; run += 2, runWritten = 0) {
+				int remaining = runs[run+1] - runWritten;
+				int written = storage.bulkRead(buffer, runs[run] + runWritten, remaining);
+				runWritten += written;
+				if (written < remaining)
+					return false;
+			}
+			run = 0;
+			return true;
+		}
+	}
+
 	/**
 	 * Doesn't write anything, but does respond to getMinimumBufferCapacity().
 	 */
@@ -1591,6 +2082,10 @@ public class Compiler2 {
 			return ImmutableMap.of();
 		}
 
+		@Override
+		public boolean isReady() {
+			return true;
+		}
 		@Override
 		public boolean load() {
 			long currentTime = time();
@@ -1631,16 +2126,87 @@ public class Compiler2 {
 				outputTokens = ImmutableSortedSet.naturalOrder();
 		for (TokenActor ta : Iterables.filter(actors, TokenActor.class))
 			(ta.isInput() ? inputTokens : outputTokens).add(ta.token());
+		ImmutableMap.Builder<Token, Class<?>> bufferTypes = ImmutableMap.builder();
+		for (TokenActor ta : Iterables.filter(actors, TokenActor.class)) {
+			Storage s = Iterables.getOnlyElement(ta.isInput() ? ta.outputs() : ta.inputs());
+			Class<?> type = Primitives.wrap(s.contentType().getRawType());
+			bufferTypes.put(ta.token(), Primitives.isWrapperType(type) ? type : Object.class);
+		}
 		ImmutableList.Builder<MethodHandle> storageAdjusts = ImmutableList.builder();
 		for (ConcreteStorage s : steadyStateStorage.values())
 			storageAdjusts.add(s.adjustHandle());
+		SwitchParameter<Boolean> pipelinedIOParam = config.getParameter("PipelinedIO", SwitchParameter.class, Boolean.class);
+		ImmutableList<TripleArrayConcreteStorage> laggedStorage = pipelinedIOParam != null && pipelinedIOParam.getValue() ?
+				pipelinedOutputStorage() : null;
+		SwitchParameter<Boolean> perUnitSyncParam = config.getParameter("PerUnitSync", SwitchParameter.class, Boolean.class);
+		ImmutableList<Compiler2BlobHost.SyncUnit> syncUnits = perUnitSyncParam != null && perUnitSyncParam.getValue()
+				&& laggedStorage == null && steadyStateCode.size() > 1 ?
+				makeSyncUnits() : ImmutableList.<Compiler2BlobHost.SyncUnit>of();
 		return new Compiler2BlobHost(workers, config,
-				inputTokens.build(), outputTokens.build(),
-				initCode, steadyStateCode,
+				inputTokens.build(), outputTokens.build(), bufferTypes.build(),
+				initCode, steadyStateCode, corePlacement, syncUnits,
 				storageAdjusts.build(),
 				initReadInstructions, initWriteInstructions, migrationInstructions,
 				readInstructions, writeInstructions, drainInstructions,
-				precreatedBuffers);
+				precreatedBuffers, laggedStorage, metrics, arena);
+	}
+
+	/**
+	 * Groups the steady-state storage by the set of cores accessing it, for
+	 * per-unit sync execution (see Compiler2BlobHost.perUnitSyncMainLoop()).  The
+	 * first unit is the I/O unit, containing the blob's input and output
+	 * storage and any storage no core accesses; if no core accesses the I/O
+	 * storage, core 0 performs the I/O.
+	 * @return the sync units, I/O unit first
+	 */
+	private ImmutableList<Compiler2BlobHost.SyncUnit> makeSyncUnits() {
+		Set<Storage> ioStorage = new HashSet<>();
+		for (TokenActor ta : Iterables.filter(actors, TokenActor.class))
+			ioStorage.add(Iterables.getOnlyElement(ta.isInput() ? ta.outputs() : ta.inputs()));
+		Set<Integer> ioCores = new TreeSet<>();
+		List<MethodHandle> ioAdjusts = new ArrayList<>();
+		Map<Set<Integer>, List<MethodHandle>> units = new LinkedHashMap<>();
+		for (Map.Entry<Storage, ConcreteStorage> e : steadyStateStorage.entrySet()) {
+			Set<Integer> cores = new TreeSet<>();
+			for (int i = 0; i < coreStorage.size(); ++i)
+				if (coreStorage.get(i).contains(e.getKey()))
+					cores.add(i);
+			if (ioStorage.contains(e.getKey()) || cores.isEmpty()) {
+				ioCores.addAll(cores);
+				ioAdjusts.add(e.getValue().adjustHandle());
+			} else {
+				if (!units.containsKey(cores))
+					units.put(cores, new ArrayList<MethodHandle>());
+				units.get(cores).add(e.getValue().adjustHandle());
+			}
+		}
+		if (ioCores.isEmpty())
+			ioCores.add(0);
+		ImmutableList.Builder<Compiler2BlobHost.SyncUnit> syncUnits = ImmutableList.builder();
+		syncUnits.add(new Compiler2BlobHost.SyncUnit(ioCores, ioAdjusts));
+		for (Map.Entry<Set<Integer>, List<MethodHandle>> e : units.entrySet())
+			syncUnits.add(new Compiler2BlobHost.SyncUnit(e.getKey(), e.getValue()));
+		return syncUnits.build();
+	}
+
+	/**
+	 * Returns the blob output storage if this blob's steady-state I/O can be
+	 * pipelined (all input storage double-buffered and all output storage
+	 * triple-buffered, so I/O never touches storage used by the next
+	 * iteration), or null if it can't.
+	 * @return the output storage, or null
+	 */
+	private ImmutableList<TripleArrayConcreteStorage> pipelinedOutputStorage() {
+		ImmutableList.Builder<TripleArrayConcreteStorage> builder = ImmutableList.builder();
+		for (TokenActor ta : Iterables.filter(actors, TokenActor.class)) {
+			ConcreteStorage cs = steadyStateStorage.get(Iterables.getOnlyElement(ta.isInput() ? ta.outputs() : ta.inputs()));
+			if (cs instanceof TripleArrayConcreteStorage)
+				builder.add((TripleArrayConcreteStorage)cs);
+			else if (!(ta.isInput() && cs instanceof DoubleArrayConcreteStorage)
+					&& !(cs instanceof EmptyConcreteStorage))
+				return null;
+		}
+		return builder.build();
 	}
 
 	public static void main(String[] args) {
@@ -54,9 +54,12 @@ public final class Compiler2BlobFactory implements BlobFactory {
 		Compiler2.ALLOCATION_STRATEGY.makeParameters(workers, builder);
 		Compiler2.INTERNAL_STORAGE_STRATEGY.makeParameters(workers, builder);
 		Compiler2.EXTERNAL_STORAGE_STRATEGY.makeParameters(workers, builder);
-		for (Worker<?, ?> w : workers)
+		for (Worker<?, ?> w : workers) {
+			int id = Workers.getIdentifier(w);
+			//Whether to generate a work method for this worker alone with its
+			//final fields as constants; see ActorArchetype.
+			builder.addParameter(Configuration.SwitchParameter.create("SpecializeWorker"+id, false));
 			for (int i = 0; i < Compiler2.ALLOCATION_STRATEGY.maxNumCores(); ++i) {
-				int id = Workers.getIdentifier(w);
 //				List<String> names = new ArrayList<>();
 //				for (int j = 0; j < w.getPopRates().size(); ++j)
 //					names.add(String.format("Core%dWorker%dInput%dIndexFxnTransformer", i, id, j));
@@ -70,7 +73,43 @@ public final class Compiler2BlobFactory implements BlobFactory {
 				builder.addParameter(new Configuration.IntParameter(String.format("UnrollCore%dGroup%d", i, id),
 						1, 1024, 1));
 			}
+		}
 		builder.addParameter(Configuration.SwitchParameter.create("UsePeekableBuffer", true));
+		//Whether to split the steady-state I/O across the core threads rather
+		//than doing it all in the barrier action; see Compiler2BlobHost.
+		builder.addParameter(Configuration.SwitchParameter.create("ParallelIO", false));
+		//Whether to overlap the steady-state I/O with the next iteration on a
+		//dedicated I/O thread; see Compiler2BlobHost.
+		builder.addParameter(Configuration.SwitchParameter.create("PipelinedIO", false));
+		//Whether to generate the steady-state code as explicit loop nests in
+		//one class per core instead of method handle combinators; see
+		//LoopNestGenerator.
+		builder.addParameter(Configuration.SwitchParameter.create("StraightLineCode", false));
+		//Whether to split stateless groups into chunks the core threads steal
+		//from each other at runtime rather than allocating them statically,
+		//and into how many chunks per core; see WorkStealingPool.
+		builder.addParameter(Configuration.SwitchParameter.create("WorkStealing", false));
+		builder.addParameter(new Configuration.IntParameter("WorkStealingChunksPerCore", 1, 64, 4));
+		//Whether to pin core threads by CPU topology, keeping threads sharing
+		//storage on the same socket/cache, and whether to use all physical
+		//cores before SMT siblings; see Compiler2.placeCores.  An explicit
+		//$affinity overrides this.  Off by default so untuned runs stay
+		//unpinned; the tuner opts in.
+		builder.addParameter(Configuration.SwitchParameter.create("TopologyAwarePlacement", false));
+		builder.addParameter(Configuration.SwitchParameter.create("AvoidSMTSiblings", false));
+		//Whether core threads synchronize only with the cores they share
+		//storage with, instead of all meeting at a barrier each steady-state
+		//iteration; see Compiler2BlobHost.perUnitSyncMainLoop().  This replaces
+		//the barrier but doesn't pipeline iterations.
+		builder.addParameter(Configuration.SwitchParameter.create("PerUnitSync", false));
+		//Whether to run filters found to be linear as matrix products, combining
+		//adjacent ones in pipelines (not splitjoins, and with no FFTs); see
+		//LinearAnalysis.  Off by default because the matrix products round
+		//differently than the original work functions.
+		builder.addParameter(Configuration.SwitchParameter.create("LinearOptimization", false));
+		//Whether internal storage with disjoint lifetimes shares backing
+		//storage; see InternalStorageAliasing.
+		builder.addParameter(Configuration.SwitchParameter.create("AliasInternalStorage", true));
 		//Init scheduling trades off between firings during the init schedule
 		//and resulting extra buffering.  My ILP solver interface only supports
 		//int coefficients so this is discretized in units of 100.
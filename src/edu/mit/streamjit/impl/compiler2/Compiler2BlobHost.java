@@ -32,10 +32,14 @@ import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import edu.mit.streamjit.api.Worker;
 import edu.mit.streamjit.impl.blob.Blob;
 import edu.mit.streamjit.impl.blob.Buffer;
+import edu.mit.streamjit.impl.blob.Buffers;
 import edu.mit.streamjit.impl.blob.DrainData;
+import edu.mit.streamjit.impl.blob.ProfilingMetrics;
 import edu.mit.streamjit.impl.common.Configuration;
 import edu.mit.streamjit.impl.interp.Interpreter;
 import edu.mit.streamjit.util.CollectionUtils;
@@ -58,8 +62,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * The actual blob produced by a Compiler2.
@@ -69,20 +80,38 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class Compiler2BlobHost implements Blob {
 	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
 	private static final MethodHandle MAIN_LOOP = findVirtual(LOOKUP, "mainLoop");
+	private static final MethodHandle PARALLEL_IO_MAIN_LOOP = findVirtual(LOOKUP, "parallelIOMainLoop");
 	private static final MethodHandle DO_INIT = findVirtual(LOOKUP, "doInit");
 	private static final MethodHandle DO_ADJUST = findVirtual(LOOKUP, "doAdjust");
+	private static final MethodHandle DO_PARALLEL_IO_STEP = findVirtual(LOOKUP, "doParallelIOStep");
+	private static final MethodHandle PER_UNIT_SYNC_MAIN_LOOP = findVirtual(LOOKUP, "perUnitSyncMainLoop");
+	private static final MethodHandle PER_UNIT_SYNC_INIT = findVirtual(LOOKUP, "perUnitSyncInit");
 	private static final MethodHandle THROW_NEW_ASSERTION_ERROR = MethodHandles.filterReturnValue(
 			findConstructor(LOOKUP, AssertionError.class, MethodType.methodType(void.class, Object.class)),
 			MethodHandles.throwException(void.class, AssertionError.class));
 	private static final MethodHandle NOP = Combinators.nop();
-	private static final MethodHandle MAIN_LOOP_NOP = MethodHandles.insertArguments(MAIN_LOOP, 1, NOP);
 
 	/* provided by Compiler2 */
 	private final ImmutableSet<Worker<?, ?>> workers;
 	private final Configuration config;
 	private final ImmutableSortedSet<Token> inputTokens, outputTokens;
+	/**
+	 * The (boxed) type of data items on each input and output edge, or
+	 * Object.class if not a wrapper type.
+	 */
+	private final ImmutableMap<Token, Class<?>> bufferTypes;
 	private final MethodHandle initCode;
 	private final ImmutableList<MethodHandle> steadyStateCode;
+	/**
+	 * The CPU each core's thread should be pinned to, or empty if we have no
+	 * preference.
+	 */
+	private final ImmutableList<Integer> corePlacement;
+	/**
+	 * In per-unit sync mode, the sync units (the first being the I/O unit);
+	 * otherwise empty.  See perUnitSyncMainLoop().
+	 */
+	private final ImmutableList<SyncUnit> syncUnits;
 	private final ImmutableList<MethodHandle> storageAdjusts;
 	/**
 	 * Instructions to load items for the init schedule.  unload() will
@@ -118,6 +147,105 @@ public class Compiler2BlobHost implements Blob {
 	private final ImmutableMap<Token, Buffer> precreatedBuffers;
 	/* provided by the host */
 	private final boolean collectTimings;
+	/**
+	 * If true, the steady-state writes, storage adjusts and reads are split
+	 * across the core threads (see parallelIOMainLoop()) instead of being
+	 * performed by the thread running the barrier action.
+	 */
+	private final boolean parallelIO;
+	/**
+	 * In parallel I/O mode, the write instructions, storage adjusts and
+	 * (indices of) read instructions each core executes.
+	 */
+	private final ImmutableList<ImmutableList<WriteInstruction>> writeShards;
+	private final ImmutableList<ImmutableList<MethodHandle>> adjustShards;
+	private final ImmutableList<ImmutableList<Integer>> readShards;
+	/**
+	 * If true, there's no global barrier; see perUnitSyncMainLoop().
+	 */
+	private final boolean perUnitSync;
+	/**
+	 * In per-unit sync mode, the (non-I/O) sync units each core participates in,
+	 * and whether each core participates in the I/O unit.
+	 */
+	private final int[][] coreUnits;
+	private final boolean[] coreDoesIO;
+	/**
+	 * In per-unit sync mode, the number of participants yet to arrive at each sync
+	 * unit in the current iteration, and the number of iterations each sync
+	 * unit has completed, indexed by unit * UNIT_STRIDE to avoid false
+	 * sharing.
+	 */
+	private final AtomicLongArray unitPending, unitEpochs;
+	private static final int UNIT_STRIDE = 8;
+	/**
+	 * In per-unit sync mode, the number of steady-state iterations whose input has
+	 * been loaded (so iteration i may begin once this exceeds i).
+	 */
+	private final AtomicLong inputsLoaded = new AtomicLong();
+	/**
+	 * In per-unit sync mode, the next iteration each core will execute, indexed by
+	 * core * UNIT_STRIDE.  Only accessed by that core.
+	 */
+	private final long[] coreIterations;
+	/**
+	 * In per-unit sync mode, whether a core thread has claimed running init.
+	 */
+	private final AtomicBoolean initClaimed = new AtomicBoolean();
+	/**
+	 * In per-unit sync mode, set when we've drained or failed, so cores waiting to
+	 * start an iteration give up.
+	 */
+	private volatile boolean perUnitSyncStopped;
+	/**
+	 * In parallel I/O mode, whether each steady-state read instruction
+	 * completed its load() this iteration.  Written by the core threads before
+	 * arriving at the barrier, read by the barrier action.
+	 */
+	private final boolean[] readsCompleted;
+	/**
+	 * In parallel I/O mode, which of the PARALLEL_IO_STEPS barrier actions per
+	 * steady-state iteration comes next.  Only accessed by barrier actions.
+	 */
+	private int parallelIOStep;
+	private static final int PARALLEL_IO_STEPS = 4;
+	/**
+	 * In pipelined I/O mode, the blob output storage, which is set lagged
+	 * while the write instructions run on the I/O thread; otherwise null.
+	 */
+	private final ImmutableList<TripleArrayConcreteStorage> laggedStorage;
+	/**
+	 * Native memory backing our storage, released after draining.
+	 */
+	private final OffHeapArena arena;
+	/**
+	 * In pipelined I/O mode, the dedicated I/O thread; otherwise null.
+	 */
+	private final ExecutorService ioExecutor;
+	/**
+	 * In pipelined I/O mode, the writes and reads running on the I/O thread
+	 * during the current steady-state iteration, or null if none.  Only
+	 * accessed by barrier actions.
+	 */
+	private Future<?> pendingIO;
+	private final Runnable pipelinedIO = new Runnable() {
+		@Override
+		public void run() {
+			doWrites(writeInstructions);
+			for (ReadInstruction inst : readInstructions)
+				if (!inst.load())
+					throw new AssertionError("ready read instruction failed to load: "+inst);
+		}
+	};
+	/**
+	 * Profiling metrics (see ProfilingMetrics), or null if not profiling.
+	 */
+	private final ProfilingMetrics metrics;
+	/**
+	 * If profiling, each core's execution and barrier wait timers (indexed by
+	 * core); else null.
+	 */
+	private final ProfilingMetrics.Timer[] coreTimers, barrierTimers;
 	private final ImmutableMap<Token, Integer> minimumBufferCapacity;
 	private ImmutableMap<Token, Buffer> buffers;
 	private final ImmutableList<Runnable> coreCode;
@@ -130,8 +258,11 @@ public class Compiler2BlobHost implements Blob {
 			Configuration configuration,
 			ImmutableSortedSet<Token> inputTokens,
 			ImmutableSortedSet<Token> outputTokens,
+			ImmutableMap<Token, Class<?>> bufferTypes,
 			MethodHandle initCode,
 			ImmutableList<MethodHandle> steadyStateCode,
+			ImmutableList<Integer> corePlacement,
+			ImmutableList<SyncUnit> syncUnits,
 			ImmutableList<MethodHandle> storageAdjusts,
 			List<ReadInstruction> initReadInstructions,
 			List<WriteInstruction> initWriteInstructions,
@@ -139,23 +270,86 @@ public class Compiler2BlobHost implements Blob {
 			List<ReadInstruction> readInstructions,
 			List<WriteInstruction> writeInstructions,
 			List<DrainInstruction> drainInstructions,
-			ImmutableMap<Token, Buffer> precreatedBuffers) {
+			ImmutableMap<Token, Buffer> precreatedBuffers,
+			ImmutableList<TripleArrayConcreteStorage> laggedStorage,
+			ProfilingMetrics metrics,
+			OffHeapArena arena) {
 		this.workers = workers;
 		this.config = configuration;
 		this.inputTokens = inputTokens;
 		this.outputTokens = outputTokens;
+		this.bufferTypes = bufferTypes;
 		this.initCode = initCode;
 		this.steadyStateCode = steadyStateCode;
+		assert corePlacement.isEmpty() || corePlacement.size() == steadyStateCode.size() : corePlacement;
+		this.corePlacement = corePlacement;
+		this.syncUnits = syncUnits;
 		this.storageAdjusts = storageAdjusts;
 		this.initReadInstructions = ImmutableList.copyOf(initReadInstructions);
 		this.initWriteInstructions = ImmutableList.copyOf(initWriteInstructions);
 		this.migrationInstructions = ImmutableList.copyOf(migrationInstructions);
+		this.metrics = metrics;
+		this.arena = arena;
+		if (metrics != null) {
+			List<ReadInstruction> profiledReads = new ArrayList<>(readInstructions.size());
+			for (ReadInstruction i : readInstructions)
+				profiledReads.add(new ProfiledReadInstruction(i, metrics));
+			readInstructions = profiledReads;
+			List<WriteInstruction> profiledWrites = new ArrayList<>(writeInstructions.size());
+			for (WriteInstruction i : writeInstructions)
+				profiledWrites.add(new ProfiledWriteInstruction(i, metrics));
+			writeInstructions = profiledWrites;
+		}
 		this.readInstructions = ImmutableList.copyOf(readInstructions);
 		this.writeInstructions = ImmutableList.copyOf(writeInstructions);
 		this.drainInstructions = ImmutableList.copyOf(drainInstructions);
 		this.precreatedBuffers = precreatedBuffers;
+		this.laggedStorage = laggedStorage;
+		this.ioExecutor = laggedStorage == null ? null :
+				Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Compiler2BlobHost-IO-%d").build());
 
 		this.collectTimings = config.getExtraData("timings") != null ? (Boolean)config.getExtraData("timings") : false;
+		Configuration.SwitchParameter<Boolean> parallelIOParam = config.getParameter("ParallelIO", Configuration.SwitchParameter.class, Boolean.class);
+		this.perUnitSync = !syncUnits.isEmpty();
+		assert !perUnitSync || laggedStorage == null;
+		this.parallelIO = parallelIOParam != null && parallelIOParam.getValue() && this.steadyStateCode.size() > 1
+				&& laggedStorage == null && !perUnitSync;
+		int numCores = this.steadyStateCode.size();
+		this.coreUnits = new int[numCores][];
+		this.coreDoesIO = new boolean[numCores];
+		for (int core = 0; core < numCores; ++core) {
+			List<Integer> units = new ArrayList<>();
+			for (int u = 0; u < syncUnits.size(); ++u)
+				if (syncUnits.get(u).cores().contains(core)) {
+					if (u == 0)
+						coreDoesIO[core] = true;
+					else
+						units.add(u);
+				}
+			coreUnits[core] = Ints.toArray(units);
+		}
+		this.unitPending = new AtomicLongArray(syncUnits.size() * UNIT_STRIDE);
+		this.unitEpochs = new AtomicLongArray(syncUnits.size() * UNIT_STRIDE);
+		for (int u = 0; u < syncUnits.size(); ++u)
+			unitPending.set(u * UNIT_STRIDE, syncUnits.get(u).cores().size());
+		this.coreIterations = new long[numCores * UNIT_STRIDE];
+		if (metrics != null) {
+			this.coreTimers = new ProfilingMetrics.Timer[this.steadyStateCode.size()];
+			this.barrierTimers = new ProfilingMetrics.Timer[this.steadyStateCode.size()];
+			for (int i = 0; i < this.steadyStateCode.size(); ++i) {
+				coreTimers[i] = metrics.coreTimer(i);
+				barrierTimers[i] = metrics.barrierTimer(i);
+			}
+		} else
+			this.coreTimers = this.barrierTimers = null;
+		int numShards = this.parallelIO ? this.steadyStateCode.size() : 0;
+		this.writeShards = shard(this.writeInstructions, numShards);
+		this.adjustShards = shard(this.storageAdjusts, numShards);
+		List<Integer> readIndices = new ArrayList<>(this.readInstructions.size());
+		for (int i = 0; i < this.readInstructions.size(); ++i)
+			readIndices.add(i);
+		this.readShards = shard(readIndices, numShards);
+		this.readsCompleted = new boolean[this.readInstructions.size()];
 
 		List<Map<Token, Integer>> capacityRequirements = new ArrayList<>();
 		for (ReadInstruction i : Iterables.concat(this.initReadInstructions, this.readInstructions))
@@ -170,14 +364,20 @@ public class Compiler2BlobHost implements Blob {
 		}, capacityRequirements);
 
 		MethodHandle mainLoop = MAIN_LOOP.bindTo(this),
+				parallelIOMainLoop = PARALLEL_IO_MAIN_LOOP.bindTo(this),
 				doInit = DO_INIT.bindTo(this),
-				doAdjust = DO_ADJUST.bindTo(this),
-				mainLoopNop = MAIN_LOOP_NOP.bindTo(this);
+				doAdjust = parallelIO ? DO_PARALLEL_IO_STEP.bindTo(this) : DO_ADJUST.bindTo(this),
+				perUnitSyncMainLoop = PER_UNIT_SYNC_MAIN_LOOP.bindTo(this),
+				perUnitSyncInit = PER_UNIT_SYNC_INIT.bindTo(this);
 		ProxyFactory pf = new ProxyFactory(new ModuleClassLoader(new Module()));
 		ImmutableList.Builder<Runnable> coreCodeRunnables = ImmutableList.builder();
 		for (int i = 0; i < this.steadyStateCode.size(); ++i) {
 			MethodHandle ssc = this.steadyStateCode.get(i);
-			MethodHandle code = sp1.guardWithTest(mainLoopNop, sp2.guardWithTest(mainLoop.bindTo(ssc), NOP));
+			MethodHandle loop = MethodHandles.insertArguments(
+					perUnitSync ? perUnitSyncMainLoop : parallelIO ? parallelIOMainLoop : mainLoop, 0, ssc, i);
+			MethodHandle init = perUnitSync ? MethodHandles.insertArguments(perUnitSyncInit, 0, i) :
+					MethodHandles.insertArguments(mainLoop, 0, NOP, i);
+			MethodHandle code = sp1.guardWithTest(init, sp2.guardWithTest(loop, NOP));
 			coreCodeRunnables.add(pf.createProxy("Proxy"+i, ImmutableMap.of("run", code), Runnable.class));
 		}
 		this.coreCode = coreCodeRunnables.build();
@@ -215,6 +415,13 @@ public class Compiler2BlobHost implements Blob {
 		return minimumBufferCapacity.get(token);
 	}
 
+	@Override
+	public Class<?> getBufferType(Token token) {
+		if (!inputTokens.contains(token) && !outputTokens.contains(token))
+			throw new IllegalArgumentException(token.toString()+" not an input or output of this blob");
+		return bufferTypes.get(token);
+	}
+
 	@Override
 	public void installBuffers(Map<Token, Buffer> buffers) {
 		if (this.buffers != null)
@@ -249,6 +456,25 @@ public class Compiler2BlobHost implements Blob {
 		return coreCode.get(core);
 	}
 
+	@Override
+	public int getPreferredCpu(int core) {
+		return corePlacement.isEmpty() ? -1 : corePlacement.get(core);
+	}
+
+	@Override
+	public ProfilingMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Returns the arena holding this blob's off-heap storage, for reporting
+	 * its footprint.  The arena is released after this blob drains.
+	 * @return this blob's off-heap arena
+	 */
+	public OffHeapArena getOffHeapArena() {
+		return arena;
+	}
+
 	@Override
 	public void drain(Runnable callback) {
 		drainCallback = callback;
@@ -259,10 +485,47 @@ public class Compiler2BlobHost implements Blob {
 		return drainData;
 	}
 
-	private void mainLoop(MethodHandle coreCode) throws Throwable {
+	private void mainLoop(MethodHandle coreCode, int core) throws Throwable {
 		try {
-			coreCode.invokeExact();
-			barrier.arriveAndAwaitAdvance();
+			runCoreCode(coreCode, core);
+			awaitBarrier(core);
+		} catch (Throwable ex) {
+			barrier.forceTermination();
+			SwitchPoint.invalidateAll(new SwitchPoint[]{sp1, sp2});
+			ex.printStackTrace();
+			throw ex;
+		}
+	}
+
+	/**
+	 * The main loop in parallel I/O mode.  After running the steady-state
+	 * code, each core does its share of the writes, then (after all writes are
+	 * done) its share of the storage adjusts, then its share of the reads,
+	 * with the barrier between each step.  The barrier actions just keep time,
+	 * except the last, which drains if any read could not complete.
+	 * @param coreCode the steady-state code for this core
+	 * @param core this core's index
+	 */
+	private void parallelIOMainLoop(MethodHandle coreCode, int core) throws Throwable {
+		try {
+			runCoreCode(coreCode, core);
+			if (awaitBarrier(core) < 0)
+				return;
+			doWrites(writeShards.get(core));
+			if (awaitBarrier(core) < 0)
+				return;
+			for (MethodHandle h : adjustShards.get(core))
+				h.invokeExact();
+			if (awaitBarrier(core) < 0)
+				return;
+			for (int i : readShards.get(core)) {
+				ReadInstruction inst = readInstructions.get(i);
+				boolean loaded = inst.load();
+				while (!loaded && !isDraining())
+					loaded = inst.load();
+				readsCompleted[i] = loaded;
+			}
+			awaitBarrier(core);
 		} catch (Throwable ex) {
 			barrier.forceTermination();
 			SwitchPoint.invalidateAll(new SwitchPoint[]{sp1, sp2});
@@ -271,6 +534,163 @@ public class Compiler2BlobHost implements Blob {
 		}
 	}
 
+	/**
+	 * The main loop in per-unit sync mode, where instead of a global barrier,
+	 * cores synchronize only through the storage they share.  Each sync unit
+	 * is a set of storage with the same accessing cores; the last core to
+	 * finish an iteration in a unit adjusts its storage.  The I/O unit also
+	 * includes the blob's input and output storage, and its last arrival
+	 * performs the writes, adjusts and reads (or drains).  A core may begin an
+	 * iteration once its units have adjusted after the previous iteration and
+	 * the iteration's input is loaded, so cores sharing no storage (except
+	 * through the I/O unit) run independently.
+	 * <p/>
+	 * This replaces the barrier with per-unit synchronization; it doesn't
+	 * pipeline iterations.  Every core still touches the I/O unit's input
+	 * gate, so no core gets more than one iteration ahead of the I/O step.
+	 * @param coreCode the steady-state code for this core
+	 * @param core this core's index
+	 */
+	private void perUnitSyncMainLoop(MethodHandle coreCode, int core) throws Throwable {
+		try {
+			long iteration = coreIterations[core * UNIT_STRIDE];
+			if (!awaitIteration(core, iteration))
+				return;
+			runCoreCode(coreCode, core);
+			coreIterations[core * UNIT_STRIDE] = iteration + 1;
+			for (int u : coreUnits[core])
+				arrive(u, iteration);
+			if (coreDoesIO[core])
+				arrive(0, iteration);
+		} catch (Throwable ex) {
+			perUnitSyncStopped = true;
+			SwitchPoint.invalidateAll(new SwitchPoint[]{sp1, sp2});
+			ex.printStackTrace();
+			throw ex;
+		}
+	}
+
+	/**
+	 * In per-unit sync mode, the first core to arrive runs init; the others just
+	 * return until it completes.
+	 * @param core this core's index
+	 */
+	private void perUnitSyncInit(int core) throws Throwable {
+		if (!initClaimed.compareAndSet(false, true)) {
+			Thread.yield();
+			return;
+		}
+		try {
+			doInit();
+			inputsLoaded.set(1);
+		} catch (Throwable ex) {
+			perUnitSyncStopped = true;
+			SwitchPoint.invalidateAll(new SwitchPoint[]{sp1, sp2});
+			ex.printStackTrace();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Waits until the given core may begin the given iteration, returning
+	 * false if we drained or failed instead.
+	 */
+	private boolean awaitIteration(int core, long iteration) {
+		if (barrierTimers != null)
+			barrierTimers[core].start();
+		try {
+			for (int spins = 0; !canBegin(core, iteration); ++spins) {
+				if (perUnitSyncStopped)
+					return false;
+				if (spins > 1000)
+					Thread.yield();
+			}
+			return true;
+		} finally {
+			if (barrierTimers != null)
+				barrierTimers[core].stop();
+		}
+	}
+
+	private boolean canBegin(int core, long iteration) {
+		if (inputsLoaded.get() <= iteration)
+			return false;
+		for (int u : coreUnits[core])
+			if (unitEpochs.get(u * UNIT_STRIDE) < iteration)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Arrives at the given sync unit, completing it if we're the last to
+	 * arrive.
+	 */
+	private void arrive(int unit, long iteration) throws Throwable {
+		int index = unit * UNIT_STRIDE;
+		if (unitPending.decrementAndGet(index) != 0)
+			return;
+		unitPending.set(index, syncUnits.get(unit).cores().size());
+		if (unit == 0) {
+			doPerUnitSyncIO(iteration);
+			return;
+		}
+		for (MethodHandle h : syncUnits.get(unit).adjusts())
+			h.invokeExact();
+		unitEpochs.set(index, iteration + 1);
+	}
+
+	/**
+	 * Completes the I/O unit: writes, adjusts the I/O unit's storage, then
+	 * loads the next iteration's input.  If a load can't complete because
+	 * we're draining, waits for the other units to finish the iteration
+	 * (nobody can begin the next one) and drains.
+	 */
+	private void doPerUnitSyncIO(long iteration) throws Throwable {
+		if (collectTimings) {
+			adjustTime.start();
+			++adjustCount;
+		}
+		doWrites(writeInstructions);
+		for (MethodHandle h : syncUnits.get(0).adjusts())
+			h.invokeExact();
+		for (int i = 0; i < readInstructions.size(); ++i) {
+			ReadInstruction inst = readInstructions.get(i);
+			while (!inst.load())
+				if (isDraining()) {
+					if (collectTimings)
+						adjustTime.stop();
+					for (int u = 1; u < syncUnits.size(); ++u)
+						while (unitEpochs.get(u * UNIT_STRIDE) <= iteration)
+							Thread.yield();
+					doDrain(readInstructions.subList(0, i), drainInstructions);
+					perUnitSyncStopped = true;
+					return;
+				}
+		}
+		if (collectTimings)
+			adjustTime.stop();
+		inputsLoaded.set(iteration + 2);
+	}
+
+	private void runCoreCode(MethodHandle coreCode, int core) throws Throwable {
+		if (coreTimers == null) {
+			coreCode.invokeExact();
+			return;
+		}
+		coreTimers[core].start();
+		coreCode.invokeExact();
+		coreTimers[core].stop();
+	}
+
+	private int awaitBarrier(int core) {
+		if (barrierTimers == null)
+			return barrier.arriveAndAwaitAdvance();
+		barrierTimers[core].start();
+		int phase = barrier.arriveAndAwaitAdvance();
+		barrierTimers[core].stop();
+		return phase;
+	}
+
 	private void doInit() throws Throwable {
 		Stopwatch initTime = null;
 		if (collectTimings)
@@ -301,8 +721,10 @@ public class Compiler2BlobHost implements Blob {
 
 		SwitchPoint.invalidateAll(new SwitchPoint[]{sp1});
 
-		if (collectTimings)
+		if (collectTimings) {
 			System.out.println("init time: "+initTime.stop());
+			System.out.println("off-heap storage: "+arena);
+		}
 	}
 
 	private final Stopwatch adjustTime = Stopwatch.createUnstarted();
@@ -313,15 +735,109 @@ public class Compiler2BlobHost implements Blob {
 			++adjustCount;
 		}
 
-		doWrites(writeInstructions);
+		if (pendingIO != null) {
+			try {
+				pendingIO.get();
+			} catch (ExecutionException ex) {
+				throw ex.getCause();
+			}
+			pendingIO = null;
+			for (TripleArrayConcreteStorage s : laggedStorage)
+				s.setLagged(false);
+		}
 
-		for (MethodHandle h : storageAdjusts)
-			h.invokeExact();
+		if (laggedStorage != null && !isDraining() && readsReady()) {
+			//Pipelined I/O: adjust first, then have the I/O thread write the
+			//items that were readable before the adjust (now in the third
+			//array of the output storage) and load the next iteration's input
+			//(into the half of the input storage the next iteration won't
+			//read) while the next iteration runs.  All loads will succeed
+			//because we're the only reader of the input buffers.
+			for (MethodHandle h : storageAdjusts)
+				h.invokeExact();
+			for (TripleArrayConcreteStorage s : laggedStorage)
+				s.setLagged(true);
+			pendingIO = ioExecutor.submit(pipelinedIO);
+		} else {
+			doWrites(writeInstructions);
 
-		readOrDrain();
+			for (MethodHandle h : storageAdjusts)
+				h.invokeExact();
+
+			readOrDrain();
+		}
+
+		if (collectTimings)
+			adjustTime.stop();
+	}
+
+	/**
+	 * Returns true if all steady-state read instructions can load now.
+	 */
+	private boolean readsReady() {
+		for (ReadInstruction inst : readInstructions)
+			if (!inst.isReady())
+				return false;
+		return true;
+	}
+
+	/**
+	 * The barrier action in parallel I/O mode; see parallelIOMainLoop().
+	 */
+	private void doParallelIOStep() {
+		int step = parallelIOStep;
+		parallelIOStep = (step + 1) % PARALLEL_IO_STEPS;
+		if (step == 0 && collectTimings) {
+			adjustTime.start();
+			++adjustCount;
+		}
+		if (step != PARALLEL_IO_STEPS - 1)
+			return;
 
 		if (collectTimings)
 			adjustTime.stop();
+		List<ReadInstruction> completed = null;
+		for (int i = 0; i < readInstructions.size(); ++i)
+			if (!readsCompleted[i]) {
+				if (completed == null) {
+					completed = new ArrayList<>();
+					for (int j = 0; j < readInstructions.size(); ++j)
+						if (readsCompleted[j])
+							completed.add(readInstructions.get(j));
+				}
+				break;
+			}
+		if (completed != null)
+			doDrain(completed, drainInstructions);
+	}
+
+	/**
+	 * Splits the given list round-robin into the given number of lists.
+	 */
+	private static <T> ImmutableList<ImmutableList<T>> shard(List<T> list, int shards) {
+		List<ImmutableList.Builder<T>> builders = new ArrayList<>(shards);
+		for (int i = 0; i < shards; ++i)
+			builders.add(ImmutableList.<T>builder());
+		for (int i = 0; i < list.size() && shards > 0; ++i)
+			builders.get(i % shards).add(list.get(i));
+		ImmutableList.Builder<ImmutableList<T>> result = ImmutableList.builder();
+		for (ImmutableList.Builder<T> b : builders)
+			result.add(b.build());
+		return result.build();
+	}
+
+	/**
+	 * Returns the average time spent per steady-state iteration performing
+	 * writes, storage adjusts and reads (in the barrier action, or split
+	 * across the cores in parallel I/O mode), or -1 if timings are not being
+	 * collected or no steady-state iteration has completed.
+	 * @param unit the time unit of the result
+	 * @return the average adjust time per iteration, or -1
+	 */
+	public long getAverageAdjustTime(TimeUnit unit) {
+		if (!collectTimings || adjustCount == 0)
+			return -1;
+		return adjustTime.elapsed(unit) / adjustCount;
 	}
 
 	/**
@@ -412,12 +928,25 @@ public class Compiler2BlobHost implements Blob {
 		this.drainData = interp.getDrainData();
 
 		SwitchPoint.invalidateAll(new SwitchPoint[]{sp1, sp2});
+		if (ioExecutor != null)
+			ioExecutor.shutdown();
+		//The core threads won't touch storage again (they're in the barrier
+		//and will see the invalidated SwitchPoints), and the drain
+		//instructions copied their data out, so free the storage's memory.
+		String arenaFootprint = arena.toString();
+		arena.release();
+		//We created the overall input and output buffers, so we're responsible
+		//for flushing and closing them (e.g., for Output.toBinaryFile).
+		for (Buffer b : precreatedBuffers.values())
+			Buffers.closeIfCloseable(b);
 		drainCallback.run();
 
 		if (collectTimings) {
 			drainTime.stop();
-			System.out.println("total adjust time: "+adjustTime+" over "+adjustCount+" adjusts");
+			System.out.println("total adjust time: "+adjustTime+" over "+adjustCount+" adjusts"
+					+(adjustCount > 0 ? " ("+adjustTime.elapsed(TimeUnit.NANOSECONDS)/adjustCount+" ns/adjust)" : ""));
 			System.out.println("drain time: "+drainTime);
+			System.out.println("off-heap storage: "+arenaFootprint);
 		}
 	}
 
@@ -425,6 +954,39 @@ public class Compiler2BlobHost implements Blob {
 		return drainCallback != null;
 	}
 
+	/**
+	 * In per-unit sync mode, a set of steady-state storage accessed by the same
+	 * cores, synchronized independently of other units.  See
+	 * perUnitSyncMainLoop().
+	 */
+	public static final class SyncUnit {
+		private final ImmutableSortedSet<Integer> cores;
+		private final ImmutableList<MethodHandle> adjusts;
+		public SyncUnit(Set<Integer> cores, List<MethodHandle> adjusts) {
+			this.cores = ImmutableSortedSet.copyOf(cores);
+			this.adjusts = ImmutableList.copyOf(adjusts);
+		}
+		/**
+		 * Returns the cores accessing this unit's storage (for the I/O unit,
+		 * the cores accessing the blob's input and output storage).
+		 * @return the cores accessing this unit's storage
+		 */
+		public ImmutableSortedSet<Integer> cores() {
+			return cores;
+		}
+		/**
+		 * Returns the adjust handles for this unit's storage.
+		 * @return the adjust handles for this unit's storage
+		 */
+		public ImmutableList<MethodHandle> adjusts() {
+			return adjusts;
+		}
+		@Override
+		public String toString() {
+			return String.format("SyncUnit[cores %s, %d storage]", cores, adjusts.size());
+		}
+	}
+
 	public static interface ReadInstruction {
 		public void init(Map<Token, Buffer> buffers);
 		public Map<Token, Integer> getMinimumBufferCapacity();
@@ -436,6 +998,16 @@ public class Compiler2BlobHost implements Blob {
 		 * @return true iff the load succeeded.
 		 */
 		public boolean load();
+		/**
+		 * Returns true if load() would succeed now.  Because blobs are the
+		 * only readers of their input buffers, it will continue to succeed
+		 * until called.  Instructions returning true may be loaded
+		 * asynchronously in pipelined I/O mode.
+		 * @return true iff load() would succeed now
+		 */
+		public default boolean isReady() {
+			return false;
+		}
 		/**
 		 * Retrieves data items from a ConcreteStorage.  To be called only after
 		 * load() returns true, before executing a steady-state iteration.  This
@@ -444,11 +1016,29 @@ public class Compiler2BlobHost implements Blob {
 		 * @return
 		 */
 		public Map<Token, Object[]> unload();
+		/**
+		 * Returns the number of items consumed from each buffer per successful
+		 * load().  This is the minimum buffer capacity unless the instruction
+		 * peeks beyond the items it consumes.
+		 * @return the number of items consumed per load
+		 */
+		public default Map<Token, Integer> getItemsPerLoad() {
+			return getMinimumBufferCapacity();
+		}
 	}
 
 	public static interface WriteInstruction extends NothrowCallable<Boolean> {
 		public void init(Map<Token, Buffer> buffers);
 		public Map<Token, Integer> getMinimumBufferCapacity();
+		/**
+		 * Returns the number of items written to each buffer per completed
+		 * call(), summed over the calls it took.  This is the minimum buffer
+		 * capacity unless the instruction needs more space than it fills.
+		 * @return the number of items written per completed write
+		 */
+		public default Map<Token, Integer> getItemsPerWrite() {
+			return getMinimumBufferCapacity();
+		}
 		/**
 		 * Writes data items to the output Buffer.  Returns true if all data
 		 * items were written, or false if more writing is necessary.
@@ -458,6 +1048,102 @@ public class Compiler2BlobHost implements Blob {
 		public Boolean call();
 	}
 
+	/**
+	 * Counts the items moved by a steady-state read instruction.  Each
+	 * successful load consumes the number of items given by getItemsPerLoad().
+	 */
+	private static final class ProfiledReadInstruction implements ReadInstruction {
+		private final ReadInstruction delegate;
+		private final ImmutableList<ProfilingMetrics.Counter> counters;
+		private final int[] counts;
+		private ProfiledReadInstruction(ReadInstruction delegate, ProfilingMetrics metrics) {
+			this.delegate = delegate;
+			Map<Token, Integer> items = delegate.getItemsPerLoad();
+			ImmutableList.Builder<ProfilingMetrics.Counter> countersBuilder = ImmutableList.builder();
+			this.counts = new int[items.size()];
+			int i = 0;
+			for (Map.Entry<Token, Integer> e : items.entrySet()) {
+				countersBuilder.add(metrics.readCounter(e.getKey()));
+				counts[i++] = e.getValue();
+			}
+			this.counters = countersBuilder.build();
+		}
+		@Override
+		public void init(Map<Token, Buffer> buffers) {
+			delegate.init(buffers);
+		}
+		@Override
+		public Map<Token, Integer> getMinimumBufferCapacity() {
+			return delegate.getMinimumBufferCapacity();
+		}
+		@Override
+		public boolean load() {
+			boolean loaded = delegate.load();
+			if (loaded)
+				for (int i = 0; i < counts.length; ++i)
+					counters.get(i).add(counts[i]);
+			return loaded;
+		}
+		@Override
+		public boolean isReady() {
+			return delegate.isReady();
+		}
+		@Override
+		public Map<Token, Object[]> unload() {
+			return delegate.unload();
+		}
+		@Override
+		public Map<Token, Integer> getItemsPerLoad() {
+			return delegate.getItemsPerLoad();
+		}
+		@Override
+		public String toString() {
+			return delegate.toString();
+		}
+	}
+
+	/**
+	 * Counts the items moved by a steady-state write instruction.  Each
+	 * completed write moves the number of items given by getItemsPerWrite().
+	 */
+	private static final class ProfiledWriteInstruction implements WriteInstruction {
+		private final WriteInstruction delegate;
+		private final ImmutableList<ProfilingMetrics.Counter> counters;
+		private final int[] counts;
+		private ProfiledWriteInstruction(WriteInstruction delegate, ProfilingMetrics metrics) {
+			this.delegate = delegate;
+			Map<Token, Integer> items = delegate.getItemsPerWrite();
+			ImmutableList.Builder<ProfilingMetrics.Counter> countersBuilder = ImmutableList.builder();
+			this.counts = new int[items.size()];
+			int i = 0;
+			for (Map.Entry<Token, Integer> e : items.entrySet()) {
+				countersBuilder.add(metrics.writeCounter(e.getKey()));
+				counts[i++] = e.getValue();
+			}
+			this.counters = countersBuilder.build();
+		}
+		@Override
+		public void init(Map<Token, Buffer> buffers) {
+			delegate.init(buffers);
+		}
+		@Override
+		public Map<Token, Integer> getMinimumBufferCapacity() {
+			return delegate.getMinimumBufferCapacity();
+		}
+		@Override
+		public Boolean call() {
+			boolean completed = delegate.call();
+			if (completed)
+				for (int i = 0; i < counts.length; ++i)
+					counters.get(i).add(counts[i]);
+			return completed;
+		}
+		@Override
+		public String toString() {
+			return delegate.toString();
+		}
+	}
+
 	public static interface DrainInstruction extends NothrowCallable<Map<Token, Object[]>> {
 		@Override
 		public Map<Token, Object[]> call();
@@ -22,7 +22,9 @@
 package edu.mit.streamjit.impl.compiler2;
 
 import static com.google.common.base.Preconditions.checkState;
+import com.google.common.base.Function;
 import com.google.common.collect.ImmutableSet;
+import edu.mit.streamjit.api.CompiledStream;
 import edu.mit.streamjit.api.Input;
 import edu.mit.streamjit.api.Output;
 import edu.mit.streamjit.api.Worker;
@@ -48,6 +50,7 @@ public final class Compiler2StreamCompiler extends BlobHostStreamCompiler {
 	private Path dumpFile;
 	private boolean timings = false;
 	private boolean throughput = false;
+	private boolean profile = false;
 	public Compiler2StreamCompiler() {
 		super(new Compiler2BlobFactory());
 	}
@@ -89,6 +92,16 @@ public final class Compiler2StreamCompiler extends BlobHostStreamCompiler {
 		return this;
 	}
 
+	/**
+	 * Instruments the compiled stream to collect steady-state profiling
+	 * metrics, available from CompiledStream.getMetrics().
+	 * @return this
+	 */
+	public Compiler2StreamCompiler profile() {
+		this.profile = true;
+		return this;
+	}
+
 	@Override
 	protected final int getMaxNumCores() {
 		return maxNumCores;
@@ -99,6 +112,7 @@ public final class Compiler2StreamCompiler extends BlobHostStreamCompiler {
 		if (config != null) {
 			Configuration.Builder builder = Configuration.builder(config);
 			builder.putExtraData("reportThroughput", throughput);
+			builder.putExtraData("profile", profile);
 			return builder.build();
 		}
 
@@ -114,9 +128,31 @@ public final class Compiler2StreamCompiler extends BlobHostStreamCompiler {
 			builder.putExtraData("dumpFile", dumpFile);
 		builder.putExtraData("timings", timings);
 		builder.putExtraData("reportThroughput", throughput);
+		builder.putExtraData("profile", profile);
 		return builder.build();
 	}
 
+	/**
+	 * Compiles graphs with only fixed-rate workers into a single blob.  Graphs
+	 * with dynamic-rate workers are split into regions; see
+	 * {@link DynamicRegions}.
+	 */
+	@Override
+	protected <I, O> CompiledStream compile(ImmutableSet<Worker<?, ?>> workers, Input<I> input, Output<O> output) {
+		boolean anyDynamic = false;
+		for (Worker<?, ?> w : workers)
+			anyDynamic |= DynamicRegions.isDynamic(w);
+		if (!anyDynamic)
+			return super.compile(workers, input, output);
+
+		return DynamicRegions.compile(DynamicRegions.partition(workers), new Function<Set<Worker<?, ?>>, Blob>() {
+			@Override
+			public Blob apply(Set<Worker<?, ?>> region) {
+				return new Compiler2(region, getConfiguration(region), getMaxNumCores(), null, null, null).compile();
+			}
+		}, input, output);
+	}
+
 	@Override
 	protected Blob makeBlob(ImmutableSet<Worker<?, ?>> workers, Configuration configuration, Input<?> input, Output<?> output) {
 		//When reporting throughput, repeat the input as needed.
@@ -21,15 +21,21 @@
  */
 package edu.mit.streamjit.impl.compiler2;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Range;
+import edu.mit.streamjit.impl.blob.ProfilingMetrics;
 import edu.mit.streamjit.util.bytecode.methodhandles.Combinators;
+import edu.mit.streamjit.util.CollectionUtils;
 import edu.mit.streamjit.util.Pair;
+import static edu.mit.streamjit.util.bytecode.methodhandles.LookupUtils.findVirtual;
 import edu.mit.streamjit.util.bytecode.methodhandles.ProxyFactory;
 import java.lang.invoke.MethodHandle;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Represents one core during the compilation.
@@ -37,21 +43,46 @@ import java.util.List;
  * @since 10/17/2013
  */
 public class Core {
-	private final ImmutableMap<Storage, ConcreteStorage> storage;
+	private static final MethodHandle TIMER_START = findVirtual(ProfilingMetrics.Timer.class, "start");
+	private static final MethodHandle TIMER_STOP = findVirtual(ProfilingMetrics.Timer.class, "stop");
+	private ImmutableMap<Storage, ConcreteStorage> storage;
 	private final ImmutableMap<ActorGroup, Integer> unrollFactors;
 	private final ImmutableTable<Actor, Integer, IndexFunctionTransformer> inputTransformers, outputTransformers;
 	private final ProxyFactory bytecodifier;
+	/**
+	 * If non-null, generates this core's code as straight-line loop nests
+	 * instead of method handle combinators.
+	 */
+	private final LoopNestGenerator generator;
 	private final List<Pair<ActorGroup, Range<Integer>>> allocations = new ArrayList<>();
 	public Core(ImmutableMap<Storage, ConcreteStorage> storage,
 			ImmutableMap<ActorGroup, Integer> unrollFactors,
 			ImmutableTable<Actor, Integer, IndexFunctionTransformer> inputTransformers,
 			ImmutableTable<Actor, Integer, IndexFunctionTransformer> outputTransformers,
 			ProxyFactory bytecodifier) {
+		this(storage, unrollFactors, inputTransformers, outputTransformers, bytecodifier, null);
+	}
+	public Core(ImmutableMap<Storage, ConcreteStorage> storage,
+			ImmutableMap<ActorGroup, Integer> unrollFactors,
+			ImmutableTable<Actor, Integer, IndexFunctionTransformer> inputTransformers,
+			ImmutableTable<Actor, Integer, IndexFunctionTransformer> outputTransformers,
+			ProxyFactory bytecodifier,
+			LoopNestGenerator generator) {
 		this.storage = storage;
 		this.unrollFactors = unrollFactors;
 		this.inputTransformers = inputTransformers;
 		this.outputTransformers = outputTransformers;
 		this.bytecodifier = bytecodifier;
+		this.generator = generator;
+	}
+
+	/**
+	 * Adds storage created after allocation to this core's storage (see
+	 * InternalStorageAliasing).  Must be called before generating code.
+	 * @param moreStorage the storage to add, disjoint from existing storage
+	 */
+	public void addStorage(Map<Storage, ConcreteStorage> moreStorage) {
+		this.storage = CollectionUtils.union(storage, moreStorage);
 	}
 
 	public void allocate(ActorGroup group, Range<Integer> iterations) {
@@ -60,12 +91,78 @@ public class Core {
 	}
 
 	public MethodHandle code() {
+		return code(null, -1);
+	}
+
+	/**
+	 * Returns this core's code, instrumented to record the time spent
+	 * executing each group in the given metrics (if not null).
+	 * @param metrics the metrics to record into, or null
+	 * @param core this core's index in the blob
+	 * @return this core's code
+	 */
+	public MethodHandle code(ProfilingMetrics metrics, int core) {
+		if (generator != null)
+			return generatedCode(metrics, core);
 		//TODO: ActorGroup ordering parameters: accumulate a
 		//List<Pair<ActorGroup, MethodHandle>>, then sort before semicolon(code).
 		List<MethodHandle> code = new ArrayList<>(allocations.size());
+		for (Pair<ActorGroup, Range<Integer>> p : allocations) {
+			MethodHandle groupCode = p.first.specialize(p.second, storage, unrollFactors.get(p.first), inputTransformers, outputTransformers, bytecodifier);
+			if (metrics != null) {
+				ProfilingMetrics.Timer timer = metrics.groupTimer(core, p.first.id());
+				groupCode = Combinators.semicolon(TIMER_START.bindTo(timer), groupCode, TIMER_STOP.bindTo(timer));
+			}
+			code.add(groupCode);
+		}
+		return Combinators.semicolon(code);
+	}
+
+	/**
+	 * Returns the code for each allocation separately, in allocation order.
+	 * Used to make work-stealing chunks; see WorkStealingPool.
+	 * @return each allocation's code
+	 */
+	public ImmutableList<MethodHandle> allocationCode() {
+		ImmutableList.Builder<MethodHandle> code = ImmutableList.builder();
 		for (Pair<ActorGroup, Range<Integer>> p : allocations)
 			code.add(p.first.specialize(p.second, storage, unrollFactors.get(p.first), inputTransformers, outputTransformers, bytecodifier));
-		return Combinators.semicolon(code);
+		return code.build();
+	}
+
+	private MethodHandle generatedCode(ProfilingMetrics metrics, int core) {
+		for (Pair<ActorGroup, Range<Integer>> p : allocations) {
+			ProfilingMetrics.Timer timer = metrics != null ? metrics.groupTimer(core, p.first.id()) : null;
+			if (timer != null)
+				generator.add(TIMER_START.bindTo(timer));
+			for (ActorGroup.GroupLoop loop : p.first.makeGroupLoops(p.second, storage, unrollFactors.get(p.first), inputTransformers, outputTransformers))
+				generator.add(loop);
+			if (timer != null)
+				generator.add(TIMER_STOP.bindTo(timer));
+		}
+		return generator.generate();
+	}
+
+	/**
+	 * Returns the storage read or written by the groups allocated to this core.
+	 * @return the storage this core touches
+	 */
+	public ImmutableSet<Storage> touchedStorage() {
+		ImmutableSet.Builder<Storage> touched = ImmutableSet.builder();
+		for (Pair<ActorGroup, Range<Integer>> p : allocations) {
+			touched.addAll(p.first.inputs());
+			touched.addAll(p.first.outputs());
+		}
+		return touched.build();
+	}
+
+	/**
+	 * Returns the groups and iteration ranges allocated to this core, in
+	 * execution order.
+	 * @return this core's allocations
+	 */
+	public ImmutableList<Pair<ActorGroup, Range<Integer>>> allocations() {
+		return ImmutableList.copyOf(allocations);
 	}
 
 	/**
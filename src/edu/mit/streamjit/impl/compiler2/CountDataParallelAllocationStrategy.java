@@ -81,7 +81,10 @@ public class CountDataParallelAllocationStrategy implements AllocationStrategy {
 				if (a instanceof WorkerActor && ((WorkerActor)a).archetype().isStateful())
 					minStatefulId = Math.min(minStatefulId, a.id());
 			Configuration.SwitchParameter<Integer> param = config.getParameter("Group"+minStatefulId+"Core", Configuration.SwitchParameter.class, Integer.class);
-			cores.get(param.getValue() % cores.size()).allocate(group, iterations);
+			//Groups stateful only because they send or receive messages don't
+			//have a parameter.
+			int core = param != null ? param.getValue() : 0;
+			cores.get(core % cores.size()).allocate(group, iterations);
 		} else {
 			String name = String.format("Group%dCores", group.id());
 			Configuration.IntParameter param = config.getParameter(name, Configuration.IntParameter.class);
@@ -24,6 +24,7 @@ package edu.mit.streamjit.impl.compiler2;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import edu.mit.streamjit.impl.blob.Buffer;
 import edu.mit.streamjit.util.bytecode.methodhandles.Combinators;
 import static edu.mit.streamjit.util.bytecode.methodhandles.LookupUtils.findGetter;
 import static edu.mit.streamjit.util.bytecode.methodhandles.LookupUtils.findVirtual;
@@ -37,7 +38,7 @@ import java.util.Map;
  * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
  * @since 10/10/2013
  */
-public class DoubleArrayConcreteStorage implements ConcreteStorage {
+public class DoubleArrayConcreteStorage implements ConcreteStorage, BulkReadableConcreteStorage, BulkWritableConcreteStorage {
 	private static final Lookup LOOKUP = MethodHandles.lookup();
 	private static final MethodHandle ADJUST = findVirtual(LOOKUP, "adjust");
 	private static final MethodHandle STATE_GETTER = findGetter(LOOKUP, "state");
@@ -63,8 +64,8 @@ public class DoubleArrayConcreteStorage implements ConcreteStorage {
 				return 1;
 			}
 		});
-		this.readOffset = s.readIndices(oneMap).first();
-		int writeOffset = s.writeIndices(oneMap).first();
+		this.readOffset = s.readIndexSpan(oneMap).lowerEndpoint();
+		int writeOffset = s.writeIndexSpan(oneMap).lowerEndpoint();
 
 		MethodHandle stateGetter = STATE_GETTER.bindTo(this);
 		this.readHandle = MethodHandles.filterArguments(MethodHandles.guardWithTest(stateGetter, readArray.get(), writeArray.get()),
@@ -93,6 +94,29 @@ public class DoubleArrayConcreteStorage implements ConcreteStorage {
 		}
 	}
 
+	@Override
+	public int bulkRead(Buffer dest, int index, int count) {
+		//Reads only see the read array (see readHandle).
+		index -= readOffset;
+		assert 0 <= index && index + count <= throughput : String.format("%s.bulkRead(%d, %d)", this, index, count);
+		return (state ? readArray : writeArray).writeTo(dest, index, count);
+	}
+
+	@Override
+	public void bulkWrite(Buffer source, int index, int count) {
+		//As in write(), pretend the read and write arrays are contiguous.
+		index -= readOffset;
+		int read = 0;
+		if (index < throughput) {
+			int firstRun = Math.min(count, throughput - index);
+			read += (state ? readArray : writeArray).readFrom(source, index, firstRun);
+			index += firstRun;
+		}
+		if (read < count)
+			read += (state ? writeArray : readArray).readFrom(source, index - throughput, count - read);
+		assert read == count : String.format("%s: read %d of %d", this, read, count);
+	}
+
 	@Override
 	public void adjust() {
 		//state != state doesn't work, heh.
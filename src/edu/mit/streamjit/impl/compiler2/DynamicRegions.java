@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.compiler2;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import edu.mit.streamjit.api.CompiledStream;
+import edu.mit.streamjit.api.Input;
+import edu.mit.streamjit.api.Input.ManualInput;
+import edu.mit.streamjit.api.Output;
+import edu.mit.streamjit.api.Rate;
+import edu.mit.streamjit.api.Worker;
+import edu.mit.streamjit.impl.blob.Blob;
+import edu.mit.streamjit.impl.blob.Blob.Token;
+import edu.mit.streamjit.impl.blob.Buffer;
+import edu.mit.streamjit.impl.blob.Buffers;
+import edu.mit.streamjit.impl.common.AbstractDrainer;
+import edu.mit.streamjit.impl.common.AbstractDrainer.BlobGraph;
+import edu.mit.streamjit.impl.common.BlobThread;
+import edu.mit.streamjit.impl.common.InputBufferFactory;
+import edu.mit.streamjit.impl.common.OutputBufferFactory;
+import edu.mit.streamjit.impl.common.Workers;
+import edu.mit.streamjit.impl.concurrent.ConcurrentDrainer;
+import edu.mit.streamjit.impl.interp.Interpreter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Hosts graphs containing dynamic-rate workers, which Compiler2 can't schedule,
+ * as multiple blobs.  The graph is partitioned into maximal regions of
+ * fixed-rate workers, each compiled to its own steady-state code, and regions
+ * of dynamic-rate workers, which run in the interpreter.  Regions are
+ * connected by concurrent queues sized from the blobs' minimum capacities, and
+ * each blob runs on its own threads, firing when its input queues hold enough
+ * data (Compiler2 blobs wait in their steady-state reads; the interpreter
+ * polls).
+ * <p/>
+ * Queues between regions are bounded, so a split-join whose branches have
+ * wildly different dynamic rates can still deadlock if one branch's queue
+ * fills before the other delivers.
+ */
+final class DynamicRegions {
+	/**
+	 * The minimum capacity of the queues between regions, to give the regions
+	 * some slack across rate variations.
+	 */
+	private static final int MIN_QUEUE_CAPACITY = 4096;
+	private DynamicRegions() {}
+
+	/**
+	 * Returns true if the given worker has any dynamic rates, meaning it
+	 * can't be scheduled statically.
+	 * @param worker a worker
+	 * @return true iff the worker has a dynamic rate
+	 */
+	static boolean isDynamic(Worker<?, ?> worker) {
+		for (Rate r : worker.getPopRates())
+			if (!r.isFixed())
+				return true;
+		for (Rate r : worker.getPushRates())
+			if (!r.isFixed())
+				return true;
+		for (Rate r : worker.getPeekRates())
+			if (r.max() == Rate.DYNAMIC)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Partitions the given workers into regions whose workers are either all
+	 * dynamic-rate or all fixed-rate.  The regions form a DAG with a single
+	 * source region, as AbstractDrainer requires.
+	 * @param workers all the workers in the graph
+	 * @return a list of regions
+	 */
+	static List<Set<Worker<?, ?>>> partition(ImmutableSet<Worker<?, ?>> workers) {
+		//A worker's level is the maximum number of fixed/dynamic transitions
+		//on a path from the source to it.  Adjacent workers in the same level
+		//are of the same kind, so regions (connected components within a
+		//level) only have edges to higher levels.
+		ImmutableList<Worker<?, ?>> order = Workers.topologicalSort(workers);
+		Map<Worker<?, ?>, Integer> level = new HashMap<>();
+		for (Worker<?, ?> w : order) {
+			int l = 0;
+			for (Worker<?, ?> p : Workers.getPredecessors(w))
+				l = Math.max(l, level.get(p) + (isDynamic(p) == isDynamic(w) ? 0 : 1));
+			level.put(w, l);
+		}
+
+		List<Set<Worker<?, ?>>> regions = new ArrayList<>();
+		Set<Worker<?, ?>> visited = new HashSet<>();
+		ArrayDeque<Worker<?, ?>> queue = new ArrayDeque<>();
+		for (Worker<?, ?> w : order) {
+			if (!visited.add(w)) continue;
+			Set<Worker<?, ?>> region = new HashSet<>();
+			queue.add(w);
+			while (!queue.isEmpty()) {
+				Worker<?, ?> x = queue.remove();
+				region.add(x);
+				List<Worker<?, ?>> neighbors = new ArrayList<>();
+				neighbors.addAll(Workers.getPredecessors(x));
+				neighbors.addAll(Workers.getSuccessors(x));
+				for (Worker<?, ?> y : neighbors)
+					if (level.get(y).equals(level.get(x)) && isDynamic(y) == isDynamic(x) && visited.add(y))
+						queue.add(y);
+			}
+			regions.add(region);
+		}
+		return regions;
+	}
+
+	/**
+	 * Compiles and starts the given regions, connecting them with queues and
+	 * the overall input and output.
+	 * @param regions the regions, from {@link #partition(ImmutableSet)}
+	 * @param compiler makes blobs for fixed-rate regions
+	 * @param input the overall input
+	 * @param output the overall output
+	 * @return the compiled stream
+	 */
+	static <I, O> CompiledStream compile(List<Set<Worker<?, ?>>> regions, Function<Set<Worker<?, ?>>, Blob> compiler,
+			Input<I> input, Output<O> output) {
+		Interpreter.InterpreterBlobFactory interpFactory = new Interpreter.InterpreterBlobFactory();
+		ImmutableList.Builder<Blob> blobsBuilder = ImmutableList.builder();
+		for (Set<Worker<?, ?>> region : regions)
+			blobsBuilder.add(isDynamic(region.iterator().next()) ?
+					interpFactory.makeBlob(region, interpFactory.getDefaultConfiguration(region), 1, null) :
+					compiler.apply(region));
+		ImmutableList<Blob> blobs = blobsBuilder.build();
+
+		Map<Token, Integer> readerCapacity = new HashMap<>(), writerCapacity = new HashMap<>();
+		Map<Token, Class<?>> types = new HashMap<>();
+		for (Blob b : blobs) {
+			for (Token t : b.getInputs()) {
+				readerCapacity.put(t, b.getMinimumBufferCapacity(t));
+				if (!b.getBufferType(t).equals(Object.class))
+					types.put(t, b.getBufferType(t));
+			}
+			for (Token t : b.getOutputs()) {
+				writerCapacity.put(t, b.getMinimumBufferCapacity(t));
+				if (!b.getBufferType(t).equals(Object.class))
+					types.put(t, b.getBufferType(t));
+			}
+		}
+
+		Buffer inputBuffer = null, outputBuffer = null;
+		ImmutableMap.Builder<Token, Buffer> buffersBuilder = ImmutableMap.builder();
+		for (Map.Entry<Token, Integer> e : readerCapacity.entrySet()) {
+			Token t = e.getKey();
+			if (t.isOverallInput()) {
+				inputBuffer = InputBufferFactory.unwrap(input).createReadableBuffer(e.getValue());
+				buffersBuilder.put(t, inputBuffer);
+			} else {
+				int capacity = Math.max(MIN_QUEUE_CAPACITY, 2 * (e.getValue() + writerCapacity.get(t)));
+				Class<?> type = types.containsKey(t) ? types.get(t) : Object.class;
+				buffersBuilder.put(t, Buffers.concurrentBuffer(type, capacity));
+			}
+		}
+		for (Map.Entry<Token, Integer> e : writerCapacity.entrySet())
+			if (e.getKey().isOverallOutput()) {
+				outputBuffer = OutputBufferFactory.unwrap(output).createWritableBuffer(e.getValue());
+				buffersBuilder.put(e.getKey(), outputBuffer);
+			}
+		ImmutableMap<Token, Buffer> buffers = buffersBuilder.build();
+
+		Map<Blob, Set<BlobThread>> threadMap = new HashMap<>();
+		for (Blob b : blobs) {
+			b.installBuffers(buffers);
+			Set<BlobThread> threads = new HashSet<>();
+			for (int i = 0; i < b.getCoreCount(); ++i)
+				threads.add(new BlobThread(b.getCoreCode(i), b.toString()+"-"+i));
+			threadMap.put(b, threads);
+		}
+
+		final RegionCompiledStream cs = new RegionCompiledStream(
+				new ConcurrentDrainer(new BlobGraph(regions), threadMap, outputBuffer));
+		if (input instanceof ManualInput)
+			InputBufferFactory.setManualInputDelegate((ManualInput<I>)input, new InputBufferFactory.AbstractManualInputDelegate<I>(inputBuffer) {
+				@Override
+				public void drain() {
+					cs.drain();
+				}
+			});
+		else //Input provides all input, so immediately begin to drain.
+			cs.drain();
+
+		for (Set<BlobThread> threads : threadMap.values())
+			for (Thread t : threads)
+				t.start();
+		return cs;
+	}
+
+	private static final class RegionCompiledStream implements CompiledStream {
+		private final AbstractDrainer drainer;
+		private RegionCompiledStream(AbstractDrainer drainer) {
+			this.drainer = drainer;
+		}
+
+		private void drain() {
+			drainer.startDraining(2);
+		}
+
+		@Override
+		public boolean isDrained() {
+			return drainer.isDrained();
+		}
+
+		@Override
+		public void awaitDrained() throws InterruptedException {
+			drainer.awaitDrained();
+		}
+
+		@Override
+		public void awaitDrained(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+			drainer.awaitDrained(timeout, unit);
+		}
+	}
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.compiler2;
+
+import static com.google.common.base.Preconditions.*;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.Range;
+import com.google.common.math.IntMath;
+import com.google.common.primitives.Ints;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+
+/**
+ * A closed form for an index function.  Index functions are opaque method
+ * handles, but the ones we build (identity, shifts by adders, and the
+ * roundrobin transfer functions from splitter/joiner removal, and their
+ * compositions) are all periodic-affine: for some period P and stride D,
+ * f(i + P) = f(i) + D for all i >= 0, and thus
+ * f(i) = D * (i / P) + f(i % P).  Given the form, the span of physical
+ * indices over a range of logical indices can be computed in O(P) time rather
+ * than time proportional to the range, which grows with the multiplier.
+ * <p/>
+ * Forms can't be recovered reliably by sampling an opaque function (a
+ * roundrobin transfer function looks like the identity within a window), so
+ * we build them alongside the handles: the code creating an index function
+ * registers its form, and {@link #compose(MethodHandle, MethodHandle)}
+ * composes both.  Functions without a registered form (or whose composed
+ * period would exceed {@link #MAX_PERIOD}) have no form and callers fall back
+ * to enumeration.  Forms are keyed by method handle identity.
+ */
+final class IndexFunctionForm {
+	/**
+	 * The largest period we keep forms for.  Composing forms multiplies
+	 * periods, and a form stores a period's worth of offsets.
+	 */
+	private static final int MAX_PERIOD = 1024;
+	private static final Cache<MethodHandle, IndexFunctionForm> FORMS = CacheBuilder.newBuilder().weakKeys().build();
+	private static final MethodHandle IDENTITY = register(MethodHandles.identity(int.class), adder(0));
+	private final int period, stride;
+	/**
+	 * f(0) through f(period - 1).
+	 */
+	private final int[] offsets;
+	private IndexFunctionForm(int period, int stride, int[] offsets) {
+		this.period = period;
+		this.stride = stride;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * Returns the form of i + k.
+	 * @param k the amount to add
+	 * @return the form of i + k
+	 */
+	public static IndexFunctionForm adder(int k) {
+		return new IndexFunctionForm(1, 1, new int[]{k});
+	}
+
+	/**
+	 * Returns the form of a roundrobin transfer function,
+	 * N * (i / weight) + prefixSum + (i % weight), or null if the weight
+	 * isn't positive.
+	 * @param weight the weight of this transfer function's channel
+	 * @param prefixSum the sum of the weights of the preceding channels
+	 * @param N the sum of all the weights
+	 * @return the transfer function's form, or null
+	 */
+	public static IndexFunctionForm roundrobin(int weight, int prefixSum, int N) {
+		if (weight <= 0 || weight > MAX_PERIOD)
+			return null;
+		int[] offsets = new int[weight];
+		for (int i = 0; i < weight; ++i)
+			offsets[i] = prefixSum + i;
+		return new IndexFunctionForm(weight, N, offsets);
+	}
+
+	/**
+	 * Returns the form of g(f(i)), where f is this form, or null if it has no
+	 * form we keep: f must be nonnegative (g is only defined on nonnegative
+	 * indices) and the composed period must be at most MAX_PERIOD.
+	 * <p/>
+	 * With P = Pf * Pg / gcd(Df, Pg), f(i + P) = f(i) + m * Pg for
+	 * m = Df / gcd(Df, Pg), so g(f(i + P)) = g(f(i)) + m * Dg.
+	 * @param g the outer form
+	 * @return the composed form, or null
+	 */
+	public IndexFunctionForm andThen(IndexFunctionForm g) {
+		if (stride < 0 || Ints.min(offsets) < 0)
+			return null;
+		int gcd = IntMath.gcd(Math.abs(stride), g.period);
+		long composedPeriod = (long)period * (g.period / gcd);
+		if (composedPeriod > MAX_PERIOD)
+			return null;
+		int[] composedOffsets = new int[(int)composedPeriod];
+		for (int i = 0; i < composedOffsets.length; ++i)
+			composedOffsets[i] = g.apply(apply(i));
+		return new IndexFunctionForm((int)composedPeriod, stride / gcd * g.stride, composedOffsets);
+	}
+
+	/**
+	 * Records the given form for the given index function.  Does nothing if
+	 * the form is null.
+	 * @param indexFunction an (int)int index function
+	 * @param form the function's form, or null
+	 * @return the index function
+	 */
+	public static MethodHandle register(MethodHandle indexFunction, IndexFunctionForm form) {
+		checkArgument(indexFunction.type().equals(MethodType.methodType(int.class, int.class)), indexFunction);
+		if (form != null)
+			FORMS.put(indexFunction, form);
+		return indexFunction;
+	}
+
+	/**
+	 * Returns the identity index function, with its form registered.
+	 * @return the identity index function
+	 */
+	public static MethodHandle identity() {
+		return IDENTITY;
+	}
+
+	/**
+	 * Returns g(f(i)), registering its form if f and g have forms.
+	 * @param f the inner index function
+	 * @param g the outer index function
+	 * @return the composed index function
+	 */
+	public static MethodHandle compose(MethodHandle f, MethodHandle g) {
+		MethodHandle h = MethodHandles.filterReturnValue(f, g);
+		IndexFunctionForm ff = of(f), gf = of(g);
+		return register(h, ff != null && gf != null ? ff.andThen(gf) : null);
+	}
+
+	/**
+	 * Returns the registered closed form of the given (int)int index
+	 * function, or null if it doesn't have one.
+	 * @param indexFunction an index function
+	 * @return the function's closed form, or null
+	 */
+	public static IndexFunctionForm of(MethodHandle indexFunction) {
+		return FORMS.getIfPresent(indexFunction);
+	}
+
+	private static int evaluate(MethodHandle indexFunction, int logicalIndex) {
+		try {
+			return (int)indexFunction.invokeExact(logicalIndex);
+		} catch (Throwable ex) {
+			throw new AssertionError(String.format("index functions should not throw; %s(%d)", indexFunction, logicalIndex), ex);
+		}
+	}
+
+	public int period() {
+		return period;
+	}
+
+	public int stride() {
+		return stride;
+	}
+
+	public int apply(int logicalIndex) {
+		checkArgument(logicalIndex >= 0);
+		return stride * (logicalIndex / period) + offsets[logicalIndex % period];
+	}
+
+	/**
+	 * Returns a range spanning the physical indices of the given nonempty
+	 * range of logical indices.  Every logical index is congruent modulo the
+	 * period to one in the first (last) period of the range and differs by a
+	 * multiple of the stride, so for a nonnegative stride the minimum is
+	 * attained in the first period and the maximum in the last (and vice
+	 * versa for a negative stride).
+	 * @param begin the first logical index (inclusive)
+	 * @param end the last logical index (exclusive)
+	 * @return a canonical range spanning the physical indices
+	 */
+	public Range<Integer> span(int begin, int end) {
+		checkArgument(0 <= begin && begin < end, "[%s, %s)", begin, end);
+		Range<Integer> span;
+		if (end - begin <= 2 * period)
+			span = enumerateSpan(begin, end);
+		else {
+			Range<Integer> first = enumerateSpan(begin, begin + period), last = enumerateSpan(end - period, end);
+			span = stride >= 0 ?
+					Range.closed(first.lowerEndpoint(), last.upperEndpoint()) :
+					Range.closed(last.lowerEndpoint(), first.upperEndpoint());
+		}
+		return span.canonical(DiscreteDomain.integers());
+	}
+
+	private Range<Integer> enumerateSpan(int begin, int end) {
+		int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+		for (int i = begin; i < end; ++i) {
+			int x = apply(i);
+			min = Math.min(min, x);
+			max = Math.max(max, x);
+		}
+		return Range.closed(min, max);
+	}
+
+	/**
+	 * Returns a range spanning the physical indices of the given nonempty
+	 * range of logical indices under the given index function, using its
+	 * closed form if it has one and enumerating otherwise.
+	 * @param indexFunction an index function
+	 * @param begin the first logical index (inclusive)
+	 * @param end the last logical index (exclusive)
+	 * @return a canonical range spanning the physical indices
+	 */
+	public static Range<Integer> span(MethodHandle indexFunction, int begin, int end) {
+		checkArgument(0 <= begin && begin < end, "[%s, %s)", begin, end);
+		IndexFunctionForm form = of(indexFunction);
+		Range<Integer> span;
+		if (form != null)
+			span = form.span(begin, end);
+		else
+			span = enumerate(indexFunction, begin, end);
+		assert form == null || span.equals(enumerate(indexFunction, begin, end)) : indexFunction+" "+form+" ["+begin+", "+end+")";
+		return span;
+	}
+
+	private static Range<Integer> enumerate(MethodHandle indexFunction, int begin, int end) {
+		int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+		for (int i = begin; i < end; ++i) {
+			int x = evaluate(indexFunction, i);
+			min = Math.min(min, x);
+			max = Math.max(max, x);
+		}
+		return Range.closed(min, max).canonical(DiscreteDomain.integers());
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d*(i/%d) + %s[i%%%d]", stride, period, Arrays.toString(offsets), period);
+	}
+}
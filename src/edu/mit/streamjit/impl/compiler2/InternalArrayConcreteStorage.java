@@ -66,6 +66,15 @@ public class InternalArrayConcreteStorage implements ConcreteStorage {
 		return array.type();
 	}
 
+	/**
+	 * Returns the backing Arrayish, which may be shared with other storage
+	 * (see InternalStorageAliasing).
+	 * @return the backing Arrayish
+	 */
+	public Arrayish arrayish() {
+		return array;
+	}
+
 	@Override
 	public void adjust() {
 		throw new AssertionError(String.format("unadjustable! %s.adjust()", this));
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.compiler2;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Range;
+import edu.mit.streamjit.util.Pair;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lifetime analysis and aliasing (buffer coloring) for steady-state internal
+ * storage.  Internal storage holds no items between steady-state iterations,
+ * so it's only live while its group runs.  If all of a group's iterations
+ * are allocated to one core, its internal storage is live only during that
+ * core's allocations of the group; further, within each trip of the group
+ * loop the actors run in order, so storage between actors that run at
+ * disjoint positions in the group is never live at the same time.  Storage
+ * with disjoint lifetimes can share one backing Arrayish, which is as large
+ * as the largest of them.
+ * <p>
+ * Storage whose group runs on more than one core (or is stolen at runtime)
+ * is live whenever any of those cores runs the group, so we don't alias it.
+ * We also don't alias storage read by a peeking actor or holding initial
+ * data, as it's live across group loop trips.
+ */
+final class InternalStorageAliasing {
+	private InternalStorageAliasing() {}
+
+	/**
+	 * Creates concrete storage for the given internal storage, aliasing
+	 * storage with disjoint lifetimes.  Each color's largest storage is
+	 * created with the given factory; if the result is an
+	 * InternalArrayConcreteStorage, the color's other storage shares its
+	 * Arrayish, else they're created separately.
+	 * @param internal the internal storage
+	 * @param cores the steady-state cores, after allocation
+	 * @param sharedGroups groups whose iterations may run on any core (i.e.,
+	 * work-stealing groups)
+	 * @param factory the internal storage factory
+	 * @return the concrete storage
+	 */
+	public static ImmutableMap<Storage, ConcreteStorage> createStorage(Set<Storage> internal, List<Core> cores, Set<ActorGroup> sharedGroups, StorageFactory factory) {
+		Map<ActorGroup, Lifetime> groupLifetimes = new HashMap<>();
+		Set<ActorGroup> multicore = new HashSet<>(sharedGroups);
+		for (int i = 0; i < cores.size(); ++i) {
+			List<Pair<ActorGroup, Range<Integer>>> allocations = cores.get(i).allocations();
+			for (int k = 0; k < allocations.size(); ++k) {
+				ActorGroup g = allocations.get(k).first;
+				Lifetime l = groupLifetimes.get(g);
+				if (l == null)
+					groupLifetimes.put(g, new Lifetime(g, i, k, k, 0, 0));
+				else if (l.core != i)
+					multicore.add(g);
+				else
+					groupLifetimes.put(g, new Lifetime(g, i, l.firstAllocation, k, 0, 0));
+			}
+		}
+
+		ImmutableMap.Builder<Storage, ConcreteStorage> result = ImmutableMap.builder();
+		Map<Storage, Lifetime> lifetimes = new HashMap<>();
+		for (Storage s : internal) {
+			Lifetime l = lifetime(s, groupLifetimes, multicore);
+			if (l != null)
+				lifetimes.put(s, l);
+			else
+				result.put(s, factory.make(s));
+		}
+
+		List<Storage> aliasable = new ArrayList<>(lifetimes.keySet());
+		Collections.sort(aliasable, new Comparator<Storage>() {
+			@Override
+			public int compare(Storage o1, Storage o2) {
+				int c = Integer.compare(o2.steadyStateCapacity(), o1.steadyStateCapacity());
+				return c != 0 ? c : o1.compareTo(o2);
+			}
+		});
+		List<List<Storage>> colors = new ArrayList<>();
+		for (Storage s : aliasable) {
+			List<Storage> color = null;
+			for (List<Storage> c : colors)
+				if (c.get(0).type().equals(s.type()) && !overlapsAny(lifetimes.get(s), c, lifetimes)) {
+					color = c;
+					break;
+				}
+			if (color == null)
+				colors.add(color = new ArrayList<>());
+			color.add(s);
+		}
+
+		for (List<Storage> color : colors) {
+			ConcreteStorage first = factory.make(color.get(0));
+			result.put(color.get(0), first);
+			for (Storage s : color.subList(1, color.size()))
+				result.put(s, first instanceof InternalArrayConcreteStorage ?
+						new InternalArrayConcreteStorage(((InternalArrayConcreteStorage)first).arrayish(), s) :
+						factory.make(s));
+		}
+		return result.build();
+	}
+
+	/**
+	 * Returns the given storage's lifetime, or null if it can't be aliased.
+	 */
+	private static Lifetime lifetime(Storage s, Map<ActorGroup, Lifetime> groupLifetimes, Set<ActorGroup> multicore) {
+		ActorGroup g = s.upstream().get(0).group();
+		Lifetime l = groupLifetimes.get(g);
+		if (l == null || multicore.contains(g) || s.steadyStateCapacity() == 0 || !s.initialData().isEmpty())
+			return null;
+		Map<Actor, Integer> positions = positions(g);
+		int firstActor = Integer.MAX_VALUE, lastActor = Integer.MIN_VALUE;
+		for (Actor a : s.upstream())
+			firstActor = Math.min(firstActor, positions.get(a));
+		for (Actor a : s.downstream()) {
+			for (int i = 0; i < a.inputs().size(); ++i)
+				if (a.inputs().get(i).equals(s) && a.excessPeeks(i) > 0)
+					return null;
+			lastActor = Math.max(lastActor, positions.get(a));
+		}
+		return new Lifetime(g, l.core, l.firstAllocation, l.lastAllocation, firstActor, lastActor);
+	}
+
+	/**
+	 * Returns the position at which each of the given group's actors runs in
+	 * each trip of the group loop.  A linear chain runs entirely at its
+	 * head's position, reading the head's input while writing the tail's
+	 * output (see ActorGroup.bindActorsToStorage()), so all its actors get
+	 * the head's position.
+	 */
+	private static Map<Actor, Integer> positions(ActorGroup g) {
+		Map<Actor, Integer> positions = new HashMap<>();
+		int position = 0;
+		for (Actor a : g.actors())
+			positions.put(a, position++);
+		for (LinearAnalysis.Chain c : g.linearChains().values())
+			for (Actor a : c.actors())
+				positions.put(a, positions.get(c.head()));
+		return positions;
+	}
+
+	private static boolean overlapsAny(Lifetime l, List<Storage> color, Map<Storage, Lifetime> lifetimes) {
+		for (Storage s : color)
+			if (l.overlaps(lifetimes.get(s)))
+				return true;
+		return false;
+	}
+
+	/**
+	 * When storage is live: on a core, over a range of that core's
+	 * allocations, and over a range of actor positions within each trip of
+	 * its group's loop.
+	 */
+	static final class Lifetime {
+		private final ActorGroup group;
+		private final int core, firstAllocation, lastAllocation, firstActor, lastActor;
+		Lifetime(ActorGroup group, int core, int firstAllocation, int lastAllocation, int firstActor, int lastActor) {
+			this.group = group;
+			this.core = core;
+			this.firstAllocation = firstAllocation;
+			this.lastAllocation = lastAllocation;
+			this.firstActor = firstActor;
+			this.lastActor = lastActor;
+		}
+		boolean overlaps(Lifetime other) {
+			if (core != other.core)
+				return true;
+			if (group != other.group)
+				return !(lastAllocation < other.firstAllocation || other.lastAllocation < firstAllocation);
+			return !(lastActor < other.firstActor || other.lastActor < firstActor);
+		}
+	}
+}
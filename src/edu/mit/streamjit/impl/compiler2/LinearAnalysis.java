@@ -0,0 +1,486 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.compiler2;
+
+import static com.google.common.base.Preconditions.*;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Primitives;
+import edu.mit.streamjit.api.Filter;
+import edu.mit.streamjit.api.Rate;
+import edu.mit.streamjit.util.bytecode.BasicBlock;
+import edu.mit.streamjit.util.bytecode.LocalVariable;
+import edu.mit.streamjit.util.bytecode.Method;
+import edu.mit.streamjit.util.bytecode.Value;
+import edu.mit.streamjit.util.bytecode.insts.BinaryInst;
+import edu.mit.streamjit.util.bytecode.insts.CallInst;
+import edu.mit.streamjit.util.bytecode.insts.CastInst;
+import edu.mit.streamjit.util.bytecode.insts.Instruction;
+import edu.mit.streamjit.util.bytecode.insts.LoadInst;
+import edu.mit.streamjit.util.bytecode.insts.PhiInst;
+import edu.mit.streamjit.util.bytecode.insts.StoreInst;
+import static edu.mit.streamjit.util.bytecode.methodhandles.LookupUtils.findStatic;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Linear analysis and combination, after StreamIt's (Lamb, Thies and
+ * Amarasinghe, PLDI 2003).  A filter is linear if each firing computes its
+ * pushes as y = Ax + b, where x is the window of items it peeks or pops.
+ * Linear filters can be run as a (sparse) matrix product, and adjacent linear
+ * filters in a pipeline can be combined into one matrix.
+ *
+ * We first check the work method's bytecode: values popped or peeked may only
+ * flow through arithmetic, casts and boxing into pushes, so they can't decide
+ * branches (as in clipping), index arrays, be stored or be passed to other
+ * methods, and the work method may call nothing but pop, peek, push and
+ * boxing methods.  Then we find A and b by firing the specialized work
+ * function on the zero vector and each unit vector, and check the result
+ * against random inputs, which catches products of inputs.  Arithmetic is
+ * only linear up to rounding, so the optimization is off by default.
+ *
+ * Unlike StreamIt, we only combine filters in pipelines: we don't combine the
+ * branches of duplicate splitjoins, and we don't run large filters in the
+ * frequency domain (with FFTs).
+ */
+final class LinearAnalysis {
+	private static final int VERIFICATION_TRIALS = 4;
+	private LinearAnalysis() {}
+
+	/**
+	 * Returns the linear form of the given actor's work function, or null if
+	 * it isn't (provably) linear.
+	 * @param a an actor whose state holder has been created
+	 * @return the actor's linear form, or null
+	 */
+	public static Form analyze(WorkerActor a) {
+		if (!(a.worker() instanceof Filter) || a.isStateful())
+			return null;
+		Class<?> inputType = a.inputType().getRawType(), outputType = a.outputType().getRawType();
+		if (!isFloatingPoint(inputType) || !isFloatingPoint(outputType))
+			return null;
+		if (!isFixed(a.worker().getPeekRates().get(0)) || !isFixed(a.worker().getPopRates().get(0))
+				|| !isFixed(a.worker().getPushRates().get(0)))
+			return null;
+		int window = a.pop(0) + a.excessPeeks(0), push = a.push(0);
+		//A filter that doesn't push is run for its side effects.
+		if (push == 0)
+			return null;
+		if (!hasLinearDataflow(a.archetype().workMethod()))
+			return null;
+
+		double[] in = new double[window], out = new double[push];
+		MethodHandle firing = a.archetype().specialize(a)
+				.bindTo(probeRead(in, inputType))
+				.bindTo(probeWrite(out, outputType));
+		double[][] matrix = new double[push][window];
+		double[] constants;
+		try {
+			constants = fire(firing, out);
+			for (int k = 0; k < window; ++k) {
+				in[k] = 1;
+				double[] column = fire(firing, out);
+				in[k] = 0;
+				for (int j = 0; j < push; ++j)
+					matrix[j][k] = column[j] - constants[j];
+			}
+			Form form = new Form(window, a.pop(0), matrix, constants);
+
+			double tolerance = Primitives.unwrap(inputType) == float.class || Primitives.unwrap(outputType) == float.class ? 1e-4 : 1e-9;
+			Random random = new Random(a.id());
+			for (int t = 0; t < VERIFICATION_TRIALS; ++t) {
+				for (int k = 0; k < window; ++k)
+					in[k] = random.nextDouble() * 2 - 1;
+				double[] actual = fire(firing, out);
+				for (int j = 0; j < push; ++j) {
+					double expected = constants[j], magnitude = Math.abs(constants[j]);
+					for (int k = 0; k < window; ++k) {
+						expected += matrix[j][k] * in[k];
+						magnitude += Math.abs(matrix[j][k] * in[k]);
+					}
+					if (!(Math.abs(actual[j] - expected) <= tolerance * (1 + magnitude)))
+						return null;
+				}
+			}
+			return form;
+		} catch (Throwable ex) {
+			//Reading or writing outside the declared rates, or anything else
+			//going wrong, means we can't model this filter.
+			return null;
+		}
+	}
+
+	/**
+	 * Returns true if the given (resolved) work method only calls pop, peek,
+	 * push and boxing methods, and only uses values derived from pops and
+	 * peeks in arithmetic, casts, boxing and pushes.
+	 * @param work a resolved work method
+	 * @return true iff the work method's dataflow permits linearity
+	 */
+	static boolean hasLinearDataflow(Method work) {
+		Set<Value> derived = new HashSet<>();
+		Deque<Value> worklist = new ArrayDeque<>();
+		for (BasicBlock b : work.basicBlocks())
+			for (Instruction i : b.instructions()) {
+				if (!(i instanceof CallInst)) continue;
+				Method m = ((CallInst)i).getMethod();
+				if (isFilterMethod(m, "pop") || isFilterMethod(m, "peek"))
+					worklist.add(i);
+				else if (!isFilterMethod(m, "push") && !isBoxingMethod(m))
+					return false;
+			}
+
+		while (!worklist.isEmpty()) {
+			Value v = worklist.remove();
+			if (!derived.add(v)) continue;
+			for (Instruction u : FluentIterable.from(v.users()).filter(Instruction.class)) {
+				if (u instanceof BinaryInst || u instanceof CastInst || u instanceof PhiInst)
+					worklist.add(u);
+				else if (u instanceof CallInst) {
+					CallInst call = (CallInst)u;
+					Method m = call.getMethod();
+					if (isBoxingMethod(m))
+						worklist.add(call);
+					//The receiver is the worker; only the pushed item may
+					//depend on the input.
+					else if (!isFilterMethod(m, "push") || call.getArgument(0) == v)
+						return false;
+				} else if (u instanceof StoreInst && ((StoreInst)u).getLocation() instanceof LocalVariable) {
+					worklist.addAll(FluentIterable.from(((StoreInst)u).getLocation().users()).filter(LoadInst.class).toList());
+				} else
+					//Branches, array accesses, field stores, returns...
+					return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isFilterMethod(Method m, String name) {
+		return m.getName().equals(name) && Filter.class.equals(m.getParent().getBackingClass());
+	}
+
+	private static boolean isBoxingMethod(Method m) {
+		Class<?> c = m.getParent().getBackingClass();
+		return c != null && Primitives.isWrapperType(c) && !c.equals(Boolean.class) && !c.equals(Character.class)
+				&& (m.getName().equals("valueOf") || m.getName().endsWith("Value"));
+	}
+
+	private static boolean isFloatingPoint(Class<?> type) {
+		Class<?> primitive = Primitives.unwrap(type);
+		return primitive == float.class || primitive == double.class;
+	}
+
+	private static boolean isFixed(Rate rate) {
+		return rate.isStatic() && rate.min() == rate.max();
+	}
+
+	private static double[] fire(MethodHandle firing, double[] out) throws Throwable {
+		Arrays.fill(out, Double.NaN);
+		firing.invokeExact(0, 0);
+		for (double d : out)
+			if (Double.isNaN(d))
+				throw new IllegalStateException("didn't push all outputs");
+		return out.clone();
+	}
+
+	private static MethodHandle probeRead(double[] in, Class<?> type) {
+		MethodHandle read = MethodHandles.arrayElementGetter(double[].class).bindTo(in);
+		return narrow(read, type).asType(MethodType.methodType(type, int.class));
+	}
+
+	private static MethodHandle probeWrite(double[] out, Class<?> type) {
+		return MethodHandles.arrayElementSetter(double[].class).bindTo(out)
+				.asType(MethodType.methodType(void.class, int.class, type));
+	}
+
+	private static MethodHandle narrow(MethodHandle read, Class<?> type) {
+		return Primitives.unwrap(type) == float.class ? MethodHandles.filterReturnValue(read, D2F) : read;
+	}
+
+	/**
+	 * The linear form y = Ax + b of a firing (or of a fixed number of firings
+	 * of a chain of filters).
+	 */
+	public static final class Form {
+		private final int peek, pop, push;
+		private final double[][] matrix;
+		private final double[] constants;
+		/**
+		 * The nonzero columns of each row of the matrix and their
+		 * coefficients, and the columns used by any row (which are the only
+		 * inputs we need to read).
+		 */
+		private final int[][] columns;
+		private final double[][] coefficients;
+		private final int[] usedColumns;
+		private final int nonzeros;
+		private Form(int peek, int pop, double[][] matrix, double[] constants) {
+			this.peek = peek;
+			this.pop = pop;
+			this.push = matrix.length;
+			this.matrix = matrix;
+			this.constants = constants;
+			this.columns = new int[push][];
+			this.coefficients = new double[push][];
+			Set<Integer> used = new HashSet<>();
+			int nonzeros = 0;
+			for (int j = 0; j < push; ++j) {
+				int n = 0;
+				for (int k = 0; k < peek; ++k)
+					if (matrix[j][k] != 0)
+						++n;
+				columns[j] = new int[n];
+				coefficients[j] = new double[n];
+				n = 0;
+				for (int k = 0; k < peek; ++k)
+					if (matrix[j][k] != 0) {
+						columns[j][n] = k;
+						coefficients[j][n++] = matrix[j][k];
+						used.add(k);
+					}
+				nonzeros += n;
+			}
+			this.nonzeros = nonzeros;
+			this.usedColumns = new int[used.size()];
+			int i = 0;
+			for (int k = 0; k < peek; ++k)
+				if (used.contains(k))
+					usedColumns[i++] = k;
+		}
+
+		public int peek() {
+			return peek;
+		}
+
+		public int pop() {
+			return pop;
+		}
+
+		public int push() {
+			return push;
+		}
+
+		/**
+		 * Returns the number of nonzero matrix coefficients, which is the
+		 * number of multiply-adds per firing.
+		 * @return the number of nonzero coefficients
+		 */
+		public int nonzeros() {
+			return nonzeros;
+		}
+
+		/**
+		 * Returns the form of the given number of consecutive firings of this
+		 * form.
+		 * @param firings the number of firings
+		 * @return the expanded form
+		 */
+		public Form expand(int firings) {
+			checkArgument(firings > 0, firings);
+			if (firings == 1)
+				return this;
+			int expandedPeek = (firings - 1) * pop + peek;
+			double[][] m = new double[firings * push][expandedPeek];
+			double[] b = new double[firings * push];
+			for (int i = 0; i < firings; ++i)
+				for (int j = 0; j < push; ++j) {
+					System.arraycopy(matrix[j], 0, m[i * push + j], i * pop, peek);
+					b[i * push + j] = constants[j];
+				}
+			return new Form(expandedPeek, firings * pop, m, b);
+		}
+
+		/**
+		 * Returns the form of firing this form, then firing the given form on
+		 * its output.  The given form must consume exactly this form's
+		 * output.
+		 * @param next the downstream form
+		 * @return the combined form
+		 */
+		public Form andThen(Form next) {
+			checkArgument(next.peek == push && next.pop == push, "%s doesn't consume %s", next, this);
+			double[][] m = new double[next.push][peek];
+			double[] b = next.constants.clone();
+			for (int j = 0; j < next.push; ++j)
+				for (int n = 0; n < next.columns[j].length; ++n) {
+					int i = next.columns[j][n];
+					double c = next.coefficients[j][n];
+					for (int k = 0; k < peek; ++k)
+						m[j][k] += c * matrix[i][k];
+					b[j] += c * constants[i];
+				}
+			return new Form(peek, pop, m, b);
+		}
+
+		/**
+		 * Returns a work method computing this form, reading from and writing
+		 * to the given handles.  Like an archetypal work method with read and
+		 * write handles bound, the returned handle takes the initial read and
+		 * write indices.
+		 * @param read the read handle, (int)T for floating-point T
+		 * @param write the write handle, (int, T)void for floating-point T
+		 * @return an (int, int)void handle
+		 */
+		public MethodHandle specialize(MethodHandle read, MethodHandle write) {
+			read = read.asType(MethodType.methodType(double.class, int.class));
+			Class<?> outputType = Primitives.unwrap(write.type().parameterType(1));
+			write = write.asType(MethodType.methodType(void.class, int.class, outputType));
+			if (outputType == float.class)
+				write = MethodHandles.filterArguments(write, 1, D2F);
+			return MethodHandles.insertArguments(WORK, 0, this, read, write);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("LinearForm[peek %d, pop %d, push %d, %d nonzeros]", peek, pop, push, nonzeros);
+		}
+	}
+
+	/**
+	 * A chain of adjacent actors in one group replaced by a single form,
+	 * fired the given number of times per group iteration.  Single-actor
+	 * chains fire as often as the actor; combined chains fire once.
+	 */
+	public static final class Chain {
+		private final ImmutableList<WorkerActor> actors;
+		private final Form form;
+		private final int firings;
+		private Chain(List<WorkerActor> actors, Form form, int firings) {
+			this.actors = ImmutableList.copyOf(actors);
+			this.form = form;
+			this.firings = firings;
+		}
+
+		public ImmutableList<WorkerActor> actors() {
+			return actors;
+		}
+
+		public WorkerActor head() {
+			return actors.get(0);
+		}
+
+		public WorkerActor tail() {
+			return actors.get(actors.size() - 1);
+		}
+
+		public Form form() {
+			return form;
+		}
+
+		public int firings() {
+			return firings;
+		}
+
+		@Override
+		public String toString() {
+			return actors + " as " + form + " x" + firings;
+		}
+	}
+
+	/**
+	 * Groups the linear actors in the given group into chains, greedily
+	 * extending each chain downstream while the combined form doesn't need
+	 * more multiply-adds per group iteration than running the chain and the
+	 * next actor separately.
+	 * @param group an actor group with its schedule set
+	 * @param forms the linear forms of linear actors
+	 * @return the chains, keyed by their head actor
+	 */
+	public static ImmutableMap<Actor, Chain> chains(ActorGroup group, Map<WorkerActor, Form> forms) {
+		ImmutableMap.Builder<Actor, Chain> chains = ImmutableMap.builder();
+		Set<WorkerActor> claimed = new HashSet<>();
+		//Actors are in topological order, so we see each chain's head first.
+		for (Actor a : group.actors()) {
+			if (!forms.containsKey(a) || claimed.contains(a))
+				continue;
+			WorkerActor head = (WorkerActor)a;
+			claimed.add(head);
+			List<WorkerActor> actors = new ArrayList<>();
+			actors.add(head);
+			Form current = forms.get(head);
+			int firings = group.schedule().get(head);
+			for (WorkerActor next = successor(actors.get(actors.size() - 1), forms, claimed); next != null;
+					next = successor(next, forms, claimed)) {
+				Form left = current.expand(firings), right = forms.get(next).expand(group.schedule().get(next));
+				Form combined = left.andThen(right);
+				if (combined.nonzeros() > left.nonzeros() + right.nonzeros())
+					break;
+				current = combined;
+				firings = 1;
+				actors.add(next);
+				claimed.add(next);
+			}
+			chains.put(head, new Chain(actors, current, firings));
+		}
+		return chains.build();
+	}
+
+	/**
+	 * Returns the linear actor that consumes exactly the given actor's output
+	 * within each group iteration, or null if there isn't one.
+	 */
+	private static WorkerActor successor(WorkerActor a, Map<WorkerActor, Form> forms, Set<WorkerActor> claimed) {
+		Storage s = a.outputs().get(0);
+		if (!s.isInternal() || s.upstream().size() != 1 || s.downstream().size() != 1 || !s.initialData().isEmpty())
+			return null;
+		Actor next = s.downstream().get(0);
+		if (!forms.containsKey(next) || claimed.contains(next) || next.excessPeeks(0) != 0)
+			return null;
+		//The downstream actor must read items in the order we write them.
+		int items = 2 * a.group().schedule().get(a) * a.push(0);
+		for (int i = 0; i < items; ++i)
+			if (a.translateOutputIndex(0, i) != next.translateInputIndex(0, i))
+				return null;
+		return (WorkerActor)next;
+	}
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+	private static final MethodHandle WORK = findStatic(LOOKUP, "_work");
+	private static final MethodHandle D2F = findStatic(LOOKUP, "_d2f");
+	private static void _work(Form form, MethodHandle read, MethodHandle write, int readIndex, int writeIndex) throws Throwable {
+		double[] x = new double[form.peek];
+		for (int k : form.usedColumns)
+			x[k] = (double)read.invokeExact(readIndex + k);
+		for (int j = 0; j < form.push; ++j) {
+			int[] columns = form.columns[j];
+			double[] coefficients = form.coefficients[j];
+			double y = form.constants[j];
+			for (int n = 0; n < columns.length; ++n)
+				y += coefficients[n] * x[columns[n]];
+			write.invokeExact(writeIndex + j, y);
+		}
+	}
+	private static float _d2f(double d) {
+		return (float)d;
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.compiler2;
+
+import static com.google.common.base.Preconditions.*;
+import com.google.common.collect.Iterables;
+import edu.mit.streamjit.util.bytecode.BasicBlock;
+import edu.mit.streamjit.util.bytecode.Field;
+import edu.mit.streamjit.util.bytecode.Klass;
+import edu.mit.streamjit.util.bytecode.Method;
+import edu.mit.streamjit.util.bytecode.Modifier;
+import edu.mit.streamjit.util.bytecode.Module;
+import edu.mit.streamjit.util.bytecode.ModuleClassLoader;
+import edu.mit.streamjit.util.bytecode.Value;
+import edu.mit.streamjit.util.bytecode.insts.BinaryInst;
+import edu.mit.streamjit.util.bytecode.insts.BranchInst;
+import edu.mit.streamjit.util.bytecode.insts.CallInst;
+import edu.mit.streamjit.util.bytecode.insts.Instruction;
+import edu.mit.streamjit.util.bytecode.insts.JumpInst;
+import edu.mit.streamjit.util.bytecode.insts.LoadInst;
+import edu.mit.streamjit.util.bytecode.insts.PhiInst;
+import edu.mit.streamjit.util.bytecode.insts.ReturnInst;
+import edu.mit.streamjit.util.bytecode.insts.StoreInst;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Generates a core's code as one class with a static run() method containing
+ * explicit counted loops, rather than a tree of method handle combinators.
+ * Group loops are emitted as loop nests: the outer loop steps over group
+ * iterations by the unroll factor and each actor gets an inner loop calling
+ * its work method.
+ * <p>
+ * The work methods (with read/write handles bound) and the index arrays are
+ * held in static final fields, so the JIT treats them as constants and inlines
+ * through them just as it would a direct call.  We can't invokestatic the
+ * archetype work methods directly because their classes may come from a
+ * previous compilation's class loader, and the read/write handles are bound
+ * per storage anyway.  Static final fields can't be set from outside, so we
+ * use a field helper class with public static fields and copy them over in
+ * the run class's static initializer.
+ */
+final class LoopNestGenerator {
+	private final Module module;
+	private final ModuleClassLoader classloader;
+	private final Klass klass, fieldHelperKlass;
+	private final Method run, clinit;
+	private final BasicBlock clinitBlock;
+	/**
+	 * Values for the field helper's fields, in field creation order.
+	 */
+	private final List<Object> fieldValues = new ArrayList<>();
+	private final Method invokeExact, arraycopy;
+	/**
+	 * The block to which we're currently appending straight-line code; the
+	 * next segment starts here.
+	 */
+	private BasicBlock current;
+	private boolean generated = false;
+
+	LoopNestGenerator(Module module, ModuleClassLoader classloader, String className) {
+		this.module = module;
+		this.classloader = classloader;
+		this.klass = new Klass(className, module.getKlass(Object.class), Collections.<Klass>emptyList(), module);
+		klass.modifiers().addAll(EnumSet.of(Modifier.PUBLIC, Modifier.FINAL));
+		this.fieldHelperKlass = new Klass(className + "FieldHelper", module.getKlass(Object.class), Collections.<Klass>emptyList(), module);
+		fieldHelperKlass.modifiers().addAll(EnumSet.of(Modifier.PUBLIC, Modifier.FINAL));
+		this.run = new Method("run", module.types().getMethodType(void.class), EnumSet.of(Modifier.PUBLIC, Modifier.STATIC), klass);
+		this.current = new BasicBlock(module, "entry");
+		run.basicBlocks().add(current);
+		this.clinit = new Method("<clinit>", module.types().getMethodType(void.class), EnumSet.of(Modifier.STATIC), klass);
+		this.clinitBlock = new BasicBlock(module, "copyFieldsFromHelper");
+		clinit.basicBlocks().add(clinitBlock);
+		this.invokeExact = Iterables.getOnlyElement(module.getKlass(MethodHandle.class).getMethods("invokeExact"));
+		this.arraycopy = module.getKlass(System.class).getMethod("arraycopy",
+				module.types().getMethodType(void.class, Object.class, int.class, Object.class, int.class, int.class));
+	}
+
+	/**
+	 * Appends a call to the given ()V method handle, e.g., to start or stop a
+	 * profiling timer.
+	 * @param handle the handle to call
+	 */
+	public void add(MethodHandle handle) {
+		checkState(!generated);
+		checkArgument(handle.type().equals(MethodType.methodType(void.class)), handle);
+		LoadInst h = load(MethodHandle.class, handle);
+		current.instructions().add(h);
+		current.instructions().add(new CallInst(invokeExact, module.types().getMethodType(void.class, MethodHandle.class), h));
+	}
+
+	/**
+	 * Appends the given group loop.
+	 * @param loop the loop to append
+	 */
+	public void add(ActorGroup.GroupLoop loop) {
+		checkState(!generated);
+		if (loop.begin() >= loop.end()) return;
+		String name = loop.toString();
+
+		int[][] copies = loop.copies();
+		for (int i = 0; i < copies.length; i += 2) {
+			LoadInst src = load(int[].class, copies[i]), dst = load(int[].class, copies[i+1]);
+			current.instructions().add(src);
+			current.instructions().add(dst);
+			current.instructions().add(new CallInst(arraycopy, src, constant(0), dst, constant(0), constant(copies[i].length)));
+		}
+
+		//Both loops are do-while: we skipped empty group loops above, and
+		//every actor in a group executes at least once per group iteration.
+		BasicBlock head = new BasicBlock(module, name + "_head");
+		run.basicBlocks().add(head);
+		current.instructions().add(new JumpInst(head));
+		PhiInst iteration = new PhiInst(module.types().getRegularType(int.class));
+		iteration.put(current, constant(loop.begin()));
+		head.instructions().add(iteration);
+		BasicBlock previous = head;
+
+		for (ActorGroup.WorkerLoop w : loop.workers()) {
+			String workerName = name + "Worker" + w.actor().id();
+			BasicBlock pre = new BasicBlock(module, workerName + "_pre");
+			BasicBlock body = new BasicBlock(module, workerName + "_body");
+			run.basicBlocks().add(pre);
+			run.basicBlocks().add(body);
+			terminate(previous, pre);
+
+			Value sub = constant(w.subiterations());
+			BinaryInst begin = new BinaryInst(iteration, BinaryInst.Operation.MUL, sub);
+			BinaryInst groupEnd = new BinaryInst(iteration, BinaryInst.Operation.ADD, constant(loop.step()));
+			BinaryInst end = new BinaryInst(groupEnd, BinaryInst.Operation.MUL, sub);
+			pre.instructions().add(begin);
+			pre.instructions().add(groupEnd);
+			pre.instructions().add(end);
+			pre.instructions().add(new JumpInst(body));
+
+			PhiInst execution = new PhiInst(module.types().getRegularType(int.class));
+			execution.put(pre, begin);
+			body.instructions().add(execution);
+			LoadInst work = load(MethodHandle.class, w.work());
+			body.instructions().add(work);
+			Value popArg = workArgument(body, execution, w.pop());
+			Value pushArg = workArgument(body, execution, w.push());
+			MethodType workType = w.work().type();
+			body.instructions().add(new CallInst(invokeExact,
+					module.types().getMethodType(void.class, MethodHandle.class, workType.parameterType(0), workType.parameterType(1)),
+					work, popArg, pushArg));
+			BinaryInst next = new BinaryInst(execution, BinaryInst.Operation.ADD, constant(1));
+			body.instructions().add(next);
+			execution.put(body, next);
+			body.instructions().add(new BranchInst(next, BranchInst.Sense.LT, end, body, null));
+			previous = body;
+		}
+
+		BasicBlock latch = new BasicBlock(module, name + "_latch");
+		run.basicBlocks().add(latch);
+		terminate(previous, latch);
+		BinaryInst nextIteration = new BinaryInst(iteration, BinaryInst.Operation.ADD, constant(loop.step()));
+		latch.instructions().add(nextIteration);
+		iteration.put(latch, nextIteration);
+		latch.instructions().add(new BranchInst(nextIteration, BranchInst.Sense.LT, constant(loop.end()), head, null));
+		current = new BasicBlock(module, name + "_exit");
+		run.basicBlocks().add(current);
+		terminate(latch, current);
+	}
+
+	/**
+	 * Finishes and loads the generated class, returning a handle to its run
+	 * method.
+	 * @return a ()V handle running the appended code
+	 */
+	public MethodHandle generate() {
+		checkState(!generated);
+		generated = true;
+		current.instructions().add(new ReturnInst(module.types().getVoidType()));
+		clinitBlock.instructions().add(new ReturnInst(module.types().getVoidType()));
+		try {
+			Class<?> fieldHelperClass = classloader.loadClass(fieldHelperKlass.getName());
+			for (int i = 0; i < fieldValues.size(); ++i)
+				fieldHelperClass.getField(fieldName(i)).set(null, fieldValues.get(i));
+			Class<?> runClass = classloader.loadClass(klass.getName());
+			return MethodHandles.publicLookup().findStatic(runClass, "run", MethodType.methodType(void.class));
+		} catch (ClassNotFoundException | NoSuchFieldException | IllegalAccessException | NoSuchMethodException ex) {
+			throw new AssertionError(ex);
+		}
+	}
+
+	/**
+	 * Returns the argument for a work method: the execution number times the
+	 * rate for an Integer, or the index array for an int[].
+	 */
+	private Value workArgument(BasicBlock block, Value execution, Object rateOrIndices) {
+		if (rateOrIndices instanceof Integer) {
+			BinaryInst index = new BinaryInst(execution, BinaryInst.Operation.MUL, constant((Integer)rateOrIndices));
+			block.instructions().add(index);
+			return index;
+		}
+		LoadInst indices = load(int[].class, rateOrIndices);
+		block.instructions().add(indices);
+		return indices;
+	}
+
+	/**
+	 * Creates a static final field holding the given value and returns a load
+	 * of it, which the caller must add to a block.
+	 */
+	private LoadInst load(Class<?> type, Object value) {
+		String name = fieldName(fieldValues.size());
+		fieldValues.add(value);
+		Field field = new Field(module.types().getRegularType(type), name, EnumSet.of(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL), klass);
+		Field helper = new Field(module.types().getRegularType(type), name, EnumSet.of(Modifier.PUBLIC, Modifier.STATIC), fieldHelperKlass);
+		LoadInst li = new LoadInst(helper);
+		clinitBlock.instructions().add(li);
+		clinitBlock.instructions().add(new StoreInst(field, li));
+		return new LoadInst(field);
+	}
+
+	private static String fieldName(int i) {
+		return "constant" + i;
+	}
+
+	private Value constant(int value) {
+		return module.constants().getConstant(value);
+	}
+
+	/**
+	 * Sets the false target of the given block's terminating BranchInst, or
+	 * adds a jump if it has no terminator.
+	 */
+	private static void terminate(BasicBlock block, BasicBlock next) {
+		Instruction terminator = block.getTerminator();
+		if (terminator == null)
+			block.instructions().add(new JumpInst(next));
+		else
+			((BranchInst)terminator).setOperand(3, next);
+	}
+}
@@ -59,12 +59,12 @@ public final class MapConcreteStorage implements ConcreteStorage {
 	}
 	public static MapConcreteStorage create(Storage s) {
 		ImmutableSet<ActorGroup> relevantGroups = ImmutableSet.<ActorGroup>builder().addAll(s.upstreamGroups()).addAll(s.downstreamGroups()).build();
-		return new MapConcreteStorage(s.type(), ADJUST, s.readIndices(Maps.asMap(relevantGroups, new Function<ActorGroup, Integer>() {
+		return new MapConcreteStorage(s.type(), ADJUST, s.readIndexSpan(Maps.asMap(relevantGroups, new Function<ActorGroup, Integer>() {
 			@Override
 			public Integer apply(ActorGroup input) {
 				return 1;
 			}
-		})).first(), s.throughput());
+		})).lowerEndpoint(), s.throughput());
 	}
 	public static MapConcreteStorage createNopAdjust(Storage s) {
 		return new MapConcreteStorage(s.type(), Combinators.nop(Object.class), Integer.MAX_VALUE, Integer.MAX_VALUE);
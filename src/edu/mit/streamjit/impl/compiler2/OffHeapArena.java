@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.compiler2;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Allocates native memory for a blob's storage from large slabs, so storage
+ * allocated together is contiguous, each allocation is cache-line aligned, and
+ * all of it is freed deterministically when the blob is done with it rather
+ * than whenever the garbage collector gets around to finalization.
+ * <p/>
+ * Memory returned by an arena is zeroed, like Java arrays.  After release(),
+ * memory from this arena must not be accessed.  Instances are not thread-safe;
+ * storage is allocated while compiling, from a single thread.
+ */
+public final class OffHeapArena {
+	private static final sun.misc.Unsafe UNSAFE;
+	/**
+	 * DirectByteBuffer's (long address, int capacity) constructor, used to
+	 * wrap arena memory in NIO buffers, or null if we can't access it (in
+	 * which case NIO buffers are allocated normally).
+	 */
+	private static final Constructor<?> DIRECT_BYTE_BUFFER;
+	static {
+		try {
+			Field f = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			UNSAFE = (sun.misc.Unsafe)f.get(null);
+		} catch (NoSuchFieldException | IllegalAccessException ex) {
+			throw new AssertionError(ex);
+		}
+		Constructor<?> ctor;
+		try {
+			ctor = Class.forName("java.nio.DirectByteBuffer").getDeclaredConstructor(long.class, int.class);
+			ctor.setAccessible(true);
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			ctor = null;
+		}
+		DIRECT_BYTE_BUFFER = ctor;
+	}
+	private static final int ALIGNMENT = 64;
+	private static final long SLAB_BYTES = 1 << 20;
+	private final List<Long> slabs = new ArrayList<>();
+	/**
+	 * The next free byte in the current slab and the end of the current slab.
+	 */
+	private long next, end;
+	private long allocatedBytes, reservedBytes, unmanagedBytes;
+	private int allocations;
+	private boolean released;
+	public OffHeapArena() {}
+
+	/**
+	 * Allocates the given number of bytes, aligned to a cache line.
+	 * @param bytes the number of bytes to allocate
+	 * @return the address of the allocated memory
+	 */
+	public long allocate(long bytes) {
+		checkState(!released, "arena already released");
+		checkArgument(bytes >= 0, "bad size: %s", bytes);
+		long address;
+		if (bytes + ALIGNMENT > SLAB_BYTES)
+			//Too big to share a slab; give it its own, leaving the current
+			//slab available for smaller allocations.
+			address = align(newSlab(bytes + ALIGNMENT));
+		else {
+			if (slabs.isEmpty() || align(next) + bytes > end) {
+				next = newSlab(SLAB_BYTES);
+				end = next + SLAB_BYTES;
+			}
+			address = align(next);
+			next = address + bytes;
+		}
+		UNSAFE.setMemory(address, bytes, (byte)0);
+		allocatedBytes += bytes;
+		++allocations;
+		return address;
+	}
+
+	/**
+	 * Allocates a direct ByteBuffer in native byte order with the given
+	 * capacity.  If the platform doesn't let us wrap arena memory in a
+	 * ByteBuffer, the buffer is allocated separately (and freed by the
+	 * garbage collector as usual).
+	 * @param bytes the buffer capacity
+	 * @return a direct ByteBuffer
+	 */
+	public ByteBuffer allocateByteBuffer(int bytes) {
+		checkState(!released, "arena already released");
+		if (DIRECT_BYTE_BUFFER != null)
+			try {
+				return ((ByteBuffer)DIRECT_BYTE_BUFFER.newInstance(allocate(bytes), bytes)).order(ByteOrder.nativeOrder());
+			} catch (ReflectiveOperationException ex) {
+				throw new AssertionError(ex);
+			}
+		unmanagedBytes += bytes;
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Returns an Arrayish.Factory that makes Arrayishes using the given
+	 * factory, allocating from this arena.
+	 * @param factory the factory to delegate to
+	 * @return a factory allocating from this arena
+	 */
+	public Arrayish.Factory bind(final Arrayish.Factory factory) {
+		return new Arrayish.Factory() {
+			private static final long serialVersionUID = 1L;
+			@Override
+			public Arrayish make(Class<?> type, int size) {
+				return factory.make(type, size, OffHeapArena.this);
+			}
+		};
+	}
+
+	private long newSlab(long bytes) {
+		long slab = UNSAFE.allocateMemory(bytes);
+		slabs.add(slab);
+		reservedBytes += bytes;
+		return slab;
+	}
+
+	private static long align(long address) {
+		return (address + ALIGNMENT - 1) & -ALIGNMENT;
+	}
+
+	/**
+	 * Frees all memory allocated from this arena.  Calling this method more
+	 * than once has no effect.
+	 */
+	public void release() {
+		if (released)
+			return;
+		released = true;
+		for (long slab : slabs)
+			UNSAFE.freeMemory(slab);
+	}
+
+	public boolean isReleased() {
+		return released;
+	}
+
+	/**
+	 * Returns the number of bytes requested from this arena (excluding
+	 * alignment padding and unused slab space).
+	 * @return the number of bytes allocated
+	 */
+	public long allocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * Returns the number of bytes of native memory this arena has reserved
+	 * from the system (including alignment padding and unused slab space).
+	 * @return the number of bytes reserved
+	 */
+	public long reservedBytes() {
+		return reservedBytes;
+	}
+
+	/**
+	 * Returns the number of bytes of NIO buffers allocated outside this arena
+	 * because arena memory couldn't be wrapped in a ByteBuffer.
+	 * @return the number of bytes allocated outside this arena
+	 */
+	public long unmanagedBytes() {
+		return unmanagedBytes;
+	}
+
+	@Override
+	protected void finalize() throws Throwable {
+		//Safety net for blobs that are never drained (or failed to compile).
+		//Arrayishes allocated from this arena keep it reachable while in use.
+		try {
+			release();
+		} finally {
+			super.finalize();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("OffHeapArena[%d allocations, %d bytes allocated, %d bytes reserved in %d slabs%s%s]",
+				allocations, allocatedBytes, reservedBytes, slabs.size(),
+				unmanagedBytes > 0 ? ", "+unmanagedBytes+" bytes unmanaged" : "",
+				released ? ", released" : "");
+	}
+}
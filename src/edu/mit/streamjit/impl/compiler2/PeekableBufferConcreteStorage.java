@@ -115,12 +115,12 @@ public final class PeekableBufferConcreteStorage implements ConcreteStorage {
 				}
 				ImmutableSet<ActorGroup> relevantGroups = ImmutableSet.<ActorGroup>builder()
 						.addAll(storage.upstreamGroups()).addAll(storage.downstreamGroups()).build();
-				int minReadIndex = storage.readIndices(Maps.asMap(relevantGroups, new Function<ActorGroup, Integer>() {
+				int minReadIndex = storage.readIndexSpan(Maps.asMap(relevantGroups, new Function<ActorGroup, Integer>() {
 					@Override
 					public Integer apply(ActorGroup input) {
 						return 1;
 					}
-				})).first();
+				})).lowerEndpoint();
 				return new PeekableBufferConcreteStorage(storage.type(), throughput, minReadIndex, buffers.get(storage.id()));
 			}
 		};
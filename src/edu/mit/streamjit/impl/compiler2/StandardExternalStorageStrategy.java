@@ -36,7 +36,7 @@ public final class StandardExternalStorageStrategy implements StorageStrategy {
 		//no parameters necessary
 	}
 	@Override
-	public StorageFactory asFactory(Configuration config) {
+	public StorageFactory asFactory(Configuration config, OffHeapArena arena) {
 		return new StorageFactory() {
 			@Override
 			public ConcreteStorage make(Storage storage) {
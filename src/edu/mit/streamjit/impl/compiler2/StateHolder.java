@@ -42,6 +42,33 @@ public abstract class StateHolder implements DrainInstruction {
 		this.worker = worker;
 	}
 
+	/**
+	 * Returns the worker whose state this holder holds.  Compiled work methods
+	 * call this where the original passed 'this' to Portal.getHandle().
+	 * @return the worker
+	 */
+	public final Worker<?, ?> worker() {
+		return worker;
+	}
+
+	/**
+	 * The inverse of {@link #call()}: copies any non-final fields from the
+	 * worker into this holder.  Used after delivering teleport messages, whose
+	 * handlers modify the worker.
+	 */
+	public void reload() {
+		for (Field hf : getClass().getDeclaredFields()) {
+			Field wf = ReflectionUtils.getFieldByName(worker, hf.getName());
+			if (!Modifier.isFinal(wf.getModifiers()))
+				try {
+					wf.setAccessible(true);
+					hf.set(this, wf.get(worker));
+				} catch (IllegalAccessException ex) {
+					throw new AssertionError(ex);
+				}
+		}
+	}
+
 	/**
 	 * Rather than produce data, "drain" by moving any non-final fields back
 	 * into the worker.  (They'll then be used by the interpreter during
@@ -208,14 +208,11 @@ public final class Storage implements Comparable<Storage> {
 	 */
 	public Range<Integer> initialDataIndexSpan() {
 		Range<Integer> range = null;
-		for (Pair<ImmutableList<Object>, MethodHandle> p : initialData())
-			for (int i = 0; i < p.first.size(); ++i)
-				try {
-					int x = (int)p.second.invokeExact(i);
-					range = (range == null) ? Range.singleton(x) : range.span(Range.singleton(x));
-				} catch (Throwable ex) {
-					throw new AssertionError("index functions should not throw", ex);
-				}
+		for (Pair<ImmutableList<Object>, MethodHandle> p : initialData()) {
+			if (p.first.isEmpty()) continue;
+			Range<Integer> dataRange = IndexFunctionForm.span(p.second, 0, p.first.size());
+			range = (range == null) ? dataRange : range.span(dataRange);
+		}
 		range = (range != null ? range : Range.closedOpen(0, 0));
 		return range.canonical(DiscreteDomain.integers());
 	}
@@ -267,7 +264,9 @@ public final class Storage implements Comparable<Storage> {
 	 * contained index will be read.) The returned range will be
 	 * {@link Range#canonical(com.google.common.collect.DiscreteDomain) canonical}.
 	 * The range is not cached so as to be responsive to changes in input index
-	 * functions.
+	 * functions.  The span is computed without enumerating the indices when
+	 * the index functions have a closed form (see IndexFunctionForm), so this
+	 * is much cheaper than readIndices() for large schedules.
 	 * @param externalSchedule the schedule
 	 * @return a range spanning the indices read during the given schedule under
 	 * the current index functions
@@ -275,12 +274,11 @@ public final class Storage implements Comparable<Storage> {
 	 */
 	public Range<Integer> readIndexSpan(Map<ActorGroup, Integer> externalSchedule) {
 		Range<Integer> range = null;
-		for (Actor a : downstream())
-			for (int iteration = 0, max = a.group().schedule().get(a) * externalSchedule.get(a.group()); iteration < max; ++iteration) {
-				ImmutableSortedSet<Integer> reads = a.reads(this, iteration);
-				Range<Integer> readRange = reads.isEmpty() ? range : Range.closed(reads.first(), reads.last());
+		for (Actor a : ImmutableSet.copyOf(downstream())) {
+			Range<Integer> readRange = a.readSpan(this, Range.closedOpen(0, a.group().schedule().get(a) * externalSchedule.get(a.group())));
+			if (readRange != null)
 				range = range == null ? readRange : range.span(readRange);
-			}
+		}
 		range = (range != null ? range : Range.closedOpen(0, 0));
 		return range.canonical(DiscreteDomain.integers());
 	}
@@ -307,7 +305,9 @@ public final class Storage implements Comparable<Storage> {
 	 * contained index will be written.) The returned range will be
 	 * {@link Range#canonical(com.google.common.collect.DiscreteDomain) canonical}.
 	 * The range is not cached so as to be responsive to changes in output index
-	 * functions.
+	 * functions.  The span is computed without enumerating the indices when
+	 * the index functions have a closed form (see IndexFunctionForm), so this
+	 * is much cheaper than writeIndices() for large schedules.
 	 * @param externalSchedule the schedule
 	 * @return a range spanning the indices written during the given schedule
 	 * under the current index functions
@@ -315,12 +315,11 @@ public final class Storage implements Comparable<Storage> {
 	 */
 	public Range<Integer> writeIndexSpan(Map<ActorGroup, Integer> externalSchedule) {
 		Range<Integer> range = null;
-		for (Actor a : upstream())
-			for (int iteration = 0, max = a.group().schedule().get(a) * externalSchedule.get(a.group()); iteration < max; ++iteration) {
-				ImmutableSortedSet<Integer> writes = a.writes(this, iteration);
-				Range<Integer> writeRange = writes.isEmpty() ? range : Range.closed(writes.first(), writes.last());
+		for (Actor a : ImmutableSet.copyOf(upstream())) {
+			Range<Integer> writeRange = a.writeSpan(this, Range.closedOpen(0, a.group().schedule().get(a) * externalSchedule.get(a.group())));
+			if (writeRange != null)
 				range = range == null ? writeRange : range.span(writeRange);
-			}
+		}
 		range = (range != null ? range : Range.closedOpen(0, 0));
 		return range.canonical(DiscreteDomain.integers());
 	}
@@ -357,11 +356,11 @@ public final class Storage implements Comparable<Storage> {
 		assert readIndices.isEmpty() == writeIndices.isEmpty() : readIndices+" "+writeIndices;
 		//We need to know the count of indices, so we can't just use the span
 		//here.  There may be a lot of indices so writeIndices will use a lot of
-		//memory.  But we know (assume) there are no overwrites, so we'll count.
+		//memory.  But we know (assume) there are no overwrites, so the count is
+		//just the push rates times the iterations.
 		this.throughput = 0;
-		for (Actor a : upstream())
-			for (int iteration = 0, max = a.group().schedule().get(a) * externalSchedule.get(a.group()); iteration < max; ++iteration)
-				this.throughput += a.writes(this, iteration).size();
+		for (Actor a : ImmutableSet.copyOf(upstream()))
+			this.throughput += a.writeCount(this, a.group().schedule().get(a) * externalSchedule.get(a.group()));
 		this.steadyStateCapacity = ContiguousSet.create(readIndices.span(writeIndices), DiscreteDomain.integers()).size();
 	}
 
@@ -38,5 +38,12 @@ public interface StorageStrategy {
 	 */
 	public void makeParameters(Set<Worker<?, ?>> workers, Configuration.Builder builder);
 
-	public StorageFactory asFactory(Configuration config);
+	/**
+	 * Returns a StorageFactory making storage as specified by the given
+	 * configuration.
+	 * @param config the configuration
+	 * @param arena the arena to allocate native memory from
+	 * @return a StorageFactory
+	 */
+	public StorageFactory asFactory(Configuration config, OffHeapArena arena);
 }
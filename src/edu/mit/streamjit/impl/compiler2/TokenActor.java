@@ -27,7 +27,6 @@ import edu.mit.streamjit.api.Identity;
 import edu.mit.streamjit.api.StreamElement;
 import edu.mit.streamjit.impl.blob.Blob.Token;
 import java.lang.invoke.MethodHandle;
-import java.lang.invoke.MethodHandles;
 import java.lang.reflect.ParameterizedType;
 
 /**
@@ -47,7 +46,7 @@ public final class TokenActor extends Actor {
 		super(id < 0 ? TypeToken.of(void.class) : typeVariable(), id < 0 ? typeVariable() : TypeToken.of(void.class));
 		this.token = token;
 		this.id = id;
-		MethodHandle identity = MethodHandles.identity(int.class);
+		MethodHandle identity = IndexFunctionForm.identity();
 		if (isOutput())
 			inputIndexFunctions().add(identity);
 		else
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.compiler2;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import edu.mit.streamjit.impl.blob.Buffer;
+import edu.mit.streamjit.util.bytecode.methodhandles.Combinators;
+import static edu.mit.streamjit.util.bytecode.methodhandles.LookupUtils.findVirtual;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.util.Map;
+
+/**
+ * A ConcreteStorage backed by triple-buffered storage, for the output of a
+ * blob in pipelined I/O mode.
+ * <p/>
+ * Like {@link DoubleArrayConcreteStorage}, the steady-state code reads one
+ * array and writes another, and adjust() rotates them.  The third array holds
+ * the items that were readable before the last adjust(), so the blob host can
+ * write them to the output Buffer (on an I/O thread) while the next
+ * steady-state iteration writes into a different array.  While
+ * {@link #setLagged(boolean) lagged}, the direct read methods (used by write
+ * instructions) read that third array instead of the current read array.
+ */
+public class TripleArrayConcreteStorage implements ConcreteStorage, BulkReadableConcreteStorage, BulkWritableConcreteStorage {
+	private static final Lookup LOOKUP = MethodHandles.lookup();
+	private static final MethodHandle ADJUST = findVirtual(LOOKUP, "adjust");
+	private static final MethodHandle IS_PHASE = findVirtual(LOOKUP, "isPhase");
+	private final Arrayish[] arrays;
+	/**
+	 * arrays[phase] is the read array and arrays[(phase+1) % 3] is the write
+	 * array; the remaining array holds the items read before the last adjust.
+	 */
+	private int phase = 0;
+	private volatile boolean lagged;
+	private final int capacity, throughput, readOffset;
+	private final MethodHandle readHandle, writeHandle, adjustHandle;
+	public TripleArrayConcreteStorage(Arrayish.Factory arrayFactory, Storage s) {
+		this.capacity = s.steadyStateCapacity();
+		assert capacity > 0 : s + " has capacity "+capacity;
+		this.throughput = s.throughput();
+		assert capacity == 2*throughput : "can't triple buffer "+s;
+		this.arrays = new Arrayish[3];
+		for (int i = 0; i < arrays.length; ++i)
+			arrays[i] = arrayFactory.make(s.type(), throughput);
+
+		ImmutableSet<ActorGroup> relevantGroups = ImmutableSet.<ActorGroup>builder().addAll(s.upstreamGroups()).addAll(s.downstreamGroups()).build();
+		Map<ActorGroup, Integer> oneMap = Maps.asMap(relevantGroups, new Function<ActorGroup, Integer>() {
+			@Override
+			public Integer apply(ActorGroup input) {
+				return 1;
+			}
+		});
+		this.readOffset = s.readIndexSpan(oneMap).lowerEndpoint();
+		int writeOffset = s.writeIndexSpan(oneMap).lowerEndpoint();
+
+		MethodHandle isPhase = IS_PHASE.bindTo(this);
+		MethodHandle isPhase0 = MethodHandles.insertArguments(isPhase, 0, 0),
+				isPhase1 = MethodHandles.insertArguments(isPhase, 0, 1);
+		this.readHandle = MethodHandles.filterArguments(
+				MethodHandles.guardWithTest(isPhase0, arrays[0].get(),
+						MethodHandles.guardWithTest(isPhase1, arrays[1].get(), arrays[2].get())),
+				0, Combinators.adder(-readOffset));
+		this.writeHandle = MethodHandles.filterArguments(
+				MethodHandles.guardWithTest(isPhase0, arrays[1].set(),
+						MethodHandles.guardWithTest(isPhase1, arrays[2].set(), arrays[0].set())),
+				0, Combinators.adder(-writeOffset));
+		this.adjustHandle = ADJUST.bindTo(this);
+	}
+
+	private boolean isPhase(int p) {
+		return phase == p;
+	}
+
+	/**
+	 * Sets whether the direct read methods read the items that were readable
+	 * before the last adjust() (true) or the items currently readable (false).
+	 * @param lagged true to read the previous items
+	 */
+	public void setLagged(boolean lagged) {
+		this.lagged = lagged;
+	}
+
+	/**
+	 * Returns the array holding items at the given index (relative to the
+	 * read offset), pretending the read and write arrays are contiguous.
+	 */
+	private Arrayish arrayFor(int index) {
+		if (index < throughput)
+			return arrays[lagged ? (phase + 2) % 3 : phase];
+		return arrays[(phase + 1) % 3];
+	}
+
+	@Override
+	public Class<?> type() {
+		return arrays[0].type();
+	}
+
+	@Override
+	public Object read(int index) {
+		try {
+			index -= readOffset;
+			return arrayFor(index).get().invoke(index < throughput ? index : index - throughput);
+		} catch (Throwable ex) {
+			throw new AssertionError(String.format("%s.read(%d)", this, index), ex);
+		}
+	}
+
+	@Override
+	public void write(int index, Object data) {
+		try {
+			index -= readOffset;
+			arrayFor(index).set().invoke(index < throughput ? index : index - throughput, data);
+		} catch (Throwable ex) {
+			throw new AssertionError(String.format("%s.write(%d, %s)", this, index, data), ex);
+		}
+	}
+
+	@Override
+	public int bulkRead(Buffer dest, int index, int count) {
+		index -= readOffset;
+		assert 0 <= index && index + count <= throughput : String.format("%s.bulkRead(%d, %d)", this, index, count);
+		return arrayFor(index).writeTo(dest, index, count);
+	}
+
+	@Override
+	public void bulkWrite(Buffer source, int index, int count) {
+		//As in write(), pretend the read and write arrays are contiguous.
+		index -= readOffset;
+		int read = 0;
+		if (index < throughput) {
+			int firstRun = Math.min(count, throughput - index);
+			read += arrayFor(index).readFrom(source, index, firstRun);
+			index += firstRun;
+		}
+		if (read < count)
+			read += arrayFor(index).readFrom(source, index - throughput, count - read);
+		assert read == count : String.format("%s: read %d of %d", this, read, count);
+	}
+
+	@Override
+	public void adjust() {
+		phase = (phase + 1) % 3;
+	}
+
+	@Override
+	public void sync() {
+	}
+
+	@Override
+	public MethodHandle readHandle() {
+		return readHandle;
+	}
+
+	@Override
+	public MethodHandle writeHandle() {
+		return writeHandle;
+	}
+
+	@Override
+	public MethodHandle adjustHandle() {
+		return adjustHandle;
+	}
+}
@@ -25,6 +25,7 @@ import com.google.common.collect.ImmutableList;
 import edu.mit.streamjit.api.Worker;
 import edu.mit.streamjit.impl.common.Configuration;
 import edu.mit.streamjit.impl.common.IOInfo;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -46,7 +47,7 @@ public final class TuneExternalStorageStrategy implements StorageStrategy {
 		}
 	}
 	@Override
-	public StorageFactory asFactory(final Configuration config) {
+	public StorageFactory asFactory(final Configuration config, final OffHeapArena arena) {
 		return new StorageFactory() {
 			@Override
 			public ConcreteStorage make(Storage storage) {
@@ -54,15 +55,32 @@ public final class TuneExternalStorageStrategy implements StorageStrategy {
 					return new EmptyConcreteStorage(storage);
 
 				Configuration.SwitchParameter<Arrayish.Factory> factoryParam = config.getParameter("ExternalArrayish"+storage.id(), Configuration.SwitchParameter.class, Arrayish.Factory.class);
-				Arrayish.Factory factory = storage.type().isPrimitive() ? factoryParam.getValue() : Arrayish.ArrayArrayish.factory();
+				Arrayish.Factory factory = storage.type().isPrimitive() ? arena.bind(factoryParam.getValue()) : Arrayish.ArrayArrayish.factory();
 				Configuration.SwitchParameter<Boolean> useDoubleBuffersParam = config.getParameter("UseDoubleBuffers"+storage.id(), Configuration.SwitchParameter.class, Boolean.class);
-				if (useDoubleBuffersParam.getValue()
-						&& storage.steadyStateCapacity() == 2*storage.throughput() //no leftover data
-						&& storage.isFullyExternal() //no reads of writes before adjust
-						)
+				Configuration.SwitchParameter<Boolean> pipelinedIOParam = config.getParameter("PipelinedIO", Configuration.SwitchParameter.class, Boolean.class);
+				boolean pipelinedIO = pipelinedIOParam != null && pipelinedIOParam.getValue();
+				boolean canMultiBuffer = storage.steadyStateCapacity() == 2*storage.throughput() //no leftover data
+						&& storage.isFullyExternal(); //no reads of writes before adjust
+				//Pipelined I/O loads blob inputs and writes blob outputs while
+				//the next iteration runs, so inputs must be double-buffered and
+				//outputs need a third array; see Compiler2BlobHost.
+				if (pipelinedIO && canMultiBuffer) {
+					if (hasTokenActor(storage.downstream()))
+						return new TripleArrayConcreteStorage(factory, storage);
+					if (hasTokenActor(storage.upstream()))
+						return new DoubleArrayConcreteStorage(factory, storage);
+				}
+				if (useDoubleBuffersParam.getValue() && canMultiBuffer)
 					return new DoubleArrayConcreteStorage(factory, storage);
 				return new CircularArrayConcreteStorage(factory.make(storage.type(), storage.steadyStateCapacity()), storage);
 			}
 		};
 	}
+
+	private static boolean hasTokenActor(List<Actor> actors) {
+		for (Actor a : actors)
+			if (a instanceof TokenActor)
+				return true;
+		return false;
+	}
 }
@@ -45,14 +45,14 @@ public final class TuneInternalStorageStrategy implements StorageStrategy {
 		}
 	}
 	@Override
-	public StorageFactory asFactory(final Configuration config) {
+	public StorageFactory asFactory(final Configuration config, final OffHeapArena arena) {
 		return new StorageFactory() {
 			@Override
 			public ConcreteStorage make(Storage storage) {
 				if (storage.steadyStateCapacity() == 0)
 					return new EmptyConcreteStorage(storage);
 				Configuration.SwitchParameter<Arrayish.Factory> factoryParam = config.getParameter("InternalArrayish"+storage.id(), Configuration.SwitchParameter.class, Arrayish.Factory.class);
-				Arrayish.Factory factory = storage.type().isPrimitive() ? factoryParam.getValue() : Arrayish.ArrayArrayish.factory();
+				Arrayish.Factory factory = storage.type().isPrimitive() ? arena.bind(factoryParam.getValue()) : Arrayish.ArrayArrayish.factory();
 				return new InternalArrayConcreteStorage(factory.make(storage.type(), storage.steadyStateCapacity()), storage);
 			}
 		};
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.compiler2;
+
+import static com.google.common.base.Preconditions.*;
+import edu.mit.streamjit.util.bytecode.methodhandles.Combinators;
+import static edu.mit.streamjit.util.bytecode.methodhandles.LookupUtils.findVirtual;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Dynamically load-balances chunks of stateless groups' iterations among the
+ * core threads.  Each thread owns a deque of chunks, initially a contiguous
+ * block of the chunk list (so the static assignment is the same as a full
+ * data-parallel allocation).  A thread first runs its static code, then takes
+ * chunks from the front of its own deque, then steals chunks from the back of
+ * the other threads' deques until all are empty.
+ * <p>
+ * Within a steady-state iteration, groups read only data produced before that
+ * iteration began (the init schedule ensures this), so chunks can run in any
+ * order on any thread.  Stateful groups aren't chunked.
+ * <p>
+ * Each deque is a [front, back) range of chunk indices packed in one long, so
+ * both ends can be updated with one CAS.  Each thread resets its own deque at
+ * the start of its steady-state code.  A thief might see a deque not yet reset
+ * for this iteration, but it will be exhausted from the previous iteration,
+ * so the thief just skips it and the owner runs its own chunks.
+ */
+public final class WorkStealingPool {
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+	private static final MethodHandle RESET = findVirtual(LOOKUP, "reset");
+	private static final MethodHandle RUN = findVirtual(LOOKUP, "run");
+	/**
+	 * Stride between deques in the deques array, to keep them on separate
+	 * cache lines.
+	 */
+	private static final int STRIDE = 8;
+	private static final long EMPTY = 0;
+	private final MethodHandle[] chunks;
+	private final long[] initialDeques;
+	private final AtomicLongArray deques;
+	/**
+	 * Creates a pool distributing the given chunks among the given number of
+	 * threads.
+	 * @param chunks the chunks, each a ()V method handle
+	 * @param threads the number of threads
+	 */
+	public WorkStealingPool(List<MethodHandle> chunks, int threads) {
+		checkArgument(threads >= 1, threads);
+		this.chunks = chunks.toArray(new MethodHandle[chunks.size()]);
+		this.initialDeques = new long[threads];
+		for (int t = 0; t < threads; ++t)
+			initialDeques[t] = pack(t * this.chunks.length / threads, (t+1) * this.chunks.length / threads);
+		this.deques = new AtomicLongArray(threads * STRIDE);
+		for (int t = 0; t < threads; ++t)
+			deques.set(t * STRIDE, EMPTY);
+	}
+
+	/**
+	 * Returns the number of threads this pool distributes among.
+	 * @return the number of threads
+	 */
+	public int threads() {
+		return initialDeques.length;
+	}
+
+	/**
+	 * Returns the number of chunks in this pool.
+	 * @return the number of chunks
+	 */
+	public int chunks() {
+		return chunks.length;
+	}
+
+	/**
+	 * Wraps the given thread's static code to reset its deque before and run
+	 * and steal chunks after.
+	 * @param code the thread's static code, a ()V method handle
+	 * @param thread the thread index
+	 * @return the wrapped code
+	 */
+	public MethodHandle wrap(MethodHandle code, int thread) {
+		checkElementIndex(thread, threads());
+		return Combinators.semicolon(
+				MethodHandles.insertArguments(RESET, 0, this, thread),
+				code,
+				MethodHandles.insertArguments(RUN, 0, this, thread));
+	}
+
+	private void reset(int thread) {
+		deques.set(thread * STRIDE, initialDeques[thread]);
+	}
+
+	private void run(int thread) throws Throwable {
+		int index = thread * STRIDE;
+		while (true) {
+			long deque = deques.get(index);
+			int front = front(deque), back = back(deque);
+			if (front >= back) break;
+			if (deques.compareAndSet(index, deque, pack(front+1, back)))
+				chunks[front].invokeExact();
+		}
+
+		for (int i = 1; i < threads(); ++i) {
+			int victim = ((thread + i) % threads()) * STRIDE;
+			while (true) {
+				long deque = deques.get(victim);
+				int front = front(deque), back = back(deque);
+				if (front >= back) break;
+				if (deques.compareAndSet(victim, deque, pack(front, back-1)))
+					chunks[back-1].invokeExact();
+			}
+		}
+	}
+
+	private static long pack(int front, int back) {
+		return ((long)front << 32) | (back & 0xFFFFFFFFL);
+	}
+
+	private static int front(long deque) {
+		return (int)(deque >>> 32);
+	}
+
+	private static int back(long deque) {
+		return (int)deque;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("WorkStealingPool[%d chunks, %d threads]", chunks.length, threads());
+	}
+}
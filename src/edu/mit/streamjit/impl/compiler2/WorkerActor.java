@@ -27,6 +27,8 @@ import edu.mit.streamjit.api.Worker;
 import edu.mit.streamjit.impl.blob.Blob;
 import edu.mit.streamjit.impl.blob.Blob.Token;
 import edu.mit.streamjit.impl.common.Workers;
+import static edu.mit.streamjit.util.bytecode.methodhandles.LookupUtils.findStatic;
+import static edu.mit.streamjit.util.bytecode.methodhandles.LookupUtils.findVirtual;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.util.Collections;
@@ -42,6 +44,11 @@ public final class WorkerActor extends Actor {
 	private final Worker<?, ?> worker;
 	private final ActorArchetype archetype;
 	private StateHolder stateHolder;
+	/**
+	 * Whether this worker sends or receives teleport messages, in which case
+	 * compiled firings must be counted (and messages delivered between them).
+	 */
+	private boolean sendsMessages, receivesMessages;
 	public WorkerActor(Worker<?, ?> worker, ActorArchetype archetype) {
 		super(archetype.declaredInputType(), archetype.declaredOutputType());
 		this.worker = worker;
@@ -69,6 +76,60 @@ public final class WorkerActor extends Actor {
 		this.stateHolder = stateHolder;
 	}
 
+	public void setSendsMessages() {
+		this.sendsMessages = true;
+	}
+
+	public void setReceivesMessages() {
+		this.receivesMessages = true;
+	}
+
+	public boolean isMessaging() {
+		return sendsMessages || receivesMessages;
+	}
+
+	/**
+	 * Returns true if this actor's firings must be executed in order on one
+	 * core: its worker is stateful, or it sends or receives messages (whose
+	 * delivery depends on execution counts).
+	 * @return true iff this actor is stateful
+	 */
+	public boolean isStateful() {
+		return archetype().isStateful() || isMessaging();
+	}
+
+	/**
+	 * Wraps the given work handle (with read and write handles bound) to
+	 * deliver due messages before each firing and count each firing, if this
+	 * worker sends or receives messages.  Otherwise returns the handle.
+	 * @param work a work handle
+	 * @return a work handle of the same type
+	 */
+	public MethodHandle wrapForMessaging(MethodHandle work) {
+		if (!isMessaging())
+			return work;
+		if (receivesMessages)
+			work = MethodHandles.foldArguments(work, RECEIVE_MESSAGES.bindTo(this));
+		return MethodHandles.filterReturnValue(work, COUNT_EXECUTION.bindTo(worker));
+	}
+
+	private void receiveMessages() {
+		if (Workers.hasMessagesDue(worker)) {
+			//Message handlers modify the worker, but compiled code uses the
+			//state holder, so sync around delivery.
+			stateHolder.call();
+			Workers.receiveMessages(worker);
+			stateHolder.reload();
+		}
+	}
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+	private static final MethodHandle RECEIVE_MESSAGES = findVirtual(LOOKUP, "receiveMessages");
+	private static final MethodHandle COUNT_EXECUTION = findStatic(LOOKUP, "_countExecution");
+	private static void _countExecution(Worker<?, ?> worker) {
+		Workers.countExecution(worker);
+	}
+
 	/**
 	 * Sets up Actor connections based on the worker's predecessor/successor
 	 * relationships, creating TokenActors and Storages as required.  This
@@ -143,7 +204,7 @@ public final class WorkerActor extends Actor {
 				succ.inputs().add(s);
 		}
 
-		MethodHandle identity = MethodHandles.identity(int.class);
+		MethodHandle identity = IndexFunctionForm.identity();
 		inputIndexFunctions().addAll(Collections.nCopies(inputs().size(), identity));
 		outputIndexFunctions().addAll(Collections.nCopies(outputs().size(), identity));
 	}
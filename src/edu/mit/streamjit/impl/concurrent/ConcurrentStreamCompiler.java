@@ -43,7 +43,7 @@ import edu.mit.streamjit.api.Worker;
 import edu.mit.streamjit.impl.blob.Blob;
 import edu.mit.streamjit.impl.blob.Blob.Token;
 import edu.mit.streamjit.impl.blob.Buffer;
-import edu.mit.streamjit.impl.blob.ConcurrentArrayBuffer;
+import edu.mit.streamjit.impl.blob.Buffers;
 import edu.mit.streamjit.impl.common.AbstractDrainer;
 import edu.mit.streamjit.impl.common.AbstractDrainer.BlobGraph;
 import edu.mit.streamjit.impl.common.BlobThread;
@@ -156,7 +156,7 @@ public class ConcurrentStreamCompiler implements StreamCompiler {
 		}
 
 		final ConcurrentCompiledStream cs = new ConcurrentCompiledStream(bg,
-				blobSet);
+				blobSet, outputBuffer);
 
 		if (input instanceof ManualInput)
 			InputBufferFactory.setManualInputDelegate((ManualInput<I>) input,
@@ -187,16 +187,21 @@ public class ConcurrentStreamCompiler implements StreamCompiler {
 
 		Map<Token, Integer> minInputBufCapaciy = new HashMap<>();
 		Map<Token, Integer> minOutputBufCapaciy = new HashMap<>();
+		Map<Token, Class<?>> bufferTypes = new HashMap<>();
 
 		for (Blob b : blobList) {
 			Set<Blob.Token> inputs = b.getInputs();
 			for (Token t : inputs) {
 				minInputBufCapaciy.put(t, b.getMinimumBufferCapacity(t));
+				if (!b.getBufferType(t).equals(Object.class))
+					bufferTypes.put(t, b.getBufferType(t));
 			}
 
 			Set<Blob.Token> outputs = b.getOutputs();
 			for (Token t : outputs) {
 				minOutputBufCapaciy.put(t, b.getMinimumBufferCapacity(t));
+				if (!b.getBufferType(t).equals(Object.class))
+					bufferTypes.put(t, b.getBufferType(t));
 			}
 		}
 
@@ -209,7 +214,9 @@ public class ConcurrentStreamCompiler implements StreamCompiler {
 				// TODO: Just to increase the performance. Change it later
 				bufSize = Math.max(1000, bufSize);
 
-				Buffer buf = new ConcurrentArrayBuffer(bufSize);
+				Class<?> type = bufferTypes.containsKey(t) ? bufferTypes
+						.get(t) : Object.class;
+				Buffer buf = Buffers.concurrentBuffer(type, bufSize);
 				bufferMap.put(t, buf);
 			}
 		}
@@ -237,14 +244,16 @@ public class ConcurrentStreamCompiler implements StreamCompiler {
 		private Map<Blob, Set<BlobThread>> threadMap = new HashMap<>();
 		private final AbstractDrainer drainer;
 
-		public ConcurrentCompiledStream(BlobGraph blobGraph, Set<Blob> blobSet) {
+		public ConcurrentCompiledStream(BlobGraph blobGraph,
+				Set<Blob> blobSet, Buffer outputBuffer) {
 			List<Thread> blobThreads = new ArrayList<>(blobSet.size());
 			for (final Blob b : blobSet) {
 				BlobThread t = new BlobThread(b.getCoreCode(0));
 				blobThreads.add(t);
 				threadMap.put(b, Collections.singleton(t));
 			}
-			this.drainer = new ConcurrentDrainer(blobGraph, threadMap);
+			this.drainer = new ConcurrentDrainer(blobGraph, threadMap,
+					outputBuffer);
 			start(blobThreads);
 		}
 
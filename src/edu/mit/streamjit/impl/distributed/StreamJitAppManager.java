@@ -32,6 +32,7 @@ import com.google.common.collect.ImmutableMap;
 import edu.mit.streamjit.api.CompiledStream;
 import edu.mit.streamjit.api.Worker;
 import edu.mit.streamjit.impl.blob.Buffer;
+import edu.mit.streamjit.impl.blob.Buffers;
 import edu.mit.streamjit.impl.blob.DrainData;
 import edu.mit.streamjit.impl.blob.Blob.Token;
 import edu.mit.streamjit.impl.common.AbstractDrainer;
@@ -55,6 +56,7 @@ import edu.mit.streamjit.impl.distributed.common.SNException;
 import edu.mit.streamjit.impl.distributed.common.SNException.AddressBindException;
 import edu.mit.streamjit.impl.distributed.common.SNException.SNExceptionProcessor;
 import edu.mit.streamjit.impl.distributed.common.TCPConnection.TCPConnectionInfo;
+import edu.mit.streamjit.impl.distributed.node.StreamNode;
 import edu.mit.streamjit.impl.distributed.runtimer.Controller;
 
 public class StreamJitAppManager {
@@ -91,6 +93,12 @@ public class StreamJitAppManager {
 	 */
 	private TailChannel tailChannel;
 
+	/**
+	 * The overall output buffer that {@link #tailChannel} writes into. Flushed
+	 * and closed, if it is Closeable, once the final draining is done.
+	 */
+	private Buffer tailBuffer;
+
 	private Thread headThread;
 
 	private Thread tailThread;
@@ -159,6 +167,38 @@ public class StreamJitAppManager {
 		return isRunning;
 	}
 
+	/**
+	 * Applies the current configuration to the running app without draining
+	 * it. Only valid if the partitioning is the same as the running one, so
+	 * that the blobs, their boundary channels, and the head and tail channels
+	 * stay as they are. Each {@link StreamNode} recompiles, in place, just
+	 * the blobs whose parameters changed.
+	 * <p>
+	 * If a {@link StreamNode} can't apply the new configuration to a blob, it
+	 * keeps the blob's old configuration, so the app keeps running either
+	 * way.
+	 * </p>
+	 * 
+	 * @return true iff all {@link StreamNode}s applied the new configuration.
+	 */
+	public boolean reconfigureIncrementally() {
+		if (!isRunning)
+			throw new IllegalStateException("Application is not running.");
+		reset();
+		String jsonStirng = cfgManager.getDynamicConfiguration().toJson();
+		for (int nodeID : controller.getAllNodeIDs()) {
+			ConfigurationString json = new ConfigurationString(jsonStirng,
+					ConfigType.INCREMENTAL, null);
+			controller.send(nodeID, json);
+		}
+
+		boolean isApplied = apStsPro.waitForCompilation();
+		// Measure the new configuration from now on.
+		if (tailChannel != null)
+			tailChannel.reset();
+		return isApplied;
+	}
+
 	/**
 	 * Setup the headchannel and tailchannel.
 	 * 
@@ -195,7 +235,8 @@ public class StreamJitAppManager {
 			throw new IllegalArgumentException(
 					"No tail buffer in the passed bufferMap.");
 
-		tailChannel = new TailChannel(bufferMap.get(tailToken),
+		tailBuffer = bufferMap.get(tailToken);
+		tailChannel = new TailChannel(tailBuffer,
 				controller.getConProvider(), tailconInfo, "tailChannel - "
 						+ tailToken.toString(), 0, 1000);
 	}
@@ -267,6 +308,7 @@ public class StreamJitAppManager {
 		if (isFinal) {
 			this.status = AppStatus.STOPPED;
 			tailChannel.reset();
+			Buffers.closeIfCloseable(tailBuffer);
 			controller.closeAll();
 		}
 		isRunning = false;
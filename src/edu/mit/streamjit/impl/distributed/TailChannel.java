@@ -55,8 +55,9 @@ public class TailChannel extends TCPInputChannel {
 
 	@Override
 	public void receiveData() {
+		int received = getReceivedCount();
 		super.receiveData();
-		count++;
+		count += getReceivedCount() - received;
 		// System.err.println(count);
 		if (count > limit)
 			latch.countDown();
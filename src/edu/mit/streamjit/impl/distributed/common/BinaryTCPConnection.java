@@ -0,0 +1,474 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.distributed.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A {@link Connection} that carries stream data over a {@link SocketChannel}
+ * as batches of items in length-prefixed binary frames, rather than one
+ * serialized object per item as {@link TCPConnection} does.
+ * <p>
+ * Each frame is a one byte type tag, an int item count and an int payload
+ * length, followed by the payload. Batches of primitives or of homogeneous
+ * primitive wrappers are encoded as raw big-endian primitives. Any other batch
+ * falls back to Java serialization, one {@link ObjectOutputStream} per frame,
+ * so no stream reset is needed. A frame with the soft close tag marks the end
+ * of a communication session (see {@link #softClose()}); the connection
+ * itself stays open and can be reused for the next session.
+ * </p>
+ * <p>
+ * Both directions use a reusable direct {@link ByteBuffer}, so steady-state
+ * primitive traffic allocates only the decoded arrays. This class is not thread
+ * safe.
+ * </p>
+ */
+public final class BinaryTCPConnection implements Connection {
+
+	private static final int BUFFER_CAPACITY = 1 << 16;
+
+	/**
+	 * Tag byte, item count and payload length.
+	 */
+	private static final int HEADER_BYTES = 1 + 4 + 4;
+
+	private static final byte SOFT_CLOSE = 0;
+	private static final byte OBJECT = 1;
+	private static final byte BYTE = 2;
+	private static final byte SHORT = 3;
+	private static final byte CHAR = 4;
+	private static final byte INT = 5;
+	private static final byte LONG = 6;
+	private static final byte FLOAT = 7;
+	private static final byte DOUBLE = 8;
+
+	private final SocketChannel channel;
+
+	private final ByteBuffer out;
+
+	/**
+	 * Kept in read mode (flipped) between calls.
+	 */
+	private final ByteBuffer in;
+
+	private final ByteArrayOutputStream serialized;
+
+	private boolean isconnected;
+
+	/**
+	 * Items of the last frame not yet returned by {@link #readObject()}.
+	 */
+	private Object pending;
+	private int pendingIndex;
+	private int pendingLength;
+
+	public BinaryTCPConnection(SocketChannel channel) throws IOException {
+		this.channel = channel;
+		channel.configureBlocking(true);
+		// We batch ourselves, so don't let Nagle's algorithm delay the frames.
+		channel.socket().setTcpNoDelay(true);
+		this.out = ByteBuffer.allocateDirect(BUFFER_CAPACITY);
+		this.in = ByteBuffer.allocateDirect(BUFFER_CAPACITY);
+		this.in.limit(0);
+		this.serialized = new ByteArrayOutputStream();
+		this.isconnected = true;
+	}
+
+	/**
+	 * Sends length items of the given array, beginning at offset, as one or
+	 * more frames. The array may be an Object[] or a primitive array.
+	 * 
+	 * @param array
+	 *            an Object[] or a primitive array
+	 * @param offset
+	 * @param length
+	 * @throws IOException
+	 */
+	public void writeArray(Object array, int offset, int length)
+			throws IOException {
+		if (!isStillConnected())
+			throw new IOException("BinaryTCPConnection: Socket is not connected");
+		if (length == 0)
+			return;
+		try {
+			byte tag = tagOf(array, offset, length);
+			if (tag == OBJECT)
+				writeSerialized(array, offset, length);
+			else {
+				int size = sizeOf(tag);
+				int maxItems = (BUFFER_CAPACITY - HEADER_BYTES) / size;
+				while (length > 0) {
+					int n = Math.min(length, maxItems);
+					ensureSpace(HEADER_BYTES + n * size);
+					out.put(tag).putInt(n).putInt(n * size);
+					encode(tag, array, offset, n);
+					offset += n;
+					length -= n;
+				}
+			}
+			flush();
+		} catch (IOException ex) {
+			isconnected = false;
+			throw ex;
+		}
+	}
+
+	/**
+	 * Receives the next batch of items. Primitive frames are returned as
+	 * primitive arrays, others as Object[]. Blocks until a whole frame has been
+	 * received.
+	 * 
+	 * @return the received items, or null if the other side has soft closed
+	 *         the current session
+	 * @throws EOFException
+	 *             if the other side has closed the connection
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public Object readArray() throws IOException, ClassNotFoundException {
+		if (!isStillConnected())
+			throw new IOException("BinaryTCPConnection: Socket is not connected");
+		if (pending != null && pendingIndex < pendingLength) {
+			int n = pendingLength - pendingIndex;
+			Object rest = Array.newInstance(pending.getClass()
+					.getComponentType(), n);
+			System.arraycopy(pending, pendingIndex, rest, 0, n);
+			pending = null;
+			return rest;
+		}
+		try {
+			fill(HEADER_BYTES);
+			byte tag = in.get();
+			int length = in.getInt();
+			int bytes = in.getInt();
+			switch (tag) {
+				case SOFT_CLOSE :
+					return null;
+				case OBJECT :
+					return readSerialized(length, bytes);
+				default :
+					fill(bytes);
+					return decode(tag, length);
+			}
+		} catch (IOException ex) {
+			isconnected = false;
+			throw ex;
+		}
+	}
+
+	/**
+	 * Returns the next item, reading a new frame if the previous one has been
+	 * consumed. Prefer {@link #readArray()}.
+	 * 
+	 * @return the next item, or null if the other side has soft closed the
+	 *         current session.
+	 */
+	@Override
+	public <T> T readObject() throws IOException, ClassNotFoundException {
+		while (pending == null || pendingIndex == pendingLength) {
+			pending = readArray();
+			if (pending == null)
+				return null;
+			pendingIndex = 0;
+			pendingLength = Array.getLength(pending);
+		}
+		@SuppressWarnings("unchecked")
+		T t = (T) Array.get(pending, pendingIndex++);
+		return t;
+	}
+
+	/**
+	 * Sends the object as a single item frame. Prefer
+	 * {@link #writeArray(Object, int, int)}.
+	 */
+	@Override
+	public void writeObject(Object obj) throws IOException {
+		writeArray(new Object[]{obj}, 0, 1);
+	}
+
+	@Override
+	public void closeConnection() {
+		isconnected = false;
+		try {
+			channel.close();
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	@Override
+	public boolean isStillConnected() {
+		return isconnected;
+	}
+
+	@Override
+	public void softClose() throws IOException {
+		ensureSpace(HEADER_BYTES);
+		out.put(SOFT_CLOSE).putInt(0).putInt(0);
+		flush();
+	}
+
+	private static byte tagOf(Object array, int offset, int length) {
+		if (!(array instanceof Object[]))
+			return tagOf(array.getClass().getComponentType());
+		Object[] data = (Object[]) array;
+		if (data[offset] == null)
+			return OBJECT;
+		Class<?> klass = data[offset].getClass();
+		byte tag = tagOf(klass);
+		if (tag != OBJECT)
+			for (int i = offset + 1; i < offset + length; ++i)
+				if (data[i] == null || data[i].getClass() != klass)
+					return OBJECT;
+		return tag;
+	}
+
+	private static byte tagOf(Class<?> klass) {
+		if (klass == byte.class || klass == Byte.class)
+			return BYTE;
+		if (klass == short.class || klass == Short.class)
+			return SHORT;
+		if (klass == char.class || klass == Character.class)
+			return CHAR;
+		if (klass == int.class || klass == Integer.class)
+			return INT;
+		if (klass == long.class || klass == Long.class)
+			return LONG;
+		if (klass == float.class || klass == Float.class)
+			return FLOAT;
+		if (klass == double.class || klass == Double.class)
+			return DOUBLE;
+		return OBJECT;
+	}
+
+	private static int sizeOf(byte tag) {
+		switch (tag) {
+			case BYTE :
+				return 1;
+			case SHORT :
+			case CHAR :
+				return 2;
+			case INT :
+			case FLOAT :
+				return 4;
+			case LONG :
+			case DOUBLE :
+				return 8;
+			default :
+				throw new AssertionError(tag);
+		}
+	}
+
+	/**
+	 * Writes the items into {@link #out}, which must have enough space.
+	 */
+	private void encode(byte tag, Object array, int offset, int length) {
+		int end = offset + length;
+		if (array instanceof Object[]) {
+			Object[] data = (Object[]) array;
+			switch (tag) {
+				case BYTE :
+					for (int i = offset; i < end; ++i)
+						out.put((Byte) data[i]);
+					break;
+				case SHORT :
+					for (int i = offset; i < end; ++i)
+						out.putShort((Short) data[i]);
+					break;
+				case CHAR :
+					for (int i = offset; i < end; ++i)
+						out.putChar((Character) data[i]);
+					break;
+				case INT :
+					for (int i = offset; i < end; ++i)
+						out.putInt((Integer) data[i]);
+					break;
+				case LONG :
+					for (int i = offset; i < end; ++i)
+						out.putLong((Long) data[i]);
+					break;
+				case FLOAT :
+					for (int i = offset; i < end; ++i)
+						out.putFloat((Float) data[i]);
+					break;
+				case DOUBLE :
+					for (int i = offset; i < end; ++i)
+						out.putDouble((Double) data[i]);
+					break;
+				default :
+					throw new AssertionError(tag);
+			}
+			return;
+		}
+
+		int position = out.position();
+		switch (tag) {
+			case BYTE :
+				out.put((byte[]) array, offset, length);
+				return;
+			case SHORT :
+				out.asShortBuffer().put((short[]) array, offset, length);
+				break;
+			case CHAR :
+				out.asCharBuffer().put((char[]) array, offset, length);
+				break;
+			case INT :
+				out.asIntBuffer().put((int[]) array, offset, length);
+				break;
+			case LONG :
+				out.asLongBuffer().put((long[]) array, offset, length);
+				break;
+			case FLOAT :
+				out.asFloatBuffer().put((float[]) array, offset, length);
+				break;
+			case DOUBLE :
+				out.asDoubleBuffer().put((double[]) array, offset, length);
+				break;
+			default :
+				throw new AssertionError(tag);
+		}
+		out.position(position + length * sizeOf(tag));
+	}
+
+	/**
+	 * Reads length items from {@link #in}, which must hold the whole payload.
+	 */
+	private Object decode(byte tag, int length) {
+		int position = in.position();
+		Object array;
+		switch (tag) {
+			case BYTE :
+				byte[] bytes = new byte[length];
+				in.get(bytes);
+				return bytes;
+			case SHORT :
+				short[] shorts = new short[length];
+				in.asShortBuffer().get(shorts);
+				array = shorts;
+				break;
+			case CHAR :
+				char[] chars = new char[length];
+				in.asCharBuffer().get(chars);
+				array = chars;
+				break;
+			case INT :
+				int[] ints = new int[length];
+				in.asIntBuffer().get(ints);
+				array = ints;
+				break;
+			case LONG :
+				long[] longs = new long[length];
+				in.asLongBuffer().get(longs);
+				array = longs;
+				break;
+			case FLOAT :
+				float[] floats = new float[length];
+				in.asFloatBuffer().get(floats);
+				array = floats;
+				break;
+			case DOUBLE :
+				double[] doubles = new double[length];
+				in.asDoubleBuffer().get(doubles);
+				array = doubles;
+				break;
+			default :
+				throw new AssertionError(tag);
+		}
+		in.position(position + length * sizeOf(tag));
+		return array;
+	}
+
+	private void writeSerialized(Object array, int offset, int length)
+			throws IOException {
+		serialized.reset();
+		try (ObjectOutputStream oos = new ObjectOutputStream(serialized)) {
+			for (int i = offset; i < offset + length; ++i)
+				oos.writeObject(array instanceof Object[]
+						? ((Object[]) array)[i]
+						: Array.get(array, i));
+		}
+		byte[] payload = serialized.toByteArray();
+		ensureSpace(HEADER_BYTES);
+		out.put(OBJECT).putInt(length).putInt(payload.length);
+		int written = 0;
+		while (written < payload.length) {
+			if (!out.hasRemaining())
+				flush();
+			int n = Math.min(out.remaining(), payload.length - written);
+			out.put(payload, written, n);
+			written += n;
+		}
+	}
+
+	private Object[] readSerialized(int length, int bytes) throws IOException,
+			ClassNotFoundException {
+		byte[] payload = new byte[bytes];
+		int copied = 0;
+		while (copied < bytes) {
+			fill(Math.min(BUFFER_CAPACITY, bytes - copied));
+			int n = Math.min(in.remaining(), bytes - copied);
+			in.get(payload, copied, n);
+			copied += n;
+		}
+		Object[] data = new Object[length];
+		try (ObjectInputStream ois = new ObjectInputStream(
+				new ByteArrayInputStream(payload))) {
+			for (int i = 0; i < length; ++i)
+				data[i] = ois.readObject();
+		}
+		return data;
+	}
+
+	private void ensureSpace(int bytes) throws IOException {
+		if (out.remaining() < bytes)
+			flush();
+	}
+
+	private void flush() throws IOException {
+		out.flip();
+		while (out.hasRemaining())
+			channel.write(out);
+		out.clear();
+	}
+
+	/**
+	 * Blocks until {@link #in} holds at least the given number of bytes.
+	 */
+	private void fill(int bytes) throws IOException {
+		if (in.remaining() >= bytes)
+			return;
+		in.compact();
+		while (in.position() < bytes)
+			if (channel.read(in) < 0)
+				throw new EOFException(
+						"BinaryTCPConnection: Connection closed by the other side");
+		in.flip();
+	}
+}
@@ -114,6 +114,20 @@ public interface BoundaryChannel {
 		 *         there is no data.
 		 */
 		Buffer getExtraBuffer();
+
+		/**
+		 * Temporarily stop writing received data into the buffer, e.g., while
+		 * the blob that reads the buffer is being replaced. Data keeps
+		 * accumulating in the intermediate buffers until {@link #resume()} is
+		 * called. A batch that was already being written when this is called
+		 * may still be written.
+		 */
+		void pause();
+
+		/**
+		 * Undo {@link #pause()}.
+		 */
+		void resume();
 	}
 
 	/**
@@ -82,7 +82,12 @@ public class ConfigurationString implements CTRLRMessageElement {
 			 * Dynamic configuration contains all details that varies
 			 * for each opentuner's new configuration.
 			 */
-			DYNAMIC
+			DYNAMIC, /**
+			 * A new dynamic configuration with the same partitioning
+			 * as the running one. Stream nodes recompile just the
+			 * blobs whose parameters changed, without draining the app.
+			 */
+			INCREMENTAL
 		}
 	}
 }
@@ -22,8 +22,11 @@
 package edu.mit.streamjit.impl.distributed.common;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
 import edu.mit.streamjit.impl.distributed.runtimer.ListenerSocket;
 
@@ -100,4 +103,71 @@ public class ConnectionFactory {
 		else
 			return new TCPConnection(socket);
 	}
+
+	/**
+	 * Makes a {@link BinaryTCPConnection} to the given server. Used for the
+	 * data channels between blobs. Retries like
+	 * {@link #getConnection(String, int, boolean)}.
+	 * 
+	 * @param serverAddress
+	 * @param portNo
+	 * @return
+	 * @throws IOException
+	 */
+	public static BinaryTCPConnection getBinaryConnection(
+			String serverAddress, int portNo) throws IOException {
+		Ipv4Validator validator = Ipv4Validator.getInstance();
+		System.out.println("Trying to make a connection with - "
+				+ serverAddress + "/" + portNo);
+		if (!validator.isValid(serverAddress))
+			throw new IllegalArgumentException("Invalid Server IP address");
+
+		if (!validator.isValid(portNo))
+			throw new IllegalArgumentException("Invalid port No");
+
+		int maxTryAttempts = 10;
+		for (int i = 0; i < maxTryAttempts; i++) {
+			try {
+				SocketChannel channel = SocketChannel
+						.open(new InetSocketAddress(serverAddress, portNo));
+				return new BinaryTCPConnection(channel);
+			} catch (IOException ioe) {
+				System.out.println("IO Connection failed - " + serverAddress
+						+ "/" + portNo);
+				if (i == maxTryAttempts - 1)
+					throw ioe;
+				System.out.println("Reattempting...." + i);
+			}
+			try {
+				Thread.sleep((i + 1) * 2000);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+		throw new IOException("Connection creation failed.");
+	}
+
+	/**
+	 * Listens at the given port and returns a {@link BinaryTCPConnection} over
+	 * the first accepted connection.
+	 * 
+	 * @param portNo
+	 * @param timeOut
+	 *            in milliseconds. If zero, no timeout. See {@link ServerSocket}
+	 *            .setSoTimeout().
+	 * @return
+	 * @throws IOException
+	 */
+	public static BinaryTCPConnection getBinaryConnection(int portNo,
+			int timeOut) throws IOException {
+		System.out.println("Listening at - " + portNo);
+		try (ServerSocketChannel server = ServerSocketChannel.open()) {
+			server.socket().setReuseAddress(true);
+			server.socket().bind(new InetSocketAddress(portNo));
+			server.socket().setSoTimeout(timeOut);
+			// Accepting through the socket adaptor honours the timeout.
+			Socket socket = server.socket().accept();
+			return new BinaryTCPConnection(socket.getChannel());
+		}
+	}
 }
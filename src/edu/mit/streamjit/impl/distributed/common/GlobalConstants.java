@@ -22,8 +22,10 @@
 package edu.mit.streamjit.impl.distributed.common;
 
 import edu.mit.streamjit.impl.common.AbstractDrainer;
+import edu.mit.streamjit.impl.distributed.StreamJitAppManager;
 import edu.mit.streamjit.impl.distributed.TailChannel;
 import edu.mit.streamjit.impl.distributed.node.StreamNode;
+import edu.mit.streamjit.impl.distributed.runtimer.OnlineTuner;
 import edu.mit.streamjit.impl.distributed.runtimer.StreamNodeAgent;
 import edu.mit.streamjit.tuner.TCPTuner;
 
@@ -120,6 +122,14 @@ public final class GlobalConstants {
 	 */
 	public static final boolean saveAllConfigurations = true;
 
+	/**
+	 * If a new configuration keeps the running partitioning, apply it without
+	 * draining the app: stream nodes drain and recompile only the blobs whose
+	 * parameters changed, and everything else keeps running. See
+	 * {@link OnlineTuner} and {@link StreamJitAppManager#reconfigureIncrementally()}.
+	 */
+	public static final boolean incrementalReconfiguration = false;
+
 	static {
 
 	}
@@ -239,9 +239,9 @@ public class TCPConnection implements Connection {
 	}
 
 	/**
-	 * Keeps all opened {@link TCPConnection}s for a machine. Each machine
-	 * should have a single instance of this class and use this class to make
-	 * new connections.
+	 * Keeps all opened data connections ({@link BinaryTCPConnection}s) for a
+	 * machine. Each machine should have a single instance of this class and
+	 * use this class to make new connections.
 	 * 
 	 * <p>
 	 * TODO: Need to make this class singleton. I didn't do it now because in
@@ -251,7 +251,7 @@ public class TCPConnection implements Connection {
 	 */
 	public static class TCPConnectionProvider {
 
-		private ConcurrentMap<TCPConnectionInfo, TCPConnection> allConnections;
+		private ConcurrentMap<TCPConnectionInfo, BinaryTCPConnection> allConnections;
 
 		private final int myNodeID;
 
@@ -272,7 +272,7 @@ public class TCPConnection implements Connection {
 		 * @return
 		 * @throws IOException
 		 */
-		public Connection getConnection(TCPConnectionInfo conInfo)
+		public BinaryTCPConnection getConnection(TCPConnectionInfo conInfo)
 				throws IOException {
 			return getConnection(conInfo, 0);
 		}
@@ -288,9 +288,9 @@ public class TCPConnection implements Connection {
 		 * @throws SocketTimeoutException
 		 * @throws IOException
 		 */
-		public Connection getConnection(TCPConnectionInfo conInfo, int timeOut)
-				throws SocketTimeoutException, IOException {
-			TCPConnection con = allConnections.get(conInfo);
+		public BinaryTCPConnection getConnection(TCPConnectionInfo conInfo,
+				int timeOut) throws SocketTimeoutException, IOException {
+			BinaryTCPConnection con = allConnections.get(conInfo);
 			if (con != null) {
 				if (con.isStillConnected()) {
 					return con;
@@ -301,23 +301,23 @@ public class TCPConnection implements Connection {
 			}
 
 			if (conInfo.getSrcID() == myNodeID) {
-				con = ConnectionFactory.getConnection(conInfo.getPortNo(),
-						timeOut, false);
+				con = ConnectionFactory.getBinaryConnection(
+						conInfo.getPortNo(), timeOut);
 			} else if (conInfo.getDstID() == myNodeID) {
 				InetAddress ipAddress = iNetAddressMap.get(conInfo.getSrcID());
 				if (ipAddress.isLoopbackAddress())
 					ipAddress = iNetAddressMap.get(0);
 
 				int portNo = conInfo.getPortNo();
-				con = ConnectionFactory.getConnection(
-						ipAddress.getHostAddress(), portNo, false);
+				con = ConnectionFactory.getBinaryConnection(
+						ipAddress.getHostAddress(), portNo);
 			}
 			allConnections.put(conInfo, con);
 			return con;
 		}
 
 		public void closeAllConnections() {
-			for (TCPConnection con : allConnections.values()) {
+			for (BinaryTCPConnection con : allConnections.values()) {
 				con.closeConnection();
 			}
 		}
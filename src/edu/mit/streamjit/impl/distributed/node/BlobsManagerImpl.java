@@ -22,23 +22,33 @@
 package edu.mit.streamjit.impl.distributed.node;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
+import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import edu.mit.streamjit.api.Worker;
 import edu.mit.streamjit.impl.blob.Blob;
+import edu.mit.streamjit.impl.blob.BlobFactory;
 import edu.mit.streamjit.impl.blob.Buffer;
-import edu.mit.streamjit.impl.blob.ConcurrentArrayBuffer;
+import edu.mit.streamjit.impl.blob.Buffers;
 import edu.mit.streamjit.impl.blob.Blob.Token;
 import edu.mit.streamjit.impl.blob.DrainData;
+import edu.mit.streamjit.impl.common.AbstractDrainer;
 import edu.mit.streamjit.impl.common.BlobThread;
+import edu.mit.streamjit.impl.common.Configuration;
 import edu.mit.streamjit.impl.common.Workers;
 import edu.mit.streamjit.impl.distributed.common.BoundaryChannel;
 import edu.mit.streamjit.impl.distributed.common.BoundaryChannel.BoundaryInputChannel;
@@ -54,6 +64,7 @@ import edu.mit.streamjit.impl.distributed.common.SNMessageElement;
 import edu.mit.streamjit.impl.distributed.common.TCPConnection.TCPConnectionInfo;
 import edu.mit.streamjit.impl.distributed.common.TCPConnection.TCPConnectionProvider;
 import edu.mit.streamjit.impl.distributed.common.Utils;
+import edu.mit.streamjit.impl.interp.Interpreter;
 
 /**
  * {@link BlobsManagerImpl} responsible to run all {@link Blob}s those are
@@ -75,7 +86,18 @@ public class BlobsManagerImpl implements BlobsManager {
 
 	private final ImmutableMap<Token, Buffer> bufferMap;
 
+	/**
+	 * @param blobSet
+	 * @param blobConfigs
+	 *            the configuration the blobs were compiled with, or null if
+	 *            they are interpreted. Needed for
+	 *            {@link #reconfigure(Configuration, BlobFactory, Function)}.
+	 * @param conInfoMap
+	 * @param streamNode
+	 * @param conProvider
+	 */
 	public BlobsManagerImpl(ImmutableSet<Blob> blobSet,
+			Configuration blobConfigs,
 			Map<Token, TCPConnectionInfo> conInfoMap, StreamNode streamNode,
 			TCPConnectionProvider conProvider) {
 		this.conInfoMap = conInfoMap;
@@ -98,8 +120,8 @@ public class BlobsManagerImpl implements BlobsManager {
 					Sets.difference(b.getInputs(), locaTokens), bufferMap);
 			ImmutableMap<Token, BoundaryOutputChannel> outputChannels = createOutputChannels(
 					Sets.difference(b.getOutputs(), locaTokens), bufferMap);
-			blobExecuters
-					.add(new BlobExecuter(b, inputChannels, outputChannels));
+			blobExecuters.add(new BlobExecuter(b, blobConfigs, inputChannels,
+					outputChannels));
 		}
 	}
 
@@ -121,6 +143,86 @@ public class BlobsManagerImpl implements BlobsManager {
 			be.stop();
 	}
 
+	/**
+	 * Incrementally reconfigures the running blobs to blobConfigs. Only the
+	 * blobs whose parameters differ between their current configuration and
+	 * blobConfigs are replaced: each is drained, recompiled from its own
+	 * drain data and restarted on the same buffers. Boundary channels and
+	 * unaffected blobs keep running throughout.
+	 * <p>
+	 * A blob only finishes draining once its inputs stop growing. Its
+	 * boundary input channels are paused, but a blob fed by another blob on
+	 * this node keeps receiving items until that blob stops too. So the local
+	 * upstream blobs of each affected blob are drained first, in topological
+	 * order as {@link AbstractDrainer} does, and are recompiled with their
+	 * unchanged configuration.
+	 * </p>
+	 * <p>
+	 * Only valid if the partitioning is unchanged. If a blob fails to compile
+	 * with blobConfigs, or needs larger buffers than the existing ones, it is
+	 * recompiled with its previous configuration instead (or, failing that,
+	 * interpreted), so the app keeps running either way.
+	 * </p>
+	 * 
+	 * @param blobConfigs
+	 *            new blob configuration.
+	 * @param bf
+	 *            {@link BlobFactory} to compile the replaced blobs.
+	 * @param workerMaker
+	 *            makes fresh {@link Worker} instances for the given worker
+	 *            identifiers.
+	 * @return true iff all affected blobs were compiled with blobConfigs.
+	 *         False without replacing any blob if some blob is interpreted.
+	 */
+	public boolean reconfigure(Configuration blobConfigs, BlobFactory bf,
+			Function<Set<Integer>, ImmutableSet<Worker<?, ?>>> workerMaker) {
+		// Check every blob before replacing any, so a rejected
+		// reconfiguration never leaves the node half-reconfigured.
+		for (BlobExecuter be : blobExecuters)
+			if (be.config == null)
+				return false;
+
+		Set<BlobExecuter> affected = new HashSet<>();
+		for (BlobExecuter be : blobExecuters)
+			if (be.isAffectedBy(blobConfigs, bf))
+				affected.add(be);
+		if (affected.isEmpty())
+			return true;
+
+		List<BlobExecuter> toReplace = upstreamFirst(affected);
+		for (BlobExecuter be : toReplace)
+			be.drainForReplacement();
+		boolean applied = true;
+		for (BlobExecuter be : toReplace)
+			applied &= be.rebuild(affected.contains(be) ? blobConfigs
+					: be.config, bf, workerMaker);
+		return applied;
+	}
+
+	/**
+	 * Returns the given blobs and all blobs on this node upstream of them,
+	 * ordered so that every blob comes after the blobs feeding it.
+	 */
+	private List<BlobExecuter> upstreamFirst(Set<BlobExecuter> blobs) {
+		List<BlobExecuter> order = new ArrayList<>();
+		Set<BlobExecuter> visited = new HashSet<>();
+		for (BlobExecuter be : blobs)
+			visitUpstreamFirst(be, visited, order);
+		return order;
+	}
+
+	private void visitUpstreamFirst(BlobExecuter be,
+			Set<BlobExecuter> visited, List<BlobExecuter> order) {
+		if (!visited.add(be))
+			return;
+		for (BlobExecuter up : blobExecuters)
+			if (up != be
+					&& !Collections.disjoint(up.blob.getOutputs(),
+							be.blob.getInputs()))
+				visitUpstreamFirst(up, visited, order);
+		order.add(be);
+	}
+
 	// TODO: Buffer sizes, including head and tail buffers, must be optimized.
 	// consider adding some tuning factor
 	private ImmutableMap<Token, Buffer> createBufferMap(Set<Blob> blobSet) {
@@ -129,16 +231,19 @@ public class BlobsManagerImpl implements BlobsManager {
 
 		Map<Token, Integer> minInputBufCapaciy = new HashMap<>();
 		Map<Token, Integer> minOutputBufCapaciy = new HashMap<>();
+		Map<Token, Class<?>> bufferTypes = new HashMap<>();
 
 		for (Blob b : blobSet) {
 			Set<Blob.Token> inputs = b.getInputs();
 			for (Token t : inputs) {
 				minInputBufCapaciy.put(t, b.getMinimumBufferCapacity(t));
+				addBufferType(t, b.getBufferType(t), bufferTypes);
 			}
 
 			Set<Blob.Token> outputs = b.getOutputs();
 			for (Token t : outputs) {
 				minOutputBufCapaciy.put(t, b.getMinimumBufferCapacity(t));
+				addBufferType(t, b.getBufferType(t), bufferTypes);
 			}
 		}
 
@@ -152,17 +257,17 @@ public class BlobsManagerImpl implements BlobsManager {
 		for (Token t : localTokens) {
 			int bufSize = lcm(minInputBufCapaciy.get(t),
 					minOutputBufCapaciy.get(t));
-			addBuffer(t, bufSize, bufferMapBuilder);
+			addBuffer(t, bufSize, bufferTypes.get(t), bufferMapBuilder);
 		}
 
 		for (Token t : globalInputTokens) {
 			int bufSize = minInputBufCapaciy.get(t);
-			addBuffer(t, bufSize, bufferMapBuilder);
+			addBuffer(t, bufSize, bufferTypes.get(t), bufferMapBuilder);
 		}
 
 		for (Token t : globalOutputTokens) {
 			int bufSize = minOutputBufCapaciy.get(t);
-			addBuffer(t, bufSize, bufferMapBuilder);
+			addBuffer(t, bufSize, bufferTypes.get(t), bufferMapBuilder);
 		}
 		return bufferMapBuilder.build();
 	}
@@ -172,13 +277,28 @@ public class BlobsManagerImpl implements BlobsManager {
 	 * 
 	 * @param t
 	 * @param minSize
+	 * @param type
+	 *            the type of data items on the edge, or null if unknown. A
+	 *            primitive-specialized buffer is created for wrapper types.
 	 * @param bufferMapBuilder
 	 */
-	private void addBuffer(Token t, int minSize,
+	private void addBuffer(Token t, int minSize, Class<?> type,
 			ImmutableMap.Builder<Token, Buffer> bufferMapBuilder) {
 		// TODO: Just to increase the performance. Change it later
 		int bufSize = Math.max(1000, minSize);
-		bufferMapBuilder.put(t, new ConcurrentArrayBuffer(bufSize));
+		bufferMapBuilder.put(t, Buffers.concurrentBuffer(
+				type != null ? type : Object.class, bufSize));
+	}
+
+	/**
+	 * Records the type a blob reported for an edge. Only specific (non-Object)
+	 * types are recorded, so a blob that doesn't know the type of an edge
+	 * doesn't override the type reported by the blob on the other end.
+	 */
+	private void addBufferType(Token t, Class<?> type,
+			Map<Token, Class<?>> bufferTypes) {
+		if (!type.equals(Object.class))
+			bufferTypes.put(t, type);
 	}
 
 	private int gcd(int a, int b) {
@@ -242,9 +362,15 @@ public class BlobsManagerImpl implements BlobsManager {
 		private volatile int drainState;
 		private final Token blobID;
 
-		private final Blob blob;
+		private Blob blob;
 		private Set<BlobThread> blobThreads;
 
+		/**
+		 * The configuration {@link #blob} was compiled with, or null if it is
+		 * interpreted.
+		 */
+		private Configuration config;
+
 		private final ImmutableMap<Token, BoundaryInputChannel> inputChannels;
 		private final ImmutableMap<Token, BoundaryOutputChannel> outputChannels;
 
@@ -253,11 +379,12 @@ public class BlobsManagerImpl implements BlobsManager {
 
 		private boolean reqDrainData;
 
-		private BlobExecuter(Blob blob,
+		private BlobExecuter(Blob blob, Configuration config,
 				ImmutableMap<Token, BoundaryInputChannel> inputChannels,
 				ImmutableMap<Token, BoundaryOutputChannel> outputChannels) {
 			this.blob = blob;
-			this.blobThreads = new HashSet<>();
+			this.config = config;
+			this.blobThreads = createBlobThreads(blob);
 			assert blob.getInputs().containsAll(inputChannels.keySet());
 			assert blob.getOutputs().containsAll(outputChannels.keySet());
 			this.inputChannels = inputChannels;
@@ -265,6 +392,12 @@ public class BlobsManagerImpl implements BlobsManager {
 			inputChannelThreads = new HashSet<>(inputChannels.values().size());
 			outputChannelThreads = new HashSet<>(outputChannels.values().size());
 
+			drainState = 0;
+			this.blobID = Utils.getBlobID(blob);
+		}
+
+		private Set<BlobThread> createBlobThreads(Blob blob) {
+			Set<BlobThread> blobThreads = new HashSet<>();
 			for (int i = 0; i < blob.getCoreCount(); i++) {
 				StringBuilder sb = new StringBuilder("Workers-");
 				for (Worker<?, ?> w : blob.getWorkers()) {
@@ -274,9 +407,121 @@ public class BlobsManagerImpl implements BlobsManager {
 				blobThreads.add(new BlobThread(blob.getCoreCode(i), sb
 						.toString()));
 			}
+			return blobThreads;
+		}
 
-			drainState = 0;
-			this.blobID = Utils.getBlobID(blob);
+		/**
+		 * @return true iff any parameter that {@link #blob}'s
+		 *         {@link BlobFactory} defines for its workers differs between
+		 *         {@link #config} and newConfig.
+		 */
+		private boolean isAffectedBy(Configuration newConfig, BlobFactory bf) {
+			Configuration defaultCfg = bf.getDefaultConfiguration(blob
+					.getWorkers());
+			for (String name : defaultCfg.getParametersMap().keySet())
+				if (!Objects.equals(config.getParameter(name),
+						newConfig.getParameter(name)))
+					return true;
+			return false;
+		}
+
+		/**
+		 * Pauses {@link #blob}'s boundary input channels and drains it while
+		 * its boundary output channels keep running. Blobs on this node that
+		 * feed this one must already be drained, or the drain never finishes.
+		 * Call {@link #rebuild(Configuration, BlobFactory, Function)} next.
+		 */
+		private void drainForReplacement() {
+			// Keep the input buffers bounded so the drain terminates.
+			for (BoundaryInputChannel bc : inputChannels.values())
+				bc.pause();
+
+			final CountDownLatch drainLatch = new CountDownLatch(1);
+			blob.drain(new Runnable() {
+				@Override
+				public void run() {
+					drainLatch.countDown();
+				}
+			});
+			Uninterruptibles.awaitUninterruptibly(drainLatch);
+			for (BlobThread bt : blobThreads)
+				bt.requestStop();
+			for (BlobThread bt : blobThreads)
+				Uninterruptibles.joinUninterruptibly(bt);
+		}
+
+		/**
+		 * Replaces the drained {@link #blob} by a blob compiled with newConfig
+		 * from its drain data, and restarts it on the same buffers. Data items
+		 * left in the buffers are read by the new blob after the drain data,
+		 * so stream order is preserved. If newConfig doesn't compile or
+		 * doesn't fit the buffers, falls back to the previous configuration,
+		 * and if that fails too, to the interpreter.
+		 * 
+		 * @return true iff the new blob was compiled with newConfig.
+		 */
+		private boolean rebuild(Configuration newConfig, BlobFactory bf,
+				Function<Set<Integer>, ImmutableSet<Worker<?, ?>>> workerMaker) {
+			DrainData drainData = blob.getDrainData();
+			Set<Integer> workerIds = new HashSet<>();
+			for (Worker<?, ?> w : blob.getWorkers())
+				workerIds.add(Workers.getIdentifier(w));
+
+			Configuration newBlobConfig = newConfig;
+			Blob newBlob = tryMakeBlob(bf, workerMaker.apply(workerIds),
+					newConfig, drainData);
+			if (newBlob == null && newConfig != config) {
+				newBlobConfig = config;
+				newBlob = tryMakeBlob(bf, workerMaker.apply(workerIds),
+						config, drainData);
+			}
+			if (newBlob == null) {
+				BlobFactory interp = new Interpreter.InterpreterBlobFactory();
+				ImmutableSet<Worker<?, ?>> workers = workerMaker
+						.apply(workerIds);
+				newBlobConfig = null;
+				newBlob = interp.makeBlob(workers,
+						interp.getDefaultConfiguration(workers), 1, drainData);
+			}
+
+			boolean applied = newBlobConfig == newConfig;
+			config = newBlobConfig;
+			newBlob.installBuffers(bufferMap);
+			blob = newBlob;
+			blobThreads = createBlobThreads(newBlob);
+			for (Thread t : blobThreads)
+				t.start();
+
+			for (BoundaryInputChannel bc : inputChannels.values())
+				bc.resume();
+			return applied;
+		}
+
+		/**
+		 * @return a blob compiled with cfg that fits the existing buffers, or
+		 *         null.
+		 */
+		private Blob tryMakeBlob(BlobFactory bf,
+				ImmutableSet<Worker<?, ?>> workers, Configuration cfg,
+				DrainData drainData) {
+			try {
+				Blob newBlob = bf.makeBlob(workers, cfg, 1, drainData);
+				if (fitsBuffers(newBlob))
+					return newBlob;
+				System.err.println(blobID + " needs larger buffers than "
+						+ "the running ones.");
+			} catch (RuntimeException ex) {
+				ex.printStackTrace();
+			}
+			return null;
+		}
+
+		private boolean fitsBuffers(Blob newBlob) {
+			for (Token t : Sets.union(newBlob.getInputs(), newBlob.getOutputs()))
+				if (bufferMap.get(t).capacity() < newBlob
+						.getMinimumBufferCapacity(t))
+					return false;
+			return true;
 		}
 
 		private void start() {
@@ -33,6 +33,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import com.google.common.base.Function;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableSet;
 
@@ -46,6 +47,7 @@ import edu.mit.streamjit.impl.common.Configuration;
 import edu.mit.streamjit.impl.common.Configuration.PartitionParameter;
 import edu.mit.streamjit.impl.common.Configuration.PartitionParameter.BlobSpecifier;
 import edu.mit.streamjit.impl.common.ConnectWorkersVisitor;
+import edu.mit.streamjit.impl.common.Workers;
 import edu.mit.streamjit.impl.compiler2.Compiler2BlobFactory;
 import edu.mit.streamjit.impl.distributed.common.AppStatus;
 import edu.mit.streamjit.impl.distributed.common.ConfigurationString.ConfigurationStringProcessor;
@@ -89,6 +91,16 @@ public class CfgStringProcessorImpl implements ConfigurationStringProcessor {
 			} else
 				System.err
 						.println("New static configuration received...But Ignored...");
+		} else if (type == ConfigType.INCREMENTAL) {
+			Configuration cfg = Jsonifiers.fromJson(json, Configuration.class);
+			AppStatus status = reconfigureIncrementally(cfg)
+					? AppStatus.COMPILED
+					: AppStatus.COMPILATION_ERROR;
+			try {
+				streamNode.controllerConnection.writeObject(status);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		} else {
 			System.out.println("%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%");
 			System.out.println("New Configuration.....");
@@ -105,8 +117,9 @@ public class CfgStringProcessorImpl implements ConfigurationStringProcessor {
 				Map<Token, TCPConnectionInfo> conInfoMap = (Map<Token, TCPConnectionInfo>) cfg
 						.getExtraData(GlobalConstants.CONINFOMAP);
 
-				streamNode.setBlobsManager(new BlobsManagerImpl(blobSet,
-						conInfoMap, streamNode, conProvider));
+				streamNode.setBlobsManager(new BlobsManagerImpl(blobSet, cfg
+						.getSubconfiguration("blobConfigs"), conInfoMap,
+						streamNode, conProvider));
 			} else {
 				try {
 					streamNode.controllerConnection
@@ -180,6 +193,54 @@ public class CfgStringProcessorImpl implements ConfigurationStringProcessor {
 			return null;
 	}
 
+	/**
+	 * Applies a new configuration, whose partitioning is the same as the
+	 * running one, to the running blobs without draining the app. See
+	 * {@link BlobsManagerImpl#reconfigure(Configuration, BlobFactory, Function)}
+	 * .
+	 * 
+	 * @param dyncfg
+	 * @return true iff all affected blobs are running with the new
+	 *         configuration.
+	 */
+	private boolean reconfigureIncrementally(Configuration dyncfg) {
+		BlobsManager manager = streamNode.getBlobsManager();
+		Configuration blobConfigs = dyncfg.getSubconfiguration("blobConfigs");
+		if (!(manager instanceof BlobsManagerImpl) || blobConfigs == null) {
+			System.err
+					.println("Incremental reconfiguration is only supported for compiled blobs.");
+			return false;
+		}
+
+		final String topLevelWorkerName = (String) staticConfig
+				.getExtraData(GlobalConstants.TOPLEVEL_WORKER_NAME);
+		final String jarFilePath = (String) staticConfig
+				.getExtraData(GlobalConstants.JARFILE_PATH);
+
+		Function<Set<Integer>, ImmutableSet<Worker<?, ?>>> workerMaker = new Function<Set<Integer>, ImmutableSet<Worker<?, ?>>>() {
+			@Override
+			public ImmutableSet<Worker<?, ?>> apply(Set<Integer> workerIds) {
+				OneToOneElement<?, ?> streamGraph = getStreamGraph(
+						jarFilePath, topLevelWorkerName);
+				if (streamGraph == null)
+					throw new IllegalStateException(
+							"Couldn't load the stream graph");
+				ConnectWorkersVisitor primitiveConnector = new ConnectWorkersVisitor();
+				streamGraph.visit(primitiveConnector);
+				ImmutableSet.Builder<Worker<?, ?>> workers = ImmutableSet
+						.builder();
+				for (Worker<?, ?> w : Workers
+						.getAllWorkersInGraph(primitiveConnector.getSource()))
+					if (workerIds.contains(Workers.getIdentifier(w)))
+						workers.add(w);
+				return workers.build();
+			}
+		};
+
+		return ((BlobsManagerImpl) manager).reconfigure(blobConfigs,
+				new Compiler2BlobFactory(), workerMaker);
+	}
+
 	/**
 	 * Gets a Stream Graph from a jar file.
 	 * 
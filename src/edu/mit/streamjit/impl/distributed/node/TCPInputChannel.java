@@ -24,24 +24,28 @@ package edu.mit.streamjit.impl.distributed.node;
 import java.io.EOFException;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.OptionalDataException;
+import java.lang.reflect.Array;
 import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Queue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.collect.ImmutableList;
 
 import edu.mit.streamjit.impl.blob.AbstractBuffer;
 import edu.mit.streamjit.impl.blob.Buffer;
+import edu.mit.streamjit.impl.blob.Buffers;
+import edu.mit.streamjit.impl.distributed.common.BinaryTCPConnection;
 import edu.mit.streamjit.impl.distributed.common.BoundaryChannel.BoundaryInputChannel;
-import edu.mit.streamjit.impl.distributed.common.Connection;
 import edu.mit.streamjit.impl.distributed.common.TCPConnection.TCPConnectionInfo;
 import edu.mit.streamjit.impl.distributed.common.TCPConnection.TCPConnectionProvider;
+import edu.mit.streamjit.util.Backoff;
 
 /**
- * This is {@link BoundaryInputChannel} over TCP. Receive objects from TCP
- * connection and write them into the given {@link Buffer}.
+ * This is {@link BoundaryInputChannel} over TCP. Receive batches of objects
+ * from a {@link BinaryTCPConnection} and write them into the given
+ * {@link Buffer}.
  * <p>
  * Note: TCPInputChannel acts as client when making TCP connection.
  * </p>
@@ -55,6 +59,13 @@ import edu.mit.streamjit.impl.distributed.common.TCPConnection.TCPConnectionProv
  */
 public class TCPInputChannel implements BoundaryInputChannel {
 
+	/**
+	 * Once stopping, if the buffer stays full without any progress for this
+	 * long, the remaining data goes to the extra buffer.
+	 */
+	private static final long EXTRA_BUFFER_DELAY_NANOS = TimeUnit.MILLISECONDS
+			.toNanos(500);
+
 	private final FileWriter writer;
 
 	private final int debugPrint;
@@ -67,16 +78,23 @@ public class TCPInputChannel implements BoundaryInputChannel {
 
 	private final TCPConnectionInfo conInfo;
 
-	private Connection tcpConnection;
+	private BinaryTCPConnection tcpConnection;
 
 	private final AtomicInteger stopType;
 
+	/**
+	 * Idles the receiving thread while the buffer is full.
+	 */
+	private final Backoff backoff;
+
 	private final String name;
 
 	private boolean softClosed;
 
 	private boolean isClosed;
 
+	private volatile boolean paused;
+
 	int count;
 
 	private ImmutableList<Object> unProcessedData;
@@ -93,6 +111,7 @@ public class TCPInputChannel implements BoundaryInputChannel {
 		this.unProcessedData = null;
 		this.isClosed = false;
 		this.stopType = new AtomicInteger(0);
+		this.backoff = new Backoff(1, TimeUnit.MILLISECONDS);
 		count = 0;
 
 		FileWriter w = null;
@@ -163,58 +182,66 @@ public class TCPInputChannel implements BoundaryInputChannel {
 
 	@Override
 	public void receiveData() {
-		int bufFullCount = 0;
 		try {
-			Object obj = tcpConnection.readObject();
-			count++;
-
-			if (debugPrint == 3) {
-				System.out.println(Thread.currentThread().getName() + " - "
-						+ obj.toString());
+			Object batch = tcpConnection.readArray();
+			if (batch == null) {
+				softClosed = true;
+				return;
 			}
-
-			if (writer != null) {
-				writer.write(obj.toString());
-				writer.write('\n');
+			int length = Array.getLength(batch);
+			count += length;
+			debugWrite(batch, length, " - ", 3);
+
+			if (paused) {
+				while (paused && stopType.get() == 0)
+					backoff.idle();
+				backoff.reset();
 			}
 
-			while (!this.buffer.write(obj)) {
+			int written = Buffers.write(buffer, batch, 0, length);
+			if (written < length) {
 				if (debugPrint == 3) {
 					System.out.println(Thread.currentThread().getName()
-							+ " Buffer FULL - " + obj.toString());
+							+ " Buffer FULL - "
+							+ Array.get(batch, written).toString());
 				}
 				if (writer != null) {
 					writer.write("receiveData:Buffer FULL");
 					writer.write('\n');
 				}
-				try {
-					// TODO: Need to tune the sleep time.
-					Thread.sleep(100);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-				if (stopType.get() > 1 && ++bufFullCount > 5) {
-					this.extraBuffer = new ExtraBuffer();
-					extraBuffer.write(obj);
-					System.err
-							.println("@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@");
-					System.err
-							.println(name
-									+ " receiveData:Writing extra data in to extra buffer");
-					System.err
-							.println("@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@");
-					break;
+				long fullSince = System.nanoTime();
+				while (written < length) {
+					backoff.idle();
+					int n = Buffers.write(buffer, batch, written, length
+							- written);
+					if (n > 0) {
+						written += n;
+						fullSince = System.nanoTime();
+						backoff.reset();
+					} else if (stopType.get() > 1
+							&& System.nanoTime() - fullSince > EXTRA_BUFFER_DELAY_NANOS) {
+						this.extraBuffer = new ExtraBuffer();
+						Buffers.write(extraBuffer, batch, written, length
+								- written);
+						System.err
+								.println("@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@");
+						System.err
+								.println(name
+										+ " receiveData:Writing extra data in to extra buffer");
+						System.err
+								.println("@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@");
+						break;
+					}
 				}
+				backoff.reset();
 			}
 
-			if (count % 1000 == 0 && debugPrint == 2) {
+			if (debugPrint == 2 && (count - length) / 1000 != count / 1000) {
 				System.out.println(Thread.currentThread().getName() + " - "
 						+ count + " no of items have been received");
 			}
 		} catch (ClassNotFoundException e) {
 			e.printStackTrace();
-		} catch (OptionalDataException e) {
-			softClosed = true;
 		} catch (EOFException e) {
 			// Other side is closed.
 			System.out
@@ -239,65 +266,65 @@ public class TCPInputChannel implements BoundaryInputChannel {
 	private void finalReceive() {
 		assert stopType.get() == 1 || stopType.get() == 2 : "Illegal stopType state";
 		boolean hasData;
-		int bufFullCount;
 		Buffer buffer;
 		if (this.extraBuffer == null)
 			buffer = this.buffer;
 		else
 			buffer = this.extraBuffer;
 		do {
-			bufFullCount = 0;
 			try {
-				Object obj = tcpConnection.readObject();
-				count++;
-
-				if (debugPrint == 2) {
-					System.out.println(Thread.currentThread().getName()
-							+ " finalReceive - " + obj.toString());
-				}
-
-				if (writer != null) {
-					writer.write(obj.toString());
-					writer.write('\n');
+				Object batch = tcpConnection.readArray();
+				if (batch == null) {
+					softClosed = true;
+					hasData = false;
+					continue;
 				}
+				int length = Array.getLength(batch);
+				count += length;
+				debugWrite(batch, length, " finalReceive - ", 2);
 
 				hasData = true;
 
-				while (!buffer.write(obj)) {
+				int written = Buffers.write(buffer, batch, 0, length);
+				if (written < length) {
 					if (debugPrint == 3) {
 						System.out.println(Thread.currentThread().getName()
 								+ " finalReceive:Buffer FULL - "
-								+ obj.toString());
+								+ Array.get(batch, written).toString());
 					}
 
 					if (writer != null) {
 						writer.write("finalReceive:Buffer FULL");
 						writer.write('\n');
 					}
-
-					try {
-						Thread.sleep(100);
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-
-					if (stopType.get() == 2 && ++bufFullCount > 5) {
-						assert buffer != this.extraBuffer : "ExtraBuffer is full. This shouldn't be the case.";
-						assert this.extraBuffer == null : "Extra buffer has already been created.";
-						this.extraBuffer = new ExtraBuffer();
-						extraBuffer.write(obj);
-						buffer = extraBuffer;
-						System.err
-								.println("@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@");
-						System.err
-								.println(name
-										+ " finalReceive:Writing extra data in to extra buffer");
-						System.err
-								.println("@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@");
+					long fullSince = System.nanoTime();
+					while (written < length) {
+						backoff.idle();
+						int n = Buffers.write(buffer, batch, written, length
+								- written);
+						if (n > 0) {
+							written += n;
+							fullSince = System.nanoTime();
+							backoff.reset();
+						} else if (stopType.get() == 2
+								&& System.nanoTime() - fullSince > EXTRA_BUFFER_DELAY_NANOS) {
+							assert buffer != this.extraBuffer : "ExtraBuffer is full. This shouldn't be the case.";
+							assert this.extraBuffer == null : "Extra buffer has already been created.";
+							this.extraBuffer = new ExtraBuffer();
+							buffer = extraBuffer;
+							System.err
+									.println("@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@");
+							System.err
+									.println(name
+											+ " finalReceive:Writing extra data in to extra buffer");
+							System.err
+									.println("@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@");
+						}
 					}
+					backoff.reset();
 				}
 
-				if (count % 1000 == 0 && debugPrint == 2) {
+				if (debugPrint == 2 && (count - length) / 1000 != count / 1000) {
 					System.out.println(Thread.currentThread().getName() + " - "
 							+ count + " no of items have been received");
 				}
@@ -305,9 +332,6 @@ public class TCPInputChannel implements BoundaryInputChannel {
 			} catch (ClassNotFoundException e) {
 				hasData = true;
 				e.printStackTrace();
-			} catch (OptionalDataException e) {
-				softClosed = true;
-				hasData = false;
 			} catch (IOException e) {
 				System.out
 						.println("finalReceive:Closing by IOException. Not by softClose.");
@@ -325,14 +349,12 @@ public class TCPInputChannel implements BoundaryInputChannel {
 		boolean hasData;
 		do {
 			try {
-				Object obj = tcpConnection.readObject();
-				hasData = true;
+				hasData = tcpConnection.readArray() != null;
+				if (!hasData)
+					softClosed = true;
 			} catch (ClassNotFoundException e) {
 				hasData = true;
 				e.printStackTrace();
-			} catch (OptionalDataException e) {
-				softClosed = true;
-				hasData = false;
 			} catch (IOException e) {
 				System.out
 						.println("finalReceive:Closing by IOException. Not by softClose.");
@@ -341,6 +363,35 @@ public class TCPInputChannel implements BoundaryInputChannel {
 		} while (hasData);
 	}
 
+	/**
+	 * Logs the first length items of the received batch, and prints them too
+	 * if debugPrint is printLevel.
+	 */
+	private void debugWrite(Object batch, int length, String prefix,
+			int printLevel) throws IOException {
+		if (debugPrint != printLevel && writer == null)
+			return;
+		for (int i = 0; i < length; i++) {
+			Object obj = Array.get(batch, i);
+			if (debugPrint == printLevel) {
+				System.out.println(Thread.currentThread().getName() + prefix
+						+ obj.toString());
+			}
+
+			if (writer != null) {
+				writer.write(obj.toString());
+				writer.write('\n');
+			}
+		}
+	}
+
+	/**
+	 * @return the number of items received so far.
+	 */
+	protected final int getReceivedCount() {
+		return count;
+	}
+
 	private void reConnect() {
 		while (stopType.get() == 0) {
 			try {
@@ -379,6 +430,16 @@ public class TCPInputChannel implements BoundaryInputChannel {
 		return extraBuffer;
 	}
 
+	@Override
+	public void pause() {
+		this.paused = true;
+	}
+
+	@Override
+	public void resume() {
+		this.paused = false;
+	}
+
 	/**
 	 * Another buffer implementation. Not thread safe.
 	 * 
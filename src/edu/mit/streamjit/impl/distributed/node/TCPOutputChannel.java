@@ -23,20 +23,32 @@ package edu.mit.streamjit.impl.distributed.node;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.reflect.Array;
 import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.common.collect.ImmutableList;
 
 import edu.mit.streamjit.impl.blob.Buffer;
+import edu.mit.streamjit.impl.blob.Buffers;
+import edu.mit.streamjit.impl.blob.ByteBuffer;
+import edu.mit.streamjit.impl.blob.CharBuffer;
+import edu.mit.streamjit.impl.blob.DoubleBuffer;
+import edu.mit.streamjit.impl.blob.FloatBuffer;
+import edu.mit.streamjit.impl.blob.IntBuffer;
+import edu.mit.streamjit.impl.blob.LongBuffer;
+import edu.mit.streamjit.impl.blob.ShortBuffer;
+import edu.mit.streamjit.impl.distributed.common.BinaryTCPConnection;
 import edu.mit.streamjit.impl.distributed.common.BoundaryChannel.BoundaryOutputChannel;
-import edu.mit.streamjit.impl.distributed.common.Connection;
 import edu.mit.streamjit.impl.distributed.common.TCPConnection.TCPConnectionInfo;
 import edu.mit.streamjit.impl.distributed.common.TCPConnection.TCPConnectionProvider;
+import edu.mit.streamjit.util.Backoff;
 
 /**
  * This is {@link BoundaryOutputChannel} over TCP. Reads data from the given
- * {@link Buffer} and send them over the TCP connection.
+ * {@link Buffer} in batches and send them over the TCP connection as
+ * {@link BinaryTCPConnection} frames.
  * <p>
  * Note: TCPOutputChannel acts as server when making TCP connection.
  * </p>
@@ -48,6 +60,11 @@ import edu.mit.streamjit.impl.distributed.common.TCPConnection.TCPConnectionProv
  */
 public class TCPOutputChannel implements BoundaryOutputChannel {
 
+	/**
+	 * Maximum number of items read from the buffer and sent per write.
+	 */
+	private static final int BATCH_SIZE = 4096;
+
 	FileWriter writer;
 
 	private final int debugPrint;
@@ -58,7 +75,27 @@ public class TCPOutputChannel implements BoundaryOutputChannel {
 
 	private final TCPConnectionInfo conInfo;
 
-	private Connection tcpConnection;
+	private BinaryTCPConnection tcpConnection;
+
+	/**
+	 * Items are read from the buffer into this array before sending. A
+	 * primitive array if the buffer supports unboxed reads.
+	 */
+	private final Object batch;
+
+	/**
+	 * Number of items at the start of {@link #batch} that were read from the
+	 * buffer but not yet sent successfully. A failed write leaves them here so
+	 * they're resent after reconnecting (or returned as unprocessed data)
+	 * rather than lost.
+	 */
+	private int pending;
+
+	/**
+	 * Idles the sending thread while the buffer is empty, so an idle channel
+	 * doesn't burn a core.
+	 */
+	private final Backoff backoff;
 
 	private final AtomicBoolean stopFlag;
 
@@ -80,6 +117,8 @@ public class TCPOutputChannel implements BoundaryOutputChannel {
 		this.name = "TCPOutputChannel - " + bufferTokenName;
 		this.debugPrint = debugPrint;
 		this.unProcessedData = null;
+		this.batch = batchArray(buffer);
+		this.backoff = new Backoff(1, TimeUnit.MILLISECONDS);
 		count = 0;
 
 		FileWriter w = null;
@@ -119,8 +158,13 @@ public class TCPOutputChannel implements BoundaryOutputChannel {
 						e.printStackTrace();
 					}
 				}
-				while (!stopFlag.get())
-					sendData();
+				while (!stopFlag.get()) {
+					if (pending > 0 || buffer.size() > 0) {
+						sendData();
+						backoff.reset();
+					} else
+						backoff.idle();
+				}
 
 				if (isFinal)
 					finalSend();
@@ -152,30 +196,24 @@ public class TCPOutputChannel implements BoundaryOutputChannel {
 	}
 
 	public final void sendData() {
-		while (this.buffer.size() > 0 && !stopFlag.get()) {
+		while ((pending > 0 || this.buffer.size() > 0) && !stopFlag.get()) {
 			try {
-				Object obj = buffer.read();
-				tcpConnection.writeObject(obj);
-				count++;
-
-				if (debugPrint == 3) {
-					System.out.println(Thread.currentThread().getName() + " - "
-							+ obj.toString());
-				}
-
-				if (writer != null) {
-					writer.write(obj.toString());
-					writer.write('\n');
+				if (pending == 0)
+					pending = Buffers.read(buffer, batch, 0, BATCH_SIZE);
+				tcpConnection.writeArray(batch, 0, pending);
+				int read = pending;
+				pending = 0;
+				count += read;
+				debugWrite(read, " - ");
+				if (debugPrint == 2 && (count - read) / 1000 != count / 1000) {
+					System.out.println(Thread.currentThread().getName()
+							+ " - " + count + " items have been sent");
 				}
 			} catch (IOException e) {
 				System.err
 						.println("TCP Output Channel. WriteObject exception.");
 				reConnect();
 			}
-			if (count % 1000 == 0 && debugPrint == 2) {
-				System.out.println(Thread.currentThread().getName() + " - "
-						+ count + " items have been sent");
-			}
 		}
 	}
 
@@ -198,33 +236,68 @@ public class TCPOutputChannel implements BoundaryOutputChannel {
 	 * configurations. Shouldn't be called when autotuner tunes.
 	 */
 	private void finalSend() {
-		while (this.buffer.size() > 0) {
+		while (pending > 0 || this.buffer.size() > 0) {
 			try {
-				Object o = buffer.read();
-				tcpConnection.writeObject(o);
-				count++;
-
-				if (debugPrint == 3) {
+				if (pending == 0)
+					pending = Buffers.read(buffer, batch, 0, BATCH_SIZE);
+				tcpConnection.writeArray(batch, 0, pending);
+				int read = pending;
+				pending = 0;
+				count += read;
+				debugWrite(read, " FinalSend - ");
+				if (debugPrint == 2 && (count - read) / 1000 != count / 1000) {
 					System.out.println(Thread.currentThread().getName()
-							+ " FinalSend - " + o.toString());
-				}
-
-				if (writer != null) {
-					writer.write(o.toString());
-					writer.write('\n');
+							+ " FinalSend - " + count
+							+ " no of items have been sent");
 				}
-
 			} catch (IOException e) {
 				System.err.println("TCP Output Channel. finalSend exception.");
+				// The pending batch and the rest of the buffer become
+				// unprocessed data.
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Prints and/or logs the first length items of {@link #batch}, depending
+	 * on debugPrint.
+	 */
+	private void debugWrite(int length, String prefix) throws IOException {
+		if (debugPrint != 3 && writer == null)
+			return;
+		for (int i = 0; i < length; i++) {
+			Object obj = Array.get(batch, i);
+			if (debugPrint == 3) {
+				System.out.println(Thread.currentThread().getName() + prefix
+						+ obj.toString());
 			}
-			if (count % 1000 == 0 && debugPrint == 2) {
-				System.out.println(Thread.currentThread().getName()
-						+ " FinalSend - " + count
-						+ " no of items have been sent");
+
+			if (writer != null) {
+				writer.write(obj.toString());
+				writer.write('\n');
 			}
 		}
 	}
 
+	private static Object batchArray(Buffer buffer) {
+		if (buffer instanceof IntBuffer)
+			return new int[BATCH_SIZE];
+		if (buffer instanceof FloatBuffer)
+			return new float[BATCH_SIZE];
+		if (buffer instanceof DoubleBuffer)
+			return new double[BATCH_SIZE];
+		if (buffer instanceof LongBuffer)
+			return new long[BATCH_SIZE];
+		if (buffer instanceof ByteBuffer)
+			return new byte[BATCH_SIZE];
+		if (buffer instanceof ShortBuffer)
+			return new short[BATCH_SIZE];
+		if (buffer instanceof CharBuffer)
+			return new char[BATCH_SIZE];
+		return new Object[BATCH_SIZE];
+	}
+
 	private void reConnect() {
 		try {
 			this.tcpConnection.closeConnection();
@@ -252,8 +325,13 @@ public class TCPOutputChannel implements BoundaryOutputChannel {
 	// TODO: Huge data copying is happening in this code twice. Need to optimise
 	// this.
 	protected void fillUnprocessedData() {
-		Object[] obArray = new Object[buffer.size()];
-		buffer.readAll(obArray);
+		// Items of a batch whose send failed precede those still in the
+		// buffer.
+		Object[] obArray = new Object[pending + buffer.size()];
+		for (int i = 0; i < pending; i++)
+			obArray[i] = Array.get(batch, i);
+		buffer.readAll(obArray, pending);
+		pending = 0;
 		assert buffer.size() == 0 : String.format(
 				"buffer size is %d. But 0 is expected", buffer.size());
 		this.unProcessedData = ImmutableList.copyOf(obArray);
@@ -26,11 +26,15 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Splitter;
 import com.google.common.base.Stopwatch;
 
+import edu.mit.streamjit.api.Worker;
 import edu.mit.streamjit.impl.blob.DrainData;
 import edu.mit.streamjit.impl.common.AbstractDrainer;
 import edu.mit.streamjit.impl.common.Configuration;
@@ -109,11 +113,23 @@ public class OnlineTuner implements Runnable {
 					saveConfg(config, tryCount);
 
 				try {
+					Map<Integer, List<Set<Worker<?, ?>>>> oldPartition = app.partitionsMachineMap;
 					if (!cfgManager.newConfiguration(config)) {
 						tuner.writeLine("-1");
 						continue;
 					}
 
+					// Same partitioning => no need to drain the whole app.
+					if (GlobalConstants.incrementalReconfiguration
+							&& manager.isRunning()
+							&& app.partitionsMachineMap.equals(oldPartition)) {
+						if (manager.reconfigureIncrementally())
+							reportExecutionTime();
+						else
+							tuner.writeLine("-1");
+						continue;
+					}
+
 					if (manager.isRunning()) {
 						boolean state = drainer.startDraining(0);
 						if (!state) {
@@ -137,19 +153,7 @@ public class OnlineTuner implements Runnable {
 					drainer.setBlobGraph(app.blobGraph);
 					System.err.println("Reconfiguring...");
 					if (manager.reconfigure()) {
-						Stopwatch stopwatch = Stopwatch.createStarted();
-						manager.awaitForFixInput();
-						stopwatch.stop();
-						// TODO: need to check the manager's status before
-						// passing
-						// the time. Exceptions, final drain, etc may causes app
-						// to
-						// stop executing.
-						long time = stopwatch.elapsed(TimeUnit.MILLISECONDS);
-
-						System.out.println("Execution time is " + time
-								+ " milli seconds");
-						tuner.writeLine(new Double(time).toString());
+						reportExecutionTime();
 					} else {
 						tuner.writeLine("-1");
 						continue;
@@ -172,6 +176,22 @@ public class OnlineTuner implements Runnable {
 		}
 	}
 
+	/**
+	 * Measures the time the running app takes to process a fixed number of
+	 * outputs and reports it to the tuner.
+	 *
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	private void reportExecutionTime() throws InterruptedException,
+			IOException {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		manager.awaitForFixInput();
+		stopwatch.stop();
+		long time = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+		tuner.writeLine(new Double(time).toString());
+	}
+
 	/**
 	 * Just excerpted from run() method for better readability.
 	 *
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.tuner;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import edu.mit.streamjit.impl.common.Configuration;
+import edu.mit.streamjit.impl.common.ConnectWorkersVisitor;
+import edu.mit.streamjit.impl.common.Workers;
+import edu.mit.streamjit.impl.compiler2.Compiler2BlobFactory;
+import edu.mit.streamjit.test.Benchmark;
+import edu.mit.streamjit.test.Benchmarker;
+import edu.mit.streamjit.util.affinity.Affinity;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import joptsimple.ArgumentAcceptingOptionSpec;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+/**
+ * Tunes a benchmark's Compiler2 configuration without OpenTuner.  Search
+ * techniques (see {@link SearchTechniques}) work on points in a
+ * {@link SearchSpace} built from the default configuration, selected by a
+ * bandit.  Trials run concurrently, each in its own JVM running
+ * {@link RunApp2}, with the available CPUs partitioned into disjoint slots
+ * so trials don't disturb each other's timings.  Each trial's core threads
+ * are pinned to its slot via the $affinity parameter, and where taskset is
+ * available the whole JVM (including GC and JIT threads) is confined too.
+ */
+public final class JavaTuner {
+	/**
+	 * Matches the line printed by Compiler2's ReportThroughputInstruction:
+	 * steady states, items output, elapsed nanos, nanos per item.
+	 */
+	private static final Pattern THROUGHPUT = Pattern.compile("(\\d+)/(\\d+)/(\\d+)/(\\d+)#");
+	private static final Path TASKSET = Paths.get("/usr/bin/taskset");
+	private final SearchSpace space;
+	private final SearchTechniques.AUCBandit bandit;
+	private final ImmutableList<ImmutableSet<Integer>> slots;
+	private final BlockingQueue<ImmutableSet<Integer>> freeSlots;
+	private final ImmutableList<String> jvmArgs;
+	private final long timeoutMillis;
+	private final Random rng;
+	private final ScheduledExecutorService killer = Executors.newSingleThreadScheduledExecutor();
+	public JavaTuner(Configuration base, List<Configuration> seeds, List<ImmutableSet<Integer>> slots,
+			List<String> jvmArgs, long timeoutMillis, long randomSeed) {
+		this.space = new SearchSpace(base);
+		if (space.dimensions() == 0)
+			throw new IllegalArgumentException("nothing to tune in "+base);
+		List<double[]> seedPoints = new ArrayList<>();
+		for (Configuration c : seeds)
+			seedPoints.add(space.toPoint(c));
+		this.bandit = new SearchTechniques.AUCBandit(ImmutableList.of(
+				new SearchTechniques.Seeds(space, seedPoints),
+				new SearchTechniques.DifferentialEvolution(space, 30),
+				new SearchTechniques.PatternSearch(space),
+				new SearchTechniques.GreedyMutation(space, 0.3, 0.1)
+		));
+		this.slots = ImmutableList.copyOf(slots);
+		this.freeSlots = new ArrayBlockingQueue<>(slots.size(), false, slots);
+		this.jvmArgs = ImmutableList.copyOf(jvmArgs);
+		this.timeoutMillis = timeoutMillis;
+		this.rng = new Random(randomSeed);
+	}
+
+	/**
+	 * Runs the given number of trials, returning the best configuration found
+	 * (or null if every trial failed).
+	 * @param trials the number of trials to run
+	 * @return the best configuration found, or null
+	 */
+	public Configuration tune(int trials) throws InterruptedException, ExecutionException {
+		ExecutorService executor = Executors.newFixedThreadPool(slots.size());
+		CompletionService<Trial> completionService = new ExecutorCompletionService<>(executor);
+		Trial best = null;
+		int submitted = 0, inFlight = 0;
+		try {
+			for (int completed = 0; completed < trials; ++completed) {
+				while (inFlight < slots.size() && submitted < trials) {
+					double[] point = bandit.propose(rng);
+					String technique = point != null ? bandit.proposerOf(point) : "Random";
+					if (point == null)
+						point = space.randomPoint(rng);
+					completionService.submit(new Trial(point, technique));
+					++submitted;
+					++inFlight;
+				}
+				Trial t = completionService.take().get();
+				--inFlight;
+				bandit.report(t.point, t.time);
+				if (t.time < Double.POSITIVE_INFINITY && (best == null || t.time < best.time))
+					best = t;
+				System.out.format("trial %d/%d: %s %s ns/item (best %s)%n", completed+1, trials,
+						t.technique, t.time, best != null ? best.time : Double.POSITIVE_INFINITY);
+			}
+		} finally {
+			executor.shutdownNow();
+			killer.shutdownNow();
+		}
+		return best != null ? best.config : null;
+	}
+
+	private final class Trial implements Callable<Trial> {
+		private final double[] point;
+		private final String technique;
+		private final Configuration config;
+		private double time = Double.POSITIVE_INFINITY;
+		private Trial(double[] point, String technique) {
+			this.point = point;
+			this.technique = technique;
+			this.config = space.toConfiguration(point);
+		}
+		@Override
+		public Trial call() throws InterruptedException {
+			ImmutableSet<Integer> slot = freeSlots.take();
+			try {
+				time = run(config, slot);
+			} catch (IOException ex) {
+				ex.printStackTrace();
+			} finally {
+				freeSlots.put(slot);
+			}
+			return this;
+		}
+	}
+
+	/**
+	 * Runs one trial in a new JVM confined to the given CPUs, returning the
+	 * time per output item in nanoseconds, or Double.POSITIVE_INFINITY if the
+	 * trial failed or timed out.  Files from failed trials are kept for
+	 * diagnosis.
+	 */
+	private double run(Configuration config, Set<Integer> cpus) throws IOException, InterruptedException {
+		Configuration.Builder builder = Configuration.builder(config);
+		builder.removeParameter("$affinity");
+		builder.addParameter(new Configuration.PermutationParameter<>("$affinity", Integer.class, cpus));
+		Path cfgFile = Files.createTempFile("javatuner-", ".cfg");
+		Path stdout = Files.createTempFile("javatuner-", ".out");
+		Path stderr = Files.createTempFile("javatuner-", ".err");
+		Files.write(cfgFile, builder.build().toJson().getBytes(StandardCharsets.UTF_8));
+
+		List<String> command = new ArrayList<>();
+		if (Files.isExecutable(TASKSET)) {
+			command.add(TASKSET.toString());
+			command.add("-c");
+			command.add(Joiner.on(',').join(cpus));
+		}
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.addAll(jvmArgs);
+		command.add(RunApp2.class.getName());
+		command.add("@"+cfgFile);
+		final Process process = new ProcessBuilder(command)
+				.redirectOutput(stdout.toFile())
+				.redirectError(stderr.toFile())
+				.start();
+		ScheduledFuture<?> kill = killer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				process.destroy();
+			}
+		}, timeoutMillis, TimeUnit.MILLISECONDS);
+		try {
+			process.waitFor();
+		} finally {
+			kill.cancel(false);
+			process.destroy();
+		}
+
+		double time = Double.POSITIVE_INFINITY;
+		for (String line : Files.readAllLines(stdout, StandardCharsets.UTF_8)) {
+			Matcher m = THROUGHPUT.matcher(line.trim());
+			if (m.matches())
+				time = Double.parseDouble(m.group(3)) / Double.parseDouble(m.group(2));
+		}
+		if (time < Double.POSITIVE_INFINITY) {
+			Files.delete(cfgFile);
+			Files.delete(stdout);
+			Files.delete(stderr);
+		} else
+			System.err.println("trial failed; see "+cfgFile+", "+stdout+", "+stderr);
+		return time;
+	}
+
+	/**
+	 * Partitions the given CPUs into the given number of disjoint slots of
+	 * (nearly) equal size.  Consecutive CPU numbers go in the same slot.
+	 * @param cpus the CPUs to partition
+	 * @param parts the number of slots (at most the number of CPUs)
+	 * @return the slots
+	 */
+	public static ImmutableList<ImmutableSet<Integer>> partition(Set<Integer> cpus, int parts) {
+		List<Integer> sorted = new ArrayList<>(ImmutableSet.copyOf(cpus));
+		Collections.sort(sorted);
+		parts = Math.max(1, Math.min(parts, sorted.size()));
+		ImmutableList.Builder<ImmutableSet<Integer>> slots = ImmutableList.builder();
+		int begin = 0;
+		for (int i = 0; i < parts; ++i) {
+			int size = sorted.size() / parts + (i < sorted.size() % parts ? 1 : 0);
+			slots.add(ImmutableSet.copyOf(sorted.subList(begin, begin + size)));
+			begin += size;
+		}
+		return slots.build();
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+		OptionParser parser = new OptionParser();
+		ArgumentAcceptingOptionSpec<Integer> trialsOpt = parser.accepts("trials")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(500);
+		ArgumentAcceptingOptionSpec<Integer> parallelismOpt = parser.accepts("parallelism")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(Math.max(1, Affinity.getMaximalAffinity().size() / 4));
+		ArgumentAcceptingOptionSpec<Integer> timeoutOpt = parser.accepts("timeout-seconds")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(120);
+		ArgumentAcceptingOptionSpec<Long> seedOpt = parser.accepts("seed")
+				.withRequiredArg().ofType(Long.class).defaultsTo(System.nanoTime());
+		ArgumentAcceptingOptionSpec<String> jvmArgOpt = parser.accepts("jvm-arg")
+				.withRequiredArg().ofType(String.class);
+		ArgumentAcceptingOptionSpec<String> outputOpt = parser.accepts("output")
+				.withRequiredArg().ofType(String.class);
+		OptionSet options = parser.parse(args);
+		if (options.nonOptionArguments().size() != 1) {
+			System.err.println("usage: JavaTuner [options] benchmark-name");
+			parser.printHelpOn(System.err);
+			System.exit(1);
+		}
+		String benchmarkName = options.nonOptionArguments().get(0).toString();
+
+		Benchmark bm = Benchmarker.getBenchmarkByName(benchmarkName);
+		ConnectWorkersVisitor cwv = new ConnectWorkersVisitor();
+		bm.instantiate().visit(cwv);
+		Configuration defaultConfig = new Compiler2BlobFactory().getDefaultConfiguration(Workers.getAllWorkersInGraph(cwv.getSource()));
+		Configuration base = Configuration.builder(defaultConfig).putExtraData("benchmark", benchmarkName).build();
+
+		//Same seeds as tuner3.py: the default configuration at a few multipliers.
+		List<Configuration> seeds = new ArrayList<>();
+		Configuration.IntParameter multiplier = base.getParameter("multiplier", Configuration.IntParameter.class);
+		for (int m : new int[]{1024, 4096, 128}) {
+			Configuration.Builder builder = Configuration.builder(base);
+			if (multiplier != null && multiplier.getRange().contains(m)) {
+				builder.removeParameter("multiplier");
+				builder.addParameter(new Configuration.IntParameter("multiplier", multiplier.getRange(), m));
+			}
+			seeds.add(builder.build());
+		}
+
+		ImmutableList<ImmutableSet<Integer>> slots = partition(Affinity.getMaximalAffinity(), options.valueOf(parallelismOpt));
+		JavaTuner tuner = new JavaTuner(base, seeds, slots, jvmArgOpt.values(options),
+				TimeUnit.MILLISECONDS.convert(options.valueOf(timeoutOpt), TimeUnit.SECONDS),
+				options.valueOf(seedOpt));
+		System.out.println("tuning "+benchmarkName+" over "+tuner.space+" on slots "+slots);
+		Configuration best = tuner.tune(options.valueOf(trialsOpt));
+		if (best == null) {
+			System.err.println("all trials failed");
+			System.exit(1);
+		}
+		Path output = Paths.get(options.has(outputOpt) ? options.valueOf(outputOpt) : benchmarkName+".cfg");
+		Files.write(output, (best.toJson()+"\n").getBytes(StandardCharsets.UTF_8));
+		System.out.println("wrote best configuration to "+output);
+	}
+}
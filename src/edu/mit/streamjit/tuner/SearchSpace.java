@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.tuner;
+
+import com.google.common.collect.ImmutableList;
+import edu.mit.streamjit.impl.common.Configuration;
+import edu.mit.streamjit.impl.common.Configuration.CompositionParameter;
+import edu.mit.streamjit.impl.common.Configuration.FloatParameter;
+import edu.mit.streamjit.impl.common.Configuration.IntParameter;
+import edu.mit.streamjit.impl.common.Configuration.Parameter;
+import edu.mit.streamjit.impl.common.Configuration.PermutationParameter;
+import edu.mit.streamjit.impl.common.Configuration.SwitchParameter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Maps the tunable parameters of a Configuration to and from points in the
+ * unit hypercube, so search techniques can treat every configuration as a
+ * vector of doubles in [0, 1].
+ *
+ * IntParameters and FloatParameters use one coordinate, scaled linearly (or
+ * logarithmically for int ranges spanning more than three orders of
+ * magnitude, such as the multiplier).  SwitchParameters use one coordinate
+ * divided into equal-sized buckets.  PermutationParameters use one coordinate
+ * per element as random keys: the permutation is the elements sorted by key.
+ * CompositionParameters use one coordinate per slot, normalized to sum to 1.
+ * Parameters with only one possible value, parameters whose names begin with
+ * '$' (reserved for the tuner itself, like $affinity) and parameters of other
+ * types are carried through unchanged.
+ */
+final class SearchSpace {
+	private static final int LOG_SCALE_RATIO = 1024;
+	private final Configuration base;
+	private final ImmutableList<Parameter> tunables;
+	/**
+	 * offsets[i] is the first coordinate of tunables[i]; offsets[size] is the
+	 * total number of dimensions.
+	 */
+	private final int[] offsets;
+	SearchSpace(Configuration base) {
+		this.base = base;
+		ImmutableList.Builder<Parameter> tunablesBuilder = ImmutableList.builder();
+		List<Integer> offsetList = new ArrayList<>();
+		int dims = 0;
+		for (Parameter p : base.getParametersMap().values()) {
+			int width = width(p);
+			if (width == 0) continue;
+			tunablesBuilder.add(p);
+			offsetList.add(dims);
+			dims += width;
+		}
+		offsetList.add(dims);
+		this.tunables = tunablesBuilder.build();
+		this.offsets = new int[offsetList.size()];
+		for (int i = 0; i < offsets.length; ++i)
+			offsets[i] = offsetList.get(i);
+	}
+
+	private static int width(Parameter p) {
+		if (p.getName().startsWith("$"))
+			return 0;
+		if (p instanceof IntParameter)
+			return ((IntParameter)p).getMin() < ((IntParameter)p).getMax() ? 1 : 0;
+		if (p instanceof FloatParameter)
+			return ((FloatParameter)p).getMin() < ((FloatParameter)p).getMax() ? 1 : 0;
+		if (p instanceof SwitchParameter)
+			return ((SwitchParameter<?>)p).getUniverse().size() > 1 ? 1 : 0;
+		if (p instanceof PermutationParameter) {
+			int size = ((PermutationParameter<?>)p).getUniverse().size();
+			return size > 1 ? size : 0;
+		}
+		if (p instanceof CompositionParameter) {
+			int length = ((CompositionParameter)p).getLength();
+			return length > 1 ? length : 0;
+		}
+		return 0;
+	}
+
+	public Configuration base() {
+		return base;
+	}
+
+	public int dimensions() {
+		return offsets[offsets.length-1];
+	}
+
+	public double[] randomPoint(Random rng) {
+		double[] point = new double[dimensions()];
+		for (int i = 0; i < point.length; ++i)
+			point[i] = rng.nextDouble();
+		return point;
+	}
+
+	/**
+	 * Returns the point corresponding to the given configuration, which must
+	 * have the same parameters (but perhaps different values) as the base
+	 * configuration.
+	 * @param config a configuration
+	 * @return the corresponding point
+	 */
+	public double[] toPoint(Configuration config) {
+		double[] point = new double[dimensions()];
+		for (int i = 0; i < tunables.size(); ++i) {
+			Parameter p = config.getParameter(tunables.get(i).getName());
+			int o = offsets[i];
+			if (p instanceof IntParameter) {
+				IntParameter ip = (IntParameter)p;
+				if (logScale(ip))
+					point[o] = Math.log((double)ip.getValue()/ip.getMin()) / Math.log((double)ip.getMax()/ip.getMin());
+				else
+					point[o] = (ip.getValue() - ip.getMin() + 0.5) / (ip.getMax() - ip.getMin() + 1.0);
+			} else if (p instanceof FloatParameter) {
+				FloatParameter fp = (FloatParameter)p;
+				point[o] = (fp.getValue() - fp.getMin()) / (fp.getMax() - fp.getMin());
+			} else if (p instanceof SwitchParameter) {
+				SwitchParameter<?> sp = (SwitchParameter<?>)p;
+				point[o] = (sp.getUniverse().indexOf(sp.getValue()) + 0.5) / sp.getUniverse().size();
+			} else if (p instanceof PermutationParameter) {
+				//Keys are the element's rank in the base order, so the
+				//permutation is recovered by sorting.
+				List<?> baseUniverse = ((PermutationParameter<?>)tunables.get(i)).getUniverse();
+				List<?> universe = ((PermutationParameter<?>)p).getUniverse();
+				for (int rank = 0; rank < universe.size(); ++rank)
+					point[o + baseUniverse.indexOf(universe.get(rank))] = (rank + 0.5) / universe.size();
+			} else if (p instanceof CompositionParameter) {
+				CompositionParameter cp = (CompositionParameter)p;
+				for (int j = 0; j < cp.getLength(); ++j)
+					point[o + j] = cp.getValue(j);
+			}
+		}
+		return point;
+	}
+
+	/**
+	 * Returns the configuration corresponding to the given point.  Coordinates
+	 * outside [0, 1] are clamped.  Untunable parameters and extra data are
+	 * copied from the base configuration.
+	 * @param point a point
+	 * @return the corresponding configuration
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public Configuration toConfiguration(double[] point) {
+		if (point.length != dimensions())
+			throw new IllegalArgumentException("expected "+dimensions()+" dimensions, got "+point.length);
+		Configuration.Builder builder = Configuration.builder(base);
+		for (int i = 0; i < tunables.size(); ++i) {
+			Parameter p = tunables.get(i);
+			int o = offsets[i];
+			builder.removeParameter(p.getName());
+			if (p instanceof IntParameter) {
+				IntParameter ip = (IntParameter)p;
+				double x = clamp(point[o]);
+				int value;
+				if (logScale(ip))
+					value = (int)Math.round(ip.getMin() * Math.pow((double)ip.getMax()/ip.getMin(), x));
+				else
+					value = ip.getMin() + (int)Math.floor(x * (ip.getMax() - ip.getMin() + 1.0));
+				value = Math.max(ip.getMin(), Math.min(ip.getMax(), value));
+				builder.addParameter(new IntParameter(ip.getName(), ip.getRange(), value));
+			} else if (p instanceof FloatParameter) {
+				FloatParameter fp = (FloatParameter)p;
+				float value = (float)(fp.getMin() + clamp(point[o]) * (fp.getMax() - fp.getMin()));
+				value = Math.max(fp.getMin(), Math.min(fp.getMax(), value));
+				builder.addParameter(new FloatParameter(fp.getName(), fp.getMin(), fp.getMax(), value));
+			} else if (p instanceof SwitchParameter) {
+				SwitchParameter<?> sp = (SwitchParameter<?>)p;
+				builder.addParameter(new SwitchParameter(sp.getName(), sp.getGenericParameter(),
+						sp.getUniverse().get(bucket(point[o], sp.getUniverse().size())), sp.getUniverse()));
+			} else if (p instanceof PermutationParameter) {
+				final PermutationParameter<?> pp = (PermutationParameter<?>)p;
+				final double[] keys = Arrays.copyOfRange(point, o, o + pp.getUniverse().size());
+				Integer[] order = new Integer[keys.length];
+				for (int j = 0; j < order.length; ++j)
+					order[j] = j;
+				Arrays.sort(order, new Comparator<Integer>() {
+					@Override
+					public int compare(Integer a, Integer b) {
+						return Double.compare(keys[a], keys[b]);
+					}
+				});
+				List<Object> permuted = new ArrayList<>(order.length);
+				for (int j : order)
+					permuted.add(pp.getUniverse().get(j));
+				builder.addParameter(new PermutationParameter(pp.getName(), pp.getGenericParameter(), permuted));
+			} else if (p instanceof CompositionParameter) {
+				CompositionParameter cp = (CompositionParameter)p;
+				double[] values = new double[cp.getLength()];
+				double sum = 0;
+				for (int j = 0; j < values.length; ++j)
+					sum += (values[j] = clamp(point[o + j]));
+				for (int j = 0; j < values.length; ++j)
+					values[j] = sum > 0 ? values[j] / sum : 1.0 / values.length;
+				builder.addParameter(new CompositionParameter(cp.getName(), values));
+			} else
+				throw new AssertionError(p);
+		}
+		return builder.build();
+	}
+
+	private static boolean logScale(IntParameter p) {
+		return p.getMin() >= 1 && p.getMax() / p.getMin() >= LOG_SCALE_RATIO;
+	}
+
+	private static int bucket(double x, int buckets) {
+		return Math.min((int)Math.floor(clamp(x) * buckets), buckets - 1);
+	}
+
+	static double clamp(double x) {
+		return Math.max(0, Math.min(1, x));
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < tunables.size(); ++i)
+			sb.append(tunables.get(i).getName()).append('@').append(offsets[i]).append(' ');
+		return sb.append("(").append(dimensions()).append(" dimensions)").toString();
+	}
+}
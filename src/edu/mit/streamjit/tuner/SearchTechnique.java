@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.tuner;
+
+import java.util.Random;
+
+/**
+ * A search technique proposes points in a {@link SearchSpace} to evaluate.
+ * Because trials are evaluated concurrently, a technique may be asked for
+ * several proposals before any of their results are reported, and results
+ * may be reported in any order.
+ */
+interface SearchTechnique {
+	public String name();
+	/**
+	 * Proposes a point to evaluate, or returns null if this technique has
+	 * nothing to propose until more results are reported.  Techniques should
+	 * not modify the returned array after returning it; it identifies the
+	 * trial when reported.
+	 * @param rng the random number generator to use
+	 * @return a point, or null
+	 */
+	public double[] propose(Random rng);
+	/**
+	 * Reports the result of a trial.  All techniques are told about all
+	 * results, including for points proposed by other techniques.
+	 * @param point the point evaluated
+	 * @param time the time per output item (lower is better), or
+	 * Double.POSITIVE_INFINITY if the trial failed
+	 */
+	public void report(double[] point, double time);
+}
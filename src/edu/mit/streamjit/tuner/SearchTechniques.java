@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.tuner;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * The search techniques used by {@link JavaTuner}, modeled after OpenTuner's
+ * techniques of the same names.
+ */
+final class SearchTechniques {
+	private SearchTechniques() {}
+
+	/**
+	 * Base class for techniques that want to know the best point reported so
+	 * far.
+	 */
+	private abstract static class AbstractTechnique implements SearchTechnique {
+		protected final SearchSpace space;
+		private final String name;
+		protected double[] best;
+		protected double bestTime = Double.POSITIVE_INFINITY;
+		protected AbstractTechnique(SearchSpace space, String name) {
+			this.space = space;
+			this.name = name;
+		}
+		@Override
+		public final String name() {
+			return name;
+		}
+		@Override
+		public final void report(double[] point, double time) {
+			if (time < bestTime) {
+				best = point;
+				bestTime = time;
+			}
+			reported(point, time);
+		}
+		protected void reported(double[] point, double time) {}
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * Proposes each of a fixed list of points once.
+	 */
+	static final class Seeds extends AbstractTechnique {
+		private final Deque<double[]> seeds;
+		Seeds(SearchSpace space, List<double[]> seeds) {
+			super(space, "Seeds");
+			this.seeds = new ArrayDeque<>(seeds);
+		}
+		@Override
+		public double[] propose(Random rng) {
+			return seeds.pollFirst();
+		}
+	}
+
+	/**
+	 * DE/rand/1/bin differential evolution.  The population is seeded with
+	 * the first results reported (from any technique), topped up with random
+	 * points if necessary.
+	 */
+	static final class DifferentialEvolution extends AbstractTechnique {
+		private static final double F = 0.5, CR = 0.2;
+		private static final int NO_TARGET = -1;
+		private final int populationSize;
+		private final List<double[]> population = new ArrayList<>();
+		private final List<Double> times = new ArrayList<>();
+		/**
+		 * Maps proposed points to the population index they'll replace if
+		 * they're better, or NO_TARGET for points proposed to fill the
+		 * population.
+		 */
+		private final Map<double[], Integer> pending = new IdentityHashMap<>();
+		private final Set<Integer> busyTargets = new HashSet<>();
+		DifferentialEvolution(SearchSpace space, int populationSize) {
+			super(space, "DifferentialEvolution");
+			this.populationSize = Math.max(populationSize, 4);
+		}
+		@Override
+		public double[] propose(Random rng) {
+			if (population.size() + pending.size() < populationSize) {
+				double[] point = space.randomPoint(rng);
+				pending.put(point, NO_TARGET);
+				return point;
+			}
+			if (population.size() < 4 || busyTargets.size() == population.size())
+				return null;
+
+			int target;
+			do {
+				target = rng.nextInt(population.size());
+			} while (busyTargets.contains(target));
+			int[] abc = new int[3];
+			for (int i = 0; i < abc.length; ++i) {
+				boolean distinct;
+				do {
+					abc[i] = rng.nextInt(population.size());
+					distinct = abc[i] != target;
+					for (int j = 0; j < i; ++j)
+						distinct &= abc[i] != abc[j];
+				} while (!distinct);
+			}
+			double[] t = population.get(target), a = population.get(abc[0]),
+					b = population.get(abc[1]), c = population.get(abc[2]);
+			double[] trial = new double[t.length];
+			int forced = rng.nextInt(trial.length);
+			for (int j = 0; j < trial.length; ++j)
+				trial[j] = j == forced || rng.nextDouble() < CR ?
+						SearchSpace.clamp(a[j] + F * (b[j] - c[j])) : t[j];
+			pending.put(trial, target);
+			busyTargets.add(target);
+			return trial;
+		}
+		@Override
+		protected void reported(double[] point, double time) {
+			Integer target = pending.remove(point);
+			if (target != null && target != NO_TARGET) {
+				busyTargets.remove(target);
+				if (time <= times.get(target)) {
+					population.set(target, point);
+					times.set(target, time);
+				}
+			} else if (population.size() < populationSize) {
+				population.add(point);
+				times.add(time);
+			} else if (target != null) {
+				//A filler point arriving after outside results filled the
+				//population; replace the worst member that isn't in use.
+				int worst = -1;
+				for (int i = 0; i < population.size(); ++i)
+					if (!busyTargets.contains(i) && (worst == -1 || times.get(i) > times.get(worst)))
+						worst = i;
+				if (worst != -1 && time < times.get(worst)) {
+					population.set(worst, point);
+					times.set(worst, time);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Opportunistic compass search around the best point.  Each sweep probes
+	 * one step in each direction along each coordinate (in random order); a
+	 * sweep without improvement halves the step, and the step resets once it
+	 * becomes too small to matter.
+	 */
+	static final class PatternSearch extends AbstractTechnique {
+		private static final double INITIAL_STEP = 0.25, MIN_STEP = 1.0/1024;
+		private final Deque<double[]> probes = new ArrayDeque<>();
+		private double[] center;
+		private double step = INITIAL_STEP;
+		PatternSearch(SearchSpace space) {
+			super(space, "PatternSearch");
+		}
+		@Override
+		public double[] propose(Random rng) {
+			if (best == null)
+				return null;
+			if (center != best) {
+				center = best;
+				sweep(rng);
+			} else if (probes.isEmpty()) {
+				step /= 2;
+				if (step < MIN_STEP)
+					step = INITIAL_STEP;
+				sweep(rng);
+			}
+			return probes.pollFirst();
+		}
+		private void sweep(Random rng) {
+			probes.clear();
+			List<Integer> coordinates = new ArrayList<>(center.length);
+			for (int i = 0; i < center.length; ++i)
+				coordinates.add(i);
+			Collections.shuffle(coordinates, rng);
+			for (int i : coordinates)
+				for (double direction : new double[]{step, -step}) {
+					double value = SearchSpace.clamp(center[i] + direction);
+					if (value == center[i]) continue;
+					double[] probe = center.clone();
+					probe[i] = value;
+					probes.addLast(probe);
+				}
+		}
+	}
+
+	/**
+	 * Mutates the best point by adding Gaussian noise to each coordinate with
+	 * the given probability (and to at least one coordinate).
+	 */
+	static final class GreedyMutation extends AbstractTechnique {
+		private final double mutationRate, sigma;
+		GreedyMutation(SearchSpace space, double mutationRate, double sigma) {
+			super(space, "GreedyMutation");
+			this.mutationRate = mutationRate;
+			this.sigma = sigma;
+		}
+		@Override
+		public double[] propose(Random rng) {
+			if (best == null)
+				return null;
+			double[] point = best.clone();
+			int forced = rng.nextInt(point.length);
+			for (int i = 0; i < point.length; ++i)
+				if (i == forced || rng.nextDouble() < mutationRate)
+					point[i] = SearchSpace.clamp(point[i] + rng.nextGaussian() * sigma);
+			return point;
+		}
+	}
+
+	/**
+	 * Chooses among techniques using a multi-armed bandit with a sliding
+	 * window, crediting a technique when a point it proposed is a new best.
+	 * Techniques are scored by the area under the curve of their credits over
+	 * the window (weighting recent uses more heavily) plus an exploration term,
+	 * as in OpenTuner's AUCBanditMetaTechnique.
+	 */
+	static final class AUCBandit implements SearchTechnique {
+		private static final int WINDOW = 500;
+		private static final double EXPLORATION = 0.05;
+		private final ImmutableList<SearchTechnique> techniques;
+		private final Map<double[], Integer> proposers = new IdentityHashMap<>();
+		private final Deque<Use> history = new ArrayDeque<>();
+		private double bestTime = Double.POSITIVE_INFINITY;
+		AUCBandit(List<? extends SearchTechnique> techniques) {
+			this.techniques = ImmutableList.copyOf(techniques);
+		}
+		private static final class Use {
+			private final int technique;
+			private final boolean improved;
+			private Use(int technique, boolean improved) {
+				this.technique = technique;
+				this.improved = improved;
+			}
+		}
+		@Override
+		public String name() {
+			return "AUCBandit"+techniques;
+		}
+		@Override
+		public double[] propose(Random rng) {
+			List<Integer> order = new ArrayList<>(techniques.size());
+			final double[] scores = new double[techniques.size()];
+			for (int i = 0; i < techniques.size(); ++i) {
+				order.add(i);
+				scores[i] = score(i);
+			}
+			//Shuffle first so ties are broken randomly (sort is stable).
+			Collections.shuffle(order, rng);
+			Collections.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Double.compare(scores[b], scores[a]);
+				}
+			});
+			for (int i : order) {
+				double[] point = techniques.get(i).propose(rng);
+				if (point != null) {
+					proposers.put(point, i);
+					return point;
+				}
+			}
+			return null;
+		}
+		/**
+		 * Returns the name of the technique that proposed the given point,
+		 * which has not yet been reported.
+		 * @param point a point returned from propose()
+		 * @return the proposing technique's name, or null
+		 */
+		public String proposerOf(double[] point) {
+			Integer i = proposers.get(point);
+			return i != null ? techniques.get(i).name() : null;
+		}
+		@Override
+		public void report(double[] point, double time) {
+			boolean improved = time < bestTime;
+			if (improved)
+				bestTime = time;
+			Integer i = proposers.remove(point);
+			if (i != null) {
+				history.addLast(new Use(i, improved));
+				if (history.size() > WINDOW)
+					history.removeFirst();
+			}
+			for (SearchTechnique t : techniques)
+				t.report(point, time);
+		}
+		private double score(int technique) {
+			int uses = 0;
+			double auc = 0;
+			for (Use u : history)
+				if (u.technique == technique) {
+					++uses;
+					if (u.improved)
+						auc += uses;
+				}
+			if (uses == 0)
+				return Double.POSITIVE_INFINITY;
+			auc /= uses * (uses + 1) / 2.0;
+			return auc + EXPLORATION * Math.sqrt(2 * Math.log(history.size()) / uses);
+		}
+		@Override
+		public String toString() {
+			return name();
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An adaptive idle strategy for a thread polling something it can't block on,
+ * such as a Buffer.  Each call to {@link #idle()} without intervening progress
+ * backs off further: first spinning, then yielding, then parking for
+ * exponentially increasing periods up to a maximum.  Call {@link #reset()}
+ * whenever the poll makes progress.
+ *
+ * The maximum park time bounds the latency added when work arrives while the
+ * thread is parked; an idle thread wakes only once per maximum park time.
+ *
+ * Instances are not thread-safe; each polling thread should have its own.
+ */
+public final class Backoff {
+	private static final int SPINS = 64, YIELDS = 16;
+	private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+	private final long maxParkNanos;
+	private int idles;
+	private long parkNanos;
+	public Backoff(long maxPark, TimeUnit unit) {
+		this.maxParkNanos = Math.max(unit.toNanos(maxPark), MIN_PARK_NANOS);
+		reset();
+	}
+
+	/**
+	 * Waits a little, longer each time since the last {@link #reset()}.
+	 * Returns early (without clearing the interrupt status) if the thread is
+	 * interrupted while parked.
+	 */
+	public void idle() {
+		if (idles < SPINS + YIELDS) {
+			if (idles++ >= SPINS)
+				Thread.yield();
+			return;
+		}
+		LockSupport.parkNanos(parkNanos);
+		parkNanos = Math.min(parkNanos * 2, maxParkNanos);
+	}
+
+	/**
+	 * Resets this backoff after progress, so the next {@link #idle()} spins.
+	 */
+	public void reset() {
+		idles = 0;
+		parkNanos = MIN_PARK_NANOS;
+	}
+}
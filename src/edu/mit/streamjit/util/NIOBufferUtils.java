@@ -70,6 +70,19 @@ public final class NIOBufferUtils {
 		ByteBuffer buffer = ByteBuffer.allocateDirect(
 				elements * PrimitiveUtils.sizeof(BUF_TO_PRIM_MAP.get(bufferType)))
 				.order(ByteOrder.nativeOrder());
+		return view(bufferType, buffer);
+	}
+
+	/**
+	 * Returns a view of the given ByteBuffer as the given buffer type (or the
+	 * ByteBuffer itself, if bufferType is ByteBuffer.class).
+	 * @param <T> the buffer type (e.g. FloatBuffer)
+	 * @param bufferType the buffer type token (e.g. FloatBuffer.class)
+	 * @param buffer the ByteBuffer to view
+	 * @return a view of the given buffer
+	 */
+	public static <T extends Buffer> T view(Class<T> bufferType, ByteBuffer buffer) {
+		checkArgument(!bufferType.equals(Buffer.class), "must specify specific buffer type");
 		Buffer ret;
 		if (bufferType == CharBuffer.class) ret = buffer.asCharBuffer();
 		else if (bufferType == ShortBuffer.class) ret = buffer.asShortBuffer();
@@ -22,6 +22,7 @@
 package edu.mit.streamjit.util.affinity;
 
 import com.google.common.collect.ImmutableSet;
+import java.util.BitSet;
 import java.util.Set;
 import org.bridj.Platform;
 
@@ -61,20 +62,17 @@ public final class Affinity {
 		return expand(STRATEGY.getMaximalAffinityMask());
 	}
 
-	private static ImmutableSet<Integer> expand(long mask) {
+	private static ImmutableSet<Integer> expand(BitSet mask) {
 		ImmutableSet.Builder<Integer> builder = ImmutableSet.builder();
-		for (int i = 0; i < Long.SIZE && mask != 0; ++i) {
-			if ((mask & 1) != 0)
-				builder.add(i);
-			mask >>>= 1;
-		}
+		for (int i = mask.nextSetBit(0); i >= 0; i = mask.nextSetBit(i+1))
+			builder.add(i);
 		return builder.build();
 	}
 
-	private static long contract(Set<Integer> cpus) {
-		long mask = 0;
+	private static BitSet contract(Set<Integer> cpus) {
+		BitSet mask = new BitSet();
 		for (int c : cpus)
-			mask |= (1L << c);
+			mask.set(c);
 		return mask;
 	}
 
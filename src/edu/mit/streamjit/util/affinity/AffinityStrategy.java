@@ -21,22 +21,25 @@
  */
 package edu.mit.streamjit.util.affinity;
 
+import java.util.BitSet;
+
 /**
- *
+ * Gets and sets affinity masks, represented as BitSets of CPU numbers so
+ * systems with more than 64 CPUs can be supported where the OS allows.
  * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
  * @since 1/30/2014
  */
 interface AffinityStrategy {
-	public long getThreadAffinity();
-	public void setThreadAffinity(long mask);
+	public BitSet getThreadAffinity();
+	public void setThreadAffinity(BitSet mask);
 
-	public long getProcessAffinity();
-	public void setProcessAffinity(long mask);
+	public BitSet getProcessAffinity();
+	public void setProcessAffinity(BitSet mask);
 
 	/**
 	 * Returns an affinity mask containing all processors in the system this
 	 * thread or process could possibly execute on.
 	 * @return the maximal affinity mask
 	 */
-	public long getMaximalAffinityMask();
+	public BitSet getMaximalAffinityMask();
 }
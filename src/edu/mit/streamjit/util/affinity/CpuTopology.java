@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.util.affinity;
+
+import static com.google.common.base.Preconditions.*;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The socket/core/SMT and last-level cache topology of the CPUs in this
+ * system, read from /sys/devices/system/cpu on Linux.  Where that isn't
+ * available, we assume a flat topology: one socket sharing one cache, with
+ * each CPU its own core.
+ * <p>
+ * Cores and caches are identified by the lowest-numbered CPU in them, so the
+ * identifiers are unique across sockets.
+ */
+public final class CpuTopology {
+	private static final Path SYSFS_CPU = Paths.get("/sys/devices/system/cpu");
+	private final ImmutableSortedSet<Integer> cpus;
+	private final ImmutableMap<Integer, Integer> socket, core, cache;
+	private CpuTopology(ImmutableSortedSet<Integer> cpus, ImmutableMap<Integer, Integer> socket, ImmutableMap<Integer, Integer> core, ImmutableMap<Integer, Integer> cache) {
+		this.cpus = cpus;
+		this.socket = socket;
+		this.core = core;
+		this.cache = cache;
+	}
+
+	private static final class Holder {
+		private static final CpuTopology INSTANCE = detect();
+	}
+
+	/**
+	 * Returns this system's topology (detected on first call).
+	 * @return this system's topology
+	 */
+	public static CpuTopology get() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Returns the online CPUs.
+	 * @return the online CPUs
+	 */
+	public ImmutableSortedSet<Integer> cpus() {
+		return cpus;
+	}
+
+	/**
+	 * Returns the socket (physical package) the given CPU is in.
+	 * @param cpu a CPU
+	 * @return the CPU's socket
+	 */
+	public int socket(int cpu) {
+		return lookup(socket, cpu);
+	}
+
+	/**
+	 * Returns the core the given CPU is a hardware thread of, identified by
+	 * the lowest-numbered CPU in that core.
+	 * @param cpu a CPU
+	 * @return the CPU's core
+	 */
+	public int core(int cpu) {
+		return lookup(core, cpu);
+	}
+
+	/**
+	 * Returns the last-level cache the given CPU shares, identified by the
+	 * lowest-numbered CPU sharing it.
+	 * @param cpu a CPU
+	 * @return the CPU's last-level cache
+	 */
+	public int cache(int cpu) {
+		return lookup(cache, cpu);
+	}
+
+	private static int lookup(Map<Integer, Integer> map, int cpu) {
+		Integer value = map.get(cpu);
+		checkArgument(value != null, "no such CPU: %s", cpu);
+		return value;
+	}
+
+	/**
+	 * Returns the given CPUs in the order threads should be placed on them:
+	 * grouped by socket, then by last-level cache, then by core.  If avoidSmt
+	 * is true, the first hardware thread of every core comes before any core's
+	 * second hardware thread, so SMT siblings are only used when there are
+	 * more threads than cores; otherwise, siblings are adjacent, so
+	 * consecutive threads share a core's private caches.
+	 * @param allowed the CPUs to include (others are ignored)
+	 * @param avoidSmt whether to avoid placing threads on SMT siblings
+	 * @return the CPUs in placement order
+	 */
+	public ImmutableList<Integer> placementOrder(Set<Integer> allowed, final boolean avoidSmt) {
+		List<Integer> order = new ArrayList<>();
+		for (int cpu : cpus)
+			if (allowed.contains(cpu))
+				order.add(cpu);
+		//SMT rank: the index of this CPU among the allowed CPUs in its core.
+		final Map<Integer, Integer> rank = new HashMap<>();
+		Map<Integer, Integer> threadsSeen = new HashMap<>();
+		for (int cpu : order) {
+			Integer seen = threadsSeen.get(core(cpu));
+			rank.put(cpu, seen == null ? 0 : seen);
+			threadsSeen.put(core(cpu), seen == null ? 1 : seen + 1);
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return ComparisonChain.start()
+						.compare(avoidSmt ? rank.get(a) : 0, avoidSmt ? rank.get(b) : 0)
+						.compare(socket(a), socket(b))
+						.compare(cache(a), cache(b))
+						.compare(core(a), core(b))
+						.compare(a, b)
+						.result();
+			}
+		});
+		return ImmutableList.copyOf(order);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int cpu : cpus)
+			sb.append(String.format("cpu%d: socket %d, cache %d, core %d%n", cpu, socket(cpu), cache(cpu), core(cpu)));
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the number of CPUs the kernel could possibly bring online
+	 * (that is, one more than the highest possible CPU number), or the number
+	 * of available processors if that can't be determined.
+	 * @return the number of possible CPUs
+	 */
+	static int possibleCpuCount() {
+		try {
+			return parseCpuList(read(SYSFS_CPU.resolve("possible"))).last() + 1;
+		} catch (IOException | RuntimeException ex) {
+			return Runtime.getRuntime().availableProcessors();
+		}
+	}
+
+	private static CpuTopology detect() {
+		try {
+			ImmutableSortedSet<Integer> cpus = parseCpuList(read(SYSFS_CPU.resolve("online")));
+			ImmutableMap.Builder<Integer, Integer> socket = ImmutableMap.builder(),
+					core = ImmutableMap.builder(),
+					cache = ImmutableMap.builder();
+			for (int cpu : cpus) {
+				Path dir = SYSFS_CPU.resolve("cpu"+cpu);
+				int socketId = Integer.parseInt(read(dir.resolve("topology/physical_package_id")));
+				socket.put(cpu, socketId);
+				core.put(cpu, parseCpuList(read(dir.resolve("topology/thread_siblings_list"))).first());
+				Integer cacheId = lastLevelCache(dir.resolve("cache"));
+				//Without cache info, assume each socket shares one cache.  We
+				//negate to avoid confusion with CPU numbers.
+				cache.put(cpu, cacheId != null ? cacheId : -socketId - 1);
+			}
+			return new CpuTopology(cpus, socket.build(), core.build(), cache.build());
+		} catch (IOException | RuntimeException ex) {
+			return flat();
+		}
+	}
+
+	/**
+	 * Returns the lowest-numbered CPU sharing the highest-level cache in the
+	 * given cpuN/cache directory, or null if there's no cache info.
+	 */
+	private static Integer lastLevelCache(Path cacheDir) throws IOException {
+		if (!Files.isDirectory(cacheDir))
+			return null;
+		int bestLevel = -1;
+		Integer bestCache = null;
+		try (DirectoryStream<Path> indices = Files.newDirectoryStream(cacheDir, "index*")) {
+			for (Path index : indices) {
+				int level = Integer.parseInt(read(index.resolve("level")));
+				if (level > bestLevel) {
+					bestLevel = level;
+					bestCache = parseCpuList(read(index.resolve("shared_cpu_list"))).first();
+				}
+			}
+		}
+		return bestCache;
+	}
+
+	private static CpuTopology flat() {
+		ImmutableSortedSet.Builder<Integer> cpus = ImmutableSortedSet.naturalOrder();
+		ImmutableMap.Builder<Integer, Integer> socket = ImmutableMap.builder(),
+				core = ImmutableMap.builder(),
+				cache = ImmutableMap.builder();
+		for (int cpu = 0; cpu < Runtime.getRuntime().availableProcessors(); ++cpu) {
+			cpus.add(cpu);
+			socket.put(cpu, 0);
+			core.put(cpu, cpu);
+			cache.put(cpu, 0);
+		}
+		return new CpuTopology(cpus.build(), socket.build(), core.build(), cache.build());
+	}
+
+	private static String read(Path path) throws IOException {
+		return new String(Files.readAllBytes(path), StandardCharsets.US_ASCII).trim();
+	}
+
+	/**
+	 * Parses a Linux CPU list, such as "0-3,8,10-11".
+	 * @param list the list to parse
+	 * @return the CPUs in the list
+	 */
+	static ImmutableSortedSet<Integer> parseCpuList(String list) {
+		ImmutableSortedSet.Builder<Integer> cpus = ImmutableSortedSet.naturalOrder();
+		for (String range : list.trim().split(",")) {
+			if (range.isEmpty()) continue;
+			int dash = range.indexOf('-');
+			int first = Integer.parseInt(dash == -1 ? range : range.substring(0, dash));
+			int last = dash == -1 ? first : Integer.parseInt(range.substring(dash+1));
+			for (int cpu = first; cpu <= last; ++cpu)
+				cpus.add(cpu);
+		}
+		return cpus.build();
+	}
+
+	public static void main(String[] args) {
+		System.out.println(get());
+		System.out.println(get().placementOrder(get().cpus(), true));
+	}
+}
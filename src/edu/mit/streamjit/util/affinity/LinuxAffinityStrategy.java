@@ -22,6 +22,8 @@
 package edu.mit.streamjit.util.affinity;
 
 import com.google.common.primitives.Longs;
+import java.util.Arrays;
+import java.util.BitSet;
 import org.bridj.BridJ;
 import org.bridj.CRuntime;
 import org.bridj.LastError;
@@ -30,35 +32,48 @@ import org.bridj.SizeT;
 import org.bridj.ann.Library;
 
 /**
- *
+ * Uses sched_getaffinity and sched_setaffinity, with a cpu_set_t large enough
+ * for all possible CPUs (at least glibc's default 1024) so we can address
+ * systems with more than 64 CPUs.
  * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
  * @since 1/30/2014
  */
 @Library("c")
 @org.bridj.ann.Runtime(CRuntime.class)
 final class LinuxAffinityStrategy implements AffinityStrategy {
+	/**
+	 * The size of our cpu_set_t, in longs.  The kernel rejects masks smaller
+	 * than its CPU count.
+	 */
+	private static final int MASK_LONGS = Math.max(1024, CpuTopology.possibleCpuCount()) / Long.SIZE + 1;
 	LinuxAffinityStrategy() {}
 	@Override
-	public long getThreadAffinity() {
+	public BitSet getThreadAffinity() {
+		return getAffinity(0);
+	}
+
+	private static BitSet getAffinity(int pid) {
 		Pointer<Long> pmask = null;
 		try {
-			pmask = Pointer.allocateLong();
-			int ret = sched_getaffinity(0, new SizeT(Longs.BYTES), pmask);
+			pmask = Pointer.allocateLongs(MASK_LONGS);
+			int ret = sched_getaffinity(pid, new SizeT(MASK_LONGS * Longs.BYTES), pmask);
 			if (ret != 0)
 				throw new RuntimeException();
-			return pmask.get();
+			return BitSet.valueOf(pmask.getLongs(MASK_LONGS));
 		} finally {
 			if (pmask != null) pmask.release();
 		}
 	}
 
 	@Override
-	public void setThreadAffinity(long mask) {
+	public void setThreadAffinity(BitSet mask) {
+		if (mask.length() > MASK_LONGS * Long.SIZE)
+			throw new IllegalArgumentException("CPU out of range: "+mask);
 		Pointer<Long> pmask = null;
 		try {
-			pmask = Pointer.allocateLong();
-			pmask.set(mask);
-			int ret = sched_setaffinity(0, new SizeT(Longs.BYTES), pmask);
+			pmask = Pointer.allocateLongs(MASK_LONGS);
+			pmask.setLongs(Arrays.copyOf(mask.toLongArray(), MASK_LONGS));
+			int ret = sched_setaffinity(0, new SizeT(MASK_LONGS * Longs.BYTES), pmask);
 			if (ret != 0)
 				throw new RuntimeException();
 		} finally {
@@ -67,18 +82,29 @@ final class LinuxAffinityStrategy implements AffinityStrategy {
 	}
 
 	@Override
-	public long getProcessAffinity() {
+	public BitSet getProcessAffinity() {
 		return new NullAffinityStrategy().getProcessAffinity();
 	}
 
 	@Override
-	public void setProcessAffinity(long mask) {
+	public void setProcessAffinity(BitSet mask) {
 		new NullAffinityStrategy().setProcessAffinity(mask);
 	}
 
+	/**
+	 * Returns the online CPUs the process is allowed to run on.  Under taskset
+	 * or a cpuset cgroup that's a subset of the online CPUs, and
+	 * sched_setaffinity fails for the others.  We ask about the main thread
+	 * (whose id is the process id) rather than the calling thread, which may
+	 * already be pinned.
+	 */
 	@Override
-	public long getMaximalAffinityMask() {
-		return new NullAffinityStrategy().getMaximalAffinityMask();
+	public BitSet getMaximalAffinityMask() {
+		BitSet mask = new BitSet();
+		for (int cpu : CpuTopology.get().cpus())
+			mask.set(cpu);
+		mask.and(getAffinity(getpid()));
+		return mask;
 	}
 
 	static {
@@ -86,4 +112,5 @@ final class LinuxAffinityStrategy implements AffinityStrategy {
 	}
 	protected static native int sched_getaffinity(int pid, SizeT cpusetsize, Pointer<Long> mask) throws LastError;
 	protected static native int sched_setaffinity(int pid, SizeT cpusetsize, Pointer<Long> mask) throws LastError;
+	protected static native int getpid();
 }
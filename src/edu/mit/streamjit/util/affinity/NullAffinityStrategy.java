@@ -21,7 +21,7 @@
  */
 package edu.mit.streamjit.util.affinity;
 
-import com.google.common.math.LongMath;
+import java.util.BitSet;
 
 /**
  *
@@ -30,26 +30,28 @@ import com.google.common.math.LongMath;
  */
 final class NullAffinityStrategy implements AffinityStrategy {
 	@Override
-	public long getThreadAffinity() {
+	public BitSet getThreadAffinity() {
 		return getMaximalAffinityMask();
 	}
 	@Override
-	public void setThreadAffinity(long mask) {
+	public void setThreadAffinity(BitSet mask) {
 		//do nothing
 	}
 
 	@Override
-	public long getProcessAffinity() {
+	public BitSet getProcessAffinity() {
 		return getMaximalAffinityMask();
 	}
 
 	@Override
-	public void setProcessAffinity(long mask) {
+	public void setProcessAffinity(BitSet mask) {
 		//do nothing
 	}
 
 	@Override
-	public long getMaximalAffinityMask() {
-		return LongMath.pow(2, Runtime.getRuntime().availableProcessors())-1;
+	public BitSet getMaximalAffinityMask() {
+		BitSet mask = new BitSet();
+		mask.set(0, Runtime.getRuntime().availableProcessors());
+		return mask;
 	}
 }
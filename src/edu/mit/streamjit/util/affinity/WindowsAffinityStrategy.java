@@ -22,6 +22,7 @@
 package edu.mit.streamjit.util.affinity;
 
 import edu.mit.streamjit.util.Pair;
+import java.util.BitSet;
 import org.bridj.BridJ;
 import org.bridj.CRuntime;
 import org.bridj.LastError;
@@ -36,41 +37,56 @@ import org.bridj.ann.Library;
 final class WindowsAffinityStrategy implements AffinityStrategy {
 	WindowsAffinityStrategy() {}
 	@Override
-	public long getThreadAffinity() {
+	public BitSet getThreadAffinity() {
 		Pointer<Long> tbi = null;
 		try {
 			tbi = Pointer.allocateLongs(ntdll.QUADWORD_SIZEOF_THREAD_BASIC_INFORMATION);
 			int ret = ntdll.NtQueryInformationThread(kernel32.GetCurrentThread(), ntdll.THREAD_BASIC_INFORMATION_CLASS, tbi, tbi.getValidBytes(), Pointer.NULL);
 			if (!ntdll.NT_SUCCESS(ret))
 				throw new RuntimeException(Integer.toHexString(ret));
-			return tbi.get(ntdll.AFFINITY_MASK_OFFSET_THREAD_BASIC_INFORMATION);
+			return expand(tbi.get(ntdll.AFFINITY_MASK_OFFSET_THREAD_BASIC_INFORMATION));
 		} finally {
 			if (tbi != null) tbi.release();
 		}
 	}
 
 	@Override
-	public void setThreadAffinity(long mask) {
-		long ret = kernel32.SetThreadAffinityMask(kernel32.GetCurrentThread(), mask);
+	public void setThreadAffinity(BitSet mask) {
+		long ret = kernel32.SetThreadAffinityMask(kernel32.GetCurrentThread(), contract(mask));
 		if (ret == 0)
 			throw new RuntimeException();
 	}
 
 	@Override
-	public long getProcessAffinity() {
-		return getProcessAndSystemAffinityMask().first;
+	public BitSet getProcessAffinity() {
+		return expand(getProcessAndSystemAffinityMask().first);
 	}
 
 	@Override
-	public void setProcessAffinity(long mask) {
-		int ret = kernel32.SetProcessAffinityMask(kernel32.GetCurrentProcess(), mask);
+	public void setProcessAffinity(BitSet mask) {
+		int ret = kernel32.SetProcessAffinityMask(kernel32.GetCurrentProcess(), contract(mask));
 		if (ret == 0)
 			throw new RuntimeException();
 	}
 
 	@Override
-	public long getMaximalAffinityMask() {
-		return getProcessAndSystemAffinityMask().second;
+	public BitSet getMaximalAffinityMask() {
+		return expand(getProcessAndSystemAffinityMask().second);
+	}
+
+	/**
+	 * Converts a BitSet to a Windows affinity mask.  Without processor group
+	 * support, we can only address the first 64 processors.
+	 */
+	private static long contract(BitSet mask) {
+		if (mask.length() > Long.SIZE)
+			throw new IllegalArgumentException("can't address CPUs past 63 on Windows: "+mask);
+		long[] words = mask.toLongArray();
+		return words.length == 0 ? 0 : words[0];
+	}
+
+	private static BitSet expand(long mask) {
+		return BitSet.valueOf(new long[]{mask});
 	}
 
 	private Pair<Long, Long> getProcessAndSystemAffinityMask() {
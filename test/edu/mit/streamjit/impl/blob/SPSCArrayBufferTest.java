@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.blob;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class SPSCArrayBufferTest {
+	@Test(expected = IllegalArgumentException.class)
+	public void readAllRejectsRequestsLargerThanCapacity() {
+		new SPSCArrayBuffer(4).readAll(new Object[5]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void readAllWithOffsetRejectsRequestsLargerThanCapacity() {
+		new SPSCArrayBuffer(4).readAll(new Object[7], 2);
+	}
+
+	@Test
+	public void readAllIsAllOrNothingAcrossWraparound() {
+		//capacity 3 is backed by a length-4 array, so this wraps.
+		SPSCArrayBuffer buffer = new SPSCArrayBuffer(3);
+		for (int round = 0; round < 5; ++round) {
+			assertEquals(2, buffer.write(new Object[]{round, round + 1}, 0, 2));
+			Object[] data = new Object[3];
+			assertFalse(buffer.readAll(data));
+			assertTrue(buffer.write(round + 2));
+			assertTrue(buffer.readAll(data));
+			assertArrayEquals(new Object[]{round, round + 1, round + 2}, data);
+			assertEquals(0, buffer.size());
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.common;
+
+import static org.junit.Assert.*;
+import edu.mit.streamjit.impl.blob.Buffer;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import org.junit.Test;
+
+public class NIOBuffersTest {
+	@Test
+	public void closeWritesOutAndIsIdempotent() throws IOException {
+		StrictChannel channel = new StrictChannel();
+		Buffer writer = NIOBuffers.writer(channel, ByteBuffer.allocate(64), Integer.class);
+		assertTrue(writer.write(1));
+		assertTrue(writer.write(2));
+		((Closeable)writer).close();
+		assertEquals(1, channel.closes);
+		//A second close (e.g., by both the blob host and user code) does nothing.
+		((Closeable)writer).close();
+		assertEquals(1, channel.closes);
+		ByteBuffer written = ByteBuffer.wrap(channel.bytes.toByteArray());
+		assertEquals(8, written.remaining());
+		assertEquals(1, written.getInt());
+		assertEquals(2, written.getInt());
+	}
+
+	/**
+	 * A channel that throws if used, or closed again, after being closed.
+	 */
+	private static final class StrictChannel implements WritableByteChannel {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private int closes = 0;
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			if (closes > 0) throw new ClosedChannelException();
+			int n = src.remaining();
+			while (src.hasRemaining())
+				bytes.write(src.get());
+			return n;
+		}
+		@Override
+		public boolean isOpen() {
+			return closes == 0;
+		}
+		@Override
+		public void close() throws IOException {
+			if (closes > 0) throw new ClosedChannelException();
+			++closes;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.compiler;
+
+import static org.junit.Assert.*;
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ * Checks SDFSolver against hand-solved graphs.  Constraint e is
+ * push[e]*x[up[e]] - pop[e]*x[down[e]] (== 0 or >= atLeast[e]), as in
+ * SDFSolver.
+ */
+public class SDFSolverTest {
+	//A push 2 -> B pop 3 push 1 -> C pop 2
+	private static final int[] PIPE_UP = {0, 1}, PIPE_DOWN = {1, 2},
+			PIPE_PUSH = {2, 1}, PIPE_POP = {3, 2};
+
+	@Test
+	public void multiratePipelineSteadyState() {
+		assertArrayEquals(new int[]{3, 2, 1},
+				SDFSolver.steadyState(3, PIPE_UP, PIPE_DOWN, PIPE_PUSH, PIPE_POP, new int[3]));
+	}
+
+	@Test
+	public void steadyStateScalesToMinExecutions() {
+		assertArrayEquals(new int[]{9, 6, 3},
+				SDFSolver.steadyState(3, PIPE_UP, PIPE_DOWN, PIPE_PUSH, PIPE_POP, new int[]{0, 0, 3}));
+		assertArrayEquals(new int[]{6, 4, 2},
+				SDFSolver.steadyState(3, PIPE_UP, PIPE_DOWN, PIPE_PUSH, PIPE_POP, new int[]{4, 0, 0}));
+	}
+
+	//I push 1 -> S pop 3; S push 1 -> B1 pop 1; S push 2 -> B2 pop 2;
+	//B1 push 1 -> J pop 1; B2 push 1 -> J pop 1; J push 2 -> O pop 4
+	private static final int[] SJ_UP = {0, 1, 1, 2, 3, 4}, SJ_DOWN = {1, 2, 3, 4, 4, 5},
+			SJ_PUSH = {1, 1, 2, 1, 1, 2}, SJ_POP = {3, 1, 2, 1, 1, 4};
+
+	@Test
+	public void splitjoinSteadyState() {
+		assertArrayEquals(new int[]{6, 2, 2, 2, 2, 1},
+				SDFSolver.steadyState(6, SJ_UP, SJ_DOWN, SJ_PUSH, SJ_POP, new int[6]));
+	}
+
+	@Test
+	public void inconsistentRatesGiveUp() {
+		//A -> B -> C at rate 1, but A -> C at rate 1/2.
+		assertNull(SDFSolver.steadyState(3, new int[]{0, 1, 0}, new int[]{1, 2, 2},
+				new int[]{1, 1, 1}, new int[]{1, 1, 2}, new int[3]));
+	}
+
+	@Test
+	public void unconstrainedComponentsGiveUp() {
+		//Two disconnected edges; only the ILP knows which should fire.
+		assertNull(SDFSolver.steadyState(4, new int[]{0, 2}, new int[]{1, 3},
+				new int[]{1, 1}, new int[]{1, 1}, new int[4]));
+		assertArrayEquals(new int[]{2, 2, 1, 1}, SDFSolver.steadyState(4, new int[]{0, 2}, new int[]{1, 3},
+				new int[]{1, 1}, new int[]{1, 1}, new int[]{2, 0, 1, 0}));
+	}
+
+	//A push 1 -> B pop 1 peek 3 push 2 -> C pop 3 peek 4
+	private static final int[] PEEK_UP = {0, 1}, PEEK_DOWN = {1, 2},
+			PEEK_PUSH = {1, 2}, PEEK_POP = {1, 3}, PEEK_DELTA = {3 - 1, 4 - 3};
+
+	@Test
+	public void peekingPipelineInit() {
+		int[] x = SDFSolver.init(3, PEEK_UP, PEEK_DOWN, PEEK_PUSH, PEEK_POP, PEEK_DELTA, new int[3], 1, 0);
+		assertArrayEquals(new int[]{3, 1, 0}, x);
+		assertFeasible(x, PEEK_UP, PEEK_DOWN, PEEK_PUSH, PEEK_POP, PEEK_DELTA, new int[3]);
+		assertLeast(x, PEEK_UP, PEEK_DOWN, PEEK_PUSH, PEEK_POP, PEEK_DELTA, new int[3], 6);
+	}
+
+	@Test
+	public void peekingPipelineInitWithMinExecutions() {
+		int[] min = {0, 0, 2};
+		int[] x = SDFSolver.init(3, PEEK_UP, PEEK_DOWN, PEEK_PUSH, PEEK_POP, PEEK_DELTA, min, 1, 0);
+		//C twice needs 3*2+1 = 7 items from B (4 firings), which needs 4+2 = 6 from A.
+		assertArrayEquals(new int[]{6, 4, 2}, x);
+		assertFeasible(x, PEEK_UP, PEEK_DOWN, PEEK_PUSH, PEEK_POP, PEEK_DELTA, min);
+		assertLeast(x, PEEK_UP, PEEK_DOWN, PEEK_PUSH, PEEK_POP, PEEK_DELTA, min, 8);
+	}
+
+	//The splitjoin above, with B2 peeking 4 (so S must fill 2 extra items).
+	private static final int[] SJ_DELTA = {0, 0, 4 - 2, 0, 0, 0};
+
+	@Test
+	public void peekingSplitjoinInit() {
+		int[] x = SDFSolver.init(6, SJ_UP, SJ_DOWN, SJ_PUSH, SJ_POP, SJ_DELTA, new int[6], 1, 0);
+		assertArrayEquals(new int[]{3, 1, 0, 0, 0, 0}, x);
+		assertFeasible(x, SJ_UP, SJ_DOWN, SJ_PUSH, SJ_POP, SJ_DELTA, new int[6]);
+		assertLeast(x, SJ_UP, SJ_DOWN, SJ_PUSH, SJ_POP, SJ_DELTA, new int[6], 4);
+	}
+
+	@Test
+	public void bufferCostFiresNetConsumers() {
+		//A push 3 -> B pop 1 peek 2; B is a sink, so each firing drains an item.
+		int[] up = {0}, down = {1}, push = {3}, pop = {1}, delta = {2 - 1};
+		assertArrayEquals(new int[]{1, 0}, SDFSolver.init(2, up, down, push, pop, delta, new int[2], 1, 0));
+		int[] x = SDFSolver.init(2, up, down, push, pop, delta, new int[2], 1, 3);
+		assertArrayEquals(new int[]{1, 2}, x);
+		assertFeasible(x, up, down, push, pop, delta, new int[2]);
+	}
+
+	@Test
+	public void bufferCostKeepsConstraints() {
+		int[][] costs = {{1, 1}, {1, 5}, {0, 1}};
+		for (int[] c : costs) {
+			int[] x = SDFSolver.init(3, PEEK_UP, PEEK_DOWN, PEEK_PUSH, PEEK_POP, PEEK_DELTA, new int[3], c[0], c[1]);
+			assertNotNull(x);
+			assertFeasible(x, PEEK_UP, PEEK_DOWN, PEEK_PUSH, PEEK_POP, PEEK_DELTA, new int[3]);
+			x = SDFSolver.init(6, SJ_UP, SJ_DOWN, SJ_PUSH, SJ_POP, SJ_DELTA, new int[6], c[0], c[1]);
+			assertNotNull(x);
+			assertFeasible(x, SJ_UP, SJ_DOWN, SJ_PUSH, SJ_POP, SJ_DELTA, new int[6]);
+		}
+	}
+
+	@Test
+	public void zeroPushInitGivesUp() {
+		assertNull(SDFSolver.init(2, new int[]{0}, new int[]{1}, new int[]{0}, new int[]{1},
+				new int[]{0}, new int[]{0, 1}, 1, 0));
+	}
+
+	private static boolean feasible(int[] x, int[] up, int[] down, int[] push, int[] pop, int[] atLeast, int[] minExecutions) {
+		for (int v = 0; v < x.length; ++v)
+			if (x[v] < 0 || x[v] < minExecutions[v])
+				return false;
+		for (int e = 0; e < up.length; ++e)
+			if ((long)push[e] * x[up[e]] - (long)pop[e] * x[down[e]] < atLeast[e])
+				return false;
+		return true;
+	}
+
+	private static void assertFeasible(int[] x, int[] up, int[] down, int[] push, int[] pop, int[] atLeast, int[] minExecutions) {
+		assertTrue(Arrays.toString(x), feasible(x, up, down, push, pop, atLeast, minExecutions));
+	}
+
+	/**
+	 * Asserts no feasible solution with every entry at most bound fires fewer
+	 * times in total than x.
+	 */
+	private static void assertLeast(int[] x, int[] up, int[] down, int[] push, int[] pop, int[] atLeast, int[] minExecutions, int bound) {
+		int total = 0;
+		for (int v : x)
+			total += v;
+		int[] y = new int[x.length];
+		while (true) {
+			int sum = 0;
+			for (int v : y)
+				sum += v;
+			if (sum < total && feasible(y, up, down, push, pop, atLeast, minExecutions))
+				fail(Arrays.toString(y) + " beats " + Arrays.toString(x));
+			int i = 0;
+			while (i < y.length && y[i] == bound)
+				y[i++] = 0;
+			if (i == y.length)
+				break;
+			++y[i];
+		}
+	}
+}
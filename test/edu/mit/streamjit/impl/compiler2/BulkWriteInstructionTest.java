@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.compiler2;
+
+import static org.junit.Assert.*;
+import com.google.common.collect.ImmutableMap;
+import edu.mit.streamjit.api.Identity;
+import edu.mit.streamjit.impl.blob.Blob.Token;
+import edu.mit.streamjit.impl.blob.Buffer;
+import edu.mit.streamjit.impl.blob.ConcurrentArrayBuffer;
+import edu.mit.streamjit.impl.common.Workers;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Tests that Compiler2.BulkWriteInstruction resumes correctly when the output
+ * buffer only accepts part of the items.
+ */
+public class BulkWriteInstructionTest {
+	@Test
+	public void partialWritesResumeWithoutOverrun() {
+		Integer[] items = new Integer[20];
+		for (int i = 0; i < items.length; ++i)
+			items[i] = i;
+		//Write items [5, 15) through a buffer of capacity 3.
+		ArrayStorage storage = new ArrayStorage(items);
+		Token token = outputToken();
+		Buffer buffer = new ConcurrentArrayBuffer(3);
+		Compiler2.BulkWriteInstruction instruction = new Compiler2.BulkWriteInstruction(token, storage, 5, 10);
+		instruction.init(ImmutableMap.of(token, buffer));
+
+		List<Object> output = new ArrayList<>();
+		int calls = 0;
+		while (!instruction.call()) {
+			drain(buffer, output);
+			assertTrue("no progress", ++calls < 100);
+		}
+		drain(buffer, output);
+		assertEquals(Arrays.<Object>asList(5, 6, 7, 8, 9, 10, 11, 12, 13, 14), output);
+
+		//The instruction resets for the next steady-state iteration.
+		output.clear();
+		while (!instruction.call())
+			drain(buffer, output);
+		drain(buffer, output);
+		assertEquals(Arrays.<Object>asList(5, 6, 7, 8, 9, 10, 11, 12, 13, 14), output);
+	}
+
+	private static Token outputToken() {
+		Identity<Object> worker = new Identity<>();
+		Workers.setIdentifier(worker, 0);
+		return Token.createOverallOutputToken(worker);
+	}
+
+	private static void drain(Buffer buffer, List<Object> output) {
+		Object o;
+		while ((o = buffer.read()) != null)
+			output.add(o);
+	}
+
+	/**
+	 * A BulkReadableConcreteStorage over an array that, like the array-backed
+	 * storage, rejects reads past the end of the range being written.
+	 */
+	private static final class ArrayStorage implements BulkReadableConcreteStorage {
+		private final Integer[] array;
+		private ArrayStorage(Integer[] array) {
+			this.array = array;
+		}
+		@Override
+		public int bulkRead(Buffer dest, int index, int count) {
+			assertTrue(String.format("bulkRead(%d, %d) overruns the range", index, count), index + count <= 15);
+			return dest.write(array, index, count);
+		}
+		@Override
+		public Class<?> type() {
+			return Integer.class;
+		}
+		@Override
+		public void adjust() {
+		}
+		@Override
+		public void sync() {
+		}
+		@Override
+		public MethodHandle readHandle() {
+			return MethodHandles.arrayElementGetter(Integer[].class).bindTo(array);
+		}
+		@Override
+		public MethodHandle writeHandle() {
+			return MethodHandles.arrayElementSetter(Integer[].class).bindTo(array);
+		}
+		@Override
+		public MethodHandle adjustHandle() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.compiler2;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests Compiler2's splitting of boundary indices into runs for bulk reads
+ * and writes.
+ */
+public class Compiler2Test {
+	@Test
+	public void emptyIndicesHaveNoRuns() {
+		assertArrayEquals(new int[0], Compiler2.runs(new int[0]));
+	}
+
+	@Test
+	public void contiguousIndicesAreOneRun() {
+		assertArrayEquals(new int[]{5, 4}, Compiler2.runs(new int[]{5, 6, 7, 8}));
+	}
+
+	@Test
+	public void roundrobinIndicesSplitIntoWindows() {
+		//weight 3 of 8: 0 1 2, 8 9 10, 16 17 18
+		assertArrayEquals(new int[]{0, 3, 8, 3, 16, 3}, Compiler2.runs(new int[]{0, 1, 2, 8, 9, 10, 16, 17, 18}));
+	}
+
+	@Test
+	public void runsFollowLogicalOrder() {
+		//Decreasing and repeated indices start new runs.
+		assertArrayEquals(new int[]{4, 2, 2, 1, 2, 2, 0, 1}, Compiler2.runs(new int[]{4, 5, 2, 2, 3, 0}));
+	}
+
+	@Test
+	public void singletonsAreRunsOfOne() {
+		assertArrayEquals(new int[]{0, 1, 2, 1, 4, 1}, Compiler2.runs(new int[]{0, 2, 4}));
+	}
+}
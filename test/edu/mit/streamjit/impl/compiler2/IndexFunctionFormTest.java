@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.compiler2;
+
+import static org.junit.Assert.*;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.Range;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import org.junit.Test;
+
+/**
+ * Tests that IndexFunctionForm's closed-form spans match enumeration.
+ */
+public class IndexFunctionFormTest {
+	@Test
+	public void roundrobinOneOne() {
+		checkSpans(roundrobin(1, 0, 2));
+		checkSpans(roundrobin(1, 1, 2));
+	}
+
+	@Test
+	public void roundrobinEightEight() {
+		MethodHandle first = roundrobin(8, 0, 16), second = roundrobin(8, 8, 16);
+		//Within a window these look like the identity (shifted).
+		assertEquals(Range.closed(0, 119).canonical(DiscreteDomain.integers()), IndexFunctionForm.span(first, 0, 64));
+		assertEquals(Range.closed(8, 127).canonical(DiscreteDomain.integers()), IndexFunctionForm.span(second, 0, 64));
+		assertEquals(8, IndexFunctionForm.of(first).period());
+		assertEquals(16, IndexFunctionForm.of(first).stride());
+		checkSpans(first);
+		checkSpans(second);
+	}
+
+	@Test
+	public void roundrobinThreeFive() {
+		checkSpans(roundrobin(3, 0, 8));
+		checkSpans(roundrobin(5, 3, 8));
+	}
+
+	@Test
+	public void adderCompositions() {
+		MethodHandle rr = roundrobin(3, 0, 8);
+		//rr(i + 7), as when shifting past the init schedule
+		checkSpans(IndexFunctionForm.compose(adder(7), rr));
+		//rr(i) + 7
+		checkSpans(IndexFunctionForm.compose(rr, adder(7)));
+		checkSpans(IndexFunctionForm.compose(adder(7), IndexFunctionForm.identity()));
+	}
+
+	@Test
+	public void roundrobinCompositions() {
+		//A splitter's transfer function feeding a joiner's.
+		MethodHandle splitter = roundrobin(3, 0, 8), joiner = roundrobin(5, 3, 8);
+		checkSpans(IndexFunctionForm.compose(splitter, joiner));
+		checkSpans(IndexFunctionForm.compose(joiner, splitter));
+		checkSpans(IndexFunctionForm.compose(roundrobin(8, 0, 16), roundrobin(1, 1, 2)));
+		checkSpans(IndexFunctionForm.compose(IndexFunctionForm.compose(adder(4), roundrobin(1, 0, 2)), roundrobin(3, 0, 8)));
+	}
+
+	@Test
+	public void noFormForNegativeInner() {
+		//g is only defined on nonnegative indices.
+		MethodHandle h = IndexFunctionForm.compose(adder(-3), roundrobin(3, 0, 8));
+		assertNull(IndexFunctionForm.of(h));
+		assertEquals(enumerate(h, 5, 40), IndexFunctionForm.span(h, 5, 40));
+	}
+
+	@Test
+	public void unregisteredFunctionsAreEnumerated() throws Exception {
+		MethodHandle square = MethodHandles.lookup().findStatic(IndexFunctionFormTest.class, "square",
+				MethodType.methodType(int.class, int.class));
+		assertNull(IndexFunctionForm.of(square));
+		assertEquals(Range.closed(4, 81).canonical(DiscreteDomain.integers()), IndexFunctionForm.span(square, 2, 10));
+	}
+
+	/**
+	 * Checks the span of many ranges, including ones much longer than the
+	 * period, against enumeration.
+	 */
+	private static void checkSpans(MethodHandle f) {
+		assertNotNull(IndexFunctionForm.of(f));
+		int[] points = {0, 1, 2, 3, 5, 7, 8, 13, 16, 31, 64, 100, 257, 1000};
+		for (int begin : points)
+			for (int end : points)
+				if (begin < end)
+					assertEquals(f+" ["+begin+", "+end+")", enumerate(f, begin, end), IndexFunctionForm.span(f, begin, end));
+		for (int i = 0; i < 1000; ++i)
+			assertEquals(evaluate(f, i), IndexFunctionForm.of(f).apply(i));
+	}
+
+	private static Range<Integer> enumerate(MethodHandle f, int begin, int end) {
+		int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+		for (int i = begin; i < end; ++i) {
+			min = Math.min(min, evaluate(f, i));
+			max = Math.max(max, evaluate(f, i));
+		}
+		return Range.closed(min, max).canonical(DiscreteDomain.integers());
+	}
+
+	private static int evaluate(MethodHandle f, int i) {
+		try {
+			return (int)f.invokeExact(i);
+		} catch (Throwable ex) {
+			throw new AssertionError(ex);
+		}
+	}
+
+	private static MethodHandle roundrobin(int weight, int prefixSum, int N) {
+		return IndexFunctionForm.register(MethodHandles.insertArguments(ROUNDROBIN, 0, weight, prefixSum, N),
+				IndexFunctionForm.roundrobin(weight, prefixSum, N));
+	}
+
+	private static MethodHandle adder(int k) {
+		return IndexFunctionForm.register(MethodHandles.insertArguments(ADD, 0, k), IndexFunctionForm.adder(k));
+	}
+
+	private static final MethodHandle ROUNDROBIN, ADD;
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			ROUNDROBIN = lookup.findStatic(IndexFunctionFormTest.class, "_roundrobin",
+					MethodType.methodType(int.class, int.class, int.class, int.class, int.class));
+			ADD = lookup.findStatic(IndexFunctionFormTest.class, "_add",
+					MethodType.methodType(int.class, int.class, int.class));
+		} catch (NoSuchMethodException | IllegalAccessException ex) {
+			throw new AssertionError(ex);
+		}
+	}
+	//Same as Compiler2._roundrobinTransferFunction.
+	private static int _roundrobin(int weight, int prefixSum, int N, int i) {
+		return N*(i/weight) + prefixSum + (i % weight);
+	}
+	private static int _add(int k, int i) {
+		return k + i;
+	}
+	private static int square(int i) {
+		return i * i;
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.compiler2;
+
+import static org.junit.Assert.*;
+import com.google.common.collect.ImmutableSet;
+import edu.mit.streamjit.api.CompiledStream;
+import edu.mit.streamjit.api.Filter;
+import edu.mit.streamjit.api.Identity;
+import edu.mit.streamjit.api.Input;
+import edu.mit.streamjit.api.OneToOneElement;
+import edu.mit.streamjit.api.Output;
+import edu.mit.streamjit.api.Pipeline;
+import edu.mit.streamjit.api.Worker;
+import edu.mit.streamjit.impl.blob.Blob.Token;
+import edu.mit.streamjit.impl.common.Configuration;
+import edu.mit.streamjit.impl.common.ConnectWorkersVisitor;
+import edu.mit.streamjit.impl.common.Workers;
+import edu.mit.streamjit.impl.compiler2.InternalStorageAliasing.Lifetime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Tests InternalStorageAliasing's lifetime overlap rules, which decide which
+ * storage may share backing arrays.
+ */
+public class InternalStorageAliasingTest {
+	@Test
+	public void differentCoresOverlap() {
+		ActorGroup g = group(0), h = group(1);
+		assertTrue(new Lifetime(g, 0, 0, 0, 0, 0).overlaps(new Lifetime(h, 1, 1, 1, 0, 0)));
+	}
+
+	@Test
+	public void groupsWithDisjointAllocationsDontOverlap() {
+		ActorGroup g = group(0), h = group(1);
+		Lifetime first = new Lifetime(g, 0, 0, 1, 0, 2), second = new Lifetime(h, 0, 2, 3, 0, 2);
+		assertFalse(first.overlaps(second));
+		assertFalse(second.overlaps(first));
+	}
+
+	@Test
+	public void groupsWithInterleavedAllocationsOverlap() {
+		ActorGroup g = group(0), h = group(1);
+		Lifetime first = new Lifetime(g, 0, 0, 2, 0, 2), second = new Lifetime(h, 0, 1, 1, 0, 2);
+		assertTrue(first.overlaps(second));
+		assertTrue(second.overlaps(first));
+	}
+
+	@Test
+	public void disjointActorPositionsInOneGroupDontOverlap() {
+		//a0 -> s -> a1, a2 -> t -> a3
+		ActorGroup g = group(0);
+		Lifetime s = new Lifetime(g, 0, 0, 0, 0, 1), t = new Lifetime(g, 0, 0, 0, 2, 3);
+		assertFalse(s.overlaps(t));
+		assertFalse(t.overlaps(s));
+	}
+
+	@Test
+	public void storageSharingAnActorOverlaps() {
+		//a0 -> s -> a1 -> t -> a2: a1 reads s while writing t.
+		ActorGroup g = group(0);
+		Lifetime s = new Lifetime(g, 0, 0, 0, 0, 1), t = new Lifetime(g, 0, 0, 0, 1, 2);
+		assertTrue(s.overlaps(t));
+		assertTrue(t.overlaps(s));
+	}
+
+	/**
+	 * A linear chain runs at its head's position, reading its input storage
+	 * while writing its output storage, so those mustn't share an array even
+	 * though the chain's head and tail are at disjoint positions.
+	 */
+	@Test
+	public void linearChainStorageIsNotAliased() throws Exception {
+		List<Float> input = new ArrayList<>();
+		for (int i = -500; i < 500; ++i)
+			input.add((float)i);
+		List<Float> expected = run(input, false), actual = run(input, true);
+		assertFalse(expected.isEmpty());
+		assertEquals(expected, actual);
+	}
+
+	private static List<Float> run(List<Float> input, boolean optimize) throws Exception {
+		//Identifiers are assigned in graph order, so a fresh copy of the
+		//stream gets the same ones as the one we compile.
+		OneToOneElement<Float, Float> prototype = makeStream();
+		ConnectWorkersVisitor cwv = new ConnectWorkersVisitor();
+		prototype.visit(cwv);
+		ImmutableSet<Worker<?, ?>> workers = Workers.getAllWorkersInGraph(cwv.getSource());
+		Configuration.Builder builder = Configuration.builder(new Compiler2BlobFactory().getDefaultConfiguration(workers));
+		replace(builder, Configuration.SwitchParameter.create("LinearOptimization", optimize));
+		replace(builder, Configuration.SwitchParameter.create("AliasInternalStorage", optimize));
+		//Run each group on one core; multicore groups are never aliased.
+		for (Worker<?, ?> w : workers) {
+			String name = "Group"+Workers.getIdentifier(w)+"CoreCount";
+			Configuration.IntParameter old = (Configuration.IntParameter)builder.removeParameter(name);
+			builder.addParameter(new Configuration.IntParameter(name, old.getRange(), 1));
+		}
+
+		List<Float> output = new ArrayList<>();
+		CompiledStream stream = new Compiler2StreamCompiler().configuration(builder.build())
+				.compile(makeStream(), Input.fromIterable(input), Output.toCollection(output));
+		stream.awaitDrained(30, TimeUnit.SECONDS);
+		return output;
+	}
+
+	private static void replace(Configuration.Builder builder, Configuration.Parameter parameter) {
+		builder.removeParameter(parameter.getName());
+		builder.addParameter(parameter);
+	}
+
+	/**
+	 * abs, then a chain of two linear filters (the first pushing more than it
+	 * pops, so its output would overwrite unread input), then abs.  All
+	 * coefficients are small integers, so the combined chain is exact.
+	 */
+	private static OneToOneElement<Float, Float> makeStream() {
+		return new Pipeline<>(new AbsFilter(), new SpreadFilter(), new AffineFilter(), new AbsFilter());
+	}
+
+	private static final class AbsFilter extends Filter<Float, Float> {
+		private AbsFilter() {
+			super(1, 1);
+		}
+		@Override
+		public void work() {
+			push(Math.abs(pop()));
+		}
+	}
+
+	private static final class SpreadFilter extends Filter<Float, Float> {
+		private SpreadFilter() {
+			super(1, 3);
+		}
+		@Override
+		public void work() {
+			float x = pop();
+			push(x);
+			push(2 * x + 1);
+			push(-x);
+		}
+	}
+
+	private static final class AffineFilter extends Filter<Float, Float> {
+		private AffineFilter() {
+			super(1, 1);
+		}
+		@Override
+		public void work() {
+			push(3 * pop() - 7);
+		}
+	}
+
+	private static ActorGroup group(int id) {
+		Identity<Object> worker = new Identity<>();
+		Workers.setIdentifier(worker, id);
+		return ActorGroup.of(new TokenActor(Token.createOverallInputToken(worker), -1 - id));
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.compiler2;
+
+import static org.junit.Assert.*;
+import com.google.common.collect.ImmutableList;
+import edu.mit.streamjit.api.Filter;
+import edu.mit.streamjit.api.Worker;
+import edu.mit.streamjit.impl.common.Workers;
+import edu.mit.streamjit.util.bytecode.Module;
+import edu.mit.streamjit.util.bytecode.ModuleClassLoader;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * Tests that LinearAnalysis accepts linear filters and rejects nonlinear ones,
+ * including those that look linear on small inputs.
+ */
+public class LinearAnalysisTest {
+	private static final AtomicInteger PACKAGE_NUMBER = new AtomicInteger();
+
+	@Test
+	public void firIsLinear() {
+		LinearAnalysis.Form form = analyze(new FIRFilter(new float[]{0.25f, 0, 0.5f, 0.25f}));
+		assertNotNull(form);
+		assertEquals(4, form.peek());
+		assertEquals(1, form.pop());
+		assertEquals(1, form.push());
+		assertEquals(3, form.nonzeros());
+	}
+
+	@Test
+	public void affineIsLinear() {
+		assertNotNull(analyze(new AffineFilter()));
+	}
+
+	@Test
+	public void clippingByCallIsNotLinear() {
+		//Identical to the identity on the probed inputs.
+		assertNull(analyze(new MinFilter()));
+	}
+
+	@Test
+	public void clippingByBranchIsNotLinear() {
+		assertNull(analyze(new BranchFilter()));
+	}
+
+	@Test
+	public void squaringIsNotLinear() {
+		assertNull(analyze(new SquareFilter()));
+	}
+
+	@Test
+	public void combiningFirWithAffine() {
+		LinearAnalysis.Form a = analyze(new FIRFilter(new float[]{1, 2})),
+				b = analyze(new AffineFilter());
+		//Two firings of a feed one firing of b:
+		//y = 2(x0 + 2x1) - (x1 + 2x2) + 1 = 2x0 + 3x1 - 4x2 + 1.
+		LinearAnalysis.Form combined = a.expand(2).andThen(b);
+		assertEquals(3, combined.peek());
+		assertEquals(2, combined.pop());
+		assertEquals(1, combined.push());
+		assertEquals(3, combined.nonzeros());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static LinearAnalysis.Form analyze(Filter<Float, Float> filter) {
+		Workers.setIdentifier(filter, 0);
+		Module module = new Module();
+		ActorArchetype archetype = new ActorArchetype((Class<? extends Worker<?, ?>>)filter.getClass(), module);
+		WorkerActor actor = new WorkerActor(filter, archetype);
+		archetype.generateCode("linearanalysistest"+PACKAGE_NUMBER.getAndIncrement(), new ModuleClassLoader(module),
+				ImmutableList.of(actor), ImmutableList.<WorkerActor>of());
+		actor.setStateHolder(archetype.makeStateHolder(actor));
+		return LinearAnalysis.analyze(actor);
+	}
+
+	private static final class FIRFilter extends Filter<Float, Float> {
+		private final float[] coeff;
+		private FIRFilter(float[] coeff) {
+			super(1, 1, coeff.length);
+			this.coeff = coeff;
+		}
+		@Override
+		public void work() {
+			float sum = 0;
+			for (int i = 0; i < coeff.length; ++i)
+				sum += peek(i) * coeff[i];
+			push(sum);
+			pop();
+		}
+	}
+
+	private static final class AffineFilter extends Filter<Float, Float> {
+		private AffineFilter() {
+			super(2, 1);
+		}
+		@Override
+		public void work() {
+			push(2 * pop() - pop() + 1);
+		}
+	}
+
+	private static final class MinFilter extends Filter<Float, Float> {
+		private MinFilter() {
+			super(1, 1);
+		}
+		@Override
+		public void work() {
+			push(Math.min(pop(), 10));
+		}
+	}
+
+	private static final class BranchFilter extends Filter<Float, Float> {
+		private BranchFilter() {
+			super(1, 1);
+		}
+		@Override
+		public void work() {
+			float x = pop();
+			push(x > 10 ? 10 : x);
+		}
+	}
+
+	private static final class SquareFilter extends Filter<Float, Float> {
+		private SquareFilter() {
+			super(1, 1);
+		}
+		@Override
+		public void work() {
+			float x = pop();
+			push(x * x);
+		}
+	}
+}
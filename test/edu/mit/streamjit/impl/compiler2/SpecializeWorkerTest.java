@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.impl.compiler2;
+
+import static org.junit.Assert.*;
+import com.google.common.collect.ImmutableSet;
+import edu.mit.streamjit.api.CompiledStream;
+import edu.mit.streamjit.api.Filter;
+import edu.mit.streamjit.api.Input;
+import edu.mit.streamjit.api.OneToOneElement;
+import edu.mit.streamjit.api.Output;
+import edu.mit.streamjit.api.Pipeline;
+import edu.mit.streamjit.api.Worker;
+import edu.mit.streamjit.impl.common.Configuration;
+import edu.mit.streamjit.impl.common.ConnectWorkersVisitor;
+import edu.mit.streamjit.impl.common.Workers;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Tests that specializing workers (the SpecializeWorker<id> parameters) doesn't
+ * change a stream's output.
+ */
+public class SpecializeWorkerTest {
+	@Test
+	public void defaultConfigurationHasSpecializeParameters() {
+		OneToOneElement<Float, Float> stream = makeStream();
+		ConnectWorkersVisitor cwv = new ConnectWorkersVisitor();
+		stream.visit(cwv);
+		ImmutableSet<Worker<?, ?>> workers = Workers.getAllWorkersInGraph(cwv.getSource());
+		Configuration config = new Compiler2BlobFactory().getDefaultConfiguration(workers);
+		for (Worker<?, ?> w : workers) {
+			Configuration.SwitchParameter<Boolean> param = config.getParameter("SpecializeWorker"+Workers.getIdentifier(w), Configuration.SwitchParameter.class, Boolean.class);
+			assertNotNull(param);
+			assertFalse(param.getValue());
+		}
+	}
+
+	@Test
+	public void specializedFirMatchesUnspecialized() throws Exception {
+		List<Float> input = new ArrayList<>();
+		for (int i = 0; i < 1000; ++i)
+			input.add((float)Math.sin(i / 10.0));
+		List<Float> expected = run(input, false), actual = run(input, true);
+		assertFalse(expected.isEmpty());
+		assertEquals(expected, actual);
+	}
+
+	private static List<Float> run(List<Float> input, boolean specialize) throws Exception {
+		//Identifiers are assigned in graph order, so a fresh copy of the
+		//stream gets the same ones as the one we compile.
+		OneToOneElement<Float, Float> prototype = makeStream();
+		ConnectWorkersVisitor cwv = new ConnectWorkersVisitor();
+		prototype.visit(cwv);
+		ImmutableSet<Worker<?, ?>> workers = Workers.getAllWorkersInGraph(cwv.getSource());
+		Configuration.Builder builder = Configuration.builder(new Compiler2BlobFactory().getDefaultConfiguration(workers));
+		for (Worker<?, ?> w : workers) {
+			String name = "SpecializeWorker"+Workers.getIdentifier(w);
+			builder.removeParameter(name);
+			builder.addParameter(Configuration.SwitchParameter.create(name, specialize));
+		}
+
+		List<Float> output = new ArrayList<>();
+		CompiledStream stream = new Compiler2StreamCompiler().configuration(builder.build())
+				.compile(makeStream(), Input.fromIterable(input), Output.toCollection(output));
+		stream.awaitDrained(30, TimeUnit.SECONDS);
+		return output;
+	}
+
+	private static OneToOneElement<Float, Float> makeStream() {
+		return new Pipeline<>(
+				new FIRFilter(new float[]{0.25f, 0.5f, 0.25f}),
+				new FIRFilter(new float[]{1, -2, 3, -4, 5, -6, 7, -8}));
+	}
+
+	private static final class FIRFilter extends Filter<Float, Float> {
+		private final float[] coeff;
+		private final int taps;
+		private FIRFilter(float[] coeff) {
+			super(1, 1, coeff.length);
+			this.coeff = coeff;
+			this.taps = coeff.length;
+		}
+		@Override
+		public void work() {
+			float sum = 0;
+			for (int i = 0; i < taps; ++i)
+				sum += peek(i) * coeff[i];
+			push(sum);
+			pop();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2013-2014 Massachusetts Institute of Technology
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package edu.mit.streamjit.util.affinity;
+
+import static org.junit.Assert.*;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import java.util.List;
+import org.junit.Test;
+
+public class CpuTopologyTest {
+	@Test
+	public void parseSingleCpu() {
+		assertEquals(ImmutableSortedSet.of(5), CpuTopology.parseCpuList("5"));
+	}
+
+	@Test
+	public void parseRangesAndSingletons() {
+		assertEquals(ImmutableSortedSet.of(0, 1, 2, 3, 8, 10, 11), CpuTopology.parseCpuList("0-3,8,10-11"));
+	}
+
+	@Test
+	public void parseToleratesWhitespaceAndEmptyEntries() {
+		//sysfs files end in a newline; empty lists (e.g., "offline") are blank.
+		assertEquals(ImmutableSortedSet.of(2, 3), CpuTopology.parseCpuList("2-3\n"));
+		assertEquals(ImmutableSortedSet.<Integer>of(), CpuTopology.parseCpuList("\n"));
+		assertEquals(ImmutableSortedSet.of(1, 4), CpuTopology.parseCpuList("1,,4"));
+	}
+
+	@Test
+	public void parseUnorderedAndOverlappingRanges() {
+		assertEquals(ImmutableSortedSet.of(0, 1, 2, 3, 4), CpuTopology.parseCpuList("3-4,0-3"));
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void parseRejectsGarbage() {
+		CpuTopology.parseCpuList("0-x");
+	}
+
+	@Test
+	public void placementOrderOnlyUsesAllowedCpus() {
+		CpuTopology topology = CpuTopology.get();
+		int first = topology.cpus().first();
+		List<Integer> order = topology.placementOrder(ImmutableSet.of(first, -1), true);
+		assertEquals(ImmutableSet.of(first), ImmutableSet.copyOf(order));
+	}
+}